@@ -1,20 +1,32 @@
 package io.left.ripple;
 
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.IBinder;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.Toast;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
-import androidx.lifecycle.ViewModelProviders;
+import androidx.lifecycle.Lifecycle;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import io.left.rightmesh.id.MeshId;
+import io.left.ripple.load.LoadConfig;
+import io.left.ripple.metrics.Tracer;
+import io.left.ripple.probe.ProbeReportWriter;
 import io.left.ripple.views.CustomViewRightMeshRecipient;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
 
 /**
  * A simple activity to demonstrate the movement of data through a RightMesh mesh network.
@@ -22,8 +34,19 @@ import io.left.ripple.views.CustomViewRightMeshRecipient;
  * Initializes the RightMesh library, allows users to change the background colour of the app,
  * then propagate that new background colour out to another peer on the mesh, changing the
  * background colour of the peers that transmit the message along the way.
+ *
+ * The mesh itself runs in {@link RippleService}, which the activity starts and binds to; the views
+ * are wired up once the service is connected.
  */
 public class MainActivity extends AppCompatActivity {
+    private static final String TAG = MainActivity.class.getCanonicalName();
+    // Time between two rounds of latency probes.
+    private static final long PROBE_INTERVAL_MS = 1000;
+    // Intent extras that start a load test, see startLoadFromIntent().
+    static final String EXTRA_LOAD_PREFIX = "load.";
+    static final String EXTRA_LOAD_CONFIG = "load.config";
+    private static final long MILLIS_PER_SECOND = 1000;
+
     MainViewModel viewModel;
 
     // Responsible for allowing the user to select the ping recipient.
@@ -36,9 +59,27 @@ public class MainActivity extends AppCompatActivity {
     Button buttonBlue;
     @SuppressFBWarnings("UWF_FIELD_NOT_INITIALIZED_IN_CONSTRUCTOR")
     View layoutBackground;
+    // Whether the launch intent may still start a load test, see startLoadFromIntent().
+    private boolean loadPending;
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            RippleService.LocalBinder binder = (RippleService.LocalBinder) service;
+            // Stopping the relay from its notification closes the app, which unbinds from it.
+            binder.setOnStopListener(MainActivity.this::finish);
+            bindViewModel(binder.getViewModel());
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            // The service runs in this process, so this only happens if the process dies.
+            Log.e(TAG, "Disconnected from the relay service");
+        }
+    };
 
     /**
-     * Set Android UI event handlers and connect to the RightMesh library when the
+     * Start the relay service, which connects to the RightMesh library, and bind to it when the
      * activity initializes.
      */
     @Override
@@ -52,8 +93,20 @@ public class MainActivity extends AppCompatActivity {
         buttonRed = findViewById(R.id.button_red);
         buttonBlue = findViewById(R.id.button_blue);
         buttonGreen = findViewById(R.id.button_green);
+        recipientView = findViewById(R.id.rightmesh_recipient);
+
+        loadPending = savedInstanceState == null;
+        RippleService.start(this);
+        bindService(new Intent(this, RippleService.class), serviceConnection, BIND_AUTO_CREATE);
+    }
 
-        initViewModel(savedInstanceState);
+    /**
+     * Set Android UI event handlers once the view model of the relay service is known.
+     *
+     * @param viewModel the service's {@link MainViewModel}
+     */
+    private void bindViewModel(MainViewModel viewModel) {
+        this.viewModel = viewModel;
         observeViewModel();
 
         // Display the RightMesh settings activity when the send button is tapped and held.
@@ -64,14 +117,120 @@ public class MainActivity extends AppCompatActivity {
 
         fabSend.setOnClickListener(this::sendSingleMsg);
         fabSendAll.setOnClickListener(this::sendAllRecipients);
+        // Probe the latency to every peer when the send all button is tapped and held.
+        fabSendAll.setOnLongClickListener(v -> {
+            showProbeSummary();
+            return true;
+        });
 
         buttonRed.setOnClickListener(this::colorButtonClick);
         buttonGreen.setOnClickListener(this::colorButtonClick);
         buttonBlue.setOnClickListener(this::colorButtonClick);
 
         // Set up the recipient selection spinner.
-        recipientView = findViewById(R.id.rightmesh_recipient);
+        recipientView.setPeerRegistry(viewModel.getPeerRegistry());
         recipientView.setOnRecipientChangedListener(recipient -> viewModel.setRecipient(recipient));
+
+        if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+            viewModel.setUiAttached(true);
+        }
+        if (loadPending) {
+            loadPending = false;
+            startLoadFromIntent();
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (viewModel != null) {
+            viewModel.setUiAttached(true);
+        }
+    }
+
+    /**
+     * Start a load test if the launch intent asks for one, so it can run without touching the
+     * screen, e.g.
+     * {@code adb shell am start -n io.left.ripple/.MainActivity --es load.rate 20
+     * --es load.rate_end 200 --es load.duration_s 120 --es load.targets all}.
+     * Extras named {@code load.<key>} set the keys of {@link LoadConfig}, and
+     * {@value #EXTRA_LOAD_CONFIG} names a properties file to read them from first. The test
+     * starts after {@link LoadConfig#START_DELAY}, once peers had time to be discovered.
+     */
+    private void startLoadFromIntent() {
+        Bundle extras = getIntent().getExtras();
+        if (extras == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (String key : extras.keySet()) {
+            if (key.startsWith(EXTRA_LOAD_PREFIX) && !key.equals(EXTRA_LOAD_CONFIG)) {
+                properties.setProperty(key.substring(EXTRA_LOAD_PREFIX.length()),
+                        String.valueOf(extras.get(key)));
+            }
+        }
+        String configFile = extras.getString(EXTRA_LOAD_CONFIG);
+        if (configFile == null && properties.isEmpty()) {
+            return;
+        }
+
+        LoadConfig config;
+        try {
+            if (configFile != null) {
+                Properties fromFile = LoadConfig.readProperties(new File(configFile));
+                fromFile.putAll(properties);
+                properties = fromFile;
+            }
+            config = LoadConfig.fromProperties(properties);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Invalid load test configuration, with message: " + e.getMessage());
+            Toast.makeText(this, e.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+        layoutBackground.postDelayed(() -> viewModel.startLoad(config, getFilesDir()),
+                (long) (config.getStartDelaySeconds() * MILLIS_PER_SECOND));
+    }
+
+    /**
+     * Save the metrics, the trace if tracing is on and the probe results while probing, to
+     * app-private storage whenever the activity leaves the screen, and stop updating the views.
+     * The service keeps relaying.
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (viewModel == null) {
+            return;
+        }
+        viewModel.setUiAttached(false);
+        viewModel.exportMetrics(getFilesDir());
+        viewModel.exportTrace(getFilesDir());
+        if (viewModel.isProbing()) {
+            viewModel.exportProbes(getFilesDir());
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        unbindService(serviceConnection);
+        super.onDestroy();
+    }
+
+    /**
+     * Start probing every peer if not done yet, and show the round trip times and losses so far.
+     */
+    private void showProbeSummary() {
+        viewModel.startProbing(PROBE_INTERVAL_MS);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.probe_title)
+                .setMessage(ProbeReportWriter.toText(viewModel.getProbeReport()))
+                .setPositiveButton(R.string.probe_refresh, (dialog, which) -> showProbeSummary())
+                .setNegativeButton(R.string.probe_stop, (dialog, which) -> {
+                    viewModel.stopProbing();
+                    viewModel.exportProbes(getFilesDir());
+                })
+                .setNeutralButton(R.string.probe_close, null)
+                .show();
     }
 
     private void colorButtonClick(View view) {
@@ -94,41 +253,25 @@ public class MainActivity extends AppCompatActivity {
 
     @SuppressWarnings("PMD.UnusedFormalParameter")
     private void sendAllRecipients(View view) {
-        MeshIdAdapter recipientAdapter = recipientView.getAdapter();
-        Colour crrColour = viewModel.liveDataColor.getValue();
-
-        for (int i = 0; i < recipientAdapter.getCount(); i++) {
-            MeshId peer = recipientAdapter.getItem(i);
-            viewModel.sendColorMsg(peer, crrColour);
-        }
+        viewModel.broadcastColorMsg();
     }
 
     /**
      * Binding data from viewmodel to UI.
      */
     private void observeViewModel() {
-        viewModel.liveDataColor.observe(this,
-                colour -> layoutBackground.setBackgroundColor(
-                        ContextCompat.getColor(this, colour.getColourId())));
-        viewModel.liveDataPeerChangedEvent.observe(this,
-                peerChangeEvent -> recipientView.updatePeersList(peerChangeEvent));
+        viewModel.liveDataColor.observe(this, this::applyColour);
+        viewModel.liveDataPeersChanged.observe(this, recipientView::updatePeersList);
         viewModel.liveDataMyMeshId.observe(this,
                 newMeshId -> recipientView.addNewDevice(newMeshId));
         viewModel.liveDataNotification.observe(this,
                 msg -> Toast.makeText(getApplicationContext(), msg, Toast.LENGTH_SHORT).show());
     }
 
-    /**
-     * Init viewmodel.
-     *
-     * @param savedInstanceState SavedInstanceState – If the activity is being re-initialized after
-     *                           previously being shut down then this Bundle contains the data it
-     *                           most recently supplied in
-     */
-    private void initViewModel(Bundle savedInstanceState) {
-        viewModel = ViewModelProviders.of(this).get(MainViewModel.class);
-        if (savedInstanceState == null) {
-            viewModel.init();
-        }
+    private void applyColour(Colour colour) {
+        Tracer tracer = viewModel.getTracer();
+        long start = tracer.begin();
+        layoutBackground.setBackgroundColor(ContextCompat.getColor(this, colour.getColourId()));
+        tracer.end(Tracer.Event.APPLY_COLOUR, start, null, Tracer.NO_MESSAGE);
     }
 }
@@ -8,36 +8,197 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
 
 import io.left.rightmesh.id.MeshId;
 import io.left.rightmesh.mesh.MeshManager;
 import io.left.rightmesh.util.RightMeshException;
 import io.left.rightmesh.util.RightMeshRuntimeException;
+import io.left.ripple.mesh.Outbox;
+import io.left.ripple.mesh.PeerEventBatcher;
+import io.left.ripple.mesh.PeerRegistry;
+import io.left.ripple.mesh.RateLimitedException;
+import io.left.ripple.mesh.RateLimiter;
+import io.left.ripple.mesh.SendFuture;
+import io.left.ripple.mesh.SendRejectedException;
+import io.left.ripple.mesh.SendScheduler;
+import io.left.ripple.message.ColourFrame;
+import io.left.ripple.message.ColourMessageReader;
+import io.left.ripple.message.DropCounters;
+import io.left.ripple.message.FrameFormatException;
+import io.left.ripple.message.MeshIdBytes;
+import io.left.ripple.message.MeshIdCache;
+import io.left.ripple.message.MessageKind;
+import io.left.ripple.message.ProbeFrame;
+import io.left.ripple.message.SeenMessageFilter;
+import io.left.ripple.load.LoadConfig;
+import io.left.ripple.load.LoadGenerator;
+import io.left.ripple.load.LoadReport;
+import io.left.ripple.load.LoadReportWriter;
+import io.left.ripple.message.WireFormatPolicy;
+import io.left.ripple.metrics.ChromeTraceWriter;
+import io.left.ripple.metrics.MetricsRegistry;
+import io.left.ripple.metrics.OpenMetricsWriter;
+import io.left.ripple.metrics.StripedCounter;
+import io.left.ripple.metrics.Tracer;
+import io.left.ripple.probe.ProbeReport;
+import io.left.ripple.probe.ProbeReportWriter;
+import io.left.ripple.probe.ProbeSession;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * De-coupling business logic from Mainactivity to MainViewModel.
- * Reason to extend AndroidViewModel
- * Allow data to survive configuration changes (Eg: screen rotation, locale changing)
- * Activity lifecycle consciousness
+ *
+ * Hosted by {@link RippleService} rather than the activity's view model store, so the device
+ * keeps relaying messages when the activity is gone; {@link MainActivity} binds to the service to
+ * show and drive it. While no activity is on screen, see {@link #setUiAttached(boolean)}, the
+ * LiveData fields are not updated at all.
  */
 public class MainViewModel extends AndroidViewModel {
     private static final String TAG = MainViewModel.class.getCanonicalName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     // Update this to your assigned mesh port.
     private static final int MESH_PORT = 9001;
+    // Number of recipient MeshIds kept for reuse by the receive path.
+    private static final int MESH_ID_CACHE_SIZE = 256;
+    // How long, and how many, received messages are remembered to drop duplicates.
+    private static final long SEEN_WINDOW_MS = 30_000;
+    private static final int SEEN_CAPACITY = 4096;
+    // How long, and how many, relayed messages without an origin are remembered to stop loops.
+    // Short, since a repeat can only be told apart from a loop by its timing.
+    private static final long RELAYED_WINDOW_MS = 2_000;
+    private static final int RELAYED_CAPACITY = 1024;
+    // Messages relayed for each origin, per second and in a burst, before they are dropped.
+    private static final double ORIGIN_RATE_PER_S = 10;
+    private static final int ORIGIN_BURST = 20;
+    // Metric names, see exportMetrics(File).
+    static final String METRIC_FORWARDS = "ripple_forwards";
+    static final String METRIC_DROPS = "ripple_drops";
+    static final String METRICS_FILE = "metrics.txt";
+    static final String TRACE_FILE = "trace.json";
+    static final String PROBES_FILE = "probes.json";
+    static final String LOAD_REPORT_FILE = "load-report.json";
+    // Time after which an unanswered probe counts as lost.
+    private static final long PROBE_TIMEOUT_MS = 10_000;
+    // Colours that could not be sent are retried, backing off from 2 s to 2 min, for 5 min.
+    static final String OUTBOX_FILE = "outbox.log";
+    private static final long OUTBOX_EXPIRY_MS = 5 * 60_000;
+    private static final long OUTBOX_INITIAL_BACKOFF_MS = 2_000;
+    private static final long OUTBOX_MAX_BACKOFF_MS = 2 * 60_000;
 
     private RightMeshConnector rmConnector;
+    // Chooses between binary frames and legacy text so older devices on the mesh keep working.
+    private final WireFormatPolicy wireFormatPolicy =
+            new WireFormatPolicy(WireFormatPolicy.Mode.AUTO);
+    // Recipient MeshIds kept for reuse by the receive path, shared by its readers.
+    private final MeshIdCache rawIds = MeshIdCache.forRawIds(MESH_ID_CACHE_SIZE);
+    private final MeshIdCache textIds = MeshIdCache.forTextIds(MESH_ID_CACHE_SIZE);
+    // Parse incoming messages without intermediate Strings. A reader holds the message it is
+    // parsing, so each receive worker thread has its own; all of them are kept in the list,
+    // which guards them, to be told the id of this device.
+    private final List<ColourMessageReader> messageReaders = new ArrayList<>();
+    private final ThreadLocal<ColourMessageReader> messageReader =
+            new ThreadLocal<ColourMessageReader>() {
+                @Override
+                protected ColourMessageReader initialValue() {
+                    return newMessageReader();
+                }
+            };
+    // Drops messages that were already received, so routing loops cannot repeat them.
+    private final SeenMessageFilter seenFilter =
+            new SeenMessageFilter(SEEN_WINDOW_MS, SEEN_CAPACITY);
+    // Does the same for relayed messages that carry no origin, such as legacy text, by content:
+    // a copy coming back within the window is a loop, and relaying it again would change nothing.
+    private final SeenMessageFilter relayedFilter =
+            new SeenMessageFilter(RELAYED_WINDOW_MS, RELAYED_CAPACITY);
+    private volatile boolean relayedLoopCheck = true;
+    // Told about each message relayed for another device, see setRelayListener(Runnable).
+    private volatile Runnable relayListener;
+    private final DropCounters dropCounters = new DropCounters();
+    // Keeps a device that sends too fast from taking the links around this one, by relaying at
+    // most a fair share of its messages.
+    private final RateLimiter originLimiter =
+            new RateLimiter(ORIGIN_RATE_PER_S, ORIGIN_BURST, MESH_ID_CACHE_SIZE);
+    // Peers on the mesh, kept here so the list survives configuration changes.
+    private final PeerRegistry peerRegistry = new PeerRegistry();
+    // Counters kept in the connector's metrics, looked up in init().
+    private StripedCounter forwards;
+    private StripedCounter originLimited;
+    private final StripedCounter[] drops = new StripedCounter[DropCounters.Reason.values().length];
+    // The connector's tracer, looked up in init().
+    private Tracer tracer;
+    // Writes metrics, trace and probe files off the main thread. Its thread is only started by
+    // the first export.
+    private final ExecutorService metricsWriter = Executors.newSingleThreadExecutor();
+    // Round trip times of latency probes, see startProbing(long).
+    private final ProbeSession probeSession = new ProbeSession(
+            TimeUnit.MILLISECONDS.toNanos(PROBE_TIMEOUT_MS), new Random().nextInt());
+    // Peers to probe, kept up to date from PEER_CHANGED events while probing.
+    private final Set<MeshId> probeTargets =
+            Collections.newSetFromMap(new ConcurrentHashMap<MeshId, Boolean>());
+    // Sends a round of probes periodically. Null when not probing.
+    private ScheduledExecutorService prober;
+    private volatile boolean probing;
+    // Load test in progress, and the thread running it. Null when not running one.
+    private LoadGenerator loadGenerator;
+    private ScheduledExecutorService loadRunner;
+    // Colours that could not be sent, see openOutbox(File). Null if not opened.
+    private volatile Outbox outbox;
+    // Latest colour sent to each peer from the buttons; only it is kept for a retry if it fails.
+    private final Map<MeshId, SendFuture> latestSends = new ConcurrentHashMap<>();
+    // Runs the next outbox retry, and writes the outbox to storage. Its thread is only started
+    // by the first retry or write.
+    private final ScheduledExecutorService retrier = Executors.newSingleThreadScheduledExecutor();
+    private final Object retryLock = new Object();
+    // Set while a sync of the outbox is queued on the retry thread.
+    private final AtomicBoolean outboxSyncPending = new AtomicBoolean();
+    private ScheduledFuture<?> retryTask;
+    private long retryAtMillis;
+    // Queues PEER_CHANGED events from the RightMesh thread until the main thread applies them.
+    private final PeerEventBatcher peerEvents;
+    // Set when PEER_CHANGED events are waiting in peerEvents. Posting coalesces, but the events
+    // themselves are queued and never lost.
+    private final MutableLiveData<Boolean> peersPending = new MutableLiveData<>();
+    private final Observer<Boolean> peerChangesApplier = pending -> applyPeerChanges();
+    // Sequence numbers of messages sent by this device. Starts at a random value so messages
+    // sent after a restart are not mistaken for duplicates of ones sent before it.
+    private final AtomicInteger nextSequence = new AtomicInteger(new Random().nextInt());
+    // MeshId of this device, the origin of the messages it sends. Null until connected.
+    private volatile MeshId localId;
+    private volatile byte[] localIdRaw;
 
     // Current background colour
     MutableLiveData<Colour> liveDataColor = new MutableLiveData<>();
     MutableLiveData<String> liveDataNotification = new MutableLiveData<>();
-    MutableLiveData<MeshManager.RightMeshEvent> liveDataPeerChangedEvent = new MutableLiveData<>();
+    // Latest batch of PEER_CHANGED states applied to the peer registry, for the views to render.
+    MutableLiveData<Map<MeshId, Integer>> liveDataPeersChanged = new MutableLiveData<>();
     // Stores the MeshId of this device so that it doesn't need to be retrieved with a service call.
     MutableLiveData<MeshId> liveDataMyMeshId = new MutableLiveData<>();
 
     private MeshId currentTargetMeshId = null;
+    // Whether an activity shows the LiveData fields, and the colour to show it when it returns.
+    private volatile boolean uiAttached = true;
+    private volatile Colour latestColour = RED;
 
     /**
      * Viewmodel constructor.
@@ -48,6 +209,10 @@ public class MainViewModel extends AndroidViewModel {
         super(application);
 
         liveDataColor.setValue(RED);
+        // The registry is kept up to date with no activity attached too, as broadcasts and
+        // probes are sent to the peers it lists.
+        peerEvents = new PeerEventBatcher(() -> peersPending.postValue(true));
+        peersPending.observeForever(peerChangesApplier);
         rmConnector = new RightMeshConnector(MESH_PORT);
     }
 
@@ -55,12 +220,47 @@ public class MainViewModel extends AndroidViewModel {
      * Init {@link MainViewModel}.
      */
     void init() {
+        rmConnector.setWireFormatPolicy(wireFormatPolicy);
+        MetricsRegistry metrics = rmConnector.getMetrics();
+        forwards = metrics.counter(METRIC_FORWARDS);
+        originLimited = metrics.counter(RightMeshConnector.METRIC_RATE_LIMITED,
+                RightMeshConnector.LABEL_LIMIT, "origin");
+        for (DropCounters.Reason reason : DropCounters.Reason.values()) {
+            drops[reason.ordinal()] = metrics.counter(METRIC_DROPS, "reason",
+                    reason.name().toLowerCase(Locale.ROOT));
+        }
+        tracer = rmConnector.getTracer();
+        // Tracing costs next to nothing while off, but is only turned on for debug builds.
+        tracer.setEnabled(BuildConfig.DEBUG);
+
         // Initialize the RightMesh library with the SSID pattern "Ripple".
         rmConnector.connect(getApplication());
 
-        rmConnector.setOnDataReceiveListener(event -> receiveColourMessage(event));
-        rmConnector.setOnPeerChangedListener(event -> liveDataPeerChangedEvent.postValue(event));
-        rmConnector.setOnConnectSuccessListener(meshId -> liveDataMyMeshId.setValue(meshId));
+        rmConnector.addOnDataReceiveListener(MessageKind.COLOUR, this::receiveColourMessage);
+        rmConnector.addOnDataReceiveListener(MessageKind.PROBE,
+                event -> receiveProbe((MeshManager.DataReceivedEvent) event));
+        rmConnector.addOnPeerChangedListener(event -> {
+            int state = ((MeshManager.PeerChangedEvent) event).state;
+            peerEvents.offer(event.peerUuid, state);
+            if (state == MeshManager.ADDED) {
+                greet(event.peerUuid);
+                retryNow(event.peerUuid);
+            }
+            if (probing) {
+                updateProbeTargets(event.peerUuid, state);
+            }
+        });
+        rmConnector.addOnConnectSuccessListener(meshId -> {
+            synchronized (messageReaders) {
+                for (ColourMessageReader reader : messageReaders) {
+                    reader.setLocalId(meshId);
+                }
+                localId = meshId;
+            }
+            localIdRaw = MeshIdBytes.toBytes(meshId);
+            peerRegistry.update(meshId, MeshManager.ADDED);
+            liveDataMyMeshId.setValue(meshId);
+        });
     }
 
     /**
@@ -73,13 +273,125 @@ public class MainViewModel extends AndroidViewModel {
         this.rmConnector = rmConnector;
     }
 
+    /**
+     * Get the policy used to pick the wire format of outgoing messages.
+     *
+     * @return {@link WireFormatPolicy}
+     */
+    public WireFormatPolicy getWireFormatPolicy() {
+        return wireFormatPolicy;
+    }
+
+    /**
+     * Get the tracer that records where the time of each ripple goes.
+     *
+     * @return {@link Tracer}, see {@link #exportTrace(File)}
+     */
+    public Tracer getTracer() {
+        return rmConnector.getTracer();
+    }
+
+    /**
+     * Get the peers currently on the mesh.
+     *
+     * @return {@link PeerRegistry}, kept up to date by this view model and read on the main
+     *         thread
+     */
+    public PeerRegistry getPeerRegistry() {
+        return peerRegistry;
+    }
+
+    /**
+     * Apply the PEER_CHANGED events received since the last call to the peer registry, in one
+     * batch, and hand the batch to the views. Runs on the main thread.
+     */
+    private void applyPeerChanges() {
+        Map<MeshId, Integer> changes = peerEvents.drain();
+        if (changes.isEmpty()) {
+            return;
+        }
+        peerRegistry.updateAll(changes);
+        liveDataPeersChanged.setValue(changes);
+    }
+
+    /**
+     * Get the counters of received messages that were dropped.
+     *
+     * @return {@link DropCounters}
+     */
+    public DropCounters getDropCounters() {
+        return dropCounters;
+    }
+
+    /**
+     * Get the limiter of messages relayed for each origin, e.g. to change its rate.
+     *
+     * @return {@link RateLimiter}
+     */
+    public RateLimiter getOriginLimiter() {
+        return originLimiter;
+    }
+
+    /**
+     * Set a listener told about each message relayed for another device, e.g. to keep the device
+     * awake while it relays. It is called on the RightMesh thread, so must return quickly.
+     *
+     * @param listener listener to call, or null for none
+     */
+    void setRelayListener(Runnable listener) {
+        relayListener = listener;
+    }
+
+    /**
+     * Turn the loop check of relayed messages without an origin on or off. It is on by default.
+     * (using for testing)
+     *
+     * @param enabled false to relay every copy, e.g. to benchmark relaying one message repeatedly
+     */
+    void setRelayedLoopCheck(boolean enabled) {
+        relayedLoopCheck = enabled;
+    }
+
     /**
      * Changes the background to the supplied colour, if valid.
      *
      * @param colour colour to change to
      */
     void setColour(Colour colour) {
-        this.liveDataColor.postValue(colour);
+        latestColour = colour;
+        if (uiAttached) {
+            this.liveDataColor.postValue(colour);
+        }
+    }
+
+    /**
+     * Set whether an activity is showing this device. While none is, received colours and
+     * notifications are not posted to the main thread, so a relay with its screen off spends
+     * nothing on them, and the latest colour is posted again on attaching. Peer changes are
+     * applied to the registry either way. Call on the main thread.
+     *
+     * @param attached true when an activity is started, false when it is stopped
+     */
+    void setUiAttached(boolean attached) {
+        uiAttached = attached;
+        if (attached) {
+            liveDataColor.setValue(latestColour);
+        }
+    }
+
+    boolean isUiAttached() {
+        return uiAttached;
+    }
+
+    /**
+     * Show a message to the user, if an activity is on screen. Can be called from any thread.
+     *
+     * @param message message to show
+     */
+    private void notifyUser(String message) {
+        if (uiAttached) {
+            liveDataNotification.postValue(message);
+        }
     }
 
     /**
@@ -103,28 +415,175 @@ public class MainViewModel extends AndroidViewModel {
     }
 
     /**
-     * Send Color to target device.
+     * Send Color to target device. The message is queued, so this can be called from the main
+     * thread; failures are reported through {@link #liveDataNotification}. A colour still queued
+     * for the same device is replaced rather than sent.
+     *
+     * If the device cannot be reached and an outbox is open, the colour is kept there and retried
+     * until it is delivered, replaced by a newer colour or expires.
      *
      * @param targetMeshId MeshId will receive this msg.
      * @param msgColor     Message color.
      */
     void sendColorMsg(MeshId targetMeshId, Colour msgColor) {
-        try {
-            if (targetMeshId != null) {
-                String payload = targetMeshId.toString() + ":" + msgColor.toString();
-                rmConnector.sendDataReliable(targetMeshId, payload);
+        SendFuture future = sendColorMsg(targetMeshId, msgColor, true);
+        if (future == null) {
+            return;
+        }
+        Outbox box = outbox;
+        if (box == null) {
+            future.addListener(this::onSendComplete);
+            return;
+        }
+
+        // This colour supersedes any older one waiting to be retried.
+        latestSends.put(targetMeshId, future);
+        box.remove(targetMeshId);
+        syncOutbox(box);
+        future.addListener(done -> {
+            boolean latest = latestSends.remove(targetMeshId, done);
+            Throwable error = done.getError();
+            if (latest && isRetryable(error)) {
+                queueForRetry(box, targetMeshId, msgColor, error);
+            } else {
+                onSendComplete(done);
             }
-        } catch (RightMeshException.RightMeshServiceDisconnectedException sde) {
+        });
+    }
+
+    /**
+     * Queue a colour for a target device, without reporting failures.
+     *
+     * @param targetMeshId MeshId will receive this msg.
+     * @param msgColor     Message color.
+     * @param coalesce     true to replace a colour still queued for the same device, false to
+     *                     send every colour
+     * @return {@link SendFuture} completed when the colour has been sent, or failed to send, or
+     *         null if there is no target
+     */
+    SendFuture sendColorMsg(MeshId targetMeshId, Colour msgColor, boolean coalesce) {
+        if (targetMeshId == null) {
+            return null;
+        }
+
+        if (wireFormatPolicy.useBinary(targetMeshId)) {
+            byte[] frame = encodeFrame(targetMeshId, msgColor);
+            return coalesce ? rmConnector.sendLatestAsync(targetMeshId, frame)
+                    : rmConnector.sendAsync(targetMeshId, frame);
+        }
+        String payload = targetMeshId.toString() + ":" + msgColor.toString();
+        return coalesce ? rmConnector.sendLatestAsync(targetMeshId, payload)
+                : rmConnector.sendAsync(targetMeshId, payload);
+    }
+
+    /**
+     * Encode a binary frame that identifies this device as its origin, so relays can drop
+     * duplicates and stop it looping.
+     *
+     * @param targetMeshId MeshId will receive this msg.
+     * @param msgColor     Message color.
+     * @return the encoded frame
+     */
+    private byte[] encodeFrame(MeshId targetMeshId, Colour msgColor) {
+        byte[] origin = localIdRaw;
+        if (origin == null) {
+            // Our own id is not known yet, so the message cannot name its origin.
+            return ColourFrame.encode(targetMeshId, msgColor);
+        }
+
+        int sequence = nextSequence.getAndIncrement();
+        // Remember our own message, in case a loop brings it back to us.
+        seenFilter.markSeen(SeenMessageFilter.key(origin, 0, origin.length, sequence));
+        return ColourFrame.encode(targetMeshId, origin, sequence, ColourFrame.DEFAULT_TTL,
+                msgColor);
+    }
+
+    /**
+     * Encode a colour the way {@link #sendColorMsg(MeshId, Colour, boolean)} sends it.
+     *
+     * @param targetMeshId MeshId will receive this msg.
+     * @param msgColor     Message color.
+     * @return the payload bytes
+     */
+    private byte[] encodePayload(MeshId targetMeshId, Colour msgColor) {
+        if (wireFormatPolicy.useBinary(targetMeshId)) {
+            return encodeFrame(targetMeshId, msgColor);
+        }
+        return (targetMeshId.toString() + ":" + msgColor.toString()).getBytes(UTF_8);
+    }
+
+    /**
+     * Report a failed send. Runs on the send worker thread, so the notification is posted to
+     * the main thread.
+     *
+     * @param future the completed send
+     */
+    private void onSendComplete(SendFuture future) {
+        Throwable error = future.getError();
+        if (error == null) {
+            return;
+        }
+
+        if (error instanceof RightMeshException.RightMeshServiceDisconnectedException) {
             Log.e(TAG, "Service disconnected while sending data, with message: "
-                    + sde.getMessage());
-            liveDataNotification.setValue(sde.getMessage());
-        } catch (RightMeshRuntimeException.RightMeshLicenseException le) {
-            Log.e(TAG, le.getMessage());
-            liveDataNotification.setValue(le.getMessage());
-        } catch (RightMeshException rme) {
-            Log.e(TAG, "Unable to find next hop to peer, with message: " + rme.getMessage());
-            liveDataNotification.setValue(rme.getMessage());
+                    + error.getMessage());
+        } else if (error instanceof RightMeshRuntimeException.RightMeshLicenseException) {
+            Log.e(TAG, error.getMessage());
+        } else if (error instanceof RateLimitedException) {
+            Log.e(TAG, "Message not sent, link is busy, with message: " + error.getMessage());
+        } else if (error instanceof RightMeshException) {
+            Log.e(TAG, "Unable to find next hop to peer, with message: " + error.getMessage());
+        } else {
+            Log.e(TAG, "Message not sent, with message: " + error.getMessage());
         }
+        notifyUser(error.getMessage());
+    }
+
+    /**
+     * Send Color to every device on the mesh.
+     *
+     * When every peer understands binary frames this is a single broadcast: the peers are grouped
+     * by next hop and each next hop is sent one frame listing the peers behind it, which relays
+     * split up again the same way. Each link then carries the colour about once. Otherwise each
+     * peer is sent its own message, as older devices cannot read broadcasts. In
+     * {@link WireFormatPolicy.Mode#AUTO}, peers are known to understand binary frames once they
+     * have sent this device one, see {@link WireFormatPolicy}.
+     *
+     * @param peers    every device on the mesh, this one included or not
+     * @param msgColor Message color.
+     */
+    void broadcastColorMsg(List<MeshId> peers, Colour msgColor) {
+        byte[] origin = localIdRaw;
+        if (origin == null || !allUseBinary(peers)) {
+            for (MeshId peer : peers) {
+                sendColorMsg(peer, msgColor);
+            }
+            return;
+        }
+
+        int sequence = nextSequence.getAndIncrement();
+        seenFilter.markSeen(SeenMessageFilter.key(origin, 0, origin.length, sequence));
+        rmConnector.broadcastAsync(new ArrayList<>(peers), destinations ->
+                ColourFrame.encodeBroadcast(origin, sequence, ColourFrame.DEFAULT_TTL, msgColor,
+                        destinations))
+                .addListener(this::onSendComplete);
+    }
+
+    /**
+     * Send current selected colour to every device in the peer registry.
+     */
+    void broadcastColorMsg() {
+        broadcastColorMsg(peerRegistry.getIds(), liveDataColor.getValue());
+    }
+
+    private boolean allUseBinary(List<MeshId> peers) {
+        MeshId self = localId;
+        for (MeshId peer : peers) {
+            if (!peer.equals(self) && !wireFormatPolicy.useBinary(peer)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -136,38 +595,720 @@ public class MainViewModel extends AndroidViewModel {
     }
 
     /**
-     * Handles an incoming message by changing the screen colour and passing along the message.
+     * Handles an incoming message by passing along the message and changing the screen colour.
+     *
+     * Duplicates and messages out of hops are dropped first, before any MeshId is looked up.
+     * Broadcasts are handled by
+     * {@link #receiveBroadcast(ColourMessageReader, MeshManager.DataReceivedEvent)}. Relays queue
+     * a copy of the original bytes, with the ttl decremented, for forwarding as soon as the
+     * recipient is known, so the per-hop latency does not include decoding the colour or updating
+     * the UI. Legacy text messages carry no origin or ttl; a relay drops one it already relayed
+     * within the last {@value #RELAYED_WINDOW_MS} ms, so they cannot loop forever either. Runs on
+     * the receive worker of the sender, see {@link RightMeshConnector}.
      *
      * @param rme generic event passed by RightMesh
      */
     private void receiveColourMessage(MeshManager.RightMeshEvent rme) {
-        // Retrieve data from event.
         MeshManager.DataReceivedEvent dre = (MeshManager.DataReceivedEvent) rme;
-        String dataString = new String(dre.data, Charset.forName("UTF-8"));
-        int separatorIndex = dataString.indexOf(':');
+        ColourMessageReader reader = messageReader.get();
+        long start = tracer.begin();
+        try {
+            handleColourMessage(reader, dre);
+        } finally {
+            long messageId = reader.hasOrigin()
+                    ? reader.getSequence() & 0xFFFFFFFFL : Tracer.NO_MESSAGE;
+            tracer.end(Tracer.Event.RECEIVE_COLOUR_MESSAGE, start, rme.peerUuid, messageId);
+        }
+    }
+
+    private void handleColourMessage(ColourMessageReader reader,
+                                     MeshManager.DataReceivedEvent dre) {
+        if (!reader.readHeader(dre.data)) {
+            drop(DropCounters.Reason.MALFORMED, "Discarding malformed message");
+            return;
+        }
+        if (reader.isBroadcast()) {
+            receiveBroadcast(reader, dre);
+            return;
+        }
+        if (reader.hasOrigin() && !seenFilter.markSeen(reader.getMessageKey())) {
+            drop(DropCounters.Reason.DUPLICATE, null);
+            return;
+        }
+
+        boolean forLocalDevice = reader.isForLocalDevice();
+        if (!forLocalDevice && reader.hasOrigin() && reader.getTtl() == 0) {
+            drop(DropCounters.Reason.EXPIRED, "Discarding message with no hops left");
+            return;
+        }
+        if (!forLocalDevice && !reader.hasOrigin() && relayedLoopCheck
+                && !relayedFilter.markSeen(reader.getContentKey())) {
+            drop(DropCounters.Reason.DUPLICATE, null);
+            return;
+        }
+        recordHops(reader, dre.peerUuid);
+        if (!reader.resolveRecipient()) {
+            drop(DropCounters.Reason.MALFORMED, "Discarding message with malformed recipient");
+            return;
+        }
+
+        if (reader.isBinary()) {
+            // Only a current device sends binary frames, whether it is the origin or a relay.
+            wireFormatPolicy.markBinaryCapable(dre.peerUuid);
+            if (reader.hasOrigin()) {
+                wireFormatPolicy.markBinaryCapable(reader.resolveOrigin());
+            }
+        }
+
+        if (!forLocalDevice) {
+            if (!mayRelay(relayKey(reader, dre.peerUuid))) {
+                return;
+            }
+            // Transmit the message forward if this device is not the intended final recipient.
+            forwardMessage(reader.getRecipient(), reader.copyForRelay());
+        }
 
-        // Transmit the message forward if this device is not the intended final recipient.
-        MeshId recipient;
+        // Change the colour of this phone to illustrate the path of the data. The update is
+        // posted to the main thread, off the forwarding path.
+        Colour colour = reader.readColour();
+        if (colour == null) {
+            drop(DropCounters.Reason.MALFORMED, "Discarding message with malformed colour");
+            return;
+        }
+        setColour(colour);
+    }
+
+    /**
+     * Note how far the sender and the origin of a received message are. The sender is always a
+     * neighbour; the origin's distance follows from the ttl it used up on the way, assuming it
+     * started with {@link ColourFrame#DEFAULT_TTL}.
+     *
+     * @param reader reader holding the message
+     * @param sender neighbour the message was received from
+     */
+    private void recordHops(ColourMessageReader reader, MeshId sender) {
+        peerRegistry.recordHops(sender, 1);
+        if (reader.hasOrigin()) {
+            MeshId origin = reader.resolveOrigin();
+            if (origin != null && !origin.equals(sender)) {
+                int hops = ColourFrame.DEFAULT_TTL - reader.getTtl() + 1;
+                peerRegistry.recordHops(origin, hops);
+            }
+        }
+    }
+
+    /**
+     * Handles an incoming broadcast: passes it on towards the other devices it lists and shows
+     * the colour if this device is one of them.
+     *
+     * Two copies of a broadcast may pass through a relay with different destination lists, so
+     * only copies listing this device are checked for duplicates. Each device is in exactly one
+     * list, and so shows the colour once.
+     *
+     * @param reader reader holding the broadcast
+     * @param dre    data event carrying the broadcast
+     */
+    private void receiveBroadcast(ColourMessageReader reader, MeshManager.DataReceivedEvent dre) {
+        if (!reader.readDestinations()) {
+            drop(DropCounters.Reason.MALFORMED,
+                    "Discarding broadcast with malformed destinations");
+            return;
+        }
+        boolean forLocalDevice = reader.isLocalDestination();
+        if (forLocalDevice && !seenFilter.markSeen(reader.getMessageKey())) {
+            drop(DropCounters.Reason.DUPLICATE, null);
+            return;
+        }
+        recordHops(reader, dre.peerUuid);
+        Colour colour = reader.readColour();
+        if (colour == null) {
+            drop(DropCounters.Reason.MALFORMED, "Discarding message with malformed colour");
+            return;
+        }
+
+        List<MeshId> destinations = reader.getDestinations();
+        if (!destinations.isEmpty()) {
+            if (reader.getTtl() == 0) {
+                drop(DropCounters.Reason.EXPIRED, "Discarding broadcast with no hops left");
+            } else if (mayRelay(relayKey(reader, dre.peerUuid))) {
+                byte[] origin = reader.copyOrigin();
+                int sequence = reader.getSequence();
+                int ttl = reader.getTtl() - 1;
+                onRelay();
+                rmConnector.relayBroadcastAsync(new ArrayList<>(destinations), group ->
+                        ColourFrame.encodeBroadcast(origin, sequence, ttl, colour, group),
+                        SendScheduler.Lane.BULK)
+                        .addListener(this::onForwardComplete);
+            }
+        }
+
+        wireFormatPolicy.markBinaryCapable(dre.peerUuid);
+        wireFormatPolicy.markBinaryCapable(reader.resolveOrigin());
+        if (forLocalDevice) {
+            setColour(colour);
+        }
+    }
+
+    /**
+     * Create a reader for the calling thread, told the id of this device if it is known.
+     *
+     * @return the reader
+     */
+    private ColourMessageReader newMessageReader() {
+        ColourMessageReader reader = new ColourMessageReader(rawIds, textIds);
+        synchronized (messageReaders) {
+            if (localId != null) {
+                reader.setLocalId(localId);
+            }
+            messageReaders.add(reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Count a dropped message.
+     *
+     * @param reason  why it was dropped
+     * @param message error to log, or null for drops that are expected in normal operation
+     */
+    private void drop(DropCounters.Reason reason, String message) {
+        dropCounters.increment(reason);
+        drops[reason.ordinal()].increment();
+        if (message != null) {
+            Log.e(TAG, message);
+        }
+    }
+
+    /**
+     * Take a relay permit for the origin of a message, or count the message as dropped.
+     *
+     * @param origin device the message came from
+     * @return true if the message may be relayed
+     */
+    private boolean mayRelay(MeshId origin) {
+        if (originLimiter.tryAcquire(origin)) {
+            return true;
+        }
+        originLimited.increment();
+        drop(DropCounters.Reason.RATE_LIMITED, null);
+        return false;
+    }
+
+    /**
+     * Get the device to charge a relayed message to: its origin, or the neighbour it came from
+     * if it does not name its origin.
+     *
+     * @param reader reader holding the message
+     * @param sender neighbour the message was received from
+     * @return key for {@link #originLimiter}
+     */
+    private static MeshId relayKey(ColourMessageReader reader, MeshId sender) {
+        MeshId origin = reader.resolveOrigin();
+        return origin == null ? sender : origin;
+    }
+
+    /**
+     * Pass a received message on towards its recipient without re-encoding it.
+     *
+     * @param recipient final recipient of the message
+     * @param data      the message as it was received, apart from its ttl
+     */
+    private void forwardMessage(MeshId recipient, byte[] data) {
+        forwards.increment();
+        onRelay();
+        // Only the newest colour for a recipient matters, so stale relayed ones are collapsed.
+        rmConnector.relayLatestAsync(recipient, data).addListener(this::onForwardComplete);
+    }
+
+    private void onRelay() {
+        Runnable listener = relayListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Log a failed forward. Relayed messages are not reported to the user, and those refused
+     * over the limit of their next hop are only counted, by the connector.
+     *
+     * @param future the completed send
+     */
+    private void onForwardComplete(SendFuture future) {
+        Throwable error = future.getError();
+        if (error != null && !(error instanceof RateLimitedException)) {
+            Log.e(TAG, "Unable to forward to next hop, with message: " + error.getMessage());
+        }
+    }
+
+    /**
+     * Open the outbox keeping colours that could not be sent, in a file in a directory, and
+     * retry the colours left in it. Call before {@link #init()}; without an outbox, failed sends
+     * are only reported.
+     *
+     * @param directory directory of the outbox file, {@value #OUTBOX_FILE}
+     */
+    void openOutbox(File directory) {
         try {
-            recipient = MeshId.fromString(dataString.substring(0, separatorIndex));
-        } catch (RightMeshException e) {
-            Log.e(TAG, "error creating meshId " + e.getMessage());
+            outbox = Outbox.open(new File(directory, OUTBOX_FILE), OUTBOX_EXPIRY_MS,
+                    OUTBOX_INITIAL_BACKOFF_MS, OUTBOX_MAX_BACKOFF_MS, new Random(),
+                    System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open outbox, with message: " + e.getMessage());
+            return;
+        }
+        scheduleRetry();
+    }
+
+    Outbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Whether a send that failed with an error may succeed later: the peer had no route, the
+     * service was disconnected or the send queue was full. License errors are final.
+     */
+    private static boolean isRetryable(Throwable error) {
+        return error instanceof RightMeshException || error instanceof SendRejectedException;
+    }
+
+    private void queueForRetry(Outbox box, MeshId target, Colour colour, Throwable error) {
+        Log.e(TAG, "Message not sent, will retry, with message: " + error.getMessage());
+        notifyUser("Not delivered yet, will retry: " + error.getMessage());
+        box.put(target, encodePayload(target, colour), System.currentTimeMillis());
+        syncOutbox(box);
+        scheduleRetry();
+    }
+
+    /**
+     * Write the outbox changes to storage on the retry thread, so neither the main thread nor
+     * the send worker waits for the disk. Changes made before the sync runs share it.
+     *
+     * @param box outbox that was changed
+     */
+    private void syncOutbox(Outbox box) {
+        if (!outboxSyncPending.compareAndSet(false, true)) {
             return;
         }
-        if (!recipient.equals(liveDataMyMeshId.getValue())) {
-            sendColorMsg(recipient, Colour.valueOf(
-                    dataString.substring(separatorIndex + 1)));
+        try {
+            retrier.execute(() -> {
+                outboxSyncPending.set(false);
+                try {
+                    box.sync();
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to save outbox, with message: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed; close() syncs what is left.
+            outboxSyncPending.set(false);
         }
+    }
 
-        // Change the colour of this phone to illustrate the path of the data.
-        setColour(Colour.valueOf(dataString.substring(separatorIndex + 1)));
+    /**
+     * Retry the colour waiting for a peer straight away, because it became reachable.
+     *
+     * @param peer peer that was added to the mesh
+     */
+    private void retryNow(MeshId peer) {
+        Outbox box = outbox;
+        if (box != null) {
+            Outbox.Entry entry = box.takeFor(peer);
+            if (entry != null) {
+                resend(box, entry);
+            }
+        }
+    }
+
+    /**
+     * Drop expired colours and retry those that are due. Runs on the retry thread.
+     */
+    private void retryDue() {
+        synchronized (retryLock) {
+            retryTask = null;
+        }
+        Outbox box = outbox;
+        long now = System.currentTimeMillis();
+        if (box.expire(now) > 0) {
+            syncOutbox(box);
+        }
+        for (Outbox.Entry entry : box.takeDue(now)) {
+            resend(box, entry);
+        }
+        scheduleRetry();
+    }
+
+    private void resend(Outbox box, Outbox.Entry entry) {
+        SendFuture future = rmConnector.sendLatestAsync(entry.getDestination(), entry.getPayload());
+        future.addListener(done -> {
+            if (done.getError() == null) {
+                box.delivered(entry);
+                syncOutbox(box);
+            } else {
+                box.failed(entry, System.currentTimeMillis());
+                scheduleRetry();
+            }
+        });
     }
 
     /**
-     * Close RightMesh connection when activity is destroyed.
+     * Make sure the retry thread wakes up for the earliest retry due, and no earlier.
+     */
+    private void scheduleRetry() {
+        Outbox box = outbox;
+        long next = box == null ? Long.MAX_VALUE : box.nextRetryMillis();
+        synchronized (retryLock) {
+            if (next == Long.MAX_VALUE || (retryTask != null && retryAtMillis <= next)) {
+                return;
+            }
+            if (retryTask != null) {
+                retryTask.cancel(false);
+            }
+            try {
+                retryTask = retrier.schedule(this::retryDue,
+                        Math.max(0, next - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                retryAtMillis = next;
+            } catch (RejectedExecutionException e) {
+                // Closed.
+                retryTask = null;
+            }
+        }
+    }
+
+    /**
+     * Start probing every peer: each round sends a timestamped ping to every peer in the peer
+     * list known to read binary frames, which sends back an echo. Other peers may be older
+     * devices, which throw on probes, and are skipped. Round trip times and losses are collected per peer and per
+     * hop count, see {@link #getProbeReport()}. Results of an earlier run are cleared. Call on
+     * the main thread.
+     *
+     * @param intervalMillis time between two rounds of pings
+     */
+    void startProbing(long intervalMillis) {
+        if (probing) {
+            return;
+        }
+        prepareProbing();
+        prober = Executors.newSingleThreadScheduledExecutor();
+        prober.scheduleAtFixedRate(this::probeAll, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Clear earlier results and take the peers to probe from the peer list, without scheduling
+     * any round of pings yet; see {@link #probeAll()}.
+     */
+    void prepareProbing() {
+        probeSession.reset();
+        probeTargets.clear();
+        probeTargets.addAll(peerRegistry.getIds());
+        probing = true;
+    }
+
+    /**
+     * Stop sending probes. Echoes still on their way are counted until they time out.
+     */
+    void stopProbing() {
+        if (!probing) {
+            return;
+        }
+        probing = false;
+        if (prober != null) {
+            prober.shutdown();
+            prober = null;
+        }
+    }
+
+    boolean isProbing() {
+        return probing;
+    }
+
+    /**
+     * Get the round trip times and losses of the probes sent so far.
+     *
+     * @return {@link ProbeReport}
+     */
+    ProbeReport getProbeReport() {
+        return probeSession.report(System.nanoTime());
+    }
+
+    /**
+     * Send one ping to every peer being probed that is known to read binary frames. Runs on the
+     * probing thread.
+     */
+    void probeAll() {
+        byte[] origin = localIdRaw;
+        if (origin == null) {
+            return;
+        }
+        MeshId self = localId;
+        long now = System.nanoTime();
+        probeSession.expire(now);
+        for (MeshId peer : probeTargets) {
+            if (peer.equals(self) || !wireFormatPolicy.readsBinary(peer)) {
+                continue;
+            }
+            PeerRegistry.Peer known = peerRegistry.get(peer);
+            int hops = known == null ? PeerRegistry.UNKNOWN_HOPS : known.getHopCount();
+            int probeId = probeSession.register(peer, hops, now);
+            byte[] ping = ProbeFrame.encodePing(peer, origin, probeId, now,
+                    ColourFrame.DEFAULT_TTL);
+            // Not sendLatestAsync: every ping counts, a replaced one would look lost. Probes go
+            // in the control lane, so they measure the mesh rather than our own send queue.
+            rmConnector.sendAsync(peer, ping, SendScheduler.Lane.CONTROL).addListener(future -> {
+                if (future.getError() != null) {
+                    probeSession.fail(probeId);
+                }
+            });
+        }
+    }
+
+    private void updateProbeTargets(MeshId peer, int state) {
+        if (state == MeshManager.REMOVED) {
+            probeTargets.remove(peer);
+        } else {
+            probeTargets.add(peer);
+        }
+    }
+
+    /**
+     * Tell a peer that just appeared that this device reads binary frames, if it is known to read
+     * them too, e.g. because it restarted and forgot about this device. Peers not known to read
+     * binary frames are never greeted, as they may be older devices, and the connector refuses
+     * to hand the hello to a next hop that may be one; see
+     * {@link RightMeshConnector#setWireFormatPolicy(WireFormatPolicy)}.
+     *
+     * @param peer the peer that appeared
+     */
+    private void greet(MeshId peer) {
+        byte[] origin = localIdRaw;
+        if (origin == null || peer.equals(localId) || !wireFormatPolicy.shouldGreet(peer)) {
+            return;
+        }
+        byte[] hello = ProbeFrame.encodeHello(peer, origin, ColourFrame.DEFAULT_TTL);
+        rmConnector.sendAsync(peer, hello, SendScheduler.Lane.CONTROL)
+                .addListener(this::onForwardComplete);
+    }
+
+    /**
+     * Handles an incoming probe: relays it if it is for another device, answers a ping with an
+     * echo, completes the probe of an echo and answers a hello from a peer not known before with
+     * a hello of its own, so both ends learn that the other reads binary frames.
+     *
+     * @param dre data event carrying the probe
+     */
+    private void receiveProbe(MeshManager.DataReceivedEvent dre) {
+        ProbeFrame probe;
+        try {
+            probe = ProbeFrame.decode(dre.data);
+        } catch (FrameFormatException e) {
+            drop(DropCounters.Reason.MALFORMED, "Discarding malformed probe: " + e.getMessage());
+            return;
+        }
+        boolean newlyCapable = wireFormatPolicy.markBinaryCapable(probe.getOrigin());
+        wireFormatPolicy.markBinaryCapable(dre.peerUuid);
+        peerRegistry.recordHops(dre.peerUuid, 1);
+
+        if (!probe.getRecipient().equals(localId)) {
+            if (probe.getTtl() == 0) {
+                drop(DropCounters.Reason.EXPIRED, "Discarding probe with no hops left");
+                return;
+            }
+            if (!mayRelay(probe.getOrigin())) {
+                return;
+            }
+            forwards.increment();
+            onRelay();
+            rmConnector.relayAsync(probe.getRecipient(), ProbeFrame.copyForRelay(dre.data),
+                    SendScheduler.Lane.CONTROL)
+                    .addListener(this::onForwardComplete);
+            return;
+        }
+
+        int hops = ColourFrame.DEFAULT_TTL - probe.getTtl() + 1;
+        if (hops > 1) {
+            peerRegistry.recordHops(probe.getOrigin(), hops);
+        }
+        if (probe.isHello()) {
+            byte[] origin = localIdRaw;
+            // Only a hello from a peer not known before is answered, so two hellos never bounce
+            // back and forth.
+            if (newlyCapable && origin != null) {
+                byte[] hello = ProbeFrame.encodeHello(probe.getOrigin(), origin,
+                        ColourFrame.DEFAULT_TTL);
+                rmConnector.sendAsync(probe.getOrigin(), hello, SendScheduler.Lane.CONTROL)
+                        .addListener(this::onForwardComplete);
+            }
+        } else if (probe.isPing()) {
+            byte[] echo = ProbeFrame.encodeEcho(probe, localIdRaw, ColourFrame.DEFAULT_TTL, hops);
+            rmConnector.sendAsync(probe.getOrigin(), echo, SendScheduler.Lane.CONTROL)
+                    .addListener(this::onForwardComplete);
+        } else {
+            probeSession.onEcho(probe.getProbeId(), probe.getSentNanos(), probe.getHops(),
+                    System.nanoTime());
+        }
+    }
+
+    /**
+     * Write the current probe results as JSON to {@value #PROBES_FILE} in a directory, on a
+     * background thread. See {@link ProbeReportWriter} for the layout.
+     *
+     * @param directory directory to write to
+     */
+    void exportProbes(File directory) {
+        File file = new File(directory, PROBES_FILE);
+        ProbeReport report = getProbeReport();
+        metricsWriter.execute(() -> {
+            try {
+                ProbeReportWriter.writeJson(report, file);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to write probes, with message: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Start a load test: send colours at the configured rate to the configured peers, without
+     * coalescing unless asked to, and report the throughput, failures and latency achieved.
+     * When the run ends the report is logged, shown as a notification and written as JSON to
+     * {@value #LOAD_REPORT_FILE} in a directory. Call on the main thread.
+     *
+     * @param config    what to send, see {@link LoadConfig}
+     * @param directory directory to write the report to
+     * @return true if the test started, false if one is already running or there are no peers
+     *         to send to
+     */
+    boolean startLoad(LoadConfig config, File directory) {
+        if (loadGenerator != null && loadGenerator.isRunning()) {
+            return false;
+        }
+        List<MeshId> peers = peerRegistry.getIds();
+        peers.remove(localId);
+        List<MeshId> targets = config.selectTargets(peers);
+        if (targets.isEmpty()) {
+            Log.e(TAG, "No peers to send the load test to");
+            notifyUser("No peers to send the load test to");
+            return false;
+        }
+
+        ScheduledExecutorService runner = Executors.newSingleThreadScheduledExecutor();
+        LoadGenerator generator = new LoadGenerator(config, targets,
+                (target, colour) -> sendColorMsg(target, colour, config.isCoalesce()),
+                new LoadGenerator.Timer() {
+                    @Override
+                    public long nanoTime() {
+                        return System.nanoTime();
+                    }
+
+                    @Override
+                    public void schedule(long delayNanos, Runnable task) {
+                        try {
+                            runner.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+                        } catch (RejectedExecutionException e) {
+                            // The test was stopped.
+                        }
+                    }
+                });
+        generator.setListener(report -> {
+            runner.shutdown();
+            onLoadFinished(report, new File(directory, LOAD_REPORT_FILE));
+        });
+        loadGenerator = generator;
+        loadRunner = runner;
+        runner.execute(generator::start);
+        return true;
+    }
+
+    /**
+     * Stop the load test in progress, if any. Its report is still written.
+     */
+    void stopLoad() {
+        if (loadGenerator != null) {
+            loadGenerator.stop();
+            loadRunner.shutdown();
+        }
+    }
+
+    private void onLoadFinished(LoadReport report, File file) {
+        Log.i(TAG, "Load test finished: " + report);
+        notifyUser(String.format(Locale.ROOT,
+                "Load test: %.1f sent/s, %d failed", report.getThroughput(), report.getFailed()));
+        metricsWriter.execute(() -> {
+            try {
+                LoadReportWriter.write(report, file);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to write load report, with message: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Write the current metrics, in the OpenMetrics text format, to {@value #METRICS_FILE} in a
+     * directory. Use the app's private files directory; the file can then be read with
+     * {@code adb shell run-as io.left.ripple cat files/metrics.txt}. The file is written on a
+     * background thread and replaced in one step.
+     *
+     * @param directory directory to write to
+     */
+    void exportMetrics(File directory) {
+        File file = new File(directory, METRICS_FILE);
+        MetricsRegistry metrics = rmConnector.getMetrics();
+        metricsWriter.execute(() -> {
+            try {
+                OpenMetricsWriter.write(metrics.snapshot(), file);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to write metrics, with message: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Write the spans recorded by the tracer, in the Chrome trace event JSON format, to
+     * {@value #TRACE_FILE} in a directory, if tracing is on. Pull it with
+     * {@code adb shell run-as io.left.ripple cat files/trace.json > trace.json} and open it in
+     * chrome://tracing or ui.perfetto.dev. The file is written on a background thread.
+     *
+     * @param directory directory to write to
+     */
+    void exportTrace(File directory) {
+        if (!tracer.isEnabled()) {
+            return;
+        }
+        File file = new File(directory, TRACE_FILE);
+        List<Tracer.Span> spans = tracer.snapshot();
+        metricsWriter.execute(() -> {
+            try {
+                ChromeTraceWriter.write(spans, file);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to write trace, with message: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Close RightMesh connection when kept in a view model store that is cleared.
      */
     @Override
     protected void onCleared() {
+        close();
+    }
+
+    /**
+     * Stop probing and load tests and close the RightMesh connection. Called by
+     * {@link RippleService} when it is destroyed.
+     */
+    void close() {
+        peersPending.removeObserver(peerChangesApplier);
+        stopProbing();
+        stopLoad();
+        retrier.shutdownNow();
+        metricsWriter.shutdown();
+        Outbox box = outbox;
+        if (box != null) {
+            try {
+                box.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to close outbox, with message: " + e.getMessage());
+            }
+        }
         try {
             rmConnector.stop();
         } catch (RightMeshException.RightMeshServiceDisconnectedException e) {
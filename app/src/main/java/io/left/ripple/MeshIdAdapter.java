@@ -4,31 +4,66 @@ import static io.left.ripple.Colour.BLUE;
 import static io.left.ripple.Colour.TEXT_LIGHT;
 
 import android.content.Context;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
 import io.left.rightmesh.id.MeshId;
 import io.left.ripple.helper.MeshHelper;
+import io.left.ripple.mesh.PeerRegistry;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * A custom adapter to style the MeshIDs a little nicer in the list.
+ *
+ * The adapter keeps no list of its own, it is a view over a {@link PeerRegistry}. Register it as a
+ * listener of the registry to have the list refreshed when peers are added or removed.
+ *
+ * Binding a row allocates nothing once its peer has been seen: labels are cached by MeshId, up to
+ * {@link #LABEL_CACHE_SIZE} peers and until the peer is removed, and both text colours are
+ * resolved once when the adapter is created.
  */
-public class MeshIdAdapter extends ArrayAdapter<MeshId> {
+public class MeshIdAdapter extends BaseAdapter implements PeerRegistry.Listener {
+    private static final int ITEM_LAYOUT = android.R.layout.simple_spinner_dropdown_item;
+    static final int LABEL_CACHE_SIZE = 256;
+    private static final String DEVICE_LABEL = "This Device";
+
+    private final Context context;
+    private final LayoutInflater inflater;
+    private final PeerRegistry peerRegistry;
+    private final int deviceColour;
+    private final int peerColour;
+    // Shortened MeshIds, least recently used first. Only used on the main thread.
+    private final Map<MeshId, String> labels =
+            new LinkedHashMap<MeshId, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<MeshId, String> eldest) {
+                    return size() > LABEL_CACHE_SIZE;
+                }
+            };
+
     // ID of the peer to treat as this device (i.e. for styling and naming).
     private MeshId deviceId;
 
     /**
-     * Inflates the parent {@link ArrayAdapter} and stores the context for use loading colours.
+     * Stores the context for use inflating views and loading colours.
      *
-     * @param context app context, need by parent class
+     * @param context      app context
+     * @param peerRegistry peers to list
      */
-    public MeshIdAdapter(@NonNull Context context) {
-        super(context, android.R.layout.simple_spinner_dropdown_item);
+    public MeshIdAdapter(@NonNull Context context, @NonNull PeerRegistry peerRegistry) {
+        this.context = context;
+        this.inflater = LayoutInflater.from(context);
+        this.peerRegistry = peerRegistry;
+        this.deviceColour = ContextCompat.getColor(context, BLUE.getColourId());
+        this.peerColour = ContextCompat.getColor(context, TEXT_LIGHT.getColourId());
     }
 
 
@@ -37,6 +72,39 @@ public class MeshIdAdapter extends ArrayAdapter<MeshId> {
     }
 
 
+    public Context getContext() {
+        return context;
+    }
+
+    @Override
+    public int getCount() {
+        return peerRegistry.size();
+    }
+
+    @Override
+    public MeshId getItem(int position) {
+        return peerRegistry.get(position).getId();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    /**
+     * Refresh the list, called by the registry when peers are added or removed. Labels of removed
+     * peers are dropped from the cache.
+     */
+    @Override
+    public void onPeersChanged() {
+        for (Iterator<MeshId> it = labels.keySet().iterator(); it.hasNext(); ) {
+            if (!peerRegistry.contains(it.next())) {
+                it.remove();
+            }
+        }
+        notifyDataSetChanged();
+    }
+
     //
     // VIEW GENERATION METHODS
     //
@@ -50,8 +118,7 @@ public class MeshIdAdapter extends ArrayAdapter<MeshId> {
     @NonNull
     @Override
     public View getView(int position, View convertView, @NonNull ViewGroup parent) {
-        TextView view = (TextView) super.getView(position, convertView, parent);
-        return modifyView(view, position);
+        return modifyView(inflate(convertView, parent), position);
     }
 
     /**
@@ -62,8 +129,14 @@ public class MeshIdAdapter extends ArrayAdapter<MeshId> {
      */
     @Override
     public View getDropDownView(int position, View convertView, @NonNull ViewGroup parent) {
-        TextView view = (TextView) super.getDropDownView(position, convertView, parent);
-        return modifyView(view, position);
+        return modifyView(inflate(convertView, parent), position);
+    }
+
+    private TextView inflate(View convertView, ViewGroup parent) {
+        if (convertView != null) {
+            return (TextView) convertView;
+        }
+        return (TextView) inflater.inflate(ITEM_LAYOUT, parent, false);
     }
 
     /**
@@ -74,6 +147,7 @@ public class MeshIdAdapter extends ArrayAdapter<MeshId> {
      * @param position position of the item to be used
      * @return the modified view
      */
+    @SuppressWarnings("PMD.CompareObjectsWithEquals")
     private View modifyView(TextView view, int position) {
         MeshId item = this.getItem(position);
         if (item != null) {
@@ -82,27 +156,58 @@ public class MeshIdAdapter extends ArrayAdapter<MeshId> {
 
             if (item.equals(deviceId)) {
                 // Change text colour if is the current device's ID.
-                text = "This Device";
-                colour = BLUE.getColourId();
+                text = DEVICE_LABEL;
+                colour = deviceColour;
             } else {
                 // Otherwise, simply make the MeshId more readable and use the theme default colour.
-                text = MeshHelper.getInstance().shortenMeshId(item);
-                colour = TEXT_LIGHT.getColourId();
+                text = getLabel(item);
+                colour = peerColour;
+            }
+            // A recycled view often shows the same peer already, and setting either again
+            // allocates. Labels are cached, so the same peer gives the very same String.
+            if (view.getText() != text) {
+                view.setText(text);
+            }
+            if (view.getCurrentTextColor() != colour) {
+                view.setTextColor(colour);
             }
-            view.setText(text);
-            view.setTextColor(ContextCompat.getColor(getContext(), colour));
         }
         return view;
     }
 
+    /**
+     * Get the shortened MeshId shown for a peer, from the cache if it has been shown before.
+     *
+     * @param id peer to label
+     * @return label for the peer
+     */
+    String getLabel(MeshId id) {
+        String label = labels.get(id);
+        if (label == null) {
+            label = MeshHelper.getInstance().shortenMeshId(id);
+            labels.put(id, label);
+        }
+        return label;
+    }
+
     /**
      * Mimic {@link java.util.ArrayList#contains(Object)} behaviour to make this class easier to
      * use as a list.
      *
      * @param item to check the existence of
-     * @return true if the provided item is in the array, false otherwise
+     * @return true if the provided item is in the list, false otherwise
      */
     public boolean contains(MeshId item) {
-        return getPosition(item) >= 0; // The position is -1 if it doesn't exist.
+        return peerRegistry.contains(item);
+    }
+
+    /**
+     * Get the position of a peer in the list.
+     *
+     * @param item peer to look for
+     * @return the position, or -1 if it is not in the list
+     */
+    public int getPosition(MeshId item) {
+        return peerRegistry.indexOf(item);
     }
 }
\ No newline at end of file
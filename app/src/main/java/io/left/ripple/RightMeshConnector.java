@@ -1,7 +1,10 @@
 package io.left.ripple;
 
+import static io.left.rightmesh.mesh.MeshManager.ADDED;
 import static io.left.rightmesh.mesh.MeshManager.DATA_RECEIVED;
 import static io.left.rightmesh.mesh.MeshManager.PEER_CHANGED;
+import static io.left.rightmesh.mesh.MeshManager.REMOVED;
+import static io.left.rightmesh.mesh.MeshManager.UPDATED;
 
 import android.content.Context;
 import android.util.Log;
@@ -11,32 +14,212 @@ import io.left.rightmesh.id.MeshId;
 import io.left.rightmesh.mesh.MeshManager;
 import io.left.rightmesh.mesh.MeshStateListener;
 import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.mesh.Backoff;
+import io.left.ripple.mesh.ListenerList;
+import io.left.ripple.mesh.RateLimitedException;
+import io.left.ripple.mesh.RateLimiter;
+import io.left.ripple.mesh.RouteCache;
+import io.left.ripple.mesh.SendFuture;
+import io.left.ripple.mesh.SendScheduler;
+import io.left.ripple.mesh.StripedExecutor;
+import io.left.ripple.message.ColourFrame;
+import io.left.ripple.message.FrameFormatException;
+import io.left.ripple.message.MessageKind;
+import io.left.ripple.message.WireFormatPolicy;
+import io.left.ripple.metrics.LatencyHistogram;
+import io.left.ripple.metrics.MetricsRegistry;
+import io.left.ripple.metrics.StripedCounter;
+import io.left.ripple.metrics.Tracer;
+import io.left.ripple.stream.EventPublisher;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * To communicate with the RightMesh service and redirect to RightMesh wallet activity.
  *
  * After connecting, we can register {@link OnDataReceiveListener}, {@link OnPeerChangedListener},
- * {@link OnConnectSuccessListener} to receive the RightMesh event.
+ * {@link OnConnectSuccessListener} to receive the RightMesh event. Any number of listeners can be
+ * added for each event, from any thread; they are called in the order they were added. Data
+ * listeners can be added for one {@link MessageKind} only.
+ *
+ * Received data is handed off the RightMesh callback thread to a few receive workers, so one slow
+ * listener does not hold up every later message. Messages from the same sender always go to the
+ * same worker, and reach the listeners in the order they arrived; at most
+ * {@value #RECEIVE_CAPACITY} wait at a time, beyond which new ones are dropped. Peer and connect
+ * listeners are called on the RightMesh callback thread.
+ *
+ * The same events, and the changes of {@link ConnectionState}, are also published as streams,
+ * see {@link #dataReceived()}, {@link #peerChanged()} and {@link #connectionStates()}, for
+ * consumers that need buffering and backpressure, or to sample or batch them with
+ * {@link io.left.ripple.stream.Streams}.
  *
  * Always call {@link RightMeshConnector#stop()} if not interest in keeping connection with
  * RightMesh service anymore.
+ *
+ * The connection goes through the states of {@link ConnectionState}. When the service is lost,
+ * or reports a failure, the connector resumes it after a backoff, then binds the port again; the
+ * event handlers are registered once, on the first connection. Queued sends are held by the
+ * {@link SendScheduler} until the connection comes back, for up to {@value #SEND_HOLD_MS} ms,
+ * rather than failing during the gap, and the send worker is not blocked meanwhile.
  */
 public class RightMeshConnector implements MeshStateListener {
     private static final String TAG = RightMeshConnector.class.getCanonicalName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Bounds for the next hop cache. Routes are also dropped on PEER_CHANGED events.
+    private static final int ROUTE_CACHE_SIZE = 256;
+    private static final long ROUTE_CACHE_TTL_MS = 30_000;
+    // Maximum number of sends waiting for the send worker, in each lane. Broadcasts are few but
+    // each is many sends, and control messages are small but only worth sending while fresh.
+    private static final int SEND_QUEUE_CAPACITY = 64;
+    private static final int CONTROL_QUEUE_CAPACITY = 32;
+    private static final int BULK_QUEUE_CAPACITY = 16;
+    // Receive workers, and the maximum number of received messages waiting for them.
+    private static final int RECEIVE_WORKERS = 4;
+    static final int RECEIVE_CAPACITY = 256;
+    // Events buffered for each stream subscriber until it requests them, by default.
+    private static final int STREAM_BUFFER_SIZE = 128;
+    // Minimum time between two colour updates sent to the same recipient.
+    private static final long COALESCE_WINDOW_MS = 100;
+    // Number of spans kept by the tracer, see getTracer().
+    private static final int TRACE_CAPACITY = 4096;
+    // Delays between attempts to resume a lost connection, and the time to wait for RightMesh
+    // to report the outcome of one.
+    private static final long RECONNECT_INITIAL_BACKOFF_MS = 1_000;
+    private static final long RECONNECT_MAX_BACKOFF_MS = 60_000;
+    private static final long RECONNECT_TIMEOUT_MS = 30_000;
+    // Longest time a queued send is held while the connection is not bound.
+    static final long SEND_HOLD_MS = 30_000;
+    // Relayed sends allowed to each next hop, per second and in a burst, before they are refused.
+    // The rate of a next hop shrinks, down to a tenth, while sends to it are slower than the
+    // target or failing.
+    private static final double NEXT_HOP_RATE_PER_S = 50;
+    private static final int NEXT_HOP_BURST = 25;
+    private static final long SEND_LATENCY_TARGET_MS = 500;
+    private static final double MIN_RATE_SCALE = 0.1;
+    // Sends of this device allowed to each next hop, per second and in a burst, in a bucket of
+    // their own so relayed traffic cannot use it up.
+    private static final double OWN_RATE_PER_S = 100;
+    private static final int OWN_BURST = 50;
+
+    // Metric names, see getMetrics().
+    static final String METRIC_SENDS = "ripple_sends";
+    static final String METRIC_SEND_FAILURES = "ripple_send_failures";
+    static final String METRIC_SEND_SECONDS = "ripple_send_reliable_seconds";
+    static final String METRIC_SEND_QUEUE_SECONDS = "ripple_send_queue_seconds";
+    static final String METRIC_SEND_QUEUE_DEPTH = "ripple_send_queue_depth";
+    static final String METRIC_RATE_LIMITED = "ripple_rate_limited";
+    static final String METRIC_NEXT_HOP_FAILURES = "ripple_next_hop_failures";
+    static final String METRIC_TEXT_ONLY_REFUSED = "ripple_text_only_refused";
+    static final String METRIC_NEXT_HOP_SECONDS = "ripple_next_hop_lookup_seconds";
+    static final String METRIC_RECEIVES = "ripple_receives";
+    static final String METRIC_RECEIVE_REJECTED = "ripple_receive_rejected";
+    static final String METRIC_RECEIVE_QUEUE_DEPTH = "ripple_receive_queue_depth";
+    static final String METRIC_RECEIVE_IN_FLIGHT = "ripple_receive_in_flight";
+    static final String METRIC_PEER_CHANGES = "ripple_peer_changes";
+    static final String METRIC_DISCONNECTS = "ripple_disconnects";
+    static final String METRIC_RECOVERY_SECONDS = "ripple_reconnect_seconds";
+    static final String LABEL_EXCEPTION = "exception";
+    static final String LABEL_STATE = "state";
+    static final String LABEL_STRIPE = "stripe";
+    static final String LABEL_LANE = "lane";
+    static final String LABEL_LIMIT = "limit";
 
     private final int meshPort;
+    private final RouteCache routeCache = new RouteCache(ROUTE_CACHE_SIZE, ROUTE_CACHE_TTL_MS);
+    // Keeps blocking sends off the main thread and the RightMesh callback thread.
+    private final SendScheduler sendScheduler = new SendScheduler(this::sendDataReliable,
+            SEND_QUEUE_CAPACITY, SendScheduler.OverflowPolicy.DROP_OLDEST);
+    // Runs the data listeners off the RightMesh callback thread, in order per sender.
+    private final StripedExecutor receiveWorkers =
+            new StripedExecutor("ripple-receive", RECEIVE_WORKERS, RECEIVE_CAPACITY);
+    // Keeps traffic relayed for other devices from taking all of the send worker and the links
+    // around one busy next hop.
+    private final RateLimiter nextHopLimiter =
+            new RateLimiter(NEXT_HOP_RATE_PER_S, NEXT_HOP_BURST, ROUTE_CACHE_SIZE);
+    // Keeps this device's own sends, e.g. of the load generator, from flooding one next hop.
+    private final RateLimiter ownSendLimiter =
+            new RateLimiter(OWN_RATE_PER_S, OWN_BURST, ROUTE_CACHE_SIZE);
+    private final SendScheduler.Sender relaySender = this::relayDataReliable;
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final StripedCounter sends = metrics.counter(METRIC_SENDS);
+    private final StripedCounter receives = metrics.counter(METRIC_RECEIVES);
+    private final StripedCounter receivesRejected = metrics.counter(METRIC_RECEIVE_REJECTED);
+    private final LatencyHistogram sendLatency = metrics.histogram(METRIC_SEND_SECONDS);
+    private final LatencyHistogram nextHopLatency = metrics.histogram(METRIC_NEXT_HOP_SECONDS);
+    private final StripedCounter peersAdded = metrics.counter(METRIC_PEER_CHANGES, LABEL_STATE,
+            "added");
+    private final StripedCounter peersRemoved = metrics.counter(METRIC_PEER_CHANGES, LABEL_STATE,
+            "removed");
+    private final StripedCounter peersUpdated = metrics.counter(METRIC_PEER_CHANGES, LABEL_STATE,
+            "updated");
+    private final StripedCounter disconnects = metrics.counter(METRIC_DISCONNECTS);
+    private final LatencyHistogram recoveryLatency = metrics.histogram(METRIC_RECOVERY_SECONDS);
+    private final StripedCounter nextHopLimited = metrics.counter(METRIC_RATE_LIMITED, LABEL_LIMIT,
+            "next_hop");
+    private final StripedCounter ownSendLimited = metrics.counter(METRIC_RATE_LIMITED, LABEL_LIMIT,
+            "own");
+    private final StripedCounter textOnlyRefused = metrics.counter(METRIC_TEXT_ONLY_REFUSED);
+    private final Tracer tracer = new Tracer(TRACE_CAPACITY);
+
+    // State of the connection, guarded by stateLock.
+    private final Object stateLock = new Object();
+    private ConnectionState connectionState = ConnectionState.IDLE;
+    // Whether the RightMesh event handlers must be registered, as they never were or the service
+    // was lost since.
+    private volatile boolean handlersStale = true;
+    // Generation of the registered event handlers; handlers of older ones ignore their events,
+    // so an event is never dispatched twice. Only written on the RightMesh thread.
+    private volatile int handlerGeneration;
+    // When the connection was lost, in System.nanoTime() terms, or -1 if it was never bound.
+    private long lostAtNanos = -1;
+    // Attempts to resume since the connection was last bound.
+    private int reconnectAttempts;
+    private Backoff reconnectBackoff = new Backoff(RECONNECT_INITIAL_BACKOFF_MS,
+            RECONNECT_MAX_BACKOFF_MS, new Random());
+    // Runs reconnect attempts. Its thread is only started by the first one.
+    private final ScheduledExecutorService reconnector =
+            Executors.newSingleThreadScheduledExecutor();
+
+    // ID of this device, skipped when sending to every device. Null until connected.
+    private volatile MeshId localMeshId;
+    // Which next hops may be handed binary frames. Null to hand them to any.
+    private volatile WireFormatPolicy wireFormatPolicy;
 
     // Interface object for the RightMesh library.
     private AndroidMeshManager androidMeshManager;
 
-    //listener for data receiving event
-    private OnDataReceiveListener dataReceiveListener;
-    //listener for peer changing event
-    private OnPeerChangedListener peerchangedListener;
-    //listener for connecting successful event
-    private OnConnectSuccessListener connectSuccessListener;
+    // Listeners for data receiving events, for every message and for each kind of message.
+    private final ListenerList<OnDataReceiveListener> dataReceiveListeners =
+            new ListenerList<>();
+    private final Map<MessageKind, ListenerList<OnDataReceiveListener>> dataReceiveListenersByKind =
+            new EnumMap<>(MessageKind.class);
+    // Listeners for peer changing events.
+    private final ListenerList<OnPeerChangedListener> peerChangedListeners = new ListenerList<>();
+    // Listeners for connecting successful events.
+    private final ListenerList<OnConnectSuccessListener> connectSuccessListeners =
+            new ListenerList<>();
+    // The same events as streams, and the connection states.
+    private final EventPublisher<MeshManager.DataReceivedEvent> dataEvents =
+            new EventPublisher<>(STREAM_BUFFER_SIZE, EventPublisher.OverflowPolicy.DROP_OLDEST);
+    private final EventPublisher<MeshManager.PeerChangedEvent> peerEvents =
+            new EventPublisher<>(STREAM_BUFFER_SIZE, EventPublisher.OverflowPolicy.DROP_OLDEST);
+    private final EventPublisher<ConnectionState> connectionStates =
+            new EventPublisher<>(STREAM_BUFFER_SIZE, EventPublisher.OverflowPolicy.DROP_OLDEST);
 
     /**
      * Constructor.
@@ -45,6 +228,27 @@ public class RightMeshConnector implements MeshStateListener {
      */
     public RightMeshConnector(int meshPort) {
         this.meshPort = meshPort;
+        sendScheduler.setCoalesceWindowMillis(COALESCE_WINDOW_MS);
+        sendScheduler.setHoldTimeoutMillis(SEND_HOLD_MS);
+        sendScheduler.setLaneCapacity(SendScheduler.Lane.CONTROL, CONTROL_QUEUE_CAPACITY);
+        sendScheduler.setLaneCapacity(SendScheduler.Lane.BULK, BULK_QUEUE_CAPACITY);
+        for (SendScheduler.Lane lane : SendScheduler.Lane.values()) {
+            String name = lane.name().toLowerCase(Locale.ROOT);
+            sendScheduler.setLatencyHistogram(lane,
+                    metrics.histogram(METRIC_SEND_QUEUE_SECONDS, LABEL_LANE, name));
+            metrics.gauge(METRIC_SEND_QUEUE_DEPTH, LABEL_LANE, name,
+                    () -> sendScheduler.getQueuedCount(lane));
+        }
+        for (MessageKind kind : MessageKind.values()) {
+            dataReceiveListenersByKind.put(kind, new ListenerList<>());
+        }
+        for (int i = 0; i < receiveWorkers.getStripeCount(); i++) {
+            int stripe = i;
+            metrics.gauge(METRIC_RECEIVE_QUEUE_DEPTH, LABEL_STRIPE, String.valueOf(stripe),
+                    () -> receiveWorkers.getQueuedCount(stripe));
+        }
+        metrics.gauge(METRIC_RECEIVE_IN_FLIGHT, receiveWorkers::getInFlightCount);
+        nextHopLimiter.setAdaptive(SEND_LATENCY_TARGET_MS, MIN_RATE_SCALE);
     }
 
     /**
@@ -53,6 +257,7 @@ public class RightMeshConnector implements MeshStateListener {
      * @param context Should pass application context
      */
     public void connect(Context context) {
+        setConnectionState(ConnectionState.CONNECTING);
         androidMeshManager = AndroidMeshManager.getInstance(context,
                 this);
     }
@@ -65,36 +270,285 @@ public class RightMeshConnector implements MeshStateListener {
      */
     @Override
     public void meshStateChanged(MeshId meshId, int state) {
-        if (state == SUCCESS) {
+        long start = tracer.begin();
+        try {
+            handleMeshState(meshId, state);
+        } finally {
+            tracer.end(Tracer.Event.MESH_STATE_CHANGED, start, meshId, Tracer.NO_MESSAGE);
+        }
+    }
+
+    private void handleMeshState(MeshId meshId, int state) {
+        if (state == SUCCESS || state == RESUME) {
+            localMeshId = meshId;
             try {
                 // Attempt to bind to a port.
-                androidMeshManager.bind(meshPort);
+                try {
+                    androidMeshManager.bind(meshPort);
+                } catch (RightMeshException.RightMeshServiceDisconnectedException sde) {
+                    throw sde;
+                } catch (RightMeshException rme) {
+                    // Bound before the connection was lost; the handlers are registered again.
+                    Log.e(TAG, "MeshPort already bound, with message: " + rme.getMessage());
+                }
 
                 // Update the peers list.
-                if (connectSuccessListener != null) {
-                    connectSuccessListener.onConnectSuccess(meshId);
-                }
+                connectSuccessListeners.dispatch(OnConnectSuccessListener::onConnectSuccess,
+                        meshId);
 
-                // Bind RightMesh event handlers.
-                androidMeshManager.on(DATA_RECEIVED, event -> {
-                    if (dataReceiveListener != null) {
-                        dataReceiveListener.onDataReceive(event);
-                    }
-                });
-                androidMeshManager.on(PEER_CHANGED, event -> {
-                    if (peerchangedListener != null) {
-                        peerchangedListener.onPeerChange(event);
-                    }
-                });
+                // Bind RightMesh event handlers, again once the service was lost, as the handlers
+                // registered with the lost one may be gone.
+                if (handlersStale) {
+                    registerHandlers();
+                    handlersStale = false;
+                }
+                onBound();
             } catch (RightMeshException.RightMeshServiceDisconnectedException sde) {
                 Log.e(TAG, "Service disconnected while binding, with message: "
                         + sde.getMessage());
+                onConnectionLost();
             } catch (RightMeshException rme) {
-                Log.e(TAG, "MeshPort already bound, with message: " + rme.getMessage());
+                Log.e(TAG, "Unable to register event handlers, with message: "
+                        + rme.getMessage());
+                onConnectionLost();
+            }
+        } else if (state == FAILURE || state == DISABLED) {
+            Log.e(TAG, "RightMesh service unavailable, state: " + state);
+            onConnectionLost();
+        }
+    }
+
+    /**
+     * Register the RightMesh event handlers, replacing any registered before: those are left
+     * with an older generation, and ignore their events from then on.
+     */
+    private void registerHandlers() throws RightMeshException {
+        int generation = handlerGeneration + 1;
+        handlerGeneration = generation;
+        androidMeshManager.on(DATA_RECEIVED, event -> {
+            if (handlerGeneration == generation) {
+                handleDataReceived(event);
+            }
+        });
+        androidMeshManager.on(PEER_CHANGED, event -> {
+            if (handlerGeneration == generation) {
+                handlePeerChanged(event);
+            }
+        });
+    }
+
+    /**
+     * Get the state of the connection to the RightMesh service.
+     *
+     * @return {@link ConnectionState}
+     */
+    public ConnectionState getConnectionState() {
+        synchronized (stateLock) {
+            return connectionState;
+        }
+    }
+
+    /**
+     * Set the delays between attempts to resume a lost connection.
+     *
+     * @param initialMillis delay before the first attempt, doubled after each failed one
+     * @param maxMillis     longest delay
+     */
+    public void setReconnectBackoff(long initialMillis, long maxMillis) {
+        synchronized (stateLock) {
+            reconnectBackoff = new Backoff(initialMillis, maxMillis, new Random());
+        }
+    }
+
+    private void setConnectionState(ConnectionState state) {
+        synchronized (stateLock) {
+            connectionState = state;
+            // Sends wait in their queues while the connection is being set up or recovered.
+            sendScheduler.setHeld(state == ConnectionState.CONNECTING
+                    || state == ConnectionState.DISCONNECTED
+                    || state == ConnectionState.BACKOFF);
+            // Published under the lock, so subscribers see the states in order.
+            connectionStates.publish(state);
+        }
+    }
+
+    /**
+     * Port bound and handlers registered: release held sends, and record how long the
+     * connection took to recover if it was lost.
+     */
+    private void onBound() {
+        synchronized (stateLock) {
+            if (connectionState == ConnectionState.STOPPED) {
+                return;
+            }
+            if (lostAtNanos >= 0) {
+                recoveryLatency.recordSince(lostAtNanos);
+                lostAtNanos = -1;
+            }
+            reconnectAttempts = 0;
+            setConnectionState(ConnectionState.BOUND);
+        }
+    }
+
+    /**
+     * The service was lost or failed: schedule an attempt to resume it, unless one is pending
+     * already. Routes found before may no longer hold, so they are dropped.
+     */
+    private void onConnectionLost() {
+        synchronized (stateLock) {
+            ConnectionState state = connectionState;
+            if (state == ConnectionState.IDLE || state == ConnectionState.STOPPED
+                    || state == ConnectionState.DISCONNECTED
+                    || state == ConnectionState.BACKOFF) {
+                return;
+            }
+            if (state == ConnectionState.BOUND) {
+                disconnects.increment();
+                lostAtNanos = System.nanoTime();
             }
+            setConnectionState(ConnectionState.DISCONNECTED);
+        }
+        handlersStale = true;
+        routeCache.clear();
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        long delay;
+        int attempt;
+        synchronized (stateLock) {
+            if (connectionState != ConnectionState.DISCONNECTED) {
+                return;
+            }
+            attempt = ++reconnectAttempts;
+            delay = reconnectBackoff.delayMillis(attempt - 1);
+            setConnectionState(ConnectionState.BACKOFF);
+        }
+        try {
+            reconnector.schedule(() -> reconnect(attempt), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Stopped.
+        }
+    }
+
+    /**
+     * Ask RightMesh to resume the service. It reports the outcome through
+     * {@link #meshStateChanged(MeshId, int)}; if it does not in time, the attempt counts as
+     * failed. Runs on the reconnect thread.
+     *
+     * @param attempt number of the attempt since the connection was last bound
+     */
+    private void reconnect(int attempt) {
+        synchronized (stateLock) {
+            if (connectionState != ConnectionState.BACKOFF || reconnectAttempts != attempt) {
+                return;
+            }
+            setConnectionState(ConnectionState.CONNECTING);
+        }
+        try {
+            androidMeshManager.resume();
+        } catch (RightMeshException.RightMeshServiceDisconnectedException sde) {
+            Log.e(TAG, "Unable to resume service, with message: " + sde.getMessage());
+            retryReconnect(attempt);
+            return;
+        }
+        try {
+            reconnector.schedule(() -> retryReconnect(attempt), RECONNECT_TIMEOUT_MS,
+                    TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Stopped.
+        }
+    }
+
+    /**
+     * Schedule another attempt if the given one has not connected.
+     */
+    private void retryReconnect(int attempt) {
+        synchronized (stateLock) {
+            if (connectionState != ConnectionState.CONNECTING || reconnectAttempts != attempt) {
+                return;
+            }
+            setConnectionState(ConnectionState.DISCONNECTED);
+        }
+        scheduleReconnect();
+    }
+
+    /**
+     * Note a failure reported by RightMesh, and whether it means the service was lost.
+     */
+    private void onFailure(String name, RightMeshException failure) {
+        countFailure(name, failure);
+        if (failure instanceof RightMeshException.RightMeshServiceDisconnectedException) {
+            onConnectionLost();
+        }
+    }
+
+    /**
+     * Hand a DATA_RECEIVED event to the receive worker of its sender, or drop it if too many
+     * are waiting already.
+     *
+     * @param event event from RightMesh
+     */
+    void handleDataReceived(MeshManager.RightMeshEvent event) {
+        receives.increment();
+        if (!receiveAsync(event.peerUuid, () -> dispatchDataReceived(event))) {
+            receivesRejected.increment();
+            Log.e(TAG, "Receive queue is full, dropping message from " + event.peerUuid);
         }
     }
 
+    /**
+     * Run the listeners of a received message on the receive worker of its sender, after the
+     * messages received from it before.
+     *
+     * @param sender   peer the message was received from
+     * @param dispatch calls the listeners
+     * @return false if the message was not queued
+     */
+    boolean receiveAsync(MeshId sender, Runnable dispatch) {
+        return receiveWorkers.execute(sender, dispatch);
+    }
+
+    /**
+     * Pass a DATA_RECEIVED event on to the listeners for every message, then to those for its
+     * kind of message.
+     *
+     * @param event event from RightMesh
+     */
+    void dispatchDataReceived(MeshManager.RightMeshEvent event) {
+        try {
+            dataReceiveListeners.dispatch(OnDataReceiveListener::onDataReceive, event);
+            MessageKind kind = MessageKind.of(((MeshManager.DataReceivedEvent) event).data);
+            dataReceiveListenersByKind.get(kind).dispatch(OnDataReceiveListener::onDataReceive,
+                    event);
+            dataEvents.publish((MeshManager.DataReceivedEvent) event);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unable to handle received message, with message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drop cached routes affected by a PEER_CHANGED event, then pass it on to the listeners.
+     *
+     * @param event event from RightMesh
+     */
+    void handlePeerChanged(MeshManager.RightMeshEvent event) {
+        int state = ((MeshManager.PeerChangedEvent) event).state;
+        if (state == REMOVED || state == UPDATED) {
+            routeCache.invalidate(event.peerUuid);
+        }
+        if (state == ADDED) {
+            peersAdded.increment();
+        } else if (state == REMOVED) {
+            peersRemoved.increment();
+        } else if (state == UPDATED) {
+            peersUpdated.increment();
+        }
+
+        peerChangedListeners.dispatch(OnPeerChangedListener::onPeerChange, event);
+        peerEvents.publish((MeshManager.PeerChangedEvent) event);
+    }
+
     /**
      * Trigger when want to disconnect with Rightmesh.
      *
@@ -102,34 +556,119 @@ public class RightMeshConnector implements MeshStateListener {
      *                                                                  Rightmesh.
      */
     public void stop() throws RightMeshException.RightMeshServiceDisconnectedException {
+        setConnectionState(ConnectionState.STOPPED);
+        reconnector.shutdownNow();
+        sendScheduler.shutdown();
+        receiveWorkers.shutdown();
+        dataEvents.complete();
+        peerEvents.complete();
+        connectionStates.complete();
         androidMeshManager.stop();
     }
 
     /**
-     * Set listener for data receive event.
+     * Add a listener for data receive events, called for every message.
      *
      * @param listener a callback
      */
-    public void setOnDataReceiveListener(OnDataReceiveListener listener) {
-        this.dataReceiveListener = listener;
+    public void addOnDataReceiveListener(OnDataReceiveListener listener) {
+        dataReceiveListeners.add(listener);
     }
 
     /**
-     * Set listener for peer change event.
+     * Add a listener for data receive events, called for one kind of message only.
      *
+     * @param kind     kind of message to receive
      * @param listener a callback
      */
-    public void setOnPeerChangedListener(OnPeerChangedListener listener) {
-        this.peerchangedListener = listener;
+    public void addOnDataReceiveListener(MessageKind kind, OnDataReceiveListener listener) {
+        dataReceiveListenersByKind.get(kind).add(listener);
     }
 
     /**
-     * Set listener for my MeshId receiving event.
+     * Remove a listener for data receive events, whether added for every message or for one
+     * kind of message.
+     *
+     * @param listener a callback added before
+     * @return true if it was found
+     */
+    public boolean removeOnDataReceiveListener(OnDataReceiveListener listener) {
+        boolean removed = dataReceiveListeners.remove(listener);
+        for (ListenerList<OnDataReceiveListener> listeners
+                : dataReceiveListenersByKind.values()) {
+            removed |= listeners.remove(listener);
+        }
+        return removed;
+    }
+
+    /**
+     * Add a listener for peer change events.
+     *
+     * @param listener a callback
+     */
+    public void addOnPeerChangedListener(OnPeerChangedListener listener) {
+        peerChangedListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener for peer change events.
+     *
+     * @param listener a callback added before
+     * @return true if it was found
+     */
+    public boolean removeOnPeerChangedListener(OnPeerChangedListener listener) {
+        return peerChangedListeners.remove(listener);
+    }
+
+    /**
+     * Add a listener for my MeshId receiving event.
      *
      * @param listener a callback
      */
-    public void setOnConnectSuccessListener(OnConnectSuccessListener listener) {
-        this.connectSuccessListener = listener;
+    public void addOnConnectSuccessListener(OnConnectSuccessListener listener) {
+        connectSuccessListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener for my MeshId receiving event.
+     *
+     * @param listener a callback added before
+     * @return true if it was found
+     */
+    public boolean removeOnConnectSuccessListener(OnConnectSuccessListener listener) {
+        return connectSuccessListeners.remove(listener);
+    }
+
+    /**
+     * Get the stream of received data. Events come from the receive workers, in order per
+     * sender; each subscriber buffers up to {@value #STREAM_BUFFER_SIZE} of them by default,
+     * dropping the oldest. The stream completes when the connector is stopped.
+     *
+     * @return publisher of DATA_RECEIVED events
+     */
+    public EventPublisher<MeshManager.DataReceivedEvent> dataReceived() {
+        return dataEvents;
+    }
+
+    /**
+     * Get the stream of peer changes, published on the RightMesh callback thread, buffered as
+     * for {@link #dataReceived()}.
+     *
+     * @return publisher of PEER_CHANGED events
+     */
+    public EventPublisher<MeshManager.PeerChangedEvent> peerChanged() {
+        return peerEvents;
+    }
+
+    /**
+     * Get the stream of connection states, published in order as they change, buffered as for
+     * {@link #dataReceived()}. Subscribers do not get the current state; see
+     * {@link #getConnectionState()}.
+     *
+     * @return publisher of {@link ConnectionState}s
+     */
+    public EventPublisher<ConnectionState> connectionStates() {
+        return connectionStates;
     }
 
     /**
@@ -142,7 +681,96 @@ public class RightMeshConnector implements MeshStateListener {
     }
 
     /**
-     * Send data to target device.
+     * Queue data to be sent to target device, without blocking the calling thread.
+     *
+     * @param targetMeshId Target meshId.
+     * @param payload      data need to send.
+     * @return {@link SendFuture} completed when the data has been sent, or failed to send.
+     */
+    public SendFuture sendAsync(MeshId targetMeshId, String payload) {
+        return sendAsync(targetMeshId, payload.getBytes(UTF_8));
+    }
+
+    /**
+     * Queue already encoded data to be sent to target device, without blocking the calling
+     * thread. Failures, such as {@link RightMeshException}s, are reported through the future.
+     *
+     * @param targetMeshId Target meshId.
+     * @param payload      encoded data need to send.
+     * @return {@link SendFuture} completed when the data has been sent, or failed to send.
+     */
+    public SendFuture sendAsync(MeshId targetMeshId, byte[] payload) {
+        return sendAsync(targetMeshId, payload, SendScheduler.Lane.INTERACTIVE);
+    }
+
+    /**
+     * Queue already encoded data to be sent to target device in a given priority lane, e.g.
+     * {@link SendScheduler.Lane#CONTROL} for protocol messages that must not wait behind bulk
+     * traffic.
+     *
+     * @param targetMeshId Target meshId.
+     * @param payload      encoded data need to send.
+     * @param lane         priority class of the send.
+     * @return {@link SendFuture} completed when the data has been sent, or failed to send.
+     */
+    public SendFuture sendAsync(MeshId targetMeshId, byte[] payload, SendScheduler.Lane lane) {
+        return sendScheduler.submit(lane, targetMeshId, payload);
+    }
+
+    /**
+     * Queue data to be sent to target device, replacing any data still queued for it. Use this
+     * for payloads where only the newest value matters, such as a colour; see
+     * {@link SendScheduler#submitLatest(MeshId, byte[])}.
+     *
+     * @param targetMeshId Target meshId.
+     * @param payload      data need to send.
+     * @return {@link SendFuture} completed when the newest data has been sent, or failed to send.
+     */
+    public SendFuture sendLatestAsync(MeshId targetMeshId, String payload) {
+        return sendLatestAsync(targetMeshId, payload.getBytes(UTF_8));
+    }
+
+    /**
+     * Queue already encoded data to be sent to target device, replacing any data still queued
+     * for it.
+     *
+     * @param targetMeshId Target meshId.
+     * @param payload      encoded data need to send.
+     * @return {@link SendFuture} completed when the newest data has been sent, or failed to send.
+     */
+    public SendFuture sendLatestAsync(MeshId targetMeshId, byte[] payload) {
+        return sendScheduler.submitLatest(targetMeshId, payload);
+    }
+
+    /**
+     * Queue data relayed on behalf of another device, without blocking the calling thread. Unlike
+     * {@link #sendAsync(MeshId, byte[], SendScheduler.Lane)}, the send counts against the relay
+     * limit of its next hop, see {@link #getNextHopLimiter()}, rather than the own send limit.
+     *
+     * @param targetMeshId Target meshId.
+     * @param payload      encoded data need to send.
+     * @param lane         priority class of the send.
+     * @return {@link SendFuture} completed when the data has been sent, or failed to send.
+     */
+    public SendFuture relayAsync(MeshId targetMeshId, byte[] payload, SendScheduler.Lane lane) {
+        return sendScheduler.submit(lane, targetMeshId, payload, relaySender);
+    }
+
+    /**
+     * Queue data relayed on behalf of another device, replacing any data still queued for the
+     * target, see {@link #sendLatestAsync(MeshId, byte[])}. The send counts against the limit
+     * of its next hop.
+     *
+     * @param targetMeshId Target meshId.
+     * @param payload      encoded data need to send.
+     * @return {@link SendFuture} completed when the newest data has been sent, or failed to send.
+     */
+    public SendFuture relayLatestAsync(MeshId targetMeshId, byte[] payload) {
+        return sendScheduler.submitLatest(targetMeshId, payload, relaySender);
+    }
+
+    /**
+     * Send data to target device. Blocks until RightMesh has accepted the data.
      *
      * @param targetMeshId Target meshId.
      * @param payload      data need to send.
@@ -151,8 +779,352 @@ public class RightMeshConnector implements MeshStateListener {
      */
     public void sendDataReliable(MeshId targetMeshId, String payload) throws RightMeshException,
             RightMeshException.RightMeshServiceDisconnectedException {
-        androidMeshManager.sendDataReliable(androidMeshManager.getNextHopPeer(targetMeshId),
-                meshPort, payload.getBytes(Charset.forName("UTF-8")));
+        sendDataReliable(targetMeshId, payload.getBytes(UTF_8));
+    }
+
+    /**
+     * Send already encoded data to target device. Blocks until RightMesh has accepted the data.
+     *
+     * @param targetMeshId Target meshId.
+     * @param payload      encoded data need to send.
+     * @throws RateLimitedException                                     Next hop over its limit.
+     * @throws RightMeshException.RightMeshServiceDisconnectedException Service disconnected.
+     * @throws RightMeshException                                       Can't find next hop.
+     */
+    public void sendDataReliable(MeshId targetMeshId, byte[] payload) throws RightMeshException,
+            RightMeshException.RightMeshServiceDisconnectedException {
+        MeshId nextHop = getNextHop(targetMeshId);
+        if (!ownSendLimiter.tryAcquire(nextHop)) {
+            throw rateLimited(nextHop, ownSendLimited);
+        }
+        sendViaNextHop(nextHop, payload);
+    }
+
+    /**
+     * Send data relayed on behalf of another device. Blocks until RightMesh has accepted the
+     * data.
+     *
+     * @param targetMeshId Target meshId.
+     * @param payload      encoded data need to send.
+     * @throws RateLimitedException                                     Next hop over its limit.
+     * @throws RightMeshException.RightMeshServiceDisconnectedException Service disconnected.
+     * @throws RightMeshException                                       Can't find next hop.
+     */
+    public void relayDataReliable(MeshId targetMeshId, byte[] payload)
+            throws RightMeshException, RightMeshException.RightMeshServiceDisconnectedException {
+        MeshId nextHop = getNextHop(targetMeshId);
+        if (!nextHopLimiter.tryAcquire(nextHop)) {
+            throw rateLimited(nextHop, nextHopLimited);
+        }
+        sendViaNextHop(nextHop, payload);
+    }
+
+    private void sendViaNextHop(MeshId nextHop, byte[] payload) throws RightMeshException {
+        byte[] readable = forNextHop(nextHop, payload);
+        try {
+            sendToNextHop(nextHop, readable);
+        } catch (RightMeshException rme) {
+            // The cached hop may be stale, look it up again next time.
+            routeCache.invalidate(nextHop);
+            throw rme;
+        }
+    }
+
+    /**
+     * Queue a payload for several devices, without blocking the calling thread. See
+     * {@link #broadcast(Collection, PayloadEncoder)}.
+     *
+     * @param destinations devices to reach
+     * @param encoder      builds the payload carried towards a group of destinations
+     * @return {@link SendFuture} completed when every payload has been sent, or failed to send.
+     */
+    public SendFuture broadcastAsync(Collection<MeshId> destinations, PayloadEncoder encoder) {
+        return broadcastAsync(destinations, encoder, SendScheduler.Lane.INTERACTIVE);
+    }
+
+    /**
+     * Queue a payload for several devices in a given priority lane. The broadcast runs as one
+     * step per next hop lookup and per send, so other lanes' sends go out in between.
+     *
+     * @param destinations devices to reach
+     * @param encoder      builds the payload carried towards a group of destinations
+     * @param lane         priority class of the broadcast
+     * @return {@link SendFuture} completed when every payload has been sent, or failed to send.
+     */
+    public SendFuture broadcastAsync(Collection<MeshId> destinations, PayloadEncoder encoder,
+                                     SendScheduler.Lane lane) {
+        return sendScheduler.submit(lane, new BroadcastJob(destinations, encoder, false));
+    }
+
+    /**
+     * Queue a broadcast relayed on behalf of another device, see
+     * {@link #broadcastAsync(Collection, PayloadEncoder, SendScheduler.Lane)}. Each send counts
+     * against the limit of its next hop; groups over it fail the broadcast, after trying the
+     * others.
+     *
+     * @param destinations devices to reach
+     * @param encoder      builds the payload carried towards a group of destinations
+     * @param lane         priority class of the broadcast, e.g. {@link SendScheduler.Lane#BULK}
+     * @return {@link SendFuture} completed when every payload has been sent, or failed to send.
+     */
+    public SendFuture relayBroadcastAsync(Collection<MeshId> destinations,
+                                          PayloadEncoder encoder, SendScheduler.Lane lane) {
+        return sendScheduler.submit(lane, new BroadcastJob(destinations, encoder, true));
+    }
+
+    /**
+     * Send a payload towards several devices with one transmission per next hop, rather than
+     * one per device. Destinations are grouped by the next hop towards them and each next hop is
+     * sent a single payload built for its group, which it is expected to split up again the same
+     * way. Every link on the way then carries one copy, so reaching all N devices of a mesh
+     * takes about N transmissions. Blocks until RightMesh has accepted every payload.
+     *
+     * @param destinations devices to reach, this device is skipped
+     * @param encoder      builds the payload carried towards a group of destinations
+     * @throws RightMeshException.RightMeshServiceDisconnectedException Service disconnected.
+     * @throws RightMeshException the first lookup or send that failed, after trying all groups.
+     */
+    public void broadcast(Collection<MeshId> destinations, PayloadEncoder encoder)
+            throws RightMeshException, RightMeshException.RightMeshServiceDisconnectedException {
+        BroadcastJob job = new BroadcastJob(destinations, encoder, false);
+        while (job.step()) {
+            // Run every step on the calling thread.
+        }
+    }
+
+    /**
+     * Hand a payload to RightMesh, recording how long it took and whether it failed.
+     */
+    private void sendToNextHop(MeshId nextHop, byte[] payload) throws RightMeshException {
+        long start = System.nanoTime();
+        long span = tracer.begin();
+        try {
+            androidMeshManager.sendDataReliable(nextHop, meshPort, payload);
+            sends.increment();
+            nextHopLimiter.onSuccess(nextHop, System.nanoTime() - start);
+        } catch (RightMeshException rme) {
+            nextHopLimiter.onFailure(nextHop);
+            onFailure(METRIC_SEND_FAILURES, rme);
+            throw rme;
+        } finally {
+            sendLatency.recordSince(start);
+            tracer.end(Tracer.Event.SEND_DATA_RELIABLE, span, nextHop, Tracer.NO_MESSAGE);
+        }
+    }
+
+    private MeshId getNextHop(MeshId targetMeshId) throws RightMeshException {
+        MeshId nextHop = routeCache.get(targetMeshId);
+        if (nextHop == null) {
+            long start = System.nanoTime();
+            long span = tracer.begin();
+            try {
+                nextHop = androidMeshManager.getNextHopPeer(targetMeshId);
+            } catch (RightMeshException rme) {
+                onFailure(METRIC_NEXT_HOP_FAILURES, rme);
+                throw rme;
+            } finally {
+                nextHopLatency.recordSince(start);
+                tracer.end(Tracer.Event.GET_NEXT_HOP_PEER, span, targetMeshId,
+                        Tracer.NO_MESSAGE);
+            }
+            routeCache.put(targetMeshId, nextHop);
+        }
+        return nextHop;
+    }
+
+    /**
+     * A broadcast split into steps for the send worker, see
+     * {@link #broadcast(Collection, PayloadEncoder)}. Each step looks up the next hop of one
+     * destination, then each sends the payload of one group, so a large broadcast never holds
+     * the worker for longer than one lookup or send.
+     */
+    private final class BroadcastJob implements SendScheduler.SteppedJob {
+        private final Iterator<MeshId> destinations;
+        private final PayloadEncoder encoder;
+        // Whether the broadcast is relayed, and so limited per next hop.
+        private final boolean relay;
+        private final Map<MeshId, List<MeshId>> groups = new LinkedHashMap<>();
+        // Groups left to send, once every destination has been looked up.
+        private Iterator<Map.Entry<MeshId, List<MeshId>>> sends;
+        // The first lookup or send that failed, thrown after trying all groups.
+        private RightMeshException failure;
+
+        BroadcastJob(Collection<MeshId> destinations, PayloadEncoder encoder, boolean relay) {
+            this.destinations = destinations.iterator();
+            this.encoder = encoder;
+            this.relay = relay;
+        }
+
+        @Override
+        public boolean step() throws RightMeshException {
+            if (destinations.hasNext()) {
+                lookUp(destinations.next());
+            } else {
+                if (sends == null) {
+                    sends = groups.entrySet().iterator();
+                }
+                if (sends.hasNext()) {
+                    Map.Entry<MeshId, List<MeshId>> group = sends.next();
+                    send(group.getKey(), group.getValue());
+                }
+            }
+            boolean more = destinations.hasNext() || sends == null || sends.hasNext();
+            if (!more && failure != null) {
+                throw failure;
+            }
+            return more;
+        }
+
+        private void lookUp(MeshId destination) {
+            if (destination.equals(localMeshId)) {
+                return;
+            }
+            try {
+                MeshId nextHop = getNextHop(destination);
+                List<MeshId> group = groups.get(nextHop);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.put(nextHop, group);
+                }
+                group.add(destination);
+            } catch (RightMeshException rme) {
+                fail(rme);
+            }
+        }
+
+        private void send(MeshId nextHop, List<MeshId> group) {
+            boolean allowed = relay ? nextHopLimiter.tryAcquire(nextHop)
+                    : ownSendLimiter.tryAcquire(nextHop);
+            if (!allowed) {
+                fail(rateLimited(nextHop, relay ? nextHopLimited : ownSendLimited));
+                return;
+            }
+            byte[] payload;
+            try {
+                payload = forNextHop(nextHop, encoder.encode(group));
+            } catch (RightMeshException rme) {
+                fail(rme);
+                return;
+            }
+            try {
+                sendToNextHop(nextHop, payload);
+            } catch (RightMeshException rme) {
+                routeCache.invalidate(nextHop);
+                fail(rme);
+            }
+        }
+
+        private void fail(RightMeshException rme) {
+            if (failure == null) {
+                failure = rme;
+            }
+        }
+    }
+
+    /**
+     * Make a payload readable by its next hop. A next hop that may be an older device throws on
+     * binary frames, so it is sent a colour frame as text, and refused any other binary frame.
+     */
+    private byte[] forNextHop(MeshId nextHop, byte[] payload) throws RightMeshException {
+        WireFormatPolicy policy = wireFormatPolicy;
+        if (policy == null || !ColourFrame.isBinary(payload) || policy.readsBinary(nextHop)) {
+            return payload;
+        }
+        try {
+            return ColourFrame.toText(payload);
+        } catch (FrameFormatException e) {
+            textOnlyRefused.increment();
+            throw new RightMeshException("Next hop " + nextHop + " may not read binary frames");
+        }
+    }
+
+    private RateLimitedException rateLimited(MeshId nextHop, StripedCounter limited) {
+        limited.increment();
+        return new RateLimitedException("Too many sends to next hop " + nextHop);
+    }
+
+    private void countFailure(String name, Exception failure) {
+        metrics.counter(name, LABEL_EXCEPTION, failure.getClass().getSimpleName()).increment();
+    }
+
+    /**
+     * Only hand binary frames to next hops a policy says read them, so older devices on the way
+     * are never sent one. Colour frames are sent to other next hops as text; probes and
+     * broadcasts fail with a {@link RightMeshException}.
+     *
+     * @param wireFormatPolicy decides which peers read binary frames, or null for any
+     */
+    public void setWireFormatPolicy(WireFormatPolicy wireFormatPolicy) {
+        this.wireFormatPolicy = wireFormatPolicy;
+    }
+
+    /**
+     * Get the next hop cache, e.g. to read its hit and miss counters.
+     *
+     * @return {@link RouteCache}
+     */
+    public RouteCache getRouteCache() {
+        return routeCache;
+    }
+
+    /**
+     * Get the metrics of this connector: sends, receives and peer changes, failures by exception
+     * type, and how long RightMesh takes to look up next hops and to accept payloads.
+     *
+     * @return {@link MetricsRegistry}, which other parts of the app may add their metrics to
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the tracer of this connector. Once enabled, it records spans around RightMesh state
+     * changes, next hop lookups and sends, and other parts of the app may record theirs.
+     *
+     * @return {@link Tracer}
+     */
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Get the limiter of relayed sends to each next hop, e.g. to change its rate, read the scale
+     * of a next hop or its counters, or turn the adaptive mode off. Relayed sends over the limit
+     * fail with a {@link RateLimitedException}.
+     *
+     * @return {@link RateLimiter}
+     */
+    public RateLimiter getNextHopLimiter() {
+        return nextHopLimiter;
+    }
+
+    /**
+     * Get the limiter of this device's own sends to each next hop, e.g. to change its rate or
+     * read its counters. Own sends over the limit fail with a {@link RateLimitedException}.
+     *
+     * @return {@link RateLimiter}
+     */
+    public RateLimiter getOwnSendLimiter() {
+        return ownSendLimiter;
+    }
+
+    /**
+     * Get the scheduler behind {@link #sendAsync(MeshId, byte[])}, e.g. to change its overflow
+     * policy or read its counters.
+     *
+     * @return {@link SendScheduler}
+     */
+    public SendScheduler getSendScheduler() {
+        return sendScheduler;
+    }
+
+    /**
+     * Get the workers that run the data listeners, to read their counters.
+     *
+     * @return {@link StripedExecutor}
+     */
+    public StripedExecutor getReceiveWorkers() {
+        return receiveWorkers;
     }
 
     /**
@@ -164,6 +1136,24 @@ public class RightMeshConnector implements MeshStateListener {
         this.androidMeshManager = androidMeshManager;
     }
 
+    /**
+     * States of the connection to the RightMesh service.
+     */
+    public enum ConnectionState {
+        // connect() was not called.
+        IDLE,
+        // Waiting for RightMesh to report that the service is ready, at first or on resuming.
+        CONNECTING,
+        // Port bound and event handlers registered; messages flow.
+        BOUND,
+        // The service was lost or failed; an attempt to resume it is being scheduled.
+        DISCONNECTED,
+        // Waiting before the next attempt to resume the service.
+        BACKOFF,
+        // stop() was called.
+        STOPPED
+    }
+
     /**
      * Data Receive Listener.
      */
@@ -184,4 +1174,11 @@ public class RightMeshConnector implements MeshStateListener {
     public interface OnConnectSuccessListener {
         void onConnectSuccess(MeshId meshId);
     }
+
+    /**
+     * Builds the payload sent towards a group of destinations that share a next hop.
+     */
+    public interface PayloadEncoder {
+        byte[] encode(List<MeshId> destinations);
+    }
 }
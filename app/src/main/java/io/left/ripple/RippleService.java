@@ -0,0 +1,234 @@
+package io.left.ripple;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.net.wifi.WifiManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Foreground service hosting the connection to RightMesh and the forwarding of messages, so the
+ * device keeps relaying for the mesh when its activity is destroyed or its screen is off.
+ *
+ * The service is started by {@link MainActivity}, which then binds to it to get the
+ * {@link MainViewModel}; the activity is only a client, and the service runs until stopped from
+ * its notification, which also finishes the activity.
+ *
+ * A partial wake lock and a Wi-Fi lock are held while the device relays, so forwarding is not
+ * slowed down when the screen turns off. They are taken when the service starts and renewed
+ * while messages keep being relayed, and released once none has been for a while; the wake lock
+ * is only ever acquired with a timeout, so it cannot be leaked.
+ */
+public class RippleService extends Service {
+    private static final String TAG = RippleService.class.getCanonicalName();
+
+    // Stops the service, sent by the notification's action.
+    static final String ACTION_STOP = "io.left.ripple.action.STOP_RELAY";
+    private static final String CHANNEL_ID = "relay";
+    private static final int NOTIFICATION_ID = 1;
+    // How often the locks are renewed while relaying, or released once not.
+    private static final long LOCK_RENEW_MS = TimeUnit.MINUTES.toMillis(1);
+    // Timeout of each wake lock acquisition, longer than the renewal period.
+    private static final long WAKE_LOCK_TIMEOUT_MS = 2 * LOCK_RENEW_MS;
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable renewLocks = this::renewLocks;
+    private final Runnable acquireLocks = this::acquireLocks;
+    private MainViewModel viewModel;
+    private PowerManager.WakeLock wakeLock;
+    private WifiManager.WifiLock wifiLock;
+    // Whether the locks are held, and whether a message was relayed since they were renewed.
+    private volatile boolean awake;
+    private volatile boolean relayed;
+    // Finishes the bound activity when the service is stopped, so it unbinds.
+    private Runnable onStopListener;
+
+    /**
+     * Start the service in the foreground, if not running yet.
+     *
+     * @param context context to start it from
+     */
+    static void start(Context context) {
+        ContextCompat.startForegroundService(context, new Intent(context, RippleService.class));
+    }
+
+    /**
+     * Connect to RightMesh. Nothing is shown until an activity binds and attaches.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        viewModel = new MainViewModel(getApplication());
+        viewModel.openOutbox(getFilesDir());
+        viewModel.init();
+        viewModel.setUiAttached(false);
+
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        // Each timed acquisition extends the last one rather than stacking on it.
+        wakeLock.setReferenceCounted(false);
+        WifiManager wifiManager =
+                (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        wifiLock = wifiManager.createWifiLock(WifiManager.WIFI_MODE_FULL_HIGH_PERF, TAG);
+        wifiLock.setReferenceCounted(false);
+        acquireLocks();
+        viewModel.setRelayListener(this::onRelay);
+    }
+
+    /**
+     * Note a relayed message, and take the locks again if they were released. Called on the
+     * RightMesh thread, so it only touches two volatile fields unless the locks are released.
+     */
+    private void onRelay() {
+        relayed = true;
+        if (!awake) {
+            handler.post(acquireLocks);
+        }
+    }
+
+    /**
+     * Take the locks for the next renewal period. Runs on the main thread.
+     */
+    private void acquireLocks() {
+        handler.removeCallbacks(renewLocks);
+        relayed = false;
+        awake = true;
+        wakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
+        wifiLock.acquire();
+        handler.postDelayed(renewLocks, LOCK_RENEW_MS);
+    }
+
+    /**
+     * Keep the locks for another period if a message was relayed in this one, or release them.
+     * Runs on the main thread, while the wake lock is still held.
+     */
+    private void renewLocks() {
+        if (relayed) {
+            acquireLocks();
+            return;
+        }
+        releaseLocks();
+        // A message relayed while releasing may have seen the locks as still held.
+        if (relayed) {
+            acquireLocks();
+        }
+    }
+
+    private void releaseLocks() {
+        handler.removeCallbacks(renewLocks);
+        awake = false;
+        if (wifiLock.isHeld()) {
+            wifiLock.release();
+        }
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+    }
+
+    /**
+     * Go to the foreground, or stop when asked to by the notification. A bound activity would
+     * keep the service alive, so it is finished too. The service is sticky, so Android restarts
+     * it, and the relay, if it has to kill it.
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            stopForeground(true);
+            stopSelf();
+            if (onStopListener != null) {
+                onStopListener.run();
+            }
+            return START_NOT_STICKY;
+        }
+        startForeground(NOTIFICATION_ID, buildNotification());
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    /**
+     * Stop posting to the UI once the last activity has gone, in case it did not detach.
+     *
+     * @return true, so a new activity binding gets {@link #onRebind(Intent)}
+     */
+    @Override
+    public boolean onUnbind(Intent intent) {
+        viewModel.setUiAttached(false);
+        onStopListener = null;
+        return true;
+    }
+
+    /**
+     * Save the metrics and close the RightMesh connection.
+     */
+    @Override
+    public void onDestroy() {
+        viewModel.exportMetrics(getFilesDir());
+        viewModel.setRelayListener(null);
+        viewModel.close();
+        handler.removeCallbacks(acquireLocks);
+        releaseLocks();
+        super.onDestroy();
+    }
+
+    private Notification buildNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.relay_channel), NotificationManager.IMPORTANCE_LOW);
+            NotificationManager notificationManager =
+                    (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            notificationManager.createNotificationChannel(channel);
+        }
+
+        PendingIntent open = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class), 0);
+        PendingIntent stop = PendingIntent.getService(this, 0,
+                new Intent(this, RippleService.class).setAction(ACTION_STOP), 0);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.relay_title))
+                .setContentText(getString(R.string.relay_text))
+                .setContentIntent(open)
+                .addAction(0, getString(R.string.relay_stop), stop)
+                .setOngoing(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .build();
+    }
+
+    /**
+     * Gives activities in this process the {@link MainViewModel} of the service.
+     */
+    class LocalBinder extends Binder {
+        MainViewModel getViewModel() {
+            return viewModel;
+        }
+
+        /**
+         * Set what to do when the service is stopped from its notification, e.g. finish the
+         * activity so it unbinds and the service can be destroyed.
+         *
+         * @param listener called on the main thread, or null for nothing
+         */
+        void setOnStopListener(Runnable listener) {
+            onStopListener = listener;
+        }
+    }
+}
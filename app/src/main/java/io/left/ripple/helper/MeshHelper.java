@@ -4,28 +4,25 @@ import io.left.rightmesh.id.MeshId;
 
 public final class MeshHelper {
 
-    private static MeshHelper instance = null;
-
     private MeshHelper() {
     }
 
     /**
      * Get Singleton instance.
      *
-     * Avoid using double check locking pattern
+     * Uses the initialization-on-demand holder idiom rather than double check locking
      * http://www.cs.umd.edu/~pugh/java/memoryModel/DoubleCheckedLocking.html
+     * The JVM creates the instance when {@link Holder} is first used, so every later call is a
+     * plain field read with no lock.
      *
      * @return Meshhelper
      */
     public static MeshHelper getInstance() {
-        synchronized (MeshHelper.class) {
-            if (instance == null) {
-                // if instance is null, initialize
-                instance = new MeshHelper();
-            }
-        }
+        return Holder.INSTANCE;
+    }
 
-        return instance;
+    private static final class Holder {
+        static final MeshHelper INSTANCE = new MeshHelper();
     }
 
     /**
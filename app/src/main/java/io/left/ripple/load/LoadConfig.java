@@ -0,0 +1,191 @@
+package io.left.ripple.load;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * What a {@link LoadGenerator} sends: at which rate, for how long and to which peers.
+ *
+ * Read from properties, e.g. a file or intent extras, with these keys:
+ * <ul>
+ * <li>{@value #RATE}: messages per second at the start, 10 by default.</li>
+ * <li>{@value #RATE_END}: messages per second at the end. The rate ramps linearly from
+ * {@value #RATE}; the same by default, for a fixed rate.</li>
+ * <li>{@value #DURATION}: seconds to send for, 60 by default.</li>
+ * <li>{@value #TARGETS}: {@code all} peers, the default, {@code one} peer, {@code some} peers,
+ * or a comma-separated list of MeshIds.</li>
+ * <li>{@value #TARGET_COUNT}: number of peers for {@code some}, 3 by default.</li>
+ * <li>{@value #COALESCE}: {@code true} to let queued colours for the same peer replace each other,
+ * as the buttons do. False by default, so every message is sent.</li>
+ * <li>{@value #START_DELAY}: seconds to wait before starting, for the peers to be discovered.
+ * 10 by default.</li>
+ * </ul>
+ */
+public final class LoadConfig {
+    public static final String RATE = "rate";
+    public static final String RATE_END = "rate_end";
+    public static final String DURATION = "duration_s";
+    public static final String TARGETS = "targets";
+    public static final String TARGET_COUNT = "target_count";
+    public static final String COALESCE = "coalesce";
+    public static final String START_DELAY = "start_delay_s";
+
+    private static final String TARGETS_ALL = "all";
+    private static final String TARGETS_ONE = "one";
+    private static final String TARGETS_SOME = "some";
+    private static final String DEFAULT_RATE = "10";
+    private static final String DEFAULT_DURATION = "60";
+    private static final String DEFAULT_TARGET_COUNT = "3";
+    private static final String DEFAULT_START_DELAY = "10";
+
+    private final double rate;
+    private final double rateEnd;
+    private final double durationSeconds;
+    private final String targets;
+    private final int targetCount;
+    private final List<MeshId> targetIds;
+    private final boolean coalesce;
+    private final double startDelaySeconds;
+
+    private LoadConfig(double rate, double rateEnd, double durationSeconds, String targets,
+                       int targetCount, List<MeshId> targetIds, boolean coalesce,
+                       double startDelaySeconds) {
+        this.rate = rate;
+        this.rateEnd = rateEnd;
+        this.durationSeconds = durationSeconds;
+        this.targets = targets;
+        this.targetCount = targetCount;
+        this.targetIds = targetIds;
+        this.coalesce = coalesce;
+        this.startDelaySeconds = startDelaySeconds;
+    }
+
+    /**
+     * Read a configuration from properties. Missing keys take their default.
+     *
+     * @param properties keys and values as described in {@link LoadConfig}
+     * @return the configuration
+     * @throws IllegalArgumentException if a value is invalid
+     */
+    public static LoadConfig fromProperties(Properties properties) {
+        double rate = positive(properties, RATE, DEFAULT_RATE);
+        double rateEnd = positive(properties, RATE_END, String.valueOf(rate));
+        double duration = positive(properties, DURATION, DEFAULT_DURATION);
+        int targetCount = (int) positive(properties, TARGET_COUNT, DEFAULT_TARGET_COUNT);
+        double startDelay = number(properties, START_DELAY, DEFAULT_START_DELAY);
+        if (startDelay < 0) {
+            throw new IllegalArgumentException("Invalid " + START_DELAY + ": " + startDelay);
+        }
+        boolean coalesce = Boolean.parseBoolean(properties.getProperty(COALESCE, "false"));
+
+        String value = properties.getProperty(TARGETS, TARGETS_ALL).trim();
+        String targets = value.toLowerCase(Locale.ROOT);
+        List<MeshId> targetIds = Collections.emptyList();
+        if (!targets.equals(TARGETS_ALL) && !targets.equals(TARGETS_ONE)
+                && !targets.equals(TARGETS_SOME)) {
+            targetIds = parseIds(value);
+        }
+        return new LoadConfig(rate, rateEnd, duration, targets, targetCount, targetIds, coalesce,
+                startDelay);
+    }
+
+    /**
+     * Read the properties of a configuration from a file, to be completed or overridden before
+     * {@link #fromProperties(Properties)}.
+     *
+     * @param file file in the {@link Properties} format
+     * @return the properties
+     * @throws IOException if the file cannot be read
+     */
+    public static Properties readProperties(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    /**
+     * Pick the peers to send to.
+     *
+     * @param peers peers on the mesh, in the order they were first seen, without this device
+     * @return the peers to send to, in order
+     */
+    public List<MeshId> selectTargets(List<MeshId> peers) {
+        switch (targets) {
+            case TARGETS_ALL:
+                return new ArrayList<>(peers);
+            case TARGETS_ONE:
+                return new ArrayList<>(peers.subList(0, Math.min(1, peers.size())));
+            case TARGETS_SOME:
+                return new ArrayList<>(peers.subList(0, Math.min(targetCount, peers.size())));
+            default:
+                return new ArrayList<>(targetIds);
+        }
+    }
+
+    /**
+     * Get the rate at a point of the run.
+     *
+     * @param elapsedSeconds time since the start
+     * @return messages per second, ramping linearly from {@value #RATE} to {@value #RATE_END}
+     */
+    public double getRate(double elapsedSeconds) {
+        double progress = Math.min(1, elapsedSeconds / durationSeconds);
+        return rate + (rateEnd - rate) * progress;
+    }
+
+    public double getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    public double getStartDelaySeconds() {
+        return startDelaySeconds;
+    }
+
+    private static double positive(Properties properties, String key, String defaultValue) {
+        double value = number(properties, key, defaultValue);
+        if (!(value > 0)) {
+            throw new IllegalArgumentException("Invalid " + key + ": " + value);
+        }
+        return value;
+    }
+
+    private static double number(Properties properties, String key, String defaultValue) {
+        String value = properties.getProperty(key, defaultValue).trim();
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + key + ": " + value);
+        }
+    }
+
+    private static List<MeshId> parseIds(String ids) {
+        List<MeshId> parsed = new ArrayList<>();
+        for (String id : ids.split(",")) {
+            try {
+                parsed.add(MeshId.fromString(id.trim()));
+            } catch (RightMeshException e) {
+                throw new IllegalArgumentException("Invalid " + TARGETS + ": " + id);
+            }
+        }
+        return parsed;
+    }
+}
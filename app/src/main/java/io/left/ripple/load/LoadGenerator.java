@@ -0,0 +1,256 @@
+package io.left.ripple.load;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.ripple.Colour;
+import io.left.ripple.mesh.SendFuture;
+import io.left.ripple.mesh.SendRejectedException;
+import io.left.ripple.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends colour messages at a fixed or ramping rate for a set time, to find how many messages
+ * per second the mesh sustains before the send queue backs up.
+ *
+ * Messages go to the targets in turn and cycle through the colours. Each one is timed from being
+ * offered to the {@link Sender} until its {@link SendFuture} completes, and counted as sent or
+ * failed, in total and per second of the run. The rate ramps linearly, see
+ * {@link LoadConfig#getRate(double)}.
+ *
+ * Time and scheduling come from a {@link Timer}, so a run can use a real thread or the virtual
+ * clock of a simulated mesh. Sends are offered on the timer's thread and completions may arrive
+ * on any thread.
+ */
+public class LoadGenerator {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final Colour[] COLOURS = Colour.values();
+
+    private final LoadConfig config;
+    private final List<MeshId> targets;
+    private final Sender sender;
+    private final Timer timer;
+    private final long durationNanos;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final List<LoadReport.Window> windows = new ArrayList<>();
+    private long startNanos;
+    private long endNanos = -1;
+    private long attempted;
+    private long sent;
+    private long failed;
+    private long rejected;
+    private long maxInFlight;
+    private long maxLatencyNanos;
+    private boolean running;
+    private Listener listener;
+
+    /**
+     * Constructor.
+     *
+     * @param config  rate and duration of the run
+     * @param targets peers to send to, see {@link LoadConfig#selectTargets(List)}. Must not be
+     *                empty.
+     * @param sender  sends one message
+     * @param timer   clock and scheduler of the run
+     */
+    public LoadGenerator(LoadConfig config, List<MeshId> targets, Sender sender, Timer timer) {
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("No peers to send to");
+        }
+        this.config = config;
+        this.targets = new ArrayList<>(targets);
+        this.sender = sender;
+        this.timer = timer;
+        this.durationNanos = (long) (config.getDurationSeconds() * NANOS_PER_SECOND);
+    }
+
+    /**
+     * Set a listener to be told when the run ends.
+     *
+     * @param listener a callback, called on the timer's thread, or the thread calling
+     *                 {@link #stop()}
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Start sending. The first message is offered straight away.
+     */
+    public void start() {
+        synchronized (this) {
+            if (running || endNanos >= 0) {
+                return;
+            }
+            running = true;
+            startNanos = timer.nanoTime();
+        }
+        tick();
+    }
+
+    /**
+     * Stop sending before the end of the run, which then ends straight away.
+     */
+    public void stop() {
+        finish(timer.nanoTime());
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Summarize the run so far. Messages still in flight when the run ended keep being counted.
+     *
+     * @return {@link LoadReport}
+     */
+    public synchronized LoadReport report() {
+        long end = endNanos >= 0 ? endNanos : timer.nanoTime();
+        List<LoadReport.Window> copies = new ArrayList<>(windows.size());
+        for (LoadReport.Window window : windows) {
+            copies.add(new LoadReport.Window(window));
+        }
+        return new LoadReport(LoadReport.seconds(end - startNanos), attempted, sent, failed,
+                rejected, maxInFlight, latency.snapshot(), maxLatencyNanos, copies);
+    }
+
+    private void tick() {
+        long now = timer.nanoTime();
+        long elapsed;
+        long count;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            elapsed = now - startNanos;
+            if (elapsed >= durationNanos) {
+                count = -1;
+            } else {
+                count = attempted++;
+                LoadReport.Window window = window(elapsed);
+                window.attempted++;
+                updateInFlight(window);
+            }
+        }
+        if (count < 0) {
+            finish(now);
+            return;
+        }
+
+        // Each target is sent every colour in turn, so consecutive messages to it differ.
+        MeshId target = targets.get((int) (count % targets.size()));
+        Colour colour = COLOURS[(int) (count / targets.size() % COLOURS.length)];
+        SendFuture future = sender.send(target, colour);
+        if (future == null) {
+            complete(now, new IllegalStateException("Not connected"));
+        } else {
+            future.addListener(done -> complete(now, done.getError()));
+        }
+
+        double rate = config.getRate(LoadReport.seconds(elapsed));
+        timer.schedule((long) (NANOS_PER_SECOND / rate), this::tick);
+    }
+
+    private void complete(long offeredNanos, Throwable error) {
+        long now = timer.nanoTime();
+        long took = now - offeredNanos;
+        latency.record(took);
+        synchronized (this) {
+            maxLatencyNanos = Math.max(maxLatencyNanos, took);
+            LoadReport.Window window = window(now - startNanos);
+            if (error == null) {
+                sent++;
+                window.sent++;
+            } else {
+                failed++;
+                window.failed++;
+                if (error instanceof SendRejectedException) {
+                    rejected++;
+                }
+            }
+        }
+    }
+
+    private void finish(long now) {
+        Listener toNotify;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            endNanos = now;
+            toNotify = listener;
+        }
+        if (toNotify != null) {
+            toNotify.onFinished(report());
+        }
+    }
+
+    /**
+     * Get the window of a point of the run, adding windows up to it. Must hold the lock.
+     */
+    private LoadReport.Window window(long elapsedNanos) {
+        int index = (int) (Math.max(0, elapsedNanos) / NANOS_PER_SECOND);
+        while (windows.size() <= index) {
+            windows.add(new LoadReport.Window());
+        }
+        return windows.get(index);
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private void updateInFlight(LoadReport.Window window) {
+        long inFlight = attempted - sent - failed;
+        maxInFlight = Math.max(maxInFlight, inFlight);
+        window.maxInFlight = Math.max(window.maxInFlight, inFlight);
+    }
+
+    /**
+     * Sends one colour message.
+     */
+    public interface Sender {
+        /**
+         * Queue a message without blocking.
+         *
+         * @param target peer to send to
+         * @param colour colour to send
+         * @return future completed when the message is sent or failed, or null if it could not
+         *         be queued at all
+         */
+        SendFuture send(MeshId target, Colour colour);
+    }
+
+    /**
+     * Clock and scheduler of a run.
+     */
+    public interface Timer {
+        /**
+         * Get the current time.
+         *
+         * @return time in nanoseconds, e.g. {@link System#nanoTime()}
+         */
+        long nanoTime();
+
+        /**
+         * Run a task once, after a delay.
+         *
+         * @param delayNanos delay in nanoseconds
+         * @param task       task to run
+         */
+        void schedule(long delayNanos, Runnable task);
+    }
+
+    /**
+     * Told when a run ends.
+     */
+    public interface Listener {
+        /**
+         * Called once the run's duration is over, or it was stopped.
+         *
+         * @param report what the run achieved, with messages still in flight
+         */
+        void onFinished(LoadReport report);
+    }
+}
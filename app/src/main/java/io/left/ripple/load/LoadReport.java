@@ -0,0 +1,208 @@
+package io.left.ripple.load;
+
+import io.left.ripple.metrics.LatencyHistogram;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * What a {@link LoadGenerator} run achieved: messages offered, sent and failed, the time RightMesh
+ * took to accept them, and the same counts per second of the run, which show when the send queue
+ * started to back up.
+ */
+public final class LoadReport {
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final int P50 = 50;
+    private static final int P90 = 90;
+    private static final int P99 = 99;
+
+    private final double elapsedSeconds;
+    private final long attempted;
+    private final long sent;
+    private final long failed;
+    private final long rejected;
+    private final long maxInFlight;
+    private final LatencyHistogram.Snapshot latency;
+    private final long maxLatencyNanos;
+    private final List<Window> windows;
+
+    LoadReport(double elapsedSeconds, long attempted, long sent, long failed, long rejected,
+               long maxInFlight, LatencyHistogram.Snapshot latency, long maxLatencyNanos,
+               List<Window> windows) {
+        this.elapsedSeconds = elapsedSeconds;
+        this.attempted = attempted;
+        this.sent = sent;
+        this.failed = failed;
+        this.rejected = rejected;
+        this.maxInFlight = maxInFlight;
+        this.latency = latency;
+        this.maxLatencyNanos = maxLatencyNanos;
+        this.windows = Collections.unmodifiableList(windows);
+    }
+
+    public double getElapsedSeconds() {
+        return elapsedSeconds;
+    }
+
+    /**
+     * Get the number of messages handed to the sender.
+     *
+     * @return messages offered
+     */
+    public long getAttempted() {
+        return attempted;
+    }
+
+    /**
+     * Get the number of messages RightMesh accepted.
+     *
+     * @return messages sent
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * Get the number of messages that failed, rejected ones included.
+     *
+     * @return messages failed
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Get the number of messages the send queue refused or dropped because it was full.
+     *
+     * @return messages rejected
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Get the number of messages neither sent nor failed yet.
+     *
+     * @return messages in flight
+     */
+    public long getInFlight() {
+        return attempted - sent - failed;
+    }
+
+    public long getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Get the rate at which messages were offered.
+     *
+     * @return messages per second
+     */
+    public double getOfferedRate() {
+        return elapsedSeconds > 0 ? attempted / elapsedSeconds : 0;
+    }
+
+    /**
+     * Get the rate at which RightMesh accepted messages.
+     *
+     * @return messages per second
+     */
+    public double getThroughput() {
+        return elapsedSeconds > 0 ? sent / elapsedSeconds : 0;
+    }
+
+    /**
+     * Get how long messages took from being offered to being sent or failing.
+     *
+     * @return latency counts
+     */
+    public LatencyHistogram.Snapshot getLatency() {
+        return latency;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    /**
+     * Get the counts per second of the run.
+     *
+     * @return one window per second, in order
+     */
+    public List<Window> getWindows() {
+        return windows;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d offered (%.1f/s), %d sent (%.1f/s), %d failed"
+                        + " (%d rejected), %d in flight (max %d), latency p50 <= %s p90 <= %s"
+                        + " p99 <= %s max %.1f ms",
+                attempted, getOfferedRate(), sent, getThroughput(), failed, rejected,
+                getInFlight(), maxInFlight, bound(latency.getPercentileNanos(P50)),
+                bound(latency.getPercentileNanos(P90)), bound(latency.getPercentileNanos(P99)),
+                maxLatencyNanos / NANOS_PER_MILLI);
+    }
+
+    static String bound(long nanos) {
+        return nanos == Long.MAX_VALUE ? "+Inf"
+                : String.format(Locale.ROOT, "%.1f", nanos / NANOS_PER_MILLI);
+    }
+
+    static double seconds(long nanos) {
+        return nanos / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Counts for one second of a run.
+     */
+    public static final class Window {
+        long attempted;
+        long sent;
+        long failed;
+        long maxInFlight;
+
+        Window() {
+        }
+
+        Window(Window other) {
+            attempted = other.attempted;
+            sent = other.sent;
+            failed = other.failed;
+            maxInFlight = other.maxInFlight;
+        }
+
+        /**
+         * Get the number of messages offered during this second.
+         *
+         * @return messages offered
+         */
+        public long getAttempted() {
+            return attempted;
+        }
+
+        /**
+         * Get the number of messages sent during this second, whenever they were offered.
+         *
+         * @return messages sent
+         */
+        public long getSent() {
+            return sent;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * Get the largest number of messages in flight during this second.
+         *
+         * @return messages neither sent nor failed yet
+         */
+        public long getMaxInFlight() {
+            return maxInFlight;
+        }
+    }
+}
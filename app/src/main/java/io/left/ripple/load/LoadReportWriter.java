@@ -0,0 +1,82 @@
+package io.left.ripple.load;
+
+import io.left.ripple.metrics.LatencyHistogram;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Writes a {@link LoadReport} as JSON. Latency percentiles are the upper bounds of the
+ * {@link LatencyHistogram} buckets holding them, in milliseconds, or {@code null} above the last
+ * bound.
+ */
+public final class LoadReportWriter {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final int[] PERCENTILES = {50, 90, 99};
+
+    private LoadReportWriter() {
+    }
+
+    /**
+     * Write a report.
+     *
+     * @param report report to write
+     * @param out    destination, not closed
+     * @throws IOException if writing fails
+     */
+    public static void write(LoadReport report, Writer out) throws IOException {
+        out.write(String.format(Locale.ROOT, "{\"elapsed_s\":%.3f,\"attempted\":%d,\"sent\":%d,"
+                        + "\"failed\":%d,\"rejected\":%d,\"in_flight\":%d,\"max_in_flight\":%d,"
+                        + "\"offered_per_s\":%.3f,\"sent_per_s\":%.3f,\n",
+                report.getElapsedSeconds(), report.getAttempted(), report.getSent(),
+                report.getFailed(), report.getRejected(), report.getInFlight(),
+                report.getMaxInFlight(), report.getOfferedRate(), report.getThroughput()));
+        out.write("\"latency_ms\":{");
+        LatencyHistogram.Snapshot latency = report.getLatency();
+        for (int percent : PERCENTILES) {
+            out.write("\"p" + percent + "\":" + millis(latency.getPercentileNanos(percent)) + ",");
+        }
+        out.write("\"max\":" + millis(report.getMaxLatencyNanos()) + "},\n\"seconds\":[");
+        String separator = "\n";
+        for (LoadReport.Window window : report.getWindows()) {
+            out.write(separator);
+            separator = ",\n";
+            out.write("{\"attempted\":" + window.getAttempted()
+                    + ",\"sent\":" + window.getSent()
+                    + ",\"failed\":" + window.getFailed()
+                    + ",\"max_in_flight\":" + window.getMaxInFlight() + "}");
+        }
+        out.write("\n]}\n");
+    }
+
+    /**
+     * Write a report to a file, replacing it in one step so a reader never sees half of it.
+     *
+     * @param report report to write
+     * @param file   destination
+     * @throws IOException if writing or renaming fails
+     */
+    public static void write(LoadReport report, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(temp), UTF_8);
+        try {
+            write(report, out);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Cannot rename " + temp + " to " + file);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return nanos == Long.MAX_VALUE ? "null"
+                : String.format(Locale.ROOT, "%.3f", nanos / NANOS_PER_MILLI);
+    }
+}
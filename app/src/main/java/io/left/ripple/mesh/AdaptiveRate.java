@@ -0,0 +1,74 @@
+package io.left.ripple.mesh;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A factor between a floor and one that tracks how well sends are going, for scaling a rate, such
+ * as that of one key of a {@link RateLimiter}.
+ *
+ * It follows additive increase, multiplicative decrease: every send that fails, or takes longer
+ * than the latency target, halves the factor down to the floor, and every send that meets the
+ * target raises it by a small step back towards one. Rates thus back off quickly once the links
+ * around this device are congested, and recover gradually once they clear.
+ */
+public class AdaptiveRate {
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double INCREASE_STEP = 0.05;
+
+    private final long latencyTargetNanos;
+    private final double minScale;
+    // Only written while holding the lock, read without it.
+    private volatile double scale = 1;
+    private final Object lock = new Object();
+
+    /**
+     * Constructor.
+     *
+     * @param latencyTargetMillis sends slower than this count as a sign of congestion
+     * @param minScale            lowest factor, above zero so rates never stop entirely
+     */
+    public AdaptiveRate(long latencyTargetMillis, double minScale) {
+        if (minScale <= 0 || minScale > 1) {
+            throw new IllegalArgumentException("Minimum scale must be in (0, 1]");
+        }
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+        this.minScale = minScale;
+    }
+
+    /**
+     * Get the factor to scale rates by.
+     *
+     * @return between the minimum scale and one
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * Record a send that succeeded.
+     *
+     * @param latencyNanos how long it took
+     */
+    public void onSuccess(long latencyNanos) {
+        if (latencyNanos > latencyTargetNanos) {
+            decrease();
+        } else {
+            synchronized (lock) {
+                scale = Math.min(1, scale + INCREASE_STEP);
+            }
+        }
+    }
+
+    /**
+     * Record a send that failed.
+     */
+    public void onFailure() {
+        decrease();
+    }
+
+    private void decrease() {
+        synchronized (lock) {
+            scale = Math.max(minScale, scale * DECREASE_FACTOR);
+        }
+    }
+}
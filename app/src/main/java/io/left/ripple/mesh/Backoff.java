@@ -0,0 +1,46 @@
+package io.left.ripple.mesh;
+
+import java.util.Random;
+
+/**
+ * Delays between retries that double after each failed attempt, up to a maximum, with jitter so
+ * that things that failed together are not retried together.
+ */
+public class Backoff {
+    private static final int MAX_SHIFT = 30;
+
+    private final long initialMillis;
+    private final long maxMillis;
+    private final Random random;
+
+    /**
+     * Constructor.
+     *
+     * @param initialMillis delay before the first retry
+     * @param maxMillis     longest delay
+     * @param random        source of jitter
+     */
+    public Backoff(long initialMillis, long maxMillis, Random random) {
+        this.initialMillis = initialMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+    }
+
+    /**
+     * Get the delay before a retry: the initial delay doubled for each failed attempt, up to the
+     * maximum, of which a random part between none and half is taken off.
+     *
+     * @param attempts number of retries that failed so far
+     * @return delay in milliseconds
+     */
+    public long delayMillis(int attempts) {
+        long delay = initialMillis << Math.min(attempts, MAX_SHIFT);
+        if (delay <= 0 || delay > maxMillis) {
+            delay = maxMillis;
+        }
+        long half = delay / 2;
+        synchronized (random) {
+            return delay - (half > 0 ? (long) (random.nextDouble() * half) : 0);
+        }
+    }
+}
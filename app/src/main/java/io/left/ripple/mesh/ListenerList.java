@@ -0,0 +1,89 @@
+package io.left.ripple.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Listeners of one kind of event, added and removed from any thread and called without locking.
+ *
+ * Adding or removing a listener copies the array of listeners; dispatching reads the current
+ * array once and calls each listener in the order they were added, so listeners changed during a
+ * dispatch take effect from the next one. Dispatching allocates nothing as long as the
+ * {@link Dispatcher} does not capture anything, e.g. a method reference such as
+ * {@code Listener::onEvent}.
+ *
+ * @param <T> listener type
+ */
+public final class ListenerList<T> {
+    private static final Object[] EMPTY = new Object[0];
+
+    private volatile Object[] listeners = EMPTY;
+
+    /**
+     * Add a listener. A listener added twice is called twice.
+     *
+     * @param listener a callback
+     */
+    public synchronized void add(T listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null");
+        }
+        Object[] current = listeners;
+        Object[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Remove a listener, once if it was added more than once.
+     *
+     * @param listener a callback added before
+     * @return true if it was found
+     */
+    public synchronized boolean remove(T listener) {
+        Object[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].equals(listener)) {
+                Object[] updated = new Object[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return listeners.length == 0;
+    }
+
+    public int size() {
+        return listeners.length;
+    }
+
+    /**
+     * Call every listener with an event. An exception thrown by a listener is passed on, and
+     * the listeners after it are not called.
+     *
+     * @param dispatcher calls one listener
+     * @param event      event to pass on
+     * @param <E>        event type
+     */
+    @SuppressWarnings("unchecked")
+    public <E> void dispatch(Dispatcher<? super T, ? super E> dispatcher, E event) {
+        Object[] snapshot = listeners;
+        for (Object listener : snapshot) {
+            dispatcher.dispatch((T) listener, event);
+        }
+    }
+
+    /**
+     * Calls one listener with an event.
+     *
+     * @param <T> listener type
+     * @param <E> event type
+     */
+    public interface Dispatcher<T, E> {
+        void dispatch(T listener, E event);
+    }
+}
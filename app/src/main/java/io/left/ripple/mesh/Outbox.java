@@ -0,0 +1,473 @@
+package io.left.ripple.mesh;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Holds messages that could not be delivered, one per destination, until they are delivered or
+ * expire, and decides when each is retried.
+ *
+ * Only the latest message to a destination is kept: a newer one replaces it, as only the newest
+ * colour matters. Retries back off exponentially, with jitter so destinations that failed
+ * together are not retried together, and any message can be taken early when its destination
+ * becomes reachable, see {@link #takeFor(MeshId)}.
+ *
+ * Messages survive restarts in an append-only log file. Each change only queues a record in
+ * memory, and {@link #sync()} appends every record queued since the last sync with a single
+ * sync to storage, so callers can batch changes and keep the disk off their own thread; changes
+ * not synced yet are lost in a crash. The log is rewritten with only the live messages when it
+ * holds mostly stale records, on opening, and after a failed write, so a write error such as a
+ * full disk loses no change once a later sync succeeds. A record torn by a crash ends the log and
+ * is dropped. Retry state is not kept; after a restart every message is retried as if new, until
+ * its original expiry.
+ *
+ * Times are wall-clock milliseconds, as in {@link System#currentTimeMillis()}, so expiry holds
+ * across reboots.
+ */
+public class Outbox {
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    // The log is compacted once it holds this many records, and more than twice as many as
+    // there are messages.
+    private static final int COMPACT_MIN_RECORDS = 64;
+
+    private final File file;
+    private final long expiryMillis;
+    private final Backoff backoff;
+
+    private final Map<MeshId, Entry> entries = new LinkedHashMap<>();
+    // Records not written to the log yet, and the number of records in the log. Guarded by the
+    // outbox.
+    private List<Record> pending = new ArrayList<>();
+    private int records;
+    // Held while writing to the log, so the outbox itself is not locked during a sync.
+    private final Object ioLock = new Object();
+    // Guarded by ioLock.
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    // Whether the log may be missing records, or is not open, after a failed write; the next
+    // sync then rewrites it from the messages in memory.
+    private boolean compactNext;
+    private boolean closed;
+    private boolean failNextWrite;
+
+    private Outbox(File file, long expiryMillis, long initialBackoffMillis, long maxBackoffMillis,
+                   Random random) {
+        this.file = file;
+        this.expiryMillis = expiryMillis;
+        this.backoff = new Backoff(initialBackoffMillis, maxBackoffMillis, random);
+    }
+
+    /**
+     * Open an outbox, reading back the messages still in its log. Messages that expired are
+     * dropped, and the others are due for a retry straight away.
+     *
+     * @param file                 log file, created if missing
+     * @param expiryMillis         time after which an undelivered message is dropped
+     * @param initialBackoffMillis delay before the first retry; each failed retry doubles it
+     * @param maxBackoffMillis     longest delay between two retries
+     * @param random               source of jitter
+     * @param nowMillis            current time
+     * @return the outbox
+     * @throws IOException if the log cannot be read or rewritten
+     */
+    public static Outbox open(File file, long expiryMillis, long initialBackoffMillis,
+                              long maxBackoffMillis, Random random, long nowMillis)
+            throws IOException {
+        Outbox outbox = new Outbox(file, expiryMillis, initialBackoffMillis, maxBackoffMillis,
+                random);
+        if (file.exists()) {
+            outbox.replay(nowMillis);
+        }
+        synchronized (outbox.ioLock) {
+            outbox.compact(outbox.getEntries());
+        }
+        return outbox;
+    }
+
+    /**
+     * Keep a message that could not be delivered, replacing any older one to its destination.
+     *
+     * @param destination peer the message is for
+     * @param payload     the message as sent
+     * @param nowMillis   current time
+     */
+    public synchronized void put(MeshId destination, byte[] payload, long nowMillis) {
+        Entry entry = new Entry(destination, payload.clone(), nowMillis);
+        entry.nextRetryMillis = nowMillis + backoff.delayMillis(0);
+        entries.remove(destination);
+        entries.put(destination, entry);
+        append(PUT, entry);
+    }
+
+    /**
+     * Drop the message to a destination, e.g. because a newer one was sent to it directly.
+     *
+     * @param destination peer the message is for
+     */
+    public synchronized void remove(MeshId destination) {
+        Entry entry = entries.remove(destination);
+        if (entry != null) {
+            append(REMOVE, entry);
+        }
+    }
+
+    /**
+     * Drop the messages that expired.
+     *
+     * @param nowMillis current time
+     * @return number of messages dropped
+     */
+    public synchronized int expire(long nowMillis) {
+        List<Entry> expired = new ArrayList<>();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (isExpired(entry, nowMillis)) {
+                iterator.remove();
+                expired.add(entry);
+            }
+        }
+        for (Entry entry : expired) {
+            append(REMOVE, entry);
+        }
+        return expired.size();
+    }
+
+    /**
+     * Take the messages due for a retry, expired ones excepted. A message taken stays in the
+     * outbox and is not due again until {@link #delivered(Entry)} or {@link #failed(Entry, long)}
+     * is called for it.
+     *
+     * @param nowMillis current time
+     * @return messages to retry, oldest first
+     */
+    public synchronized List<Entry> takeDue(long nowMillis) {
+        List<Entry> due = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.nextRetryMillis <= nowMillis && !isExpired(entry, nowMillis)) {
+                entry.nextRetryMillis = Long.MAX_VALUE;
+                due.add(entry);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Take the message to a destination whether its retry is due or not, when the destination
+     * has become reachable. The backoff starts over.
+     *
+     * @param destination peer that became reachable
+     * @return the message, or null if there is none or it is being retried already
+     */
+    public synchronized Entry takeFor(MeshId destination) {
+        Entry entry = entries.get(destination);
+        if (entry == null || entry.nextRetryMillis == Long.MAX_VALUE) {
+            return null;
+        }
+        entry.attempts = 0;
+        entry.nextRetryMillis = Long.MAX_VALUE;
+        return entry;
+    }
+
+    /**
+     * Drop a message that was delivered, unless a newer one to the same destination replaced it
+     * meanwhile.
+     *
+     * @param entry message taken for a retry
+     */
+    public synchronized void delivered(Entry entry) {
+        if (entries.get(entry.destination) == entry) {
+            entries.remove(entry.destination);
+            append(REMOVE, entry);
+        }
+    }
+
+    /**
+     * Schedule the next retry of a message that failed again.
+     *
+     * @param entry     message taken for a retry
+     * @param nowMillis current time
+     */
+    public synchronized void failed(Entry entry, long nowMillis) {
+        if (entries.get(entry.destination) == entry) {
+            entry.attempts++;
+            entry.nextRetryMillis = nowMillis + backoff.delayMillis(entry.attempts);
+        }
+    }
+
+    /**
+     * Get when the next retry is due.
+     *
+     * @return time of the earliest retry, or {@link Long#MAX_VALUE} if none is scheduled
+     */
+    public synchronized long nextRetryMillis() {
+        long next = Long.MAX_VALUE;
+        for (Entry entry : entries.values()) {
+            next = Math.min(next, entry.nextRetryMillis);
+        }
+        return next;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the messages in the outbox.
+     *
+     * @return the messages, oldest first
+     */
+    public synchronized Collection<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Write the changes made since the last sync to the log, and sync it to storage. The outbox
+     * can be changed meanwhile from other threads; those changes wait for the next sync.
+     *
+     * @throws IOException if the log cannot be written, or the outbox is closed. The log may then
+     *                     miss those changes, so the next sync rewrites it from the messages in
+     *                     memory.
+     */
+    public void sync() throws IOException {
+        synchronized (ioLock) {
+            if (closed) {
+                throw new IOException("Outbox closed");
+            }
+            List<Record> batch;
+            List<Entry> live = null;
+            synchronized (this) {
+                if (pending.isEmpty() && !compactNext) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                records += batch.size();
+                if (compactNext
+                        || records >= COMPACT_MIN_RECORDS && records > 2 * entries.size()) {
+                    live = new ArrayList<>(entries.values());
+                }
+            }
+            if (live != null) {
+                compact(live);
+                return;
+            }
+            try {
+                for (Record record : batch) {
+                    write(out, record.op, record.entry);
+                    if (failNextWrite) {
+                        failNextWrite = false;
+                        out.flush();
+                        throw new IOException("Injected write failure");
+                    }
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            } catch (IOException e) {
+                // Part of the batch, or a torn record, may have reached the log.
+                compactNext = true;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Sync the changes not written yet, see {@link #sync()}, and close the log. Messages still in
+     * the outbox are read back by the next {@link #open(File, long, long, long, Random, long)}.
+     *
+     * @throws IOException if the log cannot be written or closed
+     */
+    public void close() throws IOException {
+        synchronized (ioLock) {
+            if (closed) {
+                return;
+            }
+            try {
+                sync();
+            } finally {
+                closed = true;
+                closeLog();
+            }
+        }
+    }
+
+    /**
+     * Make the next sync that appends to the log fail after writing its first record, as a full
+     * disk would (using for testing).
+     */
+    void failNextWrite() {
+        synchronized (ioLock) {
+            failNextWrite = true;
+        }
+    }
+
+    private void openLog() throws IOException {
+        fileOut = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut));
+    }
+
+    private void closeLog() throws IOException {
+        if (out != null) {
+            try {
+                out.close();
+            } finally {
+                out = null;
+            }
+        }
+    }
+
+    private boolean isExpired(Entry entry, long nowMillis) {
+        return nowMillis - entry.enqueuedMillis >= expiryMillis;
+    }
+
+    private void replay(long nowMillis) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (true) {
+                byte op = in.readByte();
+                MeshId destination = MeshId.fromString(in.readUTF());
+                if (op == REMOVE) {
+                    entries.remove(destination);
+                    continue;
+                }
+                long enqueued = in.readLong();
+                int length = in.readInt();
+                if (length < 0 || length > file.length()) {
+                    // A corrupted record; the messages read up to it are kept.
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                entries.remove(destination);
+                if (nowMillis - enqueued < expiryMillis) {
+                    Entry entry = new Entry(destination, payload, enqueued);
+                    entry.nextRetryMillis = nowMillis;
+                    entries.put(destination, entry);
+                }
+            }
+        } catch (EOFException e) {
+            // The end of the log, or a record torn by a crash.
+        } catch (RightMeshException | UTFDataFormatException e) {
+            // A corrupted record; the messages read up to it are kept.
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Rewrite the log with only the live messages, replacing it in one step, and append to the
+     * new log from then on. If that fails, the old log is kept and appended to, and the next
+     * sync tries again. Call while holding the io lock.
+     *
+     * @param live messages in the outbox when the records last written were queued
+     */
+    private void compact(Collection<Entry> live) throws IOException {
+        compactNext = true;
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream tempOut = new FileOutputStream(temp);
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(tempOut));
+        try {
+            for (Entry entry : live) {
+                write(data, PUT, entry);
+            }
+            data.flush();
+            tempOut.getFD().sync();
+        } finally {
+            data.close();
+        }
+        closeLog();
+        boolean renamed = temp.renameTo(file);
+        // The new log, or the old one if it could not be replaced.
+        openLog();
+        if (!renamed) {
+            throw new IOException("Cannot rename " + temp + " to " + file);
+        }
+        synchronized (this) {
+            // Records queued since the live messages were copied are counted when written.
+            records = live.size();
+        }
+        compactNext = false;
+    }
+
+    private void append(byte op, Entry entry) {
+        pending.add(new Record(op, entry));
+    }
+
+    private static void write(DataOutputStream data, byte op, Entry entry) throws IOException {
+        data.writeByte(op);
+        data.writeUTF(entry.destination.toString());
+        if (op == PUT) {
+            data.writeLong(entry.enqueuedMillis);
+            data.writeInt(entry.payload.length);
+            data.write(entry.payload);
+        }
+    }
+
+    /**
+     * A change to the outbox, waiting to be written to the log.
+     */
+    private static final class Record {
+        final byte op;
+        final Entry entry;
+
+        Record(byte op, Entry entry) {
+            this.op = op;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * A message waiting in the outbox.
+     */
+    public static final class Entry {
+        private final MeshId destination;
+        private final byte[] payload;
+        private final long enqueuedMillis;
+        // Guarded by the outbox.
+        private int attempts;
+        private long nextRetryMillis;
+
+        Entry(MeshId destination, byte[] payload, long enqueuedMillis) {
+            this.destination = destination;
+            this.payload = payload;
+            this.enqueuedMillis = enqueuedMillis;
+        }
+
+        public MeshId getDestination() {
+            return destination;
+        }
+
+        /**
+         * Get the message as it was sent. Must not be modified.
+         *
+         * @return payload bytes
+         */
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public long getEnqueuedMillis() {
+            return enqueuedMillis;
+        }
+    }
+}
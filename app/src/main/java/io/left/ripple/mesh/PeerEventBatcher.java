@@ -0,0 +1,93 @@
+package io.left.ripple.mesh;
+
+import io.left.rightmesh.id.MeshId;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects PEER_CHANGED events as they arrive, on any thread, so they can be applied to a
+ * {@link PeerRegistry} in batches on the main thread.
+ *
+ * Events for the same peer collapse into the latest state, so a batch holds at most one change per
+ * peer however many events arrived. No event is lost: the first event of a batch runs the wake-up
+ * callback, which should arrange for {@link #drain()} to be called on the main thread, and every
+ * event offered before that call is part of the batch it returns.
+ */
+public class PeerEventBatcher {
+    private final Runnable wakeUp;
+
+    private final Object lock = new Object();
+    // Latest state of each changed peer, in the order the peers first changed.
+    private Map<MeshId, Integer> pending = new LinkedHashMap<>();
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param wakeUp called, on the offering thread, when an event arrives and no batch is pending
+     */
+    public PeerEventBatcher(Runnable wakeUp) {
+        this.wakeUp = wakeUp;
+    }
+
+    /**
+     * Queue a PEER_CHANGED event.
+     *
+     * @param peer  peer that changed
+     * @param state new state reported by RightMesh
+     */
+    public void offer(MeshId peer, int state) {
+        boolean first;
+        synchronized (lock) {
+            first = pending.isEmpty();
+            pending.put(peer, state);
+        }
+        offered.incrementAndGet();
+        if (first) {
+            wakeUp.run();
+        }
+    }
+
+    /**
+     * Take the pending batch.
+     *
+     * @return latest state of each peer that changed since the last call, in the order the peers
+     *         first changed; empty if nothing changed
+     */
+    public Map<MeshId, Integer> drain() {
+        Map<MeshId, Integer> batch;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return Collections.emptyMap();
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+        batches.incrementAndGet();
+        return batch;
+    }
+
+    /**
+     * Get the number of events offered.
+     *
+     * @return number of events
+     */
+    public long getOfferedCount() {
+        return offered.get();
+    }
+
+    /**
+     * Get the number of non-empty batches drained. Compared with {@link #getOfferedCount()}, shows
+     * how many events were collapsed.
+     *
+     * @return number of batches
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+}
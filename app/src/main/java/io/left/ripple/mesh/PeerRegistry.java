@@ -0,0 +1,286 @@
+package io.left.ripple.mesh;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.mesh.MeshManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The peers currently on the mesh, in the order they were first seen, with what is known about
+ * each of them. This is the model behind the recipient list; views read from it rather than
+ * keeping their own copy.
+ *
+ * Adding, removing and looking up a peer take constant time. Removing a peer only clears its
+ * slot in the ordered list, and the empty slots are compacted away the next time a peer is read
+ * by position, so a burst of removals costs a single pass over the list.
+ *
+ * Peers are added and removed on the main thread, which is also where listeners are called. The
+ * metadata of a known peer, see {@link #recordHops(MeshId, int)}, may be updated from any thread.
+ */
+public class PeerRegistry {
+    // Hop count of a peer no message has been received from yet.
+    public static final int UNKNOWN_HOPS = -1;
+
+    private final Map<MeshId, Peer> peers = new ConcurrentHashMap<>();
+    // Peers in the order they were added. Removed peers leave a null slot until compacted.
+    private final ArrayList<Peer> slots = new ArrayList<>();
+    private int emptySlots;
+
+    private final List<Listener> listeners = new ArrayList<>();
+
+    /**
+     * Apply a PEER_CHANGED state to the registry. {@link MeshManager#REMOVED} removes the peer,
+     * any other state adds it or updates its state.
+     *
+     * @param id    peer that changed
+     * @param state new state reported by RightMesh
+     * @return true if the peer was added or removed, false if only its metadata changed
+     */
+    public boolean update(MeshId id, int state) {
+        return update(id, state, System.currentTimeMillis());
+    }
+
+    boolean update(MeshId id, int state, long nowMillis) {
+        boolean changed = apply(id, state, nowMillis);
+        if (changed) {
+            notifyChanged();
+        }
+        return changed;
+    }
+
+    /**
+     * Apply a batch of PEER_CHANGED states, see {@link #update(MeshId, int)}. Listeners are told
+     * once, after the whole batch.
+     *
+     * @param changes latest state of each peer that changed, see {@link PeerEventBatcher#drain()}
+     * @return number of peers added or removed
+     */
+    public int updateAll(Map<MeshId, Integer> changes) {
+        long now = System.currentTimeMillis();
+        int changed = 0;
+        for (Map.Entry<MeshId, Integer> change : changes.entrySet()) {
+            if (apply(change.getKey(), change.getValue(), now)) {
+                changed++;
+            }
+        }
+        if (changed > 0) {
+            notifyChanged();
+        }
+        return changed;
+    }
+
+    private boolean apply(MeshId id, int state, long nowMillis) {
+        if (state == MeshManager.REMOVED) {
+            return removePeer(id);
+        }
+
+        Peer peer = peers.get(id);
+        if (peer != null) {
+            peer.state = state;
+            peer.lastSeenMillis = nowMillis;
+            return false;
+        }
+        peer = new Peer(id, state, nowMillis);
+        peers.put(id, peer);
+        peer.slot = slots.size();
+        slots.add(peer);
+        return true;
+    }
+
+    /**
+     * Remove a peer.
+     *
+     * @param id peer to remove
+     * @return true if the peer was known
+     */
+    public boolean remove(MeshId id) {
+        boolean removed = removePeer(id);
+        if (removed) {
+            notifyChanged();
+        }
+        return removed;
+    }
+
+    private boolean removePeer(MeshId id) {
+        Peer peer = peers.remove(id);
+        if (peer == null) {
+            return false;
+        }
+        slots.set(peer.slot, null);
+        emptySlots++;
+        return true;
+    }
+
+    /**
+     * Check whether a peer is known.
+     *
+     * @param id peer to look for
+     * @return true if the peer is on the mesh
+     */
+    public boolean contains(MeshId id) {
+        return id != null && peers.containsKey(id);
+    }
+
+    /**
+     * Get what is known about a peer.
+     *
+     * @param id peer to look for
+     * @return the peer, or null if it is not on the mesh
+     */
+    public Peer get(MeshId id) {
+        return id == null ? null : peers.get(id);
+    }
+
+    public int size() {
+        return peers.size();
+    }
+
+    /**
+     * Get a peer by position, in the order peers were added.
+     *
+     * @param position index between 0 and {@link #size()}
+     * @return the peer at that position
+     */
+    public Peer get(int position) {
+        compact();
+        return slots.get(position);
+    }
+
+    /**
+     * Get the position of a peer, in the order peers were added.
+     *
+     * @param id peer to look for
+     * @return the position, or -1 if the peer is not known
+     */
+    public int indexOf(MeshId id) {
+        Peer peer = get(id);
+        if (peer == null) {
+            return -1;
+        }
+        compact();
+        return peer.slot;
+    }
+
+    /**
+     * Copy the ids of all known peers, in order.
+     *
+     * @return a new list of the peers' ids
+     */
+    public List<MeshId> getIds() {
+        compact();
+        List<MeshId> ids = new ArrayList<>(slots.size());
+        for (Peer peer : slots) {
+            ids.add(peer.id);
+        }
+        return ids;
+    }
+
+    /**
+     * Record how many hops the last message from a peer took, and that it was seen now. Ignored
+     * for unknown peers. Safe to call from any thread.
+     *
+     * @param id   peer a message was received from
+     * @param hops hops taken by the message
+     */
+    public void recordHops(MeshId id, int hops) {
+        Peer peer = get(id);
+        if (peer != null) {
+            peer.hopCount = hops;
+            peer.lastSeenMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Register a listener to be told when peers are added or removed.
+     *
+     * @param listener a callback
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void compact() {
+        if (emptySlots == 0) {
+            return;
+        }
+        int position = 0;
+        for (int i = 0; i < slots.size(); i++) {
+            Peer peer = slots.get(i);
+            if (peer != null) {
+                peer.slot = position;
+                slots.set(position++, peer);
+            }
+        }
+        slots.subList(position, slots.size()).clear();
+        emptySlots = 0;
+    }
+
+    private void notifyChanged() {
+        for (Listener listener : listeners) {
+            listener.onPeersChanged();
+        }
+    }
+
+    /**
+     * A peer on the mesh.
+     */
+    public static final class Peer {
+        private final MeshId id;
+        private volatile int state;
+        private volatile long lastSeenMillis;
+        private volatile int hopCount = UNKNOWN_HOPS;
+        // Index in the ordered list, which is also the position once empty slots are compacted.
+        private int slot;
+
+        Peer(MeshId id, int state, long lastSeenMillis) {
+            this.id = id;
+            this.state = state;
+            this.lastSeenMillis = lastSeenMillis;
+        }
+
+        public MeshId getId() {
+            return id;
+        }
+
+        /**
+         * Get the last state reported for the peer.
+         *
+         * @return a PEER_CHANGED state, such as {@link MeshManager#ADDED}
+         */
+        public int getState() {
+            return state;
+        }
+
+        /**
+         * Get when the peer was last reported or heard from.
+         *
+         * @return time in milliseconds since the epoch
+         */
+        public long getLastSeenMillis() {
+            return lastSeenMillis;
+        }
+
+        /**
+         * Get how many hops the last message from the peer took.
+         *
+         * @return hop count, or {@link #UNKNOWN_HOPS}
+         */
+        public int getHopCount() {
+            return hopCount;
+        }
+    }
+
+    /**
+     * Told when peers are added to or removed from the registry.
+     */
+    public interface Listener {
+        void onPeersChanged();
+    }
+}
@@ -0,0 +1,18 @@
+package io.left.ripple.mesh;
+
+import io.left.rightmesh.util.RightMeshException;
+
+/**
+ * Thrown when a send is refused because its next hop is over its {@link RateLimiter} limit. The
+ * send was never handed to RightMesh, and may be retried later.
+ */
+public class RateLimitedException extends RightMeshException {
+    /**
+     * Constructor.
+     *
+     * @param message why the send was not sent
+     */
+    public RateLimitedException(String message) {
+        super(message);
+    }
+}
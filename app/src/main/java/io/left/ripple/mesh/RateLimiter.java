@@ -0,0 +1,241 @@
+package io.left.ripple.mesh;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how often something may happen for each key, such as sends to a next hop or relays of
+ * messages from an origin, with one token bucket per key.
+ *
+ * Each bucket holds up to a burst of tokens and refills at a steady rate; every permit takes a
+ * token, and is refused while the bucket is empty. A key may thus go at the full rate forever,
+ * or faster for a short burst, without holding up the other keys.
+ *
+ * In adaptive mode, see {@link #setAdaptive(long, double)}, each key also has its own
+ * {@link AdaptiveRate}, fed with the outcome of what the key stands for, such as the sends to a
+ * next hop, and its refill rate is scaled by it. A key whose sends are slow or failing then slows
+ * down on its own, and the other keys keep their rate.
+ *
+ * Buckets of the least recently used keys are evicted once there are too many; an evicted key
+ * starts again with a full bucket and the full rate.
+ */
+public class RateLimiter {
+    private final int maxKeys;
+    private final LinkedHashMap<Object, Bucket> buckets;
+    private double permitsPerSecond;
+    private int burst;
+    // Settings of the adaptive rate of each key, if adaptive.
+    private boolean adaptive;
+    private long latencyTargetMillis;
+    private double minScale;
+
+    private final AtomicLong allowed = new AtomicLong();
+    private final AtomicLong limited = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param permitsPerSecond sustained rate for each key, zero for no limit
+     * @param burst            permits a key may take at once after being idle
+     * @param maxKeys          maximum number of keys remembered
+     */
+    public RateLimiter(double permitsPerSecond, int burst, int maxKeys) {
+        this.maxKeys = maxKeys;
+        setRate(permitsPerSecond, burst);
+        // Access order, so the eldest entry is the least recently used one.
+        this.buckets = new LinkedHashMap<Object, Bucket>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Bucket> eldest) {
+                return size() > RateLimiter.this.maxKeys;
+            }
+        };
+    }
+
+    /**
+     * Change the limit of every key. Tokens already in a bucket are kept, up to the new burst.
+     *
+     * @param permitsPerSecond sustained rate for each key, zero for no limit
+     * @param burst            permits a key may take at once after being idle
+     */
+    public synchronized void setRate(double permitsPerSecond, int burst) {
+        if (permitsPerSecond < 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate must not be negative, burst must be positive");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+    }
+
+    public synchronized double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public synchronized int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Scale the refill rate of each key by its own {@link AdaptiveRate}, fed through
+     * {@link #onSuccess(Object, long)} and {@link #onFailure(Object)}.
+     *
+     * @param latencyTargetMillis outcomes slower than this count as a sign of congestion
+     * @param minScale            lowest factor, above zero so a key never stops entirely
+     */
+    public synchronized void setAdaptive(long latencyTargetMillis, double minScale) {
+        if (minScale <= 0 || minScale > 1) {
+            throw new IllegalArgumentException("Minimum scale must be in (0, 1]");
+        }
+        this.adaptive = true;
+        this.latencyTargetMillis = latencyTargetMillis;
+        this.minScale = minScale;
+        for (Bucket bucket : buckets.values()) {
+            bucket.rate = newAdaptiveRate();
+        }
+    }
+
+    /**
+     * Turn the adaptive mode off, restoring the configured rate of every key.
+     */
+    public synchronized void clearAdaptive() {
+        adaptive = false;
+        for (Bucket bucket : buckets.values()) {
+            bucket.rate = null;
+        }
+    }
+
+    public synchronized boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Record that something done for a key succeeded, e.g. a send to a next hop, in adaptive
+     * mode.
+     *
+     * @param key          the key
+     * @param latencyNanos how long it took
+     */
+    public void onSuccess(Object key, long latencyNanos) {
+        AdaptiveRate rate = adaptiveRate(key, System.nanoTime());
+        if (rate != null) {
+            rate.onSuccess(latencyNanos);
+        }
+    }
+
+    /**
+     * Record that something done for a key failed, in adaptive mode.
+     *
+     * @param key the key
+     */
+    public void onFailure(Object key) {
+        AdaptiveRate rate = adaptiveRate(key, System.nanoTime());
+        if (rate != null) {
+            rate.onFailure();
+        }
+    }
+
+    /**
+     * Get the factor the refill rate of a key is scaled by.
+     *
+     * @param key the key
+     * @return between the minimum scale and one, or one for a key not known or while not
+     *         adaptive
+     */
+    public synchronized double getScale(Object key) {
+        Bucket bucket = buckets.get(key);
+        return bucket == null || bucket.rate == null ? 1 : bucket.rate.getScale();
+    }
+
+    private synchronized AdaptiveRate adaptiveRate(Object key, long nowNanos) {
+        return adaptive ? bucket(key, nowNanos).rate : null;
+    }
+
+    /**
+     * Take a permit for a key, if its bucket has a token left.
+     *
+     * @param key what is limited, e.g. a MeshId
+     * @return true if the permit was granted, false if the key is over its limit
+     */
+    public boolean tryAcquire(Object key) {
+        return tryAcquire(key, System.nanoTime());
+    }
+
+    boolean tryAcquire(Object key, long nowNanos) {
+        boolean granted;
+        synchronized (this) {
+            if (permitsPerSecond == 0) {
+                granted = true;
+            } else {
+                Bucket bucket = bucket(key, nowNanos);
+                double scale = bucket.rate == null ? 1 : bucket.rate.getScale();
+                granted = bucket.take(permitsPerSecond * scale, burst, nowNanos);
+            }
+        }
+        (granted ? allowed : limited).incrementAndGet();
+        return granted;
+    }
+
+    /**
+     * Get the bucket of a key, adding a full one if it has none. Must hold the lock.
+     */
+    private Bucket bucket(Object key, long nowNanos) {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new Bucket(burst, nowNanos);
+            if (adaptive) {
+                bucket.rate = newAdaptiveRate();
+            }
+            buckets.put(key, bucket);
+        }
+        return bucket;
+    }
+
+    private AdaptiveRate newAdaptiveRate() {
+        return new AdaptiveRate(latencyTargetMillis, minScale);
+    }
+
+    public long getAllowedCount() {
+        return allowed.get();
+    }
+
+    /**
+     * Get the number of permits refused because a key was over its limit.
+     *
+     * @return number of refused permits
+     */
+    public long getLimitedCount() {
+        return limited.get();
+    }
+
+    /**
+     * The tokens of one key, guarded by the limiter.
+     */
+    private static final class Bucket {
+        private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+        double tokens;
+        long refilledAt;
+        // Scales the refill rate, if adaptive.
+        AdaptiveRate rate;
+
+        Bucket(int tokens, long nowNanos) {
+            this.tokens = tokens;
+            this.refilledAt = nowNanos;
+        }
+
+        boolean take(double permitsPerSecond, int burst, long nowNanos) {
+            long elapsed = nowNanos - refilledAt;
+            if (elapsed > 0) {
+                tokens = Math.min(burst, tokens + elapsed * permitsPerSecond / NANOS_PER_SECOND);
+                refilledAt = nowNanos;
+            } else {
+                tokens = Math.min(burst, tokens);
+            }
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package io.left.ripple.mesh;
+
+import io.left.rightmesh.id.MeshId;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the next hop towards each destination, so repeated sends to the same peer do not pay
+ * for a service round trip every time.
+ *
+ * Entries expire after a fixed time to live, and the least recently used entry is evicted once
+ * the cache is full. Entries should be invalidated whenever the mesh reports that a peer was
+ * removed or updated, see {@link #invalidate(MeshId)}.
+ */
+public class RouteCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<MeshId, Route> routes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries maximum number of destinations remembered
+     * @param ttlMillis  how long a route stays valid, in milliseconds
+     */
+    public RouteCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        // Access order, so the eldest entry is the least recently used one.
+        this.routes = new LinkedHashMap<MeshId, Route>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<MeshId, Route> eldest) {
+                return size() > RouteCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get the cached next hop towards a destination.
+     *
+     * @param destination final recipient
+     * @return the next hop, or null if there is no valid cached route
+     */
+    public MeshId get(MeshId destination) {
+        return get(destination, System.nanoTime());
+    }
+
+    synchronized MeshId get(MeshId destination, long nowNanos) {
+        Route route = routes.get(destination);
+        if (route == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (nowNanos - route.createdNanos >= ttlNanos) {
+            routes.remove(destination);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return route.nextHop;
+    }
+
+    /**
+     * Remember the next hop towards a destination.
+     *
+     * @param destination final recipient
+     * @param nextHop     peer to hand data for the destination to
+     */
+    public void put(MeshId destination, MeshId nextHop) {
+        put(destination, nextHop, System.nanoTime());
+    }
+
+    synchronized void put(MeshId destination, MeshId nextHop, long nowNanos) {
+        if (destination != null && nextHop != null) {
+            routes.put(destination, new Route(nextHop, nowNanos));
+        }
+    }
+
+    /**
+     * Forget every route that leads to, or passes through, a peer.
+     *
+     * @param peer peer that was removed or whose state changed
+     */
+    public synchronized void invalidate(MeshId peer) {
+        Iterator<Map.Entry<MeshId, Route>> iterator = routes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<MeshId, Route> entry = iterator.next();
+            if (entry.getKey().equals(peer) || entry.getValue().nextHop.equals(peer)) {
+                iterator.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Forget all routes.
+     */
+    public synchronized void clear() {
+        routes.clear();
+    }
+
+    public synchronized int size() {
+        return routes.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    private static final class Route {
+        final MeshId nextHop;
+        final long createdNanos;
+
+        Route(MeshId nextHop, long createdNanos) {
+            this.nextHop = nextHop;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package io.left.ripple.mesh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of a send queued on a {@link SendScheduler}.
+ *
+ * Works like a minimal CompletableFuture, which is not available on every API level the app
+ * supports: callers can block on {@link #get()}, or register a {@link Listener} to be told when
+ * the send completes. Listeners run on the thread that completes the future, normally the send
+ * worker, or straight away on the calling thread if the future is already done.
+ */
+public class SendFuture implements Future<Void> {
+    private List<Listener> listeners = new ArrayList<>();
+    private boolean done;
+    private boolean cancelled;
+    private Throwable error;
+
+    /**
+     * Mark the send as successful.
+     *
+     * @return true if this call completed the future, false if it was already done
+     */
+    public boolean complete() {
+        return finish(null, false);
+    }
+
+    /**
+     * Mark the send as failed.
+     *
+     * @param error the reason the send failed
+     * @return true if this call completed the future, false if it was already done
+     */
+    public boolean completeExceptionally(Throwable error) {
+        return finish(error, false);
+    }
+
+    /**
+     * Cancel the send, if it has not been handed to RightMesh yet.
+     *
+     * @param mayInterruptIfRunning ignored, a send in progress is never interrupted
+     * @return true if this call cancelled the future
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(new CancellationException("Send cancelled"), true);
+    }
+
+    /**
+     * Complete with the same outcome as another, completed, future.
+     *
+     * @param other a completed future
+     */
+    void completeFrom(SendFuture other) {
+        Throwable otherError = other.getError();
+        finish(otherError, otherError != null && other.isCancelled());
+    }
+
+    /**
+     * Register a callback for when the send completes.
+     *
+     * @param listener a callback
+     */
+    public void addListener(Listener listener) {
+        synchronized (this) {
+            if (!done) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.onComplete(this);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Check whether the send completed without an error.
+     *
+     * @return true if the send is done and succeeded
+     */
+    public synchronized boolean isSuccess() {
+        return done && error == null;
+    }
+
+    /**
+     * Get the reason the send failed.
+     *
+     * @return the error, or null if the send succeeded or is not done yet
+     */
+    public synchronized Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public synchronized Void get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized Void get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    private Void result() throws ExecutionException {
+        if (cancelled) {
+            throw (CancellationException) error;
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return null;
+    }
+
+    private boolean finish(Throwable error, boolean cancelled) {
+        List<Listener> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.done = true;
+            this.error = error;
+            this.cancelled = cancelled;
+            toNotify = listeners;
+            listeners = null;
+            notifyAll();
+        }
+
+        for (Listener listener : toNotify) {
+            listener.onComplete(this);
+        }
+        return true;
+    }
+
+    /**
+     * Send completion listener.
+     */
+    public interface Listener {
+        void onComplete(SendFuture future);
+    }
+}
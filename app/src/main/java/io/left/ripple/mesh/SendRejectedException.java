@@ -0,0 +1,15 @@
+package io.left.ripple.mesh;
+
+/**
+ * Thrown when a {@link SendScheduler} does not accept a send, or drops it before it is sent.
+ */
+public class SendRejectedException extends Exception {
+    /**
+     * Constructor.
+     *
+     * @param message why the send was not sent
+     */
+    public SendRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,801 @@
+package io.left.ripple.mesh;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.metrics.LatencyHistogram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves sends off the calling thread onto a single worker thread.
+ *
+ * Sends wait in one bounded queue per {@link Lane}, and each lane hands its sends to the
+ * {@link Sender} in the order they were submitted. Between lanes, the worker takes sends in
+ * proportion to the lane weights, so a burst of bulk sends delays a control message by at most a
+ * few sends rather than by a whole queue, and bulk sends still go out while control traffic is
+ * busy. What happens when a lane is full is decided by the {@link OverflowPolicy}. Every send
+ * gets a {@link SendFuture} that completes once RightMesh has accepted or rejected it.
+ *
+ * Long work, such as a broadcast, can be queued as a {@link SteppedJob}: each step takes one turn
+ * of its lane, and the job goes back to the head of its lane between steps, so a large bulk job
+ * holds up a control message by one step at most.
+ *
+ * Sends submitted with {@link #submitLatest(MeshId, byte[])} carry state where only the newest
+ * value matters, such as a colour. A queued send of that kind is replaced by a newer one to the
+ * same recipient, and a recipient is sent at most one of them per coalescing window: the first
+ * goes out straight away, later ones wait for the window to pass and collapse into the newest.
+ * The sends queued behind a waiting one in its lane wait along with it.
+ *
+ * The scheduler can be held, e.g. while the connection to RightMesh is down, see
+ * {@link #setHeld(boolean)}. Sends keep being queued, but none is handed out until the hold is
+ * released, so the worker is never blocked waiting for the connection, and those held for
+ * longer than the hold timeout fail.
+ *
+ * The worker thread is started by the first submitted send.
+ */
+public class SendScheduler {
+    private static final String THREAD_NAME = "ripple-send";
+
+    /**
+     * Priority class of a send. Each lane has its own queue, capacity and weight.
+     */
+    public enum Lane {
+        // Probes, acknowledgements and other small messages the mesh protocol waits on.
+        CONTROL(8),
+        // Messages the user is waiting to see, such as a colour.
+        INTERACTIVE(4),
+        // Large or fan-out work, such as a broadcast to every peer.
+        BULK(1);
+
+        private final int defaultWeight;
+
+        Lane(int defaultWeight) {
+            this.defaultWeight = defaultWeight;
+        }
+
+        public int getDefaultWeight() {
+            return defaultWeight;
+        }
+    }
+
+    /**
+     * What to do with a new send when its lane is full.
+     */
+    public enum OverflowPolicy {
+        // Wait for space in the queue. Never use this from the main thread.
+        BLOCK,
+        // Fail the oldest queued send to make room for the new one. Jobs that have run a step are
+        // never dropped; if nothing else is queued, the new send fails.
+        DROP_OLDEST,
+        // Fail the new send.
+        REJECT
+    }
+
+    private final Sender sender;
+    private final int capacity;
+    private volatile OverflowPolicy overflowPolicy;
+    private volatile long coalesceWindowNanos;
+    private volatile long holdTimeoutNanos = Long.MAX_VALUE;
+
+    // Guards everything below, including the lane queues, and is waited on by the worker and by
+    // blocked submitters.
+    private final Object lock = new Object();
+    private final Map<Lane, LaneQueue> lanes = new EnumMap<>(Lane.class);
+    // Queued sends that may still be replaced, by recipient.
+    private final Map<MeshId, Task> replaceable = new HashMap<>();
+    // When each recipient was last sent a replaceable send, in System.nanoTime() terms.
+    private final Map<MeshId, Long> lastSent = new HashMap<>();
+    private Thread worker;
+    private boolean shutdown;
+    private boolean held;
+    // When the current hold started, in System.nanoTime() terms.
+    private long heldSince;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param sender         performs the actual sends, on the worker thread
+     * @param capacity       maximum number of queued sends in each lane, until changed with
+     *                       {@link #setLaneCapacity(Lane, int)}
+     * @param overflowPolicy what to do when a lane is full
+     */
+    public SendScheduler(Sender sender, int capacity, OverflowPolicy overflowPolicy) {
+        this.sender = sender;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new LaneQueue(capacity, lane.getDefaultWeight()));
+        }
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public long getCoalesceWindowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(coalesceWindowNanos);
+    }
+
+    /**
+     * Set the minimum time between two replaceable sends to the same recipient. Zero still
+     * collapses sends that are queued behind a busy worker, but never holds a send back.
+     *
+     * @param windowMillis coalescing window, in milliseconds
+     */
+    public void setCoalesceWindowMillis(long windowMillis) {
+        this.coalesceWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    public long getHoldTimeoutMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(holdTimeoutNanos);
+    }
+
+    /**
+     * Set the longest time a send waits while the scheduler is held, counted from when it was
+     * submitted or the hold started, whichever is later. Sends held for longer fail with a
+     * {@link SendRejectedException}.
+     *
+     * @param timeoutMillis hold timeout, in milliseconds
+     */
+    public void setHoldTimeoutMillis(long timeoutMillis) {
+        synchronized (lock) {
+            holdTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Hold or release every lane. While held, sends are queued as usual but none is handed to
+     * the {@link Sender}, and those held for longer than the hold timeout fail.
+     *
+     * @param held true to hold the queued sends, false to let them go
+     */
+    public void setHeld(boolean held) {
+        synchronized (lock) {
+            if (held && !this.held) {
+                heldSince = System.nanoTime();
+            }
+            this.held = held;
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isHeld() {
+        synchronized (lock) {
+            return held;
+        }
+    }
+
+    /**
+     * Set the maximum number of queued sends in one lane.
+     *
+     * @param lane     the lane
+     * @param capacity maximum number of its queued sends
+     */
+    public void setLaneCapacity(Lane lane, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Lane capacity must be positive");
+        }
+        synchronized (lock) {
+            lanes.get(lane).capacity = capacity;
+            lock.notifyAll();
+        }
+    }
+
+    public int getLaneCapacity(Lane lane) {
+        synchronized (lock) {
+            return lanes.get(lane).capacity;
+        }
+    }
+
+    /**
+     * Set the share of sends taken from one lane while other lanes have sends waiting too. A lane
+     * of weight 8 gets eight sends for each send of a lane of weight 1.
+     *
+     * @param lane   the lane
+     * @param weight its relative share
+     */
+    public void setLaneWeight(Lane lane, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Lane weight must be positive");
+        }
+        synchronized (lock) {
+            lanes.get(lane).weight = weight;
+        }
+    }
+
+    public int getLaneWeight(Lane lane) {
+        synchronized (lock) {
+            return lanes.get(lane).weight;
+        }
+    }
+
+    /**
+     * Record, for each send of a lane, the time from its submission until it was handed to
+     * RightMesh or failed.
+     *
+     * @param lane      the lane
+     * @param histogram receives the latencies, or null to stop recording
+     */
+    public void setLatencyHistogram(Lane lane, LatencyHistogram histogram) {
+        synchronized (lock) {
+            lanes.get(lane).latency = histogram;
+        }
+    }
+
+    /**
+     * Queue a payload to be sent in the {@link Lane#INTERACTIVE} lane.
+     *
+     * @param target  final recipient
+     * @param payload encoded data to send
+     * @return future completed when the send has been handed to RightMesh, or has failed
+     */
+    public SendFuture submit(MeshId target, byte[] payload) {
+        return submit(Lane.INTERACTIVE, target, payload);
+    }
+
+    /**
+     * Queue a payload to be sent.
+     *
+     * @param lane    priority class of the send
+     * @param target  final recipient
+     * @param payload encoded data to send
+     * @return future completed when the send has been handed to RightMesh, or has failed
+     */
+    public SendFuture submit(Lane lane, MeshId target, byte[] payload) {
+        return submit(lane, target, payload, sender);
+    }
+
+    /**
+     * Queue a payload to be sent by another sender than the scheduler's, e.g. one that applies
+     * limits to some sends only.
+     *
+     * @param lane    priority class of the send
+     * @param target  final recipient
+     * @param payload encoded data to send
+     * @param sender  performs the send, on the worker thread
+     * @return future completed when the send has been handed to RightMesh, or has failed
+     */
+    public SendFuture submit(Lane lane, MeshId target, byte[] payload, Sender sender) {
+        Task task = new Task(lane, target, payload, false);
+        task.sender = sender;
+        return enqueue(task);
+    }
+
+    /**
+     * Queue other blocking mesh work in the {@link Lane#INTERACTIVE} lane.
+     *
+     * @param job work to run on the worker thread
+     * @return future completed when the job has run, failed if it threw
+     * @see #submit(Lane, Job)
+     */
+    public SendFuture submit(Job job) {
+        return submit(Lane.INTERACTIVE, job);
+    }
+
+    /**
+     * Queue other blocking mesh work, such as a send to several peers, to run on the worker in
+     * order with the sends of its lane. It is subject to the same capacity and overflow policy.
+     *
+     * @param lane priority class of the job
+     * @param job  work to run on the worker thread
+     * @return future completed when the job has run, failed if it threw
+     */
+    public SendFuture submit(Lane lane, Job job) {
+        return submit(lane, () -> {
+            job.run();
+            return false;
+        });
+    }
+
+    /**
+     * Queue blocking mesh work split into steps. Each step runs as one turn of the lane, as a
+     * send would, and the job keeps its place at the head of the lane until its last step.
+     *
+     * @param lane priority class of the job
+     * @param job  work to run on the worker thread, one step at a time
+     * @return future completed when the last step has run, failed if a step threw
+     */
+    public SendFuture submit(Lane lane, SteppedJob job) {
+        Task task = new Task(lane, null, null, false);
+        task.job = job;
+        return enqueue(task);
+    }
+
+    /**
+     * Queue a payload that supersedes any earlier replaceable payload to the same recipient, in
+     * the {@link Lane#INTERACTIVE} lane.
+     *
+     * If a send to the recipient is still queued, its payload is replaced and it keeps its place
+     * in the queue. The futures of superseded sends complete along with the send that replaced
+     * them.
+     *
+     * @param target  final recipient
+     * @param payload encoded data to send
+     * @return future completed when the newest payload has been handed to RightMesh, or failed
+     */
+    public SendFuture submitLatest(MeshId target, byte[] payload) {
+        return submitLatest(target, payload, sender);
+    }
+
+    /**
+     * Queue a payload that supersedes any earlier replaceable payload to the same recipient, to
+     * be sent by another sender than the scheduler's. A queued send replaced by it is sent by
+     * that sender too. See {@link #submitLatest(MeshId, byte[])}.
+     *
+     * @param target  final recipient
+     * @param payload encoded data to send
+     * @param sender  performs the send, on the worker thread
+     * @return future completed when the newest payload has been handed to RightMesh, or failed
+     */
+    public SendFuture submitLatest(MeshId target, byte[] payload, Sender sender) {
+        SendFuture future = new SendFuture();
+        synchronized (lock) {
+            Task queued = shutdown ? null : replaceable.get(target);
+            if (queued != null) {
+                SendFuture superseded = queued.future;
+                queued.payload = payload;
+                queued.sender = sender;
+                queued.future = future;
+                future.addListener(superseded::completeFrom);
+                suppressed.incrementAndGet();
+                return future;
+            }
+        }
+        Task task = new Task(Lane.INTERACTIVE, target, payload, true, future);
+        task.sender = sender;
+        return enqueue(task);
+    }
+
+    private SendFuture enqueue(Task task) {
+        // Read before queueing, a newer payload may replace the task's future once it is queued.
+        SendFuture future = task.future;
+        // Futures are failed outside the lock, so their listeners never run while holding it.
+        Task oldest = null;
+        String rejection = null;
+        synchronized (lock) {
+            LaneQueue lane = lanes.get(task.lane);
+            while (rejection == null && !shutdown && lane.queue.size() >= lane.capacity) {
+                OverflowPolicy policy = overflowPolicy;
+                if (policy == OverflowPolicy.BLOCK) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        rejection = "Interrupted while waiting for space in the send queue";
+                    }
+                } else if (policy == OverflowPolicy.DROP_OLDEST) {
+                    oldest = pollOldestUnstarted(lane);
+                    if (oldest == null) {
+                        rejection = "Send queue is full of running jobs: " + task.lane;
+                    } else {
+                        forget(oldest);
+                    }
+                } else {
+                    rejection = "Send queue is full: " + task.lane;
+                }
+            }
+            if (shutdown) {
+                rejection = "Send scheduler is shut down";
+            }
+
+            if (rejection == null) {
+                ensureStarted();
+                long now = System.nanoTime();
+                task.submittedAt = now;
+                task.readyAt = task.replaceable ? readyAt(task.target, now) : now;
+                if (task.replaceable) {
+                    replaceable.put(task.target, task);
+                }
+                lane.queue.add(task);
+                lock.notifyAll();
+            }
+        }
+
+        if (oldest != null) {
+            dropped.incrementAndGet();
+            oldest.future.completeExceptionally(
+                    new SendRejectedException("Dropped from full send queue"));
+        }
+        if (rejection != null) {
+            reject(task, rejection);
+        }
+        return future;
+    }
+
+    /**
+     * Remove the oldest send of a lane, skipping jobs that have run a step, as dropping them
+     * would cut them off halfway. Must hold the lock.
+     *
+     * @return the send, or null if only such jobs are queued
+     */
+    private static Task pollOldestUnstarted(LaneQueue lane) {
+        Iterator<Task> it = lane.queue.iterator();
+        while (it.hasNext()) {
+            Task task = it.next();
+            if (!task.started) {
+                it.remove();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stop the worker thread. Sends still queued fail with a {@link SendRejectedException}.
+     */
+    public void shutdown() {
+        List<Task> pending;
+        synchronized (lock) {
+            shutdown = true;
+            if (worker != null) {
+                worker.interrupt();
+            }
+            pending = new ArrayList<>();
+            for (LaneQueue lane : lanes.values()) {
+                pending.addAll(lane.queue);
+                lane.queue.clear();
+            }
+            replaceable.clear();
+            lock.notifyAll();
+        }
+
+        for (Task task : pending) {
+            reject(task, "Send scheduler is shut down");
+        }
+    }
+
+    /**
+     * Get the number of sends waiting for the worker.
+     *
+     * @return queue length, over all lanes
+     */
+    public int getQueuedCount() {
+        synchronized (lock) {
+            int count = 0;
+            for (LaneQueue lane : lanes.values()) {
+                count += lane.queue.size();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Get the number of sends of one lane waiting for the worker.
+     *
+     * @param lane the lane
+     * @return its queue length
+     */
+    public int getQueuedCount(Lane lane) {
+        synchronized (lock) {
+            return lanes.get(lane).queue.size();
+        }
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Get the number of sends that were never sent because a newer payload to the same
+     * recipient replaced them.
+     *
+     * @return number of superseded sends
+     */
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    private void reject(Task task, String reason) {
+        rejected.incrementAndGet();
+        task.future.completeExceptionally(new SendRejectedException(reason));
+    }
+
+    private long readyAt(MeshId target, long now) {
+        Long last = lastSent.get(target);
+        if (last == null) {
+            return now;
+        }
+        long readyAt = last + coalesceWindowNanos;
+        return readyAt - now > 0 ? readyAt : now;
+    }
+
+    private void forget(Task task) {
+        if (task.replaceable && replaceable.get(task.target) == task) {
+            replaceable.remove(task.target);
+        }
+    }
+
+    private void ensureStarted() {
+        if (worker == null) {
+            worker = new Thread(this::runWorker, THREAD_NAME);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void runWorker() {
+        while (true) {
+            Task task;
+            byte[] payload;
+            Sender taskSender;
+            LatencyHistogram latency;
+            try {
+                synchronized (lock) {
+                    task = takeReady();
+                    if (task == null) {
+                        return;
+                    }
+                    // Read under the lock, a newer payload may replace it until this point.
+                    payload = task.payload;
+                    taskSender = task.sender;
+                    latency = lanes.get(task.lane).latency;
+                }
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (task.future.isDone()) {
+                // Cancelled while queued.
+                continue;
+            }
+            if (task.expired) {
+                record(latency, task);
+                reject(task, "Held longer than the hold timeout");
+                continue;
+            }
+
+            try {
+                if (task.job != null && task.job.step()) {
+                    resume(task);
+                    continue;
+                }
+                if (task.job == null) {
+                    taskSender.send(task.target, payload);
+                }
+                sent.incrementAndGet();
+                record(latency, task);
+                task.future.complete();
+            } catch (RightMeshException | RuntimeException e) {
+                failed.incrementAndGet();
+                record(latency, task);
+                task.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Put a job with steps left back at the head of its lane.
+     */
+    private void resume(Task task) {
+        synchronized (lock) {
+            if (!shutdown) {
+                task.started = true;
+                lanes.get(task.lane).queue.addFirst(task);
+                lock.notifyAll();
+                return;
+            }
+        }
+        reject(task, "Send scheduler is shut down");
+    }
+
+    private static void record(LatencyHistogram latency, Task task) {
+        if (latency != null) {
+            latency.recordSince(task.submittedAt);
+        }
+    }
+
+    /**
+     * Wait until the first send of a lane is due, and remove the first send of the lane whose
+     * turn it is. A lane whose first send waits for its coalescing window waits as a whole, so
+     * each lane keeps its order. Must hold the lock.
+     *
+     * Turns follow smooth weighted round-robin: every lane with a due send earns its weight in
+     * credit, the lane with the most credit goes and pays back the credit earned by all of them.
+     * Lanes with nothing due neither earn nor pay, so an idle lane cannot save up a burst.
+     *
+     * While the scheduler is held, only sends held for longer than the hold timeout are
+     * removed, marked as expired.
+     *
+     * @return the send, or null once the scheduler is shut down
+     */
+    private Task takeReady() throws InterruptedException {
+        while (!shutdown) {
+            long now = System.nanoTime();
+            if (held) {
+                Task expired = takeExpired(now);
+                if (expired != null) {
+                    return expired;
+                }
+                continue;
+            }
+            long wait = Long.MAX_VALUE;
+            LaneQueue next = null;
+            Task nextTask = null;
+            int totalWeight = 0;
+            for (LaneQueue lane : lanes.values()) {
+                Task due = lane.queue.peekFirst();
+                if (due == null) {
+                    continue;
+                }
+                long remaining = due.readyAt - now;
+                if (remaining > 0) {
+                    wait = Math.min(wait, remaining);
+                    continue;
+                }
+                lane.credit += lane.weight;
+                totalWeight += lane.weight;
+                if (next == null || lane.credit > next.credit) {
+                    next = lane;
+                    nextTask = due;
+                }
+            }
+
+            if (next != null) {
+                next.credit -= totalWeight;
+                next.queue.pollFirst();
+                forget(nextTask);
+                if (nextTask.replaceable) {
+                    lastSent.put(nextTask.target, now);
+                    pruneLastSent(now);
+                }
+                // Wake submitters waiting for space.
+                lock.notifyAll();
+                return nextTask;
+            }
+
+            if (wait == Long.MAX_VALUE) {
+                lock.wait();
+            } else {
+                TimeUnit.NANOSECONDS.timedWait(lock, wait);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove the first send held for longer than the hold timeout, or wait until one is, or
+     * until the hold is released. Must hold the lock.
+     *
+     * @param now current time, in System.nanoTime() terms
+     * @return the expired send, or null after waiting
+     */
+    private Task takeExpired(long now) throws InterruptedException {
+        long timeout = holdTimeoutNanos;
+        long wait = Long.MAX_VALUE;
+        for (LaneQueue lane : lanes.values()) {
+            for (Task task : lane.queue) {
+                long since = task.submittedAt - heldSince > 0 ? task.submittedAt : heldSince;
+                long remaining = timeout - (now - since);
+                if (remaining <= 0) {
+                    lane.queue.remove(task);
+                    forget(task);
+                    task.expired = true;
+                    lock.notifyAll();
+                    return task;
+                }
+                wait = Math.min(wait, remaining);
+            }
+        }
+        if (wait == Long.MAX_VALUE) {
+            lock.wait();
+        } else {
+            TimeUnit.NANOSECONDS.timedWait(lock, wait);
+        }
+        return null;
+    }
+
+    private void pruneLastSent(long now) {
+        if (lastSent.size() <= capacity) {
+            return;
+        }
+        for (Iterator<Long> it = lastSent.values().iterator(); it.hasNext(); ) {
+            if (now - it.next() >= coalesceWindowNanos) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Performs sends on behalf of the scheduler.
+     */
+    public interface Sender {
+        void send(MeshId target, byte[] payload) throws RightMeshException;
+    }
+
+    /**
+     * Blocking mesh work queued with {@link #submit(Job)}.
+     */
+    public interface Job {
+        void run() throws RightMeshException;
+    }
+
+    /**
+     * Blocking mesh work queued with {@link #submit(Lane, SteppedJob)}, run one step per turn.
+     */
+    public interface SteppedJob {
+        /**
+         * Run the next step.
+         *
+         * @return true if steps are left
+         * @throws RightMeshException if the job failed; no more steps are run
+         */
+        boolean step() throws RightMeshException;
+    }
+
+    /**
+     * The queued sends of one lane, guarded by the scheduler lock.
+     */
+    private static final class LaneQueue {
+        final ArrayDeque<Task> queue = new ArrayDeque<>();
+        int capacity;
+        int weight;
+        // Smooth weighted round-robin credit, see takeReady().
+        int credit;
+        LatencyHistogram latency;
+
+        LaneQueue(int capacity, int weight) {
+            this.capacity = capacity;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Task {
+        final Lane lane;
+        final MeshId target;
+        final boolean replaceable;
+        // Run instead of a send, if set.
+        SteppedJob job;
+        // Replaced when a newer payload supersedes this one, guarded by the scheduler lock.
+        byte[] payload;
+        Sender sender;
+        SendFuture future;
+        long submittedAt;
+        long readyAt;
+        // Removed from a held scheduler after the hold timeout, to be failed.
+        boolean expired;
+        // A job that has run a step and been put back, see resume().
+        boolean started;
+
+        Task(Lane lane, MeshId target, byte[] payload, boolean replaceable) {
+            this(lane, target, payload, replaceable, new SendFuture());
+        }
+
+        Task(Lane lane, MeshId target, byte[] payload, boolean replaceable, SendFuture future) {
+            this.lane = lane;
+            this.target = target;
+            this.payload = payload;
+            this.replaceable = replaceable;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package io.left.ripple.mesh;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on a small, fixed set of worker threads, keeping the tasks of each key in order.
+ *
+ * Every key, such as the MeshId a message came from, maps to one stripe: a queue with its own
+ * worker thread. Tasks with the same key run one at a time in the order they were submitted,
+ * while tasks whose keys map to other stripes run in parallel, so one slow task only holds up
+ * the keys sharing its stripe. The number of tasks queued or running across all stripes is
+ * bounded; once the bound is reached, new tasks are rejected rather than queued, so the caller
+ * never blocks.
+ *
+ * A task that throws is counted as failed; the worker goes on with the next task. Worker threads
+ * are started by the first task of their stripe.
+ */
+public class StripedExecutor {
+    private final String name;
+    private final int capacity;
+    private final Stripe[] stripes;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile boolean shutdown;
+
+    /**
+     * Constructor.
+     *
+     * @param name     prefix of the worker thread names
+     * @param stripes  number of stripes, and of worker threads
+     * @param capacity maximum number of tasks queued or running
+     */
+    public StripedExecutor(String name, int stripes, int capacity) {
+        if (stripes < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Stripes and capacity must be positive");
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe(i);
+        }
+    }
+
+    /**
+     * Queue a task after the earlier tasks of its stripe.
+     *
+     * @param key  decides the stripe; tasks with equal keys run in order
+     * @param task work to run on the stripe's worker
+     * @return false if the task was rejected because the executor is full or shut down
+     */
+    public boolean execute(Object key, Runnable task) {
+        if (shutdown || !reserve()) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        if (!stripes[stripeOf(key)].offer(task)) {
+            inFlight.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the stripe a key maps to.
+     *
+     * @param key a task key
+     * @return index of the stripe, from 0 to {@link #getStripeCount()} - 1
+     */
+    public int stripeOf(Object key) {
+        int hash = key.hashCode();
+        // Spread the high bits, MeshId hashes may differ only there.
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % stripes.length;
+    }
+
+    /**
+     * Stop the workers. Tasks still queued are dropped, and later ones rejected.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Stripe stripe : stripes) {
+            stripe.shutdown();
+        }
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of tasks waiting in one stripe, not counting the one running.
+     *
+     * @param stripe index of the stripe
+     * @return queue length
+     */
+    public int getQueuedCount(int stripe) {
+        return stripes[stripe].size();
+    }
+
+    /**
+     * Get the number of tasks queued or running, across all stripes.
+     *
+     * @return tasks in flight, at most the capacity
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= capacity) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+            completed.incrementAndGet();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * A queue of tasks and the worker thread running them.
+     */
+    private final class Stripe {
+        private final int index;
+        // Guards everything below, and is waited on by the worker.
+        private final Object lock = new Object();
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private Thread worker;
+        private boolean stopped;
+
+        Stripe(int index) {
+            this.index = index;
+        }
+
+        boolean offer(Runnable task) {
+            synchronized (lock) {
+                if (stopped) {
+                    return false;
+                }
+                if (worker == null) {
+                    worker = new Thread(this::runWorker, name + "-" + index);
+                    worker.setDaemon(true);
+                    worker.start();
+                }
+                queue.add(task);
+                lock.notifyAll();
+                return true;
+            }
+        }
+
+        int size() {
+            synchronized (lock) {
+                return queue.size();
+            }
+        }
+
+        void shutdown() {
+            List<Runnable> dropped;
+            synchronized (lock) {
+                stopped = true;
+                dropped = new ArrayList<>(queue);
+                queue.clear();
+                lock.notifyAll();
+            }
+            inFlight.addAndGet(-dropped.size());
+        }
+
+        private void runWorker() {
+            while (true) {
+                Runnable task;
+                synchronized (lock) {
+                    while (!stopped && queue.isEmpty()) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            // Only shutdown() stops the worker.
+                        }
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    task = queue.poll();
+                }
+                StripedExecutor.this.run(task);
+            }
+        }
+    }
+}
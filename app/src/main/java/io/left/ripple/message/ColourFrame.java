@@ -0,0 +1,343 @@
+package io.left.ripple.message;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.Colour;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes colour messages on the wire.
+ *
+ * Two formats are understood:
+ * <ul>
+ * <li>The legacy text format, {@code "<recipient MeshId>:<colour name>"} in UTF-8.</li>
+ * <li>The version 1 binary frame, laid out as
+ * {@code [version][flags][colour ordinal][id length][recipient id bytes...]}.</li>
+ * <li>The version 2 binary frame, which adds what relays need to drop duplicates and stop loops:
+ * {@code [version][flags][colour ordinal][ttl][sequence, 4 bytes][id length][recipient id
+ * bytes...][id length][origin id bytes...]}. The origin and sequence number identify the message,
+ * the ttl is the number of times it may still be forwarded.</li>
+ * </ul>
+ *
+ * A version 2 frame with {@link #FLAG_BROADCAST} set is meant for several devices. It has an empty
+ * recipient and the origin is followed by the list of devices it is still to reach:
+ * {@code [count, 2 bytes]} then {@code [id length][id bytes...]} for each. A relay splits the list
+ * by next hop and sends each next hop a frame listing only the devices behind it.
+ *
+ * Binary frames always start with a byte that has its high bit set, which can never be the first
+ * byte of a legacy text message, so a receiver can tell the two apart from the first byte alone.
+ */
+public final class ColourFrame {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // High bit marks a binary frame, low bits carry the frame version.
+    private static final int BINARY_MARKER = 0x80;
+    public static final int VERSION_1 = 1;
+    public static final byte VERSION_1_HEADER = (byte) (BINARY_MARKER | VERSION_1);
+    public static final int VERSION_2 = 2;
+    public static final byte VERSION_2_HEADER = (byte) (BINARY_MARKER | VERSION_2);
+
+    // Reserved for future use. Always 0 in version 1 frames.
+    public static final int FLAGS_NONE = 0;
+    // Version 2 frame for a list of devices, with an empty recipient.
+    public static final int FLAG_BROADCAST = 0x01;
+
+    // version, flags, colour, id length
+    public static final int HEADER_LENGTH = 4;
+    // version, flags, colour, ttl, sequence, recipient id length
+    public static final int HEADER_LENGTH_V2 = 9;
+    // Hops a message may take before relays stop forwarding it.
+    public static final int DEFAULT_TTL = 64;
+    private static final int MAX_TTL = 0xFF;
+    private static final int MAX_ID_LENGTH = 0xFF;
+    private static final int MAX_DESTINATIONS = 0xFFFF;
+    private static final byte[] NO_RECIPIENT = new byte[0];
+    private static final char TEXT_SEPARATOR = ':';
+
+    private static final Colour[] COLOURS = Colour.values();
+
+    private ColourFrame() {
+    }
+
+    /**
+     * Check whether a payload is a binary frame rather than a legacy text message.
+     *
+     * @param data received payload
+     * @return true if the first byte carries the binary marker
+     */
+    public static boolean isBinary(byte[] data) {
+        return data.length > 0 && (data[0] & BINARY_MARKER) != 0;
+    }
+
+    /**
+     * Number of bytes needed to encode a binary frame for the given recipient.
+     *
+     * @param recipientRaw raw recipient id, see {@link MeshIdBytes#toBytes(MeshId)}
+     * @return frame length in bytes
+     */
+    public static int encodedLength(byte[] recipientRaw) {
+        return HEADER_LENGTH + recipientRaw.length;
+    }
+
+    /**
+     * Number of bytes needed to encode a version 2 binary frame.
+     *
+     * @param recipientRaw raw recipient id, see {@link MeshIdBytes#toBytes(MeshId)}
+     * @param originRaw    raw origin id
+     * @return frame length in bytes
+     */
+    public static int encodedLength(byte[] recipientRaw, byte[] originRaw) {
+        return HEADER_LENGTH_V2 + recipientRaw.length + 1 + originRaw.length;
+    }
+
+    /**
+     * Encode a version 2 binary colour frame.
+     *
+     * @param recipient final recipient of the message
+     * @param originRaw raw id of the device sending the message
+     * @param sequence  sequence number, unique per origin
+     * @param ttl       number of times relays may forward the message
+     * @param colour    colour to send
+     * @return the encoded frame
+     */
+    public static byte[] encode(MeshId recipient, byte[] originRaw, int sequence, int ttl,
+                                Colour colour) {
+        byte[] recipientRaw = MeshIdBytes.toBytes(recipient);
+        ByteBuffer buffer = ByteBuffer.allocate(encodedLength(recipientRaw, originRaw));
+        encode(buffer, recipientRaw, originRaw, sequence, ttl, colour, FLAGS_NONE);
+        return buffer.array();
+    }
+
+    /**
+     * Encode a version 2 broadcast frame, for a list of devices.
+     *
+     * @param originRaw    raw id of the device sending the message
+     * @param sequence     sequence number, unique per origin
+     * @param ttl          number of times relays may forward the message
+     * @param colour       colour to send
+     * @param destinations devices the frame is still to reach
+     * @return the encoded frame
+     */
+    public static byte[] encodeBroadcast(byte[] originRaw, int sequence, int ttl, Colour colour,
+                                         List<MeshId> destinations) {
+        if (destinations.size() > MAX_DESTINATIONS) {
+            throw new IllegalArgumentException("Too many destinations: " + destinations.size());
+        }
+        byte[][] destinationsRaw = new byte[destinations.size()][];
+        int length = encodedLength(NO_RECIPIENT, originRaw) + 2;
+        for (int i = 0; i < destinationsRaw.length; i++) {
+            destinationsRaw[i] = MeshIdBytes.toBytes(destinations.get(i));
+            if (destinationsRaw[i].length > MAX_ID_LENGTH) {
+                throw new IllegalArgumentException("MeshId too long");
+            }
+            length += 1 + destinationsRaw[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        encode(buffer, NO_RECIPIENT, originRaw, sequence, ttl, colour, FLAG_BROADCAST);
+        buffer.putShort((short) destinationsRaw.length);
+        for (byte[] destinationRaw : destinationsRaw) {
+            buffer.put((byte) destinationRaw.length);
+            buffer.put(destinationRaw);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Encode a version 2 binary colour frame into an existing buffer, starting at its position.
+     *
+     * @param buffer       destination, must have {@link #encodedLength(byte[], byte[])} bytes
+     *                     remaining
+     * @param recipientRaw raw recipient id
+     * @param originRaw    raw origin id
+     * @param sequence     sequence number, unique per origin
+     * @param ttl          number of times relays may forward the message
+     * @param colour       colour to send
+     * @param flags        frame flags
+     */
+    public static void encode(ByteBuffer buffer, byte[] recipientRaw, byte[] originRaw,
+                              int sequence, int ttl, Colour colour, int flags) {
+        if (recipientRaw.length > MAX_ID_LENGTH || originRaw.length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("MeshId too long");
+        }
+        if (originRaw.length == 0 || ttl < 0 || ttl > MAX_TTL) {
+            throw new IllegalArgumentException("Invalid origin or ttl");
+        }
+        buffer.put(VERSION_2_HEADER);
+        buffer.put((byte) flags);
+        buffer.put((byte) colour.ordinal());
+        buffer.put((byte) ttl);
+        buffer.putInt(sequence);
+        buffer.put((byte) recipientRaw.length);
+        buffer.put(recipientRaw);
+        buffer.put((byte) originRaw.length);
+        buffer.put(originRaw);
+    }
+
+    /**
+     * Encode a version 1 binary colour frame.
+     *
+     * @param recipient final recipient of the message
+     * @param colour    colour to send
+     * @return the encoded frame
+     */
+    public static byte[] encode(MeshId recipient, Colour colour) {
+        byte[] recipientRaw = MeshIdBytes.toBytes(recipient);
+        ByteBuffer buffer = ByteBuffer.allocate(encodedLength(recipientRaw));
+        encode(buffer, recipientRaw, colour, FLAGS_NONE);
+        return buffer.array();
+    }
+
+    /**
+     * Encode a version 1 binary colour frame into an existing buffer, starting at its position.
+     *
+     * @param buffer       destination, must have {@link #encodedLength(byte[])} bytes remaining
+     * @param recipientRaw raw recipient id
+     * @param colour       colour to send
+     * @param flags        frame flags
+     */
+    public static void encode(ByteBuffer buffer, byte[] recipientRaw, Colour colour, int flags) {
+        if (recipientRaw.length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("MeshId too long: " + recipientRaw.length);
+        }
+        buffer.put(VERSION_1_HEADER);
+        buffer.put((byte) flags);
+        buffer.put((byte) colour.ordinal());
+        buffer.put((byte) recipientRaw.length);
+        buffer.put(recipientRaw);
+    }
+
+    /**
+     * Encode a message in the legacy text format.
+     *
+     * @param recipient final recipient of the message
+     * @param colour    colour to send
+     * @return UTF-8 bytes of the text message
+     */
+    public static byte[] encodeText(MeshId recipient, Colour colour) {
+        return (recipient.toString() + TEXT_SEPARATOR + colour.toString()).getBytes(UTF_8);
+    }
+
+    /**
+     * Re-encode a colour frame as a legacy text message, for a hop that may not read binary
+     * frames. The origin and ttl of a version 2 frame are lost.
+     *
+     * @param frame a binary colour frame
+     * @return the text message for the same recipient and colour
+     * @throws FrameFormatException if the frame is not valid, or is a broadcast or another
+     *                              kind of binary frame, which have no text form
+     */
+    public static byte[] toText(byte[] frame) throws FrameFormatException {
+        ColourMessage message = decode(ByteBuffer.wrap(frame));
+        if (message.isBroadcast()) {
+            throw new FrameFormatException("Broadcast frames have no text form");
+        }
+        return encodeText(message.getRecipient(), message.getColour());
+    }
+
+    /**
+     * Decode a payload in either format.
+     *
+     * @param data received payload
+     * @return the decoded message
+     * @throws FrameFormatException if the payload is not a valid message
+     */
+    public static ColourMessage decode(byte[] data) throws FrameFormatException {
+        if (isBinary(data)) {
+            return decode(ByteBuffer.wrap(data));
+        }
+        return decodeText(data);
+    }
+
+    /**
+     * Decode a binary frame, starting at the buffer's position.
+     *
+     * @param buffer frame data
+     * @return the decoded message
+     * @throws FrameFormatException if the frame is truncated, of an unknown version or carries
+     *                              an invalid colour or id
+     */
+    public static ColourMessage decode(ByteBuffer buffer) throws FrameFormatException {
+        try {
+            byte version = buffer.get();
+            if (version != VERSION_1_HEADER && version != VERSION_2_HEADER) {
+                throw new FrameFormatException("Unsupported frame version: " + (version & 0x7F));
+            }
+            int flags = buffer.get() & 0xFF;
+            Colour colour = colourFromOrdinal(buffer.get() & 0xFF);
+            if (version == VERSION_1_HEADER) {
+                return new ColourMessage(readId(buffer), colour, flags);
+            }
+
+            int ttl = buffer.get() & 0xFF;
+            int sequence = buffer.getInt();
+            MeshId recipient = readId(buffer);
+            MeshId origin = readId(buffer);
+            if ((flags & FLAG_BROADCAST) == 0) {
+                return new ColourMessage(recipient, colour, flags, origin, sequence, ttl);
+            }
+
+            int count = buffer.getShort() & 0xFFFF;
+            List<MeshId> destinations = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                MeshId destination = readId(buffer);
+                if (destination == null) {
+                    throw new FrameFormatException("Empty destination");
+                }
+                destinations.add(destination);
+            }
+            return new ColourMessage(colour, flags, origin, sequence, ttl, destinations);
+        } catch (BufferUnderflowException e) {
+            throw new FrameFormatException("Truncated frame");
+        } catch (RightMeshException e) {
+            throw new FrameFormatException("Invalid id: " + e.getMessage());
+        }
+    }
+
+    private static MeshId readId(ByteBuffer buffer) throws RightMeshException {
+        int idLength = buffer.get() & 0xFF;
+        if (idLength == 0) {
+            // The recipient of a broadcast frame.
+            return null;
+        }
+        byte[] raw = new byte[idLength];
+        buffer.get(raw);
+        return MeshIdBytes.fromBytes(raw, 0, idLength);
+    }
+
+    /**
+     * Decode a legacy text message.
+     *
+     * @param data UTF-8 payload
+     * @return the decoded message
+     * @throws FrameFormatException if the separator is missing or a field is invalid
+     */
+    public static ColourMessage decodeText(byte[] data) throws FrameFormatException {
+        String dataString = new String(data, UTF_8);
+        int separatorIndex = dataString.indexOf(TEXT_SEPARATOR);
+        if (separatorIndex < 0) {
+            throw new FrameFormatException("Missing separator");
+        }
+
+        try {
+            return new ColourMessage(MeshId.fromString(dataString.substring(0, separatorIndex)),
+                    Colour.valueOf(dataString.substring(separatorIndex + 1)), FLAGS_NONE);
+        } catch (RightMeshException e) {
+            throw new FrameFormatException("Invalid recipient: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new FrameFormatException("Invalid colour: " + e.getMessage());
+        }
+    }
+
+    private static Colour colourFromOrdinal(int ordinal) throws FrameFormatException {
+        if (ordinal >= COLOURS.length) {
+            throw new FrameFormatException("Invalid colour: " + ordinal);
+        }
+        return COLOURS[ordinal];
+    }
+}
@@ -0,0 +1,122 @@
+package io.left.ripple.message;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.ripple.Colour;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A decoded colour message: the final recipient, the colour to display and any frame flags.
+ * Version 2 frames also carry the origin, sequence number and ttl of the message, and broadcasts
+ * the devices they are for instead of a recipient.
+ */
+public final class ColourMessage {
+    private final MeshId recipient;
+    private final Colour colour;
+    private final int flags;
+    private final MeshId origin;
+    private final int sequence;
+    private final int ttl;
+    private final List<MeshId> destinations;
+
+    /**
+     * Constructor for messages that do not identify their origin.
+     *
+     * @param recipient final recipient of the message
+     * @param colour    colour carried by the message
+     * @param flags     frame flags, 0 for legacy text messages
+     */
+    public ColourMessage(MeshId recipient, Colour colour, int flags) {
+        this(recipient, colour, flags, null, 0, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param recipient final recipient of the message
+     * @param colour    colour carried by the message
+     * @param flags     frame flags
+     * @param origin    device that sent the message
+     * @param sequence  sequence number, unique per origin
+     * @param ttl       number of times the message may still be forwarded
+     */
+    public ColourMessage(MeshId recipient, Colour colour, int flags, MeshId origin,
+                         int sequence, int ttl) {
+        this.recipient = recipient;
+        this.colour = colour;
+        this.flags = flags;
+        this.origin = origin;
+        this.sequence = sequence;
+        this.ttl = ttl;
+        this.destinations = Collections.emptyList();
+    }
+
+    /**
+     * Constructor for broadcasts.
+     *
+     * @param colour       colour carried by the message
+     * @param flags        frame flags, including {@link ColourFrame#FLAG_BROADCAST}
+     * @param origin       device that sent the message
+     * @param sequence     sequence number, unique per origin
+     * @param ttl          number of times the message may still be forwarded
+     * @param destinations devices the message is still to reach
+     */
+    public ColourMessage(Colour colour, int flags, MeshId origin, int sequence, int ttl,
+                         List<MeshId> destinations) {
+        this.recipient = null;
+        this.colour = colour;
+        this.flags = flags;
+        this.origin = origin;
+        this.sequence = sequence;
+        this.ttl = ttl;
+        this.destinations = Collections.unmodifiableList(destinations);
+    }
+
+    /**
+     * Get the final recipient of the message.
+     *
+     * @return the recipient, or null for a broadcast
+     */
+    public MeshId getRecipient() {
+        return recipient;
+    }
+
+    public boolean isBroadcast() {
+        return (flags & ColourFrame.FLAG_BROADCAST) != 0 && origin != null;
+    }
+
+    public Colour getColour() {
+        return colour;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Get the device that sent the message.
+     *
+     * @return the origin, or null for version 1 and legacy text messages
+     */
+    public MeshId getOrigin() {
+        return origin;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Get the devices a broadcast is still to reach.
+     *
+     * @return the destinations, empty for messages with a single recipient
+     */
+    public List<MeshId> getDestinations() {
+        return destinations;
+    }
+}
@@ -0,0 +1,411 @@
+package io.left.ripple.message;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.Colour;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Allocation-free parser for received colour messages.
+ *
+ * Reads the recipient and colour straight out of the payload bytes, in either the binary or the
+ * legacy text format, without building intermediate Strings. Recipient MeshIds are looked up in
+ * {@link MeshIdCache}s keyed by the recipient bytes as they appear in the payload, so repeat
+ * recipients reuse the same object. Once the caches are warm, parsing a message for a known
+ * recipient allocates nothing.
+ *
+ * For version 2 frames the reader also exposes the ttl and the key used to detect duplicates, see
+ * {@link #getMessageKey()}, both available after {@link #readHeader(byte[])}, before the
+ * recipient is resolved. Broadcasts have no recipient; their destination list is read with
+ * {@link #readDestinations()}.
+ *
+ * A reader holds the state of the last parsed message and must only be used by one thread at a
+ * time. The caches may be shared between readers.
+ */
+public class ColourMessageReader {
+    private static final byte TEXT_SEPARATOR = ':';
+    // Position of the ttl in version 2 frames.
+    private static final int TTL_INDEX = 3;
+
+    private static final Colour[] COLOURS = Colour.values();
+    private static final byte[][] COLOUR_NAMES = new byte[COLOURS.length][];
+
+    static {
+        for (int i = 0; i < COLOURS.length; i++) {
+            COLOUR_NAMES[i] = COLOURS[i].name().getBytes(ColourFrame.UTF_8);
+        }
+    }
+
+    private final MeshIdCache binaryIds;
+    private final MeshIdCache textIds;
+
+    // This device's MeshId as it appears in binary and text payloads, null until known.
+    private volatile byte[] localIdRaw;
+    private volatile byte[] localIdText;
+
+    // State of the last parsed message. The recipient and origin are ranges of the payload.
+    private byte[] data;
+    private int recipientOffset;
+    private int recipientLength;
+    private int originOffset;
+    private int originLength;
+    private int sequence;
+    private int ttl;
+    private MeshId recipient;
+    // Looked up on the first call to resolveOrigin(), as several steps of a relay need it.
+    private MeshId origin;
+    private boolean originResolved;
+    private Colour colour;
+    private int flags;
+    private boolean binary;
+    // Destinations of the last parsed broadcast other than this device, reused between messages.
+    private final List<MeshId> destinations = new ArrayList<>();
+    private boolean localDestination;
+
+    /**
+     * Constructor.
+     *
+     * @param binaryIds cache of ids keyed by raw bytes, see {@link MeshIdCache#forRawIds(int)}
+     * @param textIds   cache of ids keyed by their text form, see
+     *                  {@link MeshIdCache#forTextIds(int)}
+     */
+    public ColourMessageReader(MeshIdCache binaryIds, MeshIdCache textIds) {
+        this.binaryIds = binaryIds;
+        this.textIds = textIds;
+    }
+
+    /**
+     * Set the id of this device, used by {@link #isForLocalDevice()}.
+     *
+     * @param localId MeshId of this device
+     */
+    public void setLocalId(MeshId localId) {
+        localIdRaw = localId == null ? null : MeshIdBytes.toBytes(localId);
+        localIdText = localId == null ? null : localId.toString().getBytes(ColourFrame.UTF_8);
+    }
+
+    /**
+     * Parse a received payload.
+     *
+     * @param data payload in either the binary or the legacy text format
+     * @return true if the payload was a valid colour message, false otherwise
+     */
+    public boolean read(byte[] data) {
+        return readRecipient(data) && readColour() != null;
+    }
+
+    /**
+     * Parse only the recipient of a received payload. This is all a relay needs to decide where
+     * to forward the message; the colour can be read afterwards with {@link #readColour()}.
+     *
+     * @param data payload in either the binary or the legacy text format
+     * @return true if the recipient could be read, false otherwise
+     */
+    public boolean readRecipient(byte[] data) {
+        return readHeader(data) && resolveRecipient();
+    }
+
+    /**
+     * Parse the fixed fields of a received payload without looking up any MeshId, so that
+     * duplicates can be dropped as cheaply as possible. Follow with {@link #resolveRecipient()}.
+     *
+     * @param data payload in either the binary or the legacy text format
+     * @return true if the payload is well formed so far, false otherwise
+     */
+    public boolean readHeader(byte[] data) {
+        this.data = data;
+        recipient = null;
+        origin = null;
+        originResolved = false;
+        colour = null;
+        originLength = 0;
+        sequence = 0;
+        ttl = 0;
+        binary = ColourFrame.isBinary(data);
+
+        return binary ? readBinaryHeader(data) : readTextHeader(data);
+    }
+
+    /**
+     * Look up the recipient of the payload last passed to {@link #readHeader(byte[])}.
+     *
+     * @return true if the recipient is a valid MeshId, false otherwise
+     */
+    public boolean resolveRecipient() {
+        try {
+            MeshIdCache cache = binary ? binaryIds : textIds;
+            recipient = cache.get(data, recipientOffset, recipientLength);
+        } catch (RightMeshException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse the colour of the payload last passed to {@link #readRecipient(byte[])}.
+     *
+     * @return the colour, or null if the payload does not carry a valid colour
+     */
+    public Colour readColour() {
+        if (binary) {
+            int ordinal = data[2] & 0xFF;
+            colour = ordinal < COLOURS.length ? COLOURS[ordinal] : null;
+        } else {
+            int colourOffset = recipientLength + 1;
+            colour = matchColour(data, colourOffset, data.length - colourOffset);
+        }
+        return colour;
+    }
+
+    private boolean readBinaryHeader(byte[] data) {
+        if (data[0] == ColourFrame.VERSION_2_HEADER) {
+            return readVersion2Header(data);
+        }
+        if (data.length < ColourFrame.HEADER_LENGTH
+                || data[0] != ColourFrame.VERSION_1_HEADER) {
+            return false;
+        }
+        flags = data[1] & 0xFF;
+        int idLength = data[3] & 0xFF;
+        if (data.length < ColourFrame.HEADER_LENGTH + idLength) {
+            return false;
+        }
+
+        recipientOffset = ColourFrame.HEADER_LENGTH;
+        recipientLength = idLength;
+        return true;
+    }
+
+    private boolean readVersion2Header(byte[] data) {
+        int headerLength = ColourFrame.HEADER_LENGTH_V2;
+        if (data.length < headerLength) {
+            return false;
+        }
+        flags = data[1] & 0xFF;
+        ttl = data[TTL_INDEX] & 0xFF;
+        sequence = (data[4] & 0xFF) << 24 | (data[5] & 0xFF) << 16
+                | (data[6] & 0xFF) << 8 | (data[7] & 0xFF);
+        int idLength = data[headerLength - 1] & 0xFF;
+        // The origin length follows the recipient.
+        if (data.length < headerLength + idLength + 1) {
+            return false;
+        }
+        int originIdLength = data[headerLength + idLength] & 0xFF;
+        if (originIdLength == 0 || data.length < headerLength + idLength + 1 + originIdLength) {
+            return false;
+        }
+
+        recipientOffset = headerLength;
+        recipientLength = idLength;
+        originOffset = headerLength + idLength + 1;
+        originLength = originIdLength;
+        return true;
+    }
+
+    private boolean readTextHeader(byte[] data) {
+        flags = ColourFrame.FLAGS_NONE;
+        recipientOffset = 0;
+        recipientLength = indexOf(data, TEXT_SEPARATOR);
+        return recipientLength > 0;
+    }
+
+    private static Colour matchColour(byte[] data, int offset, int length) {
+        for (int i = 0; i < COLOURS.length; i++) {
+            byte[] name = COLOUR_NAMES[i];
+            if (MeshIdCache.rangeEquals(name, 0, name.length, data, offset, length)) {
+                return COLOURS[i];
+            }
+        }
+        return null;
+    }
+
+    private static int indexOf(byte[] data, byte value) {
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check whether the last parsed message is addressed to this device, without creating a
+     * MeshId.
+     *
+     * @return true if the recipient matches the id set with {@link #setLocalId(MeshId)}
+     */
+    public boolean isForLocalDevice() {
+        byte[] local = binary ? localIdRaw : localIdText;
+        return local != null && MeshIdCache.rangeEquals(local, 0, local.length,
+                data, recipientOffset, recipientLength);
+    }
+
+    /**
+     * Check whether the last parsed message identifies its origin and carries a ttl. Only
+     * version 2 frames do.
+     *
+     * @return true if {@link #getMessageKey()} and {@link #getTtl()} are meaningful
+     */
+    public boolean hasOrigin() {
+        return originLength > 0;
+    }
+
+    /**
+     * Get the key identifying the last parsed message, for duplicate detection.
+     *
+     * @return key built by {@link SeenMessageFilter#key(byte[], int, int, int)}
+     */
+    public long getMessageKey() {
+        return SeenMessageFilter.key(data, originOffset, originLength, sequence);
+    }
+
+    /**
+     * Get a key identifying the last parsed message by its whole content, for duplicate detection
+     * of messages without an origin, whose copies cannot be told apart any other way.
+     *
+     * @return key built by {@link SeenMessageFilter#key(byte[], int, int, int)}
+     */
+    public long getContentKey() {
+        return SeenMessageFilter.key(data, 0, data.length, data.length);
+    }
+
+    /**
+     * Copy the last parsed message for forwarding, with one hop of its ttl used up. The received
+     * payload is left as it is, since other listeners of the message may still read it. A message
+     * without a ttl is returned as is.
+     *
+     * @return payload to forward
+     */
+    public byte[] copyForRelay() {
+        if (!hasOrigin() || ttl == 0) {
+            return data;
+        }
+        byte[] copy = data.clone();
+        copy[TTL_INDEX] = (byte) (ttl - 1);
+        return copy;
+    }
+
+    /**
+     * Check whether the last parsed message is a broadcast, for a list of devices. Broadcasts
+     * have no recipient to resolve.
+     *
+     * @return true for a version 2 frame with {@link ColourFrame#FLAG_BROADCAST} set
+     */
+    public boolean isBroadcast() {
+        return hasOrigin() && (flags & ColourFrame.FLAG_BROADCAST) != 0;
+    }
+
+    /**
+     * Parse the destination list of the broadcast last passed to {@link #readHeader(byte[])}.
+     * This device is left out of {@link #getDestinations()}, see
+     * {@link #isLocalDestination()} instead.
+     *
+     * @return true if the list is well formed, false otherwise
+     */
+    public boolean readDestinations() {
+        destinations.clear();
+        localDestination = false;
+        int offset = originOffset + originLength;
+        if (!isBroadcast() || data.length < offset + 2) {
+            return false;
+        }
+        int count = (data[offset] & 0xFF) << 8 | (data[offset + 1] & 0xFF);
+        offset += 2;
+
+        byte[] local = localIdRaw;
+        for (int i = 0; i < count; i++) {
+            int idLength = offset < data.length ? data[offset] & 0xFF : 0;
+            offset++;
+            if (idLength == 0 || data.length < offset + idLength) {
+                return false;
+            }
+            if (local != null
+                    && MeshIdCache.rangeEquals(local, 0, local.length, data, offset, idLength)) {
+                localDestination = true;
+            } else {
+                try {
+                    destinations.add(binaryIds.get(data, offset, idLength));
+                } catch (RightMeshException e) {
+                    return false;
+                }
+            }
+            offset += idLength;
+        }
+        return true;
+    }
+
+    /**
+     * Check whether this device is in the destination list read by {@link #readDestinations()}.
+     *
+     * @return true if the broadcast is for this device
+     */
+    public boolean isLocalDestination() {
+        return localDestination;
+    }
+
+    /**
+     * Get the destinations read by {@link #readDestinations()}, other than this device. The list
+     * is reused by the next message, copy it to keep it.
+     *
+     * @return destinations still to be reached
+     */
+    public List<MeshId> getDestinations() {
+        return destinations;
+    }
+
+    /**
+     * Look up the origin of the last parsed message. Only the first call per message looks it
+     * up.
+     *
+     * @return the origin, or null if the message has none or it is not a valid MeshId
+     */
+    public MeshId resolveOrigin() {
+        if (!originResolved) {
+            originResolved = true;
+            if (hasOrigin()) {
+                try {
+                    origin = binaryIds.get(data, originOffset, originLength);
+                } catch (RightMeshException e) {
+                    origin = null;
+                }
+            }
+        }
+        return origin;
+    }
+
+    /**
+     * Copy the raw origin id of the last parsed message.
+     *
+     * @return origin id bytes, empty if the message has no origin
+     */
+    public byte[] copyOrigin() {
+        return Arrays.copyOfRange(data, originOffset, originOffset + originLength);
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public MeshId getRecipient() {
+        return recipient;
+    }
+
+    public Colour getColour() {
+        return colour;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+}
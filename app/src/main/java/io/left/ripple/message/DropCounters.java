@@ -0,0 +1,56 @@
+package io.left.ripple.message;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts received messages that were dropped, by the reason they were dropped for.
+ */
+public class DropCounters {
+    /**
+     * Why a received message was dropped.
+     */
+    public enum Reason {
+        // The payload could not be parsed.
+        MALFORMED,
+        // The message was already received within the duplicate window.
+        DUPLICATE,
+        // The message is not for this device and has no hops left.
+        EXPIRED,
+        // The message is not for this device and its origin is over its relay limit.
+        RATE_LIMITED
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(Reason.values().length);
+
+    /**
+     * Count a dropped message.
+     *
+     * @param reason why it was dropped
+     */
+    public void increment(Reason reason) {
+        counts.incrementAndGet(reason.ordinal());
+    }
+
+    /**
+     * Get the number of messages dropped for a reason.
+     *
+     * @param reason drop reason
+     * @return number of dropped messages
+     */
+    public long get(Reason reason) {
+        return counts.get(reason.ordinal());
+    }
+
+    /**
+     * Get the number of messages dropped for any reason.
+     *
+     * @return number of dropped messages
+     */
+    public long getTotal() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+}
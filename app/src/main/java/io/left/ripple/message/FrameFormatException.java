@@ -0,0 +1,15 @@
+package io.left.ripple.message;
+
+/**
+ * Thrown when a received payload cannot be decoded as a Ripple message.
+ */
+public class FrameFormatException extends Exception {
+    /**
+     * Constructor.
+     *
+     * @param message reason the payload was rejected
+     */
+    public FrameFormatException(String message) {
+        super(message);
+    }
+}
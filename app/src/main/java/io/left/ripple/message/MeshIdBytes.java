@@ -0,0 +1,65 @@
+package io.left.ripple.message;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+
+/**
+ * Converts {@link MeshId}s to and from the raw bytes carried in binary frames.
+ *
+ * A MeshId prints as a hex string (optionally prefixed with "0x"), so the raw form is simply the
+ * decoded hex digits. This keeps the wire format independent of the library's internal fields.
+ */
+public final class MeshIdBytes {
+    private static final String HEX_PREFIX = "0x";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private MeshIdBytes() {
+    }
+
+    /**
+     * Get the raw bytes of a {@link MeshId}.
+     *
+     * @param id MeshId to convert
+     * @return decoded bytes of the id's hex representation
+     * @throws IllegalArgumentException if the id does not print as hex
+     */
+    public static byte[] toBytes(MeshId id) {
+        String hex = id.toString();
+        int start = hex.startsWith(HEX_PREFIX) ? HEX_PREFIX.length() : 0;
+        int digits = hex.length() - start;
+        if (digits == 0 || digits % 2 != 0) {
+            throw new IllegalArgumentException("MeshId is not an even-length hex string: " + hex);
+        }
+
+        byte[] raw = new byte[digits / 2];
+        for (int i = 0; i < raw.length; i++) {
+            int high = Character.digit(hex.charAt(start + 2 * i), 16);
+            int low = Character.digit(hex.charAt(start + 2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("MeshId is not a hex string: " + hex);
+            }
+            raw[i] = (byte) ((high << 4) | low);
+        }
+        return raw;
+    }
+
+    /**
+     * Build a {@link MeshId} from raw bytes.
+     *
+     * @param buffer array holding the id
+     * @param offset index of the first byte of the id
+     * @param length number of bytes in the id
+     * @return the MeshId
+     * @throws RightMeshException if RightMesh rejects the id
+     */
+    public static MeshId fromBytes(byte[] buffer, int offset, int length)
+            throws RightMeshException {
+        StringBuilder hex = new StringBuilder(HEX_PREFIX.length() + length * 2);
+        hex.append(HEX_PREFIX);
+        for (int i = offset; i < offset + length; i++) {
+            hex.append(HEX_DIGITS[(buffer[i] >> 4) & 0x0F]);
+            hex.append(HEX_DIGITS[buffer[i] & 0x0F]);
+        }
+        return MeshId.fromString(hex.toString());
+    }
+}
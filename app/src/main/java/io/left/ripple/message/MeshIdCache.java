@@ -0,0 +1,116 @@
+package io.left.ripple.message;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+
+/**
+ * Fixed-size, direct-mapped cache from id bytes to {@link MeshId} instances.
+ *
+ * Keys are either raw id bytes, as carried by binary frames, or the UTF-8 text of the id, as
+ * carried by legacy text messages. A cache only ever holds one kind of key.
+ *
+ * Lookups of an id that is already cached do not allocate, so repeat recipients on the receive
+ * path reuse the same MeshId object. Slots hold immutable entries, so the cache can be shared
+ * between threads without locking: a racing writer can only replace an entry, never corrupt one.
+ */
+public class MeshIdCache {
+    // Ids are random, so their last bytes spread them over the slots as well as all of them do,
+    // at a fraction of the cost.
+    private static final int HASHED_BYTES = 8;
+
+    private final Entry[] slots;
+    private final int mask;
+    private final boolean textKeys;
+
+    private MeshIdCache(int capacity, boolean textKeys) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new Entry[size];
+        this.mask = size - 1;
+        this.textKeys = textKeys;
+    }
+
+    /**
+     * Create a cache keyed by raw id bytes.
+     *
+     * @param capacity number of slots, rounded up to a power of two
+     * @return the cache
+     */
+    public static MeshIdCache forRawIds(int capacity) {
+        return new MeshIdCache(capacity, false);
+    }
+
+    /**
+     * Create a cache keyed by the UTF-8 text of ids, e.g. "0x5c6d...".
+     *
+     * @param capacity number of slots, rounded up to a power of two
+     * @return the cache
+     */
+    public static MeshIdCache forTextIds(int capacity) {
+        return new MeshIdCache(capacity, true);
+    }
+
+    /**
+     * Get the MeshId for a range of id bytes, creating and caching it on a miss.
+     *
+     * @param buffer array holding the id
+     * @param offset index of the first byte of the id
+     * @param length number of bytes in the id
+     * @return the cached or newly created MeshId
+     * @throws RightMeshException if RightMesh rejects the id
+     */
+    public MeshId get(byte[] buffer, int offset, int length) throws RightMeshException {
+        int slot = hash(buffer, offset, length) & mask;
+        Entry entry = slots[slot];
+        if (entry != null && entry.matches(buffer, offset, length)) {
+            return entry.id;
+        }
+
+        byte[] key = new byte[length];
+        System.arraycopy(buffer, offset, key, 0, length);
+        MeshId id = textKeys ? MeshId.fromString(new String(key, ColourFrame.UTF_8))
+                : MeshIdBytes.fromBytes(key, 0, length);
+        slots[slot] = new Entry(key, id);
+        return id;
+    }
+
+    /**
+     * Compare two byte ranges without allocating.
+     *
+     * @return true if both ranges have the same length and contents
+     */
+    static boolean rangeEquals(byte[] a, int aOffset, int aLength,
+                               byte[] b, int bOffset, int bLength) {
+        if (aLength != bLength) {
+            return false;
+        }
+        for (int i = 0; i < aLength; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] buffer, int offset, int length) {
+        int hash = 0x811C9DC5;
+        int end = offset + length;
+        for (int i = Math.max(offset, end - HASHED_BYTES); i < end; i++) {
+            hash = (hash ^ buffer[i]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Entry {
+        final byte[] key;
+        final MeshId id;
+
+        Entry(byte[] key, MeshId id) {
+            this.key = key;
+            this.id = id;
+        }
+
+        boolean matches(byte[] buffer, int offset, int length) {
+            return rangeEquals(key, 0, key.length, buffer, offset, length);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package io.left.ripple.message;
+
+/**
+ * Kinds of message sharing the mesh port, told apart by their first byte.
+ */
+public enum MessageKind {
+    // Binary colour frames, broadcasts and legacy text messages.
+    COLOUR,
+    // Latency probes, see ProbeFrame.
+    PROBE;
+
+    /**
+     * Get the kind of a received payload, without decoding it.
+     *
+     * @param data received payload
+     * @return its kind; payloads that are not probes are colour messages
+     */
+    public static MessageKind of(byte[] data) {
+        return ProbeFrame.isProbe(data) ? PROBE : COLOUR;
+    }
+}
@@ -0,0 +1,231 @@
+package io.left.ripple.message;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A latency probe: a ping sent to a device, or the echo it sends back. Also a hello, telling a
+ * device that the origin reads binary frames, see {@link WireFormatPolicy}.
+ *
+ * Probes share the mesh port with colour messages. They are binary frames with their own header
+ * byte, laid out as
+ * {@code [header][type][ttl][hops][probe id, 4 bytes][sent time, 8 bytes][id length][recipient id
+ * bytes...][id length][origin id bytes...]}. Relays forward them like colour messages, using the
+ * ttl to stop loops. An echo carries back the probe id and sent time of its ping unchanged, so
+ * the prober can work out the round trip time without keeping the ping, and the number of hops
+ * the ping took. A hello carries no probe id or sent time.
+ *
+ * Devices that predate binary frames cannot read probes, and throw on them, so probes and hellos
+ * are only sent to, and through, peers known to read binary frames, see
+ * {@link WireFormatPolicy}. Devices that predate probes but read binary colour frames drop them
+ * as malformed, and so never answer.
+ */
+public final class ProbeFrame {
+    // Binary marker with frame version 3, which colour messages do not use.
+    public static final byte HEADER = (byte) 0x83;
+    public static final int TYPE_PING = 0;
+    public static final int TYPE_ECHO = 1;
+    public static final int TYPE_HELLO = 2;
+    // header, type, ttl, hops, probe id, sent time, recipient id length
+    public static final int HEADER_LENGTH = 17;
+    // Offset of the ttl, which relays decrement.
+    public static final int TTL_INDEX = 2;
+    private static final int MAX_TTL = 0xFF;
+    private static final int MAX_ID_LENGTH = 0xFF;
+
+    private final int type;
+    private final int ttl;
+    private final int hops;
+    private final int probeId;
+    private final long sentNanos;
+    private final MeshId recipient;
+    private final MeshId origin;
+
+    private ProbeFrame(int type, int ttl, int hops, int probeId, long sentNanos,
+                       MeshId recipient, MeshId origin) {
+        this.type = type;
+        this.ttl = ttl;
+        this.hops = hops;
+        this.probeId = probeId;
+        this.sentNanos = sentNanos;
+        this.recipient = recipient;
+        this.origin = origin;
+    }
+
+    /**
+     * Check whether a payload is a probe rather than a colour message.
+     *
+     * @param data received payload
+     * @return true if it starts with {@link #HEADER}
+     */
+    public static boolean isProbe(byte[] data) {
+        return data.length > 0 && data[0] == HEADER;
+    }
+
+    /**
+     * Encode a ping.
+     *
+     * @param recipient device to probe
+     * @param originRaw raw id of this device, which the echo is sent back to
+     * @param probeId   id of the probe, unique per origin
+     * @param sentNanos {@link System#nanoTime()} when the ping is sent
+     * @param ttl       number of times relays may forward the ping
+     * @return the encoded frame
+     */
+    public static byte[] encodePing(MeshId recipient, byte[] originRaw, int probeId,
+                                    long sentNanos, int ttl) {
+        return encode(TYPE_PING, MeshIdBytes.toBytes(recipient), originRaw, probeId, sentNanos,
+                ttl, 0);
+    }
+
+    /**
+     * Encode the echo of a received ping.
+     *
+     * @param ping      the ping to answer
+     * @param originRaw raw id of this device
+     * @param ttl       number of times relays may forward the echo
+     * @param hops      number of hops the ping took
+     * @return the encoded frame
+     */
+    public static byte[] encodeEcho(ProbeFrame ping, byte[] originRaw, int ttl, int hops) {
+        return encode(TYPE_ECHO, MeshIdBytes.toBytes(ping.origin), originRaw, ping.probeId,
+                ping.sentNanos, ttl, Math.min(hops, MAX_TTL));
+    }
+
+    /**
+     * Encode a hello.
+     *
+     * @param recipient device to tell
+     * @param originRaw raw id of this device
+     * @param ttl       number of times relays may forward the hello
+     * @return the encoded frame
+     */
+    public static byte[] encodeHello(MeshId recipient, byte[] originRaw, int ttl) {
+        return encode(TYPE_HELLO, MeshIdBytes.toBytes(recipient), originRaw, 0, 0, ttl, 0);
+    }
+
+    private static byte[] encode(int type, byte[] recipientRaw, byte[] originRaw, int probeId,
+                                 long sentNanos, int ttl, int hops) {
+        if (recipientRaw.length == 0 || recipientRaw.length > MAX_ID_LENGTH
+                || originRaw.length == 0 || originRaw.length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("Invalid recipient or origin");
+        }
+        if (ttl < 0 || ttl > MAX_TTL) {
+            throw new IllegalArgumentException("Invalid ttl: " + ttl);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + recipientRaw.length + 1
+                + originRaw.length);
+        buffer.put(HEADER);
+        buffer.put((byte) type);
+        buffer.put((byte) ttl);
+        buffer.put((byte) hops);
+        buffer.putInt(probeId);
+        buffer.putLong(sentNanos);
+        buffer.put((byte) recipientRaw.length);
+        buffer.put(recipientRaw);
+        buffer.put((byte) originRaw.length);
+        buffer.put(originRaw);
+        return buffer.array();
+    }
+
+    /**
+     * Decode a probe.
+     *
+     * @param data received payload, see {@link #isProbe(byte[])}
+     * @return the decoded probe
+     * @throws FrameFormatException if the frame is truncated, of an unknown type or carries an
+     *                              invalid id
+     */
+    public static ProbeFrame decode(byte[] data) throws FrameFormatException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try {
+            if (buffer.get() != HEADER) {
+                throw new FrameFormatException("Not a probe");
+            }
+            int type = buffer.get() & 0xFF;
+            if (type != TYPE_PING && type != TYPE_ECHO && type != TYPE_HELLO) {
+                throw new FrameFormatException("Unknown probe type: " + type);
+            }
+            int ttl = buffer.get() & 0xFF;
+            int hops = buffer.get() & 0xFF;
+            int probeId = buffer.getInt();
+            long sentNanos = buffer.getLong();
+            MeshId recipient = readId(buffer);
+            MeshId origin = readId(buffer);
+            return new ProbeFrame(type, ttl, hops, probeId, sentNanos, recipient, origin);
+        } catch (BufferUnderflowException e) {
+            throw new FrameFormatException("Truncated probe");
+        } catch (RightMeshException e) {
+            throw new FrameFormatException("Invalid id: " + e.getMessage());
+        }
+    }
+
+    private static MeshId readId(ByteBuffer buffer) throws RightMeshException,
+            FrameFormatException {
+        int idLength = buffer.get() & 0xFF;
+        if (idLength == 0) {
+            throw new FrameFormatException("Empty id");
+        }
+        byte[] raw = new byte[idLength];
+        buffer.get(raw);
+        return MeshIdBytes.fromBytes(raw, 0, idLength);
+    }
+
+    /**
+     * Copy an encoded probe for relaying, with its ttl decremented. The received probe is left as
+     * it is, since other listeners of the message may still read it.
+     *
+     * @param data encoded probe with a ttl above 0
+     * @return the probe to relay
+     */
+    public static byte[] copyForRelay(byte[] data) {
+        byte[] copy = data.clone();
+        copy[TTL_INDEX] = (byte) ((data[TTL_INDEX] & 0xFF) - 1);
+        return copy;
+    }
+
+    public boolean isPing() {
+        return type == TYPE_PING;
+    }
+
+    public boolean isHello() {
+        return type == TYPE_HELLO;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Get the number of hops the ping took. Only set in echoes.
+     *
+     * @return hops, 0 in pings
+     */
+    public int getHops() {
+        return hops;
+    }
+
+    public int getProbeId() {
+        return probeId;
+    }
+
+    /**
+     * Get when the ping was sent, by the clock of the device that sent it.
+     *
+     * @return {@link System#nanoTime()} of the prober
+     */
+    public long getSentNanos() {
+        return sentNanos;
+    }
+
+    public MeshId getRecipient() {
+        return recipient;
+    }
+
+    public MeshId getOrigin() {
+        return origin;
+    }
+}
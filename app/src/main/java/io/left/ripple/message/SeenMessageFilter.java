@@ -0,0 +1,143 @@
+package io.left.ripple.message;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded memory of recently seen messages, used to drop duplicates before any other work.
+ *
+ * Messages are identified by a 64 bit key derived from their origin and sequence number, see
+ * {@link #key(byte[], int, int, int)}. Keys are kept in a ring of time buckets, each a small
+ * open-addressed table of longs, so the filter allocates nothing after construction. A key is
+ * remembered for between {@code windowMillis * (buckets - 1) / buckets} and {@code windowMillis};
+ * when the whole ring rotates, the oldest bucket is cleared in one go.
+ *
+ * If the current bucket fills up before it rotates, further keys are not remembered and those
+ * messages are let through. {@link #getOverflowCount()} counts how often that happens.
+ */
+public class SeenMessageFilter {
+    // Must be a power of two.
+    private static final int BUCKETS = 4;
+    // Buckets are never filled past three quarters, to keep probe sequences short.
+    private static final int MAX_LOAD_NUMERATOR = 3;
+    private static final int MAX_LOAD_DENOMINATOR = 4;
+    // Marks an empty table slot, keys of this value are remapped.
+    private static final long EMPTY = 0;
+
+    private final long bucketNanos;
+    private final long[][] tables = new long[BUCKETS][];
+    private final int[] sizes = new int[BUCKETS];
+    private final long[] epochs = new long[BUCKETS];
+    private final int mask;
+    private final int maxSize;
+
+    private final AtomicLong overflows = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param windowMillis how long a key is remembered, at most
+     * @param capacity     number of keys that can be remembered over one window
+     */
+    public SeenMessageFilter(long windowMillis, int capacity) {
+        this.bucketNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(windowMillis) / BUCKETS);
+        int perBucket = Math.max(1, capacity / BUCKETS);
+        int tableSize = Integer.highestOneBit(
+                Math.max(1, perBucket * MAX_LOAD_DENOMINATOR / MAX_LOAD_NUMERATOR)) << 1;
+        this.mask = tableSize - 1;
+        this.maxSize = tableSize * MAX_LOAD_NUMERATOR / MAX_LOAD_DENOMINATOR;
+        for (int i = 0; i < BUCKETS; i++) {
+            tables[i] = new long[tableSize];
+            epochs[i] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Build the key of a message.
+     *
+     * @param origin       array holding the raw origin id
+     * @param originOffset index of the first byte of the origin id
+     * @param originLength number of bytes in the origin id
+     * @param sequence     sequence number of the message
+     * @return key identifying the message
+     */
+    public static long key(byte[] origin, int originOffset, int originLength, int sequence) {
+        int hash = 0x811C9DC5;
+        for (int i = originOffset; i < originOffset + originLength; i++) {
+            hash = (hash ^ origin[i]) * 0x01000193;
+        }
+        return ((long) hash << 32) | (sequence & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Record a message as seen.
+     *
+     * @param key key of the message, see {@link #key(byte[], int, int, int)}
+     * @return true if the message had not been seen within the window, false if it is a duplicate
+     */
+    public boolean markSeen(long key) {
+        return markSeen(key, System.nanoTime());
+    }
+
+    synchronized boolean markSeen(long key, long nowNanos) {
+        if (key == EMPTY) {
+            key = 1;
+        }
+
+        long epoch = nowNanos / bucketNanos;
+        int current = (int) (epoch & (BUCKETS - 1));
+        if (epochs[current] != epoch) {
+            // The bucket last held keys from a whole window ago.
+            Arrays.fill(tables[current], EMPTY);
+            sizes[current] = 0;
+            epochs[current] = epoch;
+        }
+
+        int start = spread(key) & mask;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            boolean live = sizes[bucket] > 0 && epoch - epochs[bucket] < BUCKETS;
+            if (live && contains(tables[bucket], key, start)) {
+                return false;
+            }
+        }
+
+        if (sizes[current] >= maxSize) {
+            overflows.incrementAndGet();
+            return true;
+        }
+        long[] table = tables[current];
+        int slot = start;
+        while (table[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+        sizes[current]++;
+        return true;
+    }
+
+    /**
+     * Get the number of messages that could not be remembered because a bucket was full.
+     *
+     * @return number of overflows
+     */
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    private boolean contains(long[] table, long key, int start) {
+        int slot = start;
+        while (table[slot] != EMPTY) {
+            if (table[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    private static int spread(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32);
+    }
+}
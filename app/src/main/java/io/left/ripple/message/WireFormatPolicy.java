@@ -0,0 +1,99 @@
+package io.left.ripple.message;
+
+import io.left.rightmesh.id.MeshId;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides whether a message is sent as a binary frame or in the legacy text format.
+ *
+ * Devices running older builds can only parse text messages, and throw on any other payload,
+ * whether they are its recipient or only relay it. So by default ({@link Mode#AUTO}) binary frames
+ * are only sent to peers known to read them: peers that originated, or handed this device, a
+ * binary frame. The connector also checks each next hop before handing it a binary frame, see
+ * {@link #readsBinary(MeshId)}, and sends a colour as text through a hop that may be an older
+ * device. Devices in AUTO never send the first binary frame, not even a hello, to a peer not
+ * known to read them; they learn from devices switched to {@link Mode#BINARY}, which should only
+ * be done once every device on the mesh is upgraded.
+ */
+public class WireFormatPolicy {
+    /**
+     * How to choose the format of outgoing messages.
+     */
+    public enum Mode {
+        // Always send the legacy text format.
+        TEXT,
+        // Send binary frames to peers known to understand them, text to everyone else.
+        AUTO,
+        // Always send binary frames.
+        BINARY
+    }
+
+    private final Set<MeshId> binaryPeers =
+            Collections.newSetFromMap(new ConcurrentHashMap<MeshId, Boolean>());
+    private volatile Mode mode;
+
+    /**
+     * Constructor.
+     *
+     * @param mode initial mode
+     */
+    public WireFormatPolicy(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Record that a peer has originated, or handed this device, a binary frame, and therefore
+     * understands them.
+     *
+     * @param peer the origin or sender of the frame
+     * @return true if the peer was not known to understand binary frames before
+     */
+    public boolean markBinaryCapable(MeshId peer) {
+        // Checking first keeps the common case, an already known peer, a read-only lookup.
+        return peer != null && !binaryPeers.contains(peer) && binaryPeers.add(peer);
+    }
+
+    /**
+     * Check whether a peer that just appeared should be told that this device reads binary
+     * frames, e.g. because it restarted and forgot. Only peers that already sent this device a
+     * binary frame are greeted, as any other may be an older device.
+     *
+     * @param peer a peer that just appeared
+     * @return true in {@link Mode#AUTO} if the peer is known to understand binary frames
+     */
+    public boolean shouldGreet(MeshId peer) {
+        return mode == Mode.AUTO && readsBinary(peer);
+    }
+
+    /**
+     * Check whether the next message to a recipient should be a binary frame.
+     *
+     * @param recipient final recipient of the message
+     * @return true to send a binary frame, false to send legacy text
+     */
+    public boolean useBinary(MeshId recipient) {
+        return mode != Mode.TEXT && readsBinary(recipient);
+    }
+
+    /**
+     * Check whether a peer may be handed binary frames, as the recipient of one or as the next
+     * hop towards it. Relays use this whatever the mode, as they pass on frames others encoded.
+     *
+     * @param peer a peer
+     * @return true in {@link Mode#BINARY}, or if the peer is known to understand binary frames
+     */
+    public boolean readsBinary(MeshId peer) {
+        return mode == Mode.BINARY || peer != null && binaryPeers.contains(peer);
+    }
+}
@@ -0,0 +1,95 @@
+package io.left.ripple.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes {@link Tracer} spans in the Chrome trace event JSON format, which chrome://tracing and
+ * the Perfetto UI can open. Each span is a complete ("X") event on the thread that recorded it,
+ * with the peer and message id as arguments. Times are in microseconds of
+ * {@link System#nanoTime()}.
+ */
+public final class ChromeTraceWriter {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NANOS_PER_MICRO_SCALE = 3;
+    private static final String CATEGORY = "ripple";
+
+    private ChromeTraceWriter() {
+    }
+
+    /**
+     * Write spans.
+     *
+     * @param spans spans to write, see {@link Tracer#snapshot()}
+     * @param out   destination, not closed
+     * @throws IOException if writing fails
+     */
+    public static void write(List<Tracer.Span> spans, Writer out) throws IOException {
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        String separator = "\n";
+        for (Tracer.Span span : spans) {
+            out.write(separator);
+            separator = ",\n";
+            out.write("{\"name\":\"" + span.getEvent().getTraceName() + "\",\"cat\":\"" + CATEGORY
+                    + "\",\"ph\":\"X\",\"ts\":" + micros(span.getStartNanos())
+                    + ",\"dur\":" + micros(span.getDurationNanos())
+                    + ",\"pid\":0,\"tid\":" + span.getThreadId() + ",\"args\":{");
+            boolean hasPeer = span.getPeer() != null;
+            if (hasPeer) {
+                out.write("\"peer\":\"" + escape(span.getPeer().toString()) + "\"");
+            }
+            if (span.getMessageId() != Tracer.NO_MESSAGE) {
+                out.write((hasPeer ? "," : "") + "\"message\":" + span.getMessageId());
+            }
+            out.write("}}");
+        }
+        out.write("\n]}\n");
+    }
+
+    /**
+     * Write spans to a file, replacing it in one step so a reader never sees half of it.
+     *
+     * @param spans spans to write
+     * @param file  destination
+     * @throws IOException if writing or renaming fails
+     */
+    public static void write(List<Tracer.Span> spans, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(temp), UTF_8);
+        try {
+            write(spans, out);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Cannot rename " + temp + " to " + file);
+        }
+    }
+
+    private static String micros(long nanos) {
+        return BigDecimal.valueOf(nanos, NANOS_PER_MICRO_SCALE).stripTrailingZeros()
+                .toPlainString();
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < ' ') {
+                escaped.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,14 @@
+package io.left.ripple.metrics;
+
+/**
+ * A value that goes up and down, such as a queue length, read when a snapshot is taken.
+ */
+public interface Gauge {
+    /**
+     * Read the current value. Called from the thread taking the snapshot, so it must be safe to
+     * call from any thread.
+     *
+     * @return the value
+     */
+    long get();
+}
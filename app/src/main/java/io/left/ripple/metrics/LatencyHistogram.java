@@ -0,0 +1,152 @@
+package io.left.ripple.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations into fixed buckets, from 100 microseconds to 10 seconds, plus one bucket for
+ * anything slower. Recording takes a short scan of the bounds and two atomic adds, with no lock
+ * and no allocation.
+ */
+public final class LatencyHistogram {
+    private static final long NANOS_PER_MICRO = 1_000L;
+
+    // Upper bounds of the buckets, inclusive. The last bucket has no bound.
+    private static final long[] BOUNDS_NANOS = {
+            100 * NANOS_PER_MICRO,
+            250 * NANOS_PER_MICRO,
+            500 * NANOS_PER_MICRO,
+            1_000 * NANOS_PER_MICRO,
+            2_500 * NANOS_PER_MICRO,
+            5_000 * NANOS_PER_MICRO,
+            10_000 * NANOS_PER_MICRO,
+            25_000 * NANOS_PER_MICRO,
+            50_000 * NANOS_PER_MICRO,
+            100_000 * NANOS_PER_MICRO,
+            250_000 * NANOS_PER_MICRO,
+            500_000 * NANOS_PER_MICRO,
+            1_000_000 * NANOS_PER_MICRO,
+            2_500_000 * NANOS_PER_MICRO,
+            5_000_000 * NANOS_PER_MICRO,
+            10_000_000 * NANOS_PER_MICRO,
+    };
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_NANOS.length + 1);
+    private final StripedCounter sumNanos = new StripedCounter();
+
+    /**
+     * Record one duration.
+     *
+     * @param nanos duration in nanoseconds, e.g. the difference of two {@link System#nanoTime()}
+     */
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Record the time since a start time.
+     *
+     * @param startNanos value of {@link System#nanoTime()} when the operation started
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Copy the current counts.
+     *
+     * @return the counts
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, sumNanos.sum());
+    }
+
+    /**
+     * Counts of a {@link LatencyHistogram} at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long sumNanos;
+
+        Snapshot(long[] counts, long sumNanos) {
+            this.counts = counts;
+            this.sumNanos = sumNanos;
+        }
+
+        /**
+         * Get the number of buckets, including the last one, which has no upper bound.
+         *
+         * @return number of buckets
+         */
+        public int getBucketCount() {
+            return counts.length;
+        }
+
+        /**
+         * Get the upper bound of a bucket.
+         *
+         * @param bucket index of the bucket
+         * @return bound in nanoseconds, or {@link Long#MAX_VALUE} for the last bucket
+         */
+        public long getUpperBoundNanos(int bucket) {
+            return bucket < BOUNDS_NANOS.length ? BOUNDS_NANOS[bucket] : Long.MAX_VALUE;
+        }
+
+        /**
+         * Get the number of durations recorded in a bucket.
+         *
+         * @param bucket index of the bucket
+         * @return number of durations above the previous bucket's bound, up to this one's
+         */
+        public long getCount(int bucket) {
+            return counts[bucket];
+        }
+
+        /**
+         * Get the number of durations recorded.
+         *
+         * @return number of durations
+         */
+        public long getCount() {
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            return count;
+        }
+
+        public long getSumNanos() {
+            return sumNanos;
+        }
+
+        /**
+         * Estimate a percentile as the upper bound of the bucket holding it.
+         *
+         * @param percent percentile, from 1 to 100
+         * @return bound in nanoseconds, {@link Long#MAX_VALUE} if the percentile is above the
+         *         last bound, or 0 if nothing was recorded
+         */
+        public long getPercentileNanos(int percent) {
+            long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (count * percent + 99) / 100);
+            long seen = 0;
+            int bucket = 0;
+            while (seen + counts[bucket] < rank) {
+                seen += counts[bucket];
+                bucket++;
+            }
+            return getUpperBoundNanos(bucket);
+        }
+    }
+}
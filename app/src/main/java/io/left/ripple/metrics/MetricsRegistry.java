@@ -0,0 +1,203 @@
+package io.left.ripple.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Named counters, gauges and latency histograms, readable as a whole with {@link #snapshot()}.
+ *
+ * Metrics are created on first use and live as long as the registry. Callers on hot paths should
+ * look a metric up once and keep it, since recording into a {@link StripedCounter} or
+ * {@link LatencyHistogram} is lock-free but the lookup is a map access. Counters and histograms
+ * can carry one label, e.g. the type of a failure; each label value is counted separately.
+ * Gauges are read from a {@link Gauge} when a snapshot is taken, and cost nothing in between.
+ *
+ * Names follow the OpenMetrics conventions, see {@link OpenMetricsWriter}: lower case with
+ * underscores, counters without the {@code _total} suffix, and durations in seconds.
+ */
+public class MetricsRegistry {
+    // Counter family name to label text to counter. The label text is empty for no label.
+    private final ConcurrentMap<String, ConcurrentMap<String, StripedCounter>> counters =
+            new ConcurrentHashMap<>();
+    // Gauge family name to label text to gauge, as for counters.
+    private final ConcurrentMap<String, ConcurrentMap<String, Gauge>> gauges =
+            new ConcurrentHashMap<>();
+    // Histogram family name to label text to histogram, as for counters.
+    private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> histograms =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Get a counter, creating it if needed.
+     *
+     * @param name name of the counter
+     * @return the counter
+     */
+    public StripedCounter counter(String name) {
+        return getOrCreate(series(name), "");
+    }
+
+    /**
+     * Get the counter for one value of a label, creating it if needed.
+     *
+     * @param name  name of the counter
+     * @param label name of the label, e.g. {@code "exception"}
+     * @param value value of the label
+     * @return the counter
+     */
+    public StripedCounter counter(String name, String label, String value) {
+        return getOrCreate(series(name), labelText(label, value));
+    }
+
+    /**
+     * Register a gauge, replacing any gauge of the same name.
+     *
+     * @param name  name of the gauge
+     * @param gauge reads the value
+     */
+    public void gauge(String name, Gauge gauge) {
+        gaugeSeries(name).put("", gauge);
+    }
+
+    /**
+     * Register the gauge for one value of a label, replacing any gauge for the same value.
+     *
+     * @param name  name of the gauge
+     * @param label name of the label, e.g. {@code "stripe"}
+     * @param value value of the label
+     * @param gauge reads the value
+     */
+    public void gauge(String name, String label, String value, Gauge gauge) {
+        gaugeSeries(name).put(labelText(label, value), gauge);
+    }
+
+    /**
+     * Get a latency histogram, creating it if needed.
+     *
+     * @param name name of the histogram
+     * @return the histogram
+     */
+    public LatencyHistogram histogram(String name) {
+        return histogram(name, "");
+    }
+
+    /**
+     * Get the latency histogram for one value of a label, creating it if needed.
+     *
+     * @param name  name of the histogram
+     * @param label name of the label, e.g. {@code "lane"}
+     * @param value value of the label
+     * @return the histogram
+     */
+    public LatencyHistogram histogram(String name, String label, String value) {
+        return histogram(name, labelText(label, value));
+    }
+
+    /**
+     * Read every metric. Each value is read atomically, but the snapshot as a whole is not: a
+     * count made while it is taken may show up in one metric and not yet in another.
+     *
+     * @return the current values
+     */
+    public MetricsSnapshot snapshot() {
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        for (Map.Entry<String, ConcurrentMap<String, StripedCounter>> family
+                : counters.entrySet()) {
+            for (Map.Entry<String, StripedCounter> counter : family.getValue().entrySet()) {
+                snapshot.putCounter(family.getKey(), counter.getKey(), counter.getValue().sum());
+            }
+        }
+        for (Map.Entry<String, ConcurrentMap<String, Gauge>> family : gauges.entrySet()) {
+            for (Map.Entry<String, Gauge> gauge : family.getValue().entrySet()) {
+                snapshot.putGauge(family.getKey(), gauge.getKey(), gauge.getValue().get());
+            }
+        }
+        for (Map.Entry<String, ConcurrentMap<String, LatencyHistogram>> family
+                : histograms.entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> histogram : family.getValue().entrySet()) {
+                snapshot.putHistogram(family.getKey(), histogram.getKey(),
+                        histogram.getValue().snapshot());
+            }
+        }
+        return snapshot;
+    }
+
+    private ConcurrentMap<String, StripedCounter> series(String name) {
+        ConcurrentMap<String, StripedCounter> series = counters.get(name);
+        if (series == null) {
+            ConcurrentMap<String, StripedCounter> created = new ConcurrentHashMap<>();
+            series = counters.putIfAbsent(name, created);
+            if (series == null) {
+                series = created;
+            }
+        }
+        return series;
+    }
+
+    private ConcurrentMap<String, Gauge> gaugeSeries(String name) {
+        ConcurrentMap<String, Gauge> series = gauges.get(name);
+        if (series == null) {
+            ConcurrentMap<String, Gauge> created = new ConcurrentHashMap<>();
+            series = gauges.putIfAbsent(name, created);
+            if (series == null) {
+                series = created;
+            }
+        }
+        return series;
+    }
+
+    private LatencyHistogram histogram(String name, String labels) {
+        ConcurrentMap<String, LatencyHistogram> series = histograms.get(name);
+        if (series == null) {
+            ConcurrentMap<String, LatencyHistogram> created = new ConcurrentHashMap<>();
+            series = histograms.putIfAbsent(name, created);
+            if (series == null) {
+                series = created;
+            }
+        }
+        LatencyHistogram histogram = series.get(labels);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = series.putIfAbsent(labels, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    private static StripedCounter getOrCreate(ConcurrentMap<String, StripedCounter> series,
+                                              String labels) {
+        StripedCounter counter = series.get(labels);
+        if (counter == null) {
+            StripedCounter created = new StripedCounter();
+            counter = series.putIfAbsent(labels, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Format a label as it appears between the braces of an OpenMetrics sample.
+     *
+     * @param label name of the label
+     * @param value value of the label
+     * @return e.g. {@code exception="RightMeshException"}
+     */
+    static String labelText(String label, String value) {
+        StringBuilder text = new StringBuilder(label).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                text.append('\\').append(c);
+            } else if (c == '\n') {
+                text.append("\\n");
+            } else {
+                text.append(c);
+            }
+        }
+        return text.append('"').toString();
+    }
+}
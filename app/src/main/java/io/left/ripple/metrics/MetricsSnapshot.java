@@ -0,0 +1,155 @@
+package io.left.ripple.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The values of every metric of a {@link MetricsRegistry} at one point in time, sorted by name.
+ */
+public final class MetricsSnapshot {
+    // Counter name to label text to value. The label text is empty for no label.
+    private final SortedMap<String, SortedMap<String, Long>> counters = new TreeMap<>();
+    // Gauge name to label text to value, as for counters.
+    private final SortedMap<String, SortedMap<String, Long>> gauges = new TreeMap<>();
+    // Histogram name to label text to counts, as for counters.
+    private final SortedMap<String, SortedMap<String, LatencyHistogram.Snapshot>> histograms =
+            new TreeMap<>();
+
+    MetricsSnapshot() {
+    }
+
+    void putCounter(String name, String labels, long value) {
+        put(counters, name, labels, value);
+    }
+
+    void putGauge(String name, String labels, long value) {
+        put(gauges, name, labels, value);
+    }
+
+    void putHistogram(String name, String labels, LatencyHistogram.Snapshot histogram) {
+        SortedMap<String, LatencyHistogram.Snapshot> series = histograms.get(name);
+        if (series == null) {
+            series = new TreeMap<>();
+            histograms.put(name, series);
+        }
+        series.put(labels, histogram);
+    }
+
+    /**
+     * Get the value of a counter without label.
+     *
+     * @param name name of the counter
+     * @return its value, or 0 if it was never used
+     */
+    public long getCounter(String name) {
+        return getValue(counters, name, "");
+    }
+
+    /**
+     * Get the value of a counter for one value of its label.
+     *
+     * @param name  name of the counter
+     * @param label name of the label
+     * @param value value of the label
+     * @return its value, or 0 if it was never used
+     */
+    public long getCounter(String name, String label, String value) {
+        return getValue(counters, name, MetricsRegistry.labelText(label, value));
+    }
+
+    /**
+     * Get every counter.
+     *
+     * @return counter name to label text, e.g. {@code exception="RightMeshException"} or empty
+     *         for no label, to value
+     */
+    public Map<String, SortedMap<String, Long>> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    /**
+     * Get the value of a gauge without label.
+     *
+     * @param name name of the gauge
+     * @return its value, or 0 if it was never registered
+     */
+    public long getGauge(String name) {
+        return getValue(gauges, name, "");
+    }
+
+    /**
+     * Get the value of a gauge for one value of its label.
+     *
+     * @param name  name of the gauge
+     * @param label name of the label
+     * @param value value of the label
+     * @return its value, or 0 if it was never registered
+     */
+    public long getGauge(String name, String label, String value) {
+        return getValue(gauges, name, MetricsRegistry.labelText(label, value));
+    }
+
+    /**
+     * Get every gauge.
+     *
+     * @return gauge name to label text, or empty for no label, to value
+     */
+    public Map<String, SortedMap<String, Long>> getGauges() {
+        return Collections.unmodifiableMap(gauges);
+    }
+
+    /**
+     * Get a histogram without label.
+     *
+     * @param name name of the histogram
+     * @return its counts, or null if it was never used
+     */
+    public LatencyHistogram.Snapshot getHistogram(String name) {
+        return getHistogramSeries(name, "");
+    }
+
+    /**
+     * Get the histogram for one value of its label.
+     *
+     * @param name  name of the histogram
+     * @param label name of the label
+     * @param value value of the label
+     * @return its counts, or null if it was never used
+     */
+    public LatencyHistogram.Snapshot getHistogram(String name, String label, String value) {
+        return getHistogramSeries(name, MetricsRegistry.labelText(label, value));
+    }
+
+    /**
+     * Get every histogram.
+     *
+     * @return histogram name to label text, or empty for no label, to counts
+     */
+    public Map<String, SortedMap<String, LatencyHistogram.Snapshot>> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    private LatencyHistogram.Snapshot getHistogramSeries(String name, String labels) {
+        SortedMap<String, LatencyHistogram.Snapshot> series = histograms.get(name);
+        return series == null ? null : series.get(labels);
+    }
+
+    private static void put(SortedMap<String, SortedMap<String, Long>> metrics, String name,
+                            String labels, long value) {
+        SortedMap<String, Long> series = metrics.get(name);
+        if (series == null) {
+            series = new TreeMap<>();
+            metrics.put(name, series);
+        }
+        series.put(labels, value);
+    }
+
+    private static long getValue(SortedMap<String, SortedMap<String, Long>> metrics, String name,
+                                 String labels) {
+        SortedMap<String, Long> series = metrics.get(name);
+        Long value = series == null ? null : series.get(labels);
+        return value == null ? 0 : value;
+    }
+}
@@ -0,0 +1,109 @@
+package io.left.ripple.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Writes a {@link MetricsSnapshot} in the OpenMetrics text format, which Prometheus and most
+ * monitoring tools can read. Counters get the {@code _total} suffix and gauges none; histograms
+ * are written with cumulative {@code _bucket} samples, then {@code _count} and {@code _sum}, in
+ * seconds.
+ */
+public final class OpenMetricsWriter {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NANOS_SCALE = 9;
+
+    private OpenMetricsWriter() {
+    }
+
+    /**
+     * Write a snapshot.
+     *
+     * @param snapshot metrics to write
+     * @param out      destination, not closed
+     * @throws IOException if writing fails
+     */
+    public static void write(MetricsSnapshot snapshot, Writer out) throws IOException {
+        for (Map.Entry<String, ? extends Map<String, Long>> counter
+                : snapshot.getCounters().entrySet()) {
+            String name = counter.getKey();
+            out.write("# TYPE " + name + " counter\n");
+            for (Map.Entry<String, Long> series : counter.getValue().entrySet()) {
+                out.write(name + "_total" + labels(series.getKey(), null) + " "
+                        + series.getValue() + "\n");
+            }
+        }
+
+        for (Map.Entry<String, ? extends Map<String, Long>> gauge
+                : snapshot.getGauges().entrySet()) {
+            String name = gauge.getKey();
+            out.write("# TYPE " + name + " gauge\n");
+            for (Map.Entry<String, Long> series : gauge.getValue().entrySet()) {
+                out.write(name + labels(series.getKey(), null) + " " + series.getValue() + "\n");
+            }
+        }
+
+        for (Map.Entry<String, ? extends Map<String, LatencyHistogram.Snapshot>> family
+                : snapshot.getHistograms().entrySet()) {
+            String name = family.getKey();
+            out.write("# TYPE " + name + " histogram\n");
+            for (Map.Entry<String, LatencyHistogram.Snapshot> series
+                    : family.getValue().entrySet()) {
+                writeHistogram(out, name, series.getKey(), series.getValue());
+            }
+        }
+        out.write("# EOF\n");
+    }
+
+    /**
+     * Write a snapshot to a file, replacing it in one step so a reader never sees half of it.
+     *
+     * @param snapshot metrics to write
+     * @param file     destination
+     * @throws IOException if writing or renaming fails
+     */
+    public static void write(MetricsSnapshot snapshot, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(temp), UTF_8);
+        try {
+            write(snapshot, out);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Cannot rename " + temp + " to " + file);
+        }
+    }
+
+    private static void writeHistogram(Writer out, String name, String labels,
+                                       LatencyHistogram.Snapshot histogram) throws IOException {
+        long cumulative = 0;
+        for (int bucket = 0; bucket < histogram.getBucketCount(); bucket++) {
+            cumulative += histogram.getCount(bucket);
+            long bound = histogram.getUpperBoundNanos(bucket);
+            String le = bound == Long.MAX_VALUE ? "+Inf" : seconds(bound);
+            out.write(name + "_bucket" + labels(labels, le) + " " + cumulative + "\n");
+        }
+        out.write(name + "_count" + labels(labels, null) + " " + cumulative + "\n");
+        out.write(name + "_sum" + labels(labels, null) + " " + seconds(histogram.getSumNanos())
+                + "\n");
+    }
+
+    private static String labels(String labels, String le) {
+        if (le == null) {
+            return labels.isEmpty() ? "" : "{" + labels + "}";
+        }
+        String bucket = "le=\"" + le + "\"";
+        return "{" + (labels.isEmpty() ? bucket : labels + "," + bucket) + "}";
+    }
+
+    private static String seconds(long nanos) {
+        return BigDecimal.valueOf(nanos, NANOS_SCALE).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,51 @@
+package io.left.ripple.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment without contending on one memory location.
+ *
+ * Each thread adds to one of several stripes, chosen by its thread id, and {@link #sum()} adds
+ * the stripes up. Stripes are spaced a cache line apart so threads on different cores do not
+ * share one. This does what {@code java.util.concurrent.atomic.LongAdder} does, which is only
+ * available from API 24.
+ */
+public final class StripedCounter {
+    // Longs between two stripes, so that each stripe has a 64 byte cache line to itself.
+    private static final int PADDING = 8;
+    private static final int MAX_STRIPES = 16;
+    private static final int STRIPES = Math.min(MAX_STRIPES,
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Add one.
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Add to the counter.
+     *
+     * @param delta amount to add
+     */
+    public void add(long delta) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.addAndGet(stripe * PADDING, delta);
+    }
+
+    /**
+     * Get the total. Not an atomic snapshot: adds made while summing may or may not be counted.
+     *
+     * @return sum of all adds
+     */
+    public long sum() {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.get(stripe * PADDING);
+        }
+        return sum;
+    }
+}
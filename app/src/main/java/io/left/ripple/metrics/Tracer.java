@@ -0,0 +1,241 @@
+package io.left.ripple.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records timed spans into a fixed-size ring buffer, so a slow ripple can be broken down into
+ * service calls, decoding, forwarding and UI updates after the fact.
+ *
+ * Every slot is allocated up front and recording neither locks nor allocates: a writer claims
+ * the next slot with one atomic increment and overwrites the oldest span once the buffer is full.
+ * Each slot carries a version that is odd while it is being written, so {@link #snapshot()} can
+ * run alongside writers and skips the slots they are in the middle of.
+ *
+ * Tracing is off until {@link #setEnabled(boolean)} is called. While it is off, {@link #begin()}
+ * only reads a volatile flag and {@link #end(Event, long, Object, long)} returns at once.
+ */
+public final class Tracer {
+    /**
+     * Returned by {@link #begin()} while tracing is off. Spans started with it are not recorded.
+     */
+    public static final long OFF = Long.MIN_VALUE;
+    /**
+     * Message id of spans that are not about one message.
+     */
+    public static final long NO_MESSAGE = -1;
+
+    /**
+     * What a span measured.
+     */
+    public enum Event {
+        MESH_STATE_CHANGED("meshStateChanged"),
+        SEND_DATA_RELIABLE("sendDataReliable"),
+        GET_NEXT_HOP_PEER("getNextHopPeer"),
+        RECEIVE_COLOUR_MESSAGE("receiveColourMessage"),
+        APPLY_COLOUR("applyColour");
+
+        private final String traceName;
+
+        Event(String traceName) {
+            this.traceName = traceName;
+        }
+
+        /**
+         * Get the name shown in trace viewers.
+         *
+         * @return name of the traced method
+         */
+        public String getTraceName() {
+            return traceName;
+        }
+    }
+
+    private static final Event[] EVENTS = Event.values();
+
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicLongArray versions;
+    private final AtomicLongArray startNanos;
+    private final AtomicLongArray durationNanos;
+    private final AtomicLongArray threadIds;
+    private final AtomicLongArray messageIds;
+    private final AtomicIntegerArray events;
+    private final AtomicReferenceArray<Object> peers;
+    // Ticket of the first span recorded after the last clear().
+    private volatile long clearedBefore;
+    private volatile boolean enabled;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity number of spans kept, rounded up to a power of two
+     */
+    public Tracer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+        versions = new AtomicLongArray(size);
+        startNanos = new AtomicLongArray(size);
+        durationNanos = new AtomicLongArray(size);
+        threadIds = new AtomicLongArray(size);
+        messageIds = new AtomicLongArray(size);
+        events = new AtomicIntegerArray(size);
+        peers = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Turn recording on or off. Spans already recorded are kept.
+     *
+     * @param enabled true to record spans
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the number of spans the buffer holds.
+     *
+     * @return capacity, a power of two
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Start a span.
+     *
+     * @return the start time to pass to {@link #end(Event, long, Object, long)}, or {@link #OFF}
+     */
+    public long begin() {
+        return enabled ? System.nanoTime() : OFF;
+    }
+
+    /**
+     * Finish a span and record it, unless it was started while tracing was off.
+     *
+     * @param event     what the span measured
+     * @param start     value returned by {@link #begin()}
+     * @param peer      device the span was about, e.g. a MeshId, or null. It is only turned
+     *                  into text when the trace is written.
+     * @param messageId id of the message the span was about, or {@link #NO_MESSAGE}
+     */
+    public void end(Event event, long start, Object peer, long messageId) {
+        if (start == OFF) {
+            return;
+        }
+        long duration = System.nanoTime() - start;
+        long ticket = cursor.getAndIncrement();
+        int slot = (int) ticket & mask;
+        // Odd while writing. Versions grow with the ticket, so a reader also notices a slot that
+        // was overwritten by a later span while it read it.
+        versions.set(slot, 2 * ticket + 1);
+        startNanos.lazySet(slot, start);
+        durationNanos.lazySet(slot, duration);
+        threadIds.lazySet(slot, Thread.currentThread().getId());
+        messageIds.lazySet(slot, messageId);
+        events.lazySet(slot, event.ordinal());
+        peers.lazySet(slot, peer);
+        versions.lazySet(slot, 2 * ticket + 2);
+    }
+
+    /**
+     * Copy the recorded spans out of the buffer.
+     *
+     * @return spans, oldest first. Spans that were being written during the copy are left out.
+     */
+    public List<Span> snapshot() {
+        long last = cursor.get();
+        long first = Math.max(clearedBefore, last - getCapacity());
+        List<Span> spans = new ArrayList<>((int) (last - first));
+        for (long ticket = first; ticket < last; ticket++) {
+            int slot = (int) ticket & mask;
+            long version = versions.get(slot);
+            if (version != 2 * ticket + 2) {
+                continue;
+            }
+            Span span = new Span(EVENTS[events.get(slot)], startNanos.get(slot),
+                    durationNanos.get(slot), threadIds.get(slot), peers.get(slot),
+                    messageIds.get(slot));
+            if (versions.get(slot) == version) {
+                spans.add(span);
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * Forget every recorded span.
+     */
+    public void clear() {
+        clearedBefore = cursor.get();
+    }
+
+    /**
+     * One recorded span.
+     */
+    public static final class Span {
+        private final Event event;
+        private final long startNanos;
+        private final long durationNanos;
+        private final long threadId;
+        private final Object peer;
+        private final long messageId;
+
+        Span(Event event, long startNanos, long durationNanos, long threadId, Object peer,
+                long messageId) {
+            this.event = event;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.threadId = threadId;
+            this.peer = peer;
+            this.messageId = messageId;
+        }
+
+        public Event getEvent() {
+            return event;
+        }
+
+        /**
+         * Get when the span started.
+         *
+         * @return {@link System#nanoTime()} at the start
+         */
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        /**
+         * Get the device the span was about.
+         *
+         * @return the peer, or null
+         */
+        public Object getPeer() {
+            return peer;
+        }
+
+        /**
+         * Get the id of the message the span was about.
+         *
+         * @return the id, or {@link #NO_MESSAGE}
+         */
+        public long getMessageId() {
+            return messageId;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package io.left.ripple.probe;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Round trip times and losses of the probes sent so far, per peer and per hop count.
+ */
+public final class ProbeReport {
+    private final List<Row> peers;
+    private final List<Row> hops;
+    private final long pending;
+
+    ProbeReport(List<Row> peers, List<Row> hops, long pending) {
+        this.peers = Collections.unmodifiableList(peers);
+        this.hops = Collections.unmodifiableList(hops);
+        this.pending = pending;
+    }
+
+    /**
+     * Get one row per probed peer, in the order they were first probed.
+     *
+     * @return rows keyed by the peer's MeshId
+     */
+    public List<Row> getPeers() {
+        return peers;
+    }
+
+    /**
+     * Get one row per hop count, {@code "unknown"} first, then fewest hops first. Answered probes
+     * count under the hops the ping took; lost ones under the hops last seen for the peer.
+     *
+     * @return rows keyed by hop count
+     */
+    public List<Row> getHops() {
+        return hops;
+    }
+
+    /**
+     * Get the number of probes sent that were neither answered nor timed out yet.
+     *
+     * @return pending probes
+     */
+    public long getPending() {
+        return pending;
+    }
+
+    /**
+     * Round trip times and losses for one peer or hop count. Percentiles are nearest-rank, over
+     * the most recent answered probes, and 0 if none was answered.
+     */
+    public static final class Row {
+        private final String key;
+        private final long sent;
+        private final long received;
+        private final long lost;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+        private final long maxNanos;
+
+        Row(String key, long sent, long received, long lost, long p50Nanos, long p90Nanos,
+            long p99Nanos, long maxNanos) {
+            this.key = key;
+            this.sent = sent;
+            this.received = received;
+            this.lost = lost;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        public long getLost() {
+            return lost;
+        }
+
+        /**
+         * Get the share of probes that timed out, among those answered or timed out.
+         *
+         * @return loss between 0 and 1, 0 if no probe completed yet
+         */
+        public double getLossRate() {
+            long completed = received + lost;
+            return completed == 0 ? 0 : (double) lost / completed;
+        }
+
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP90Nanos() {
+            return p90Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+    }
+}
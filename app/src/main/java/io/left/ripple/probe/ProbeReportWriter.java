@@ -0,0 +1,111 @@
+package io.left.ripple.probe;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes a {@link ProbeReport} as JSON, for scripts, or as a plain text table, for people.
+ * Times are in milliseconds in both.
+ */
+public final class ProbeReportWriter {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NANOS_PER_MILLI_SCALE = 6;
+    private static final double PERCENT = 100;
+
+    private ProbeReportWriter() {
+    }
+
+    /**
+     * Write a report as a JSON object with a {@code "peers"} and a {@code "hops"} array.
+     *
+     * @param report report to write
+     * @param out    destination, not closed
+     * @throws IOException if writing fails
+     */
+    public static void writeJson(ProbeReport report, Writer out) throws IOException {
+        out.write("{\"pending\":" + report.getPending() + ",\n\"peers\":[");
+        writeJsonRows(report.getPeers(), "peer", out);
+        out.write("],\n\"hops\":[");
+        writeJsonRows(report.getHops(), "hops", out);
+        out.write("]}\n");
+    }
+
+    /**
+     * Write a report as JSON to a file, replacing it in one step so a reader never sees half of
+     * it.
+     *
+     * @param report report to write
+     * @param file   destination
+     * @throws IOException if writing or renaming fails
+     */
+    public static void writeJson(ProbeReport report, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(temp), UTF_8);
+        try {
+            writeJson(report, out);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Cannot rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Format a report as text, one line per peer then one per hop count.
+     *
+     * @param report report to format
+     * @return the text
+     */
+    public static String toText(ProbeReport report) {
+        StringBuilder text = new StringBuilder();
+        text.append("Pending: ").append(report.getPending()).append('\n');
+        appendRows(text, "Peer", report.getPeers());
+        appendRows(text, "Hops", report.getHops());
+        return text.toString();
+    }
+
+    private static void writeJsonRows(List<ProbeReport.Row> rows, String keyName, Writer out)
+            throws IOException {
+        String separator = "\n";
+        for (ProbeReport.Row row : rows) {
+            out.write(separator);
+            separator = ",\n";
+            out.write("{\"" + keyName + "\":\"" + row.getKey() + "\""
+                    + ",\"sent\":" + row.getSent()
+                    + ",\"received\":" + row.getReceived()
+                    + ",\"lost\":" + row.getLost()
+                    + ",\"p50_ms\":" + millis(row.getP50Nanos())
+                    + ",\"p90_ms\":" + millis(row.getP90Nanos())
+                    + ",\"p99_ms\":" + millis(row.getP99Nanos())
+                    + ",\"max_ms\":" + millis(row.getMaxNanos()) + "}");
+        }
+        if (!rows.isEmpty()) {
+            out.write("\n");
+        }
+    }
+
+    private static void appendRows(StringBuilder text, String keyName,
+                                   List<ProbeReport.Row> rows) {
+        for (ProbeReport.Row row : rows) {
+            text.append(String.format(Locale.ROOT,
+                    "%s %s: %d/%d answered, %.1f%% lost, p50 %s p90 %s p99 %s max %s ms\n",
+                    keyName, row.getKey(), row.getReceived(), row.getSent(),
+                    row.getLossRate() * PERCENT, millis(row.getP50Nanos()),
+                    millis(row.getP90Nanos()), millis(row.getP99Nanos()),
+                    millis(row.getMaxNanos())));
+        }
+    }
+
+    private static String millis(long nanos) {
+        return BigDecimal.valueOf(nanos, NANOS_PER_MILLI_SCALE).stripTrailingZeros()
+                .toPlainString();
+    }
+}
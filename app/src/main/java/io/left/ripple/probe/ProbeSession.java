@@ -0,0 +1,175 @@
+package io.left.ripple.probe;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.ripple.mesh.PeerRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of the probes sent to peers and the echoes received for them.
+ *
+ * Each ping is registered before it is sent, with the hop count last seen for its peer. An echo
+ * completes its probe and records the round trip time under the peer and under the number of
+ * hops the ping took. Probes left unanswered for longer than the timeout count as lost.
+ *
+ * Pings are sent from the probing thread and echoes arrive on the RightMesh thread, so every
+ * method is synchronized.
+ */
+public class ProbeSession {
+    static final String UNKNOWN_HOPS = "unknown";
+
+    private final long timeoutNanos;
+    private final Map<Integer, Probe> outstanding = new HashMap<>();
+    private final Map<MeshId, RttStats> byPeer = new LinkedHashMap<>();
+    private final Map<MeshId, Long> sentByPeer = new HashMap<>();
+    private final Map<Integer, RttStats> byHops = new TreeMap<>();
+    private int nextProbeId;
+
+    /**
+     * Constructor.
+     *
+     * @param timeoutNanos time after which an unanswered probe counts as lost
+     * @param firstProbeId id of the first probe. Pick it at random so echoes of probes sent
+     *                     before a restart are not taken for new ones.
+     */
+    public ProbeSession(long timeoutNanos, int firstProbeId) {
+        this.timeoutNanos = timeoutNanos;
+        this.nextProbeId = firstProbeId;
+    }
+
+    /**
+     * Register a ping about to be sent.
+     *
+     * @param peer      device to probe
+     * @param hops      hops last seen for the peer, or {@link PeerRegistry#UNKNOWN_HOPS}
+     * @param nowNanos  {@link System#nanoTime()}, to be carried by the ping
+     * @return id of the probe, to be carried by the ping
+     */
+    public synchronized int register(MeshId peer, int hops, long nowNanos) {
+        int probeId = nextProbeId++;
+        outstanding.put(probeId, new Probe(peer, hops, nowNanos));
+        Long sent = sentByPeer.get(peer);
+        sentByPeer.put(peer, sent == null ? 1 : sent + 1);
+        if (!byPeer.containsKey(peer)) {
+            byPeer.put(peer, new RttStats());
+        }
+        return probeId;
+    }
+
+    /**
+     * Forget a registered ping that could not be sent, e.g. because the peer is unreachable.
+     * It is counted as lost.
+     *
+     * @param probeId id returned by {@link #register(MeshId, int, long)}
+     */
+    public synchronized void fail(int probeId) {
+        Probe probe = outstanding.remove(probeId);
+        if (probe != null) {
+            recordLoss(probe);
+        }
+    }
+
+    /**
+     * Complete a probe with its echo.
+     *
+     * @param probeId   probe id carried by the echo
+     * @param sentNanos sent time carried by the echo
+     * @param hops      hops the ping took, carried by the echo
+     * @param nowNanos  {@link System#nanoTime()} when the echo arrived
+     * @return true if the echo answered a pending probe, false if it is unknown, a duplicate or
+     *         arrived after the probe timed out
+     */
+    public synchronized boolean onEcho(int probeId, long sentNanos, int hops, long nowNanos) {
+        Probe probe = outstanding.get(probeId);
+        if (probe == null || probe.sentNanos != sentNanos) {
+            return false;
+        }
+        outstanding.remove(probeId);
+        long rtt = nowNanos - probe.sentNanos;
+        byPeer.get(probe.peer).recordEcho(rtt);
+        hopStats(hops).recordEcho(rtt);
+        return true;
+    }
+
+    /**
+     * Count every probe pending for longer than the timeout as lost.
+     *
+     * @param nowNanos {@link System#nanoTime()}
+     */
+    public synchronized void expire(long nowNanos) {
+        Iterator<Probe> probes = outstanding.values().iterator();
+        while (probes.hasNext()) {
+            Probe probe = probes.next();
+            if (nowNanos - probe.sentNanos > timeoutNanos) {
+                probes.remove();
+                recordLoss(probe);
+            }
+        }
+    }
+
+    /**
+     * Summarize the probes so far, after expiring the ones that timed out.
+     *
+     * @param nowNanos {@link System#nanoTime()}
+     * @return {@link ProbeReport}
+     */
+    public synchronized ProbeReport report(long nowNanos) {
+        expire(nowNanos);
+        List<ProbeReport.Row> peers = new ArrayList<>(byPeer.size());
+        for (Map.Entry<MeshId, RttStats> entry : byPeer.entrySet()) {
+            peers.add(entry.getValue().toRow(entry.getKey().toString(),
+                    sentByPeer.get(entry.getKey())));
+        }
+        List<ProbeReport.Row> hops = new ArrayList<>(byHops.size());
+        for (Map.Entry<Integer, RttStats> entry : byHops.entrySet()) {
+            RttStats stats = entry.getValue();
+            String key = entry.getKey() == PeerRegistry.UNKNOWN_HOPS
+                    ? UNKNOWN_HOPS : String.valueOf(entry.getKey());
+            hops.add(stats.toRow(key, stats.getReceived() + stats.getLost()));
+        }
+        return new ProbeReport(peers, hops, outstanding.size());
+    }
+
+    /**
+     * Forget every probe and result.
+     */
+    public synchronized void reset() {
+        outstanding.clear();
+        byPeer.clear();
+        sentByPeer.clear();
+        byHops.clear();
+    }
+
+    private void recordLoss(Probe probe) {
+        byPeer.get(probe.peer).recordLoss();
+        hopStats(probe.hops).recordLoss();
+    }
+
+    private RttStats hopStats(int hops) {
+        int key = hops > 0 ? hops : PeerRegistry.UNKNOWN_HOPS;
+        RttStats stats = byHops.get(key);
+        if (stats == null) {
+            stats = new RttStats();
+            byHops.put(key, stats);
+        }
+        return stats;
+    }
+
+    private static final class Probe {
+        final MeshId peer;
+        final int hops;
+        final long sentNanos;
+
+        Probe(MeshId peer, int hops, long sentNanos) {
+            this.peer = peer;
+            this.hops = hops;
+            this.sentNanos = sentNanos;
+        }
+    }
+}
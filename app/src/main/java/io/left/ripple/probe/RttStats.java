@@ -0,0 +1,54 @@
+package io.left.ripple.probe;
+
+import java.util.Arrays;
+
+/**
+ * Round trip times and losses of the probes sent to one peer, or over one hop count. Keeps the
+ * most recent {@link #SAMPLE_CAPACITY} round trip times for percentiles, and the maximum of all.
+ * Not thread safe, see {@link ProbeSession}.
+ */
+final class RttStats {
+    static final int SAMPLE_CAPACITY = 1024;
+
+    private final long[] samples = new long[SAMPLE_CAPACITY];
+    private long received;
+    private long lost;
+    private long maxNanos;
+
+    void recordEcho(long rttNanos) {
+        samples[(int) (received % SAMPLE_CAPACITY)] = rttNanos;
+        received++;
+        maxNanos = Math.max(maxNanos, rttNanos);
+    }
+
+    void recordLoss() {
+        lost++;
+    }
+
+    ProbeReport.Row toRow(String key, long sent) {
+        int count = (int) Math.min(received, SAMPLE_CAPACITY);
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return new ProbeReport.Row(key, sent, received, lost, percentile(sorted, 50),
+                percentile(sorted, 90), percentile(sorted, 99), maxNanos);
+    }
+
+    long getReceived() {
+        return received;
+    }
+
+    long getLost() {
+        return lost;
+    }
+
+    /**
+     * Nearest-rank percentile.
+     */
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (sorted.length * percent + 99) / 100;
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
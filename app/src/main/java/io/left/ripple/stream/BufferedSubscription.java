@@ -0,0 +1,223 @@
+package io.left.ripple.stream;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the items offered to one subscriber until it requests them, in a bounded buffer.
+ *
+ * Items are handed to the subscriber by whichever thread finds it has demand and items waiting:
+ * the one offering an item, or the one requesting more. Only one thread does so at a time, so
+ * calls to the subscriber never overlap. A subscriber that throws is cancelled.
+ *
+ * @param <T> item type
+ */
+final class BufferedSubscription<T> implements Subscription {
+    private final Subscriber<? super T> subscriber;
+    private final int capacity;
+    private final EventPublisher.OverflowPolicy overflowPolicy;
+    private final AtomicLong dropped;
+    // Run once when the subscription ends, however it ends.
+    private volatile Runnable onTerminate;
+
+    // Guards everything below.
+    private final Object lock = new Object();
+    private final ArrayDeque<T> buffer = new ArrayDeque<>();
+    private long requested;
+    private boolean started;
+    private boolean emitting;
+    private boolean done;
+    private Throwable error;
+    private boolean terminated;
+
+    /**
+     * Constructor.
+     *
+     * @param subscriber     receives the items
+     * @param capacity       maximum number of items waiting for a request
+     * @param overflowPolicy what to do with an item when the buffer is full
+     * @param dropped        counts items dropped because the buffer was full
+     */
+    BufferedSubscription(Subscriber<? super T> subscriber, int capacity,
+                         EventPublisher.OverflowPolicy overflowPolicy, AtomicLong dropped) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        this.subscriber = subscriber;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.dropped = dropped;
+    }
+
+    void setOnTerminate(Runnable onTerminate) {
+        this.onTerminate = onTerminate;
+    }
+
+    /**
+     * Call {@link Subscriber#onSubscribe(Subscription)}, then deliver anything offered meanwhile.
+     */
+    void start() {
+        subscriber.onSubscribe(this);
+        synchronized (lock) {
+            started = true;
+        }
+        drain();
+    }
+
+    /**
+     * Buffer an item for the subscriber, and deliver it if it was requested.
+     *
+     * @param item the item
+     * @return false if it was dropped, or the subscription has ended
+     */
+    boolean offer(T item) {
+        boolean accepted = true;
+        synchronized (lock) {
+            if (terminated || done || error != null) {
+                return false;
+            }
+            if (buffer.size() >= capacity) {
+                dropped.incrementAndGet();
+                if (overflowPolicy == EventPublisher.OverflowPolicy.DROP_OLDEST) {
+                    buffer.poll();
+                    buffer.add(item);
+                } else if (overflowPolicy == EventPublisher.OverflowPolicy.DROP_LATEST) {
+                    return false;
+                } else {
+                    error = new IllegalStateException(
+                            "Subscriber fell more than " + capacity + " items behind");
+                    accepted = false;
+                }
+            } else {
+                buffer.add(item);
+            }
+        }
+        drain();
+        return accepted;
+    }
+
+    /**
+     * End the stream once the buffered items have been delivered.
+     */
+    void complete() {
+        synchronized (lock) {
+            done = true;
+        }
+        drain();
+    }
+
+    /**
+     * End the stream with an error, dropping the buffered items.
+     *
+     * @param failure why it ended
+     */
+    void fail(Throwable failure) {
+        synchronized (lock) {
+            if (error == null) {
+                error = failure;
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public void request(long count) {
+        synchronized (lock) {
+            if (count <= 0) {
+                if (error == null) {
+                    error = new IllegalArgumentException("Requested " + count + " items");
+                }
+            } else {
+                requested += count;
+                if (requested < 0) {
+                    requested = Long.MAX_VALUE;
+                }
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public void cancel() {
+        if (terminate()) {
+            runOnTerminate();
+        }
+    }
+
+    int getBufferedCount() {
+        synchronized (lock) {
+            return buffer.size();
+        }
+    }
+
+    private boolean terminate() {
+        synchronized (lock) {
+            if (terminated) {
+                return false;
+            }
+            terminated = true;
+            buffer.clear();
+            return true;
+        }
+    }
+
+    private void runOnTerminate() {
+        Runnable runnable = onTerminate;
+        if (runnable != null) {
+            runnable.run();
+        }
+    }
+
+    private void drain() {
+        synchronized (lock) {
+            if (emitting) {
+                // The emitting thread checks again before it stops.
+                return;
+            }
+            emitting = true;
+        }
+        while (true) {
+            T item = null;
+            Throwable failure = null;
+            boolean complete = false;
+            synchronized (lock) {
+                if (terminated || !started) {
+                    emitting = false;
+                    return;
+                }
+                if (error != null) {
+                    failure = error;
+                } else if (requested > 0 && !buffer.isEmpty()) {
+                    item = buffer.poll();
+                    if (requested != Long.MAX_VALUE) {
+                        requested--;
+                    }
+                } else if (done && buffer.isEmpty()) {
+                    complete = true;
+                } else {
+                    emitting = false;
+                    return;
+                }
+            }
+
+            if (failure != null || complete) {
+                terminate();
+                runOnTerminate();
+                if (failure != null) {
+                    subscriber.onError(failure);
+                } else {
+                    subscriber.onComplete();
+                }
+                synchronized (lock) {
+                    emitting = false;
+                }
+                return;
+            }
+            try {
+                subscriber.onNext(item);
+            } catch (RuntimeException e) {
+                cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package io.left.ripple.stream;
+
+import io.left.ripple.mesh.ListenerList;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Publisher} of events as they happen, to any number of subscribers.
+ *
+ * Subscribers only receive events published after they subscribed. Each has a buffer of its
+ * own, where events wait until it requests them, so a slow subscriber neither holds up the
+ * publisher nor the other subscribers; when its buffer is full, the {@link OverflowPolicy}
+ * decides what is lost. A buffer of one item with {@link OverflowPolicy#DROP_OLDEST} keeps only
+ * the latest event.
+ *
+ * Events are handed to a subscriber on the thread publishing them, or the thread requesting
+ * them if they were buffered, so subscribers must not block. Publishing is safe from any
+ * thread, and costs nothing while there are no subscribers.
+ *
+ * @param <T> event type
+ */
+public class EventPublisher<T> implements Publisher<T> {
+    /**
+     * What to do with an event for a subscriber whose buffer is full.
+     */
+    public enum OverflowPolicy {
+        // Drop the oldest buffered event to make room for the new one.
+        DROP_OLDEST,
+        // Drop the new event.
+        DROP_LATEST,
+        // End the subscription with an error.
+        ERROR
+    }
+
+    private final int bufferSize;
+    private final OverflowPolicy overflowPolicy;
+    private final ListenerList<BufferedSubscription<T>> subscriptions = new ListenerList<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean completed;
+
+    /**
+     * Constructor.
+     *
+     * @param bufferSize     default number of events buffered for each subscriber
+     * @param overflowPolicy default policy when a subscriber's buffer is full
+     */
+    public EventPublisher(int bufferSize, OverflowPolicy overflowPolicy) {
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Subscribe with the default buffer size and overflow policy.
+     *
+     * @param subscriber receives the events
+     */
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        subscribe(subscriber, bufferSize, overflowPolicy);
+    }
+
+    /**
+     * Subscribe with a buffer of its own size and overflow policy.
+     *
+     * @param subscriber     receives the events
+     * @param bufferSize     number of events buffered until requested
+     * @param overflowPolicy what to do when the buffer is full
+     */
+    public void subscribe(Subscriber<? super T> subscriber, int bufferSize,
+                          OverflowPolicy overflowPolicy) {
+        BufferedSubscription<T> subscription =
+                new BufferedSubscription<>(subscriber, bufferSize, overflowPolicy, dropped);
+        subscription.setOnTerminate(() -> subscriptions.remove(subscription));
+        subscriptions.add(subscription);
+        if (completed) {
+            subscription.complete();
+        }
+        subscription.start();
+    }
+
+    /**
+     * Send an event to every subscriber.
+     *
+     * @param event the event
+     */
+    public void publish(T event) {
+        subscriptions.dispatch(BufferedSubscription::offer, event);
+    }
+
+    /**
+     * End the stream: subscribers complete once they have received their buffered events, and
+     * later ones complete straight away.
+     */
+    public void complete() {
+        completed = true;
+        subscriptions.dispatch(EventPublisher::completeSubscription, null);
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Get the number of events lost because a subscriber's buffer was full.
+     *
+     * @return number of dropped events, over all subscribers
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private static void completeSubscription(BufferedSubscription<?> subscription,
+                                             Object unused) {
+        subscription.complete();
+    }
+}
@@ -0,0 +1,20 @@
+package io.left.ripple.stream;
+
+/**
+ * A source of items that subscribers receive at the pace they ask for.
+ *
+ * This and {@link Subscriber} and {@link Subscription} have the shape of the Reactive Streams
+ * interfaces, which {@code java.util.concurrent.Flow} only provides from API 30, so adapters to
+ * either are one-liners.
+ *
+ * @param <T> item type
+ */
+public interface Publisher<T> {
+    /**
+     * Start sending items to a subscriber. {@link Subscriber#onSubscribe(Subscription)} is called
+     * first; no item is sent until the subscriber requests some.
+     *
+     * @param subscriber receives the items
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+}
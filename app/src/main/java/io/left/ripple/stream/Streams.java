@@ -0,0 +1,230 @@
+package io.left.ripple.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Operators that reshape a {@link Publisher} over time.
+ *
+ * Each subscription to an operator's publisher subscribes to the source once, asking for every
+ * item, and runs a periodic task on the given scheduler until it is cancelled or the source
+ * ends. Cancelling it cancels the subscription to the source.
+ */
+public final class Streams {
+    // Batches buffered for a subscriber of batch(...) until it requests them. The oldest are
+    // dropped first.
+    static final int BATCH_BUFFER_SIZE = 16;
+
+    private Streams() {
+    }
+
+    /**
+     * Emit the latest item of a source at most once per period, e.g. to update the screen at
+     * frame rate however fast the items come. Periods without a new item emit nothing. An item
+     * not yet requested is replaced by newer ones; the latest is emitted once requested.
+     *
+     * @param source       items to sample
+     * @param periodMillis time between two samples
+     * @param scheduler    runs the sampling
+     * @param <T>          item type
+     * @return publisher of the samples
+     */
+    public static <T> Publisher<T> sample(Publisher<T> source, long periodMillis,
+                                          ScheduledExecutorService scheduler) {
+        return subscriber -> new Sampler<T>(subscriber).start(source, periodMillis, scheduler);
+    }
+
+    /**
+     * Emit the items of a source in lists, once a list is full or has waited for a period,
+     * whichever comes first. Periods without an item emit nothing. Up to
+     * {@value #BATCH_BUFFER_SIZE} lists wait to be requested; beyond that the oldest are dropped.
+     *
+     * @param source         items to batch
+     * @param maxSize        number of items in a full list
+     * @param maxDelayMillis time after which a list is emitted even if not full
+     * @param scheduler      runs the periodic emission
+     * @param <T>            item type
+     * @return publisher of the lists, in the order of the items
+     */
+    public static <T> Publisher<List<T>> batch(Publisher<T> source, int maxSize,
+                                               long maxDelayMillis,
+                                               ScheduledExecutorService scheduler) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        return subscriber -> new Batcher<T>(subscriber, maxSize)
+                .start(source, maxDelayMillis, scheduler);
+    }
+
+    /**
+     * Subscribes to a source on behalf of one subscriber, emitting what {@link #take()} returns
+     * when an item arrives and on every tick of a periodic task.
+     *
+     * @param <T> source item type
+     * @param <R> emitted item type
+     */
+    private abstract static class TimedOperator<T, R> implements Subscriber<T> {
+        private final BufferedSubscription<R> downstream;
+        // Guards the state of subclasses, and below. Held while emitting, so items are emitted
+        // in the order they were taken.
+        private final Object lock = new Object();
+        private Subscription upstream;
+        private ScheduledFuture<?> ticks;
+        private boolean cancelled;
+
+        TimedOperator(Subscriber<? super R> subscriber, int bufferSize) {
+            downstream = new BufferedSubscription<>(subscriber, bufferSize,
+                    EventPublisher.OverflowPolicy.DROP_OLDEST, new AtomicLong());
+            downstream.setOnTerminate(this::cancel);
+        }
+
+        void start(Publisher<T> source, long periodMillis, ScheduledExecutorService scheduler) {
+            downstream.start();
+            source.subscribe(this);
+            ScheduledFuture<?> scheduled = scheduler.scheduleAtFixedRate(this::tick,
+                    periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+            synchronized (lock) {
+                if (cancelled) {
+                    scheduled.cancel(false);
+                } else {
+                    ticks = scheduled;
+                }
+            }
+        }
+
+        /**
+         * Take the item to emit when the source emits an item.
+         *
+         * @param item item from the source
+         * @return item to emit now, or null for none
+         */
+        abstract R onItem(T item);
+
+        /**
+         * Take the item to emit on a tick, or when the source ends.
+         *
+         * @return item to emit, or null for none
+         */
+        abstract R take();
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            boolean cancel;
+            synchronized (lock) {
+                cancel = cancelled;
+                upstream = subscription;
+            }
+            if (cancel) {
+                subscription.cancel();
+            } else {
+                subscription.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onNext(T item) {
+            synchronized (lock) {
+                emit(onItem(item));
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            stopTicks();
+            downstream.fail(error);
+        }
+
+        @Override
+        public void onComplete() {
+            stopTicks();
+            tick();
+            downstream.complete();
+        }
+
+        private void tick() {
+            synchronized (lock) {
+                emit(take());
+            }
+        }
+
+        private void emit(R item) {
+            if (item != null) {
+                downstream.offer(item);
+            }
+        }
+
+        private void stopTicks() {
+            ScheduledFuture<?> scheduled;
+            synchronized (lock) {
+                cancelled = true;
+                scheduled = ticks;
+                ticks = null;
+            }
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+
+        private void cancel() {
+            stopTicks();
+            Subscription subscription;
+            synchronized (lock) {
+                subscription = upstream;
+            }
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+
+    private static final class Sampler<T> extends TimedOperator<T, T> {
+        private T latest;
+
+        Sampler(Subscriber<? super T> subscriber) {
+            super(subscriber, 1);
+        }
+
+        @Override
+        T onItem(T item) {
+            latest = item;
+            return null;
+        }
+
+        @Override
+        T take() {
+            T item = latest;
+            latest = null;
+            return item;
+        }
+    }
+
+    private static final class Batcher<T> extends TimedOperator<T, List<T>> {
+        private final int maxSize;
+        private List<T> batch;
+
+        Batcher(Subscriber<? super List<T>> subscriber, int maxSize) {
+            super(subscriber, BATCH_BUFFER_SIZE);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        List<T> onItem(T item) {
+            if (batch == null) {
+                batch = new ArrayList<>(maxSize);
+            }
+            batch.add(item);
+            return batch.size() >= maxSize ? take() : null;
+        }
+
+        @Override
+        List<T> take() {
+            List<T> full = batch;
+            batch = null;
+            return full;
+        }
+    }
+}
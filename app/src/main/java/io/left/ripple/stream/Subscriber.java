@@ -0,0 +1,35 @@
+package io.left.ripple.stream;
+
+/**
+ * Receives the items of a {@link Publisher}. Calls to one subscriber never overlap, but may come
+ * from different threads.
+ *
+ * @param <T> item type
+ */
+public interface Subscriber<T> {
+    /**
+     * Called once, before anything else, with the subscription to request items from.
+     *
+     * @param subscription controls the flow of items
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Called with the next item, at most as many times as were requested.
+     *
+     * @param item the item
+     */
+    void onNext(T item);
+
+    /**
+     * Called when the stream failed. Nothing is called after it.
+     *
+     * @param error why it failed
+     */
+    void onError(Throwable error);
+
+    /**
+     * Called when the stream ended. Nothing is called after it.
+     */
+    void onComplete();
+}
@@ -0,0 +1,18 @@
+package io.left.ripple.stream;
+
+/**
+ * The link between a {@link Publisher} and one of its subscribers.
+ */
+public interface Subscription {
+    /**
+     * Ask for more items. Requests add up; {@link Long#MAX_VALUE} means no limit.
+     *
+     * @param count number of items, must be positive
+     */
+    void request(long count);
+
+    /**
+     * Stop receiving items. Items already on their way may still arrive.
+     */
+    void cancel();
+}
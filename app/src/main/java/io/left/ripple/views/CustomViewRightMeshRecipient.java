@@ -1,6 +1,5 @@
 package io.left.ripple.views;
 
-import static io.left.rightmesh.mesh.MeshManager.ADDED;
 import static io.left.rightmesh.mesh.MeshManager.REMOVED;
 
 import android.content.Context;
@@ -14,10 +13,11 @@ import android.widget.Toast;
 
 import androidx.constraintlayout.widget.ConstraintLayout;
 import io.left.rightmesh.id.MeshId;
-import io.left.rightmesh.mesh.MeshManager.PeerChangedEvent;
-import io.left.rightmesh.mesh.MeshManager.RightMeshEvent;
 import io.left.ripple.MeshIdAdapter;
 import io.left.ripple.R;
+import io.left.ripple.mesh.PeerRegistry;
+
+import java.util.Map;
 
 /**
  * Fragment that keeps track of connected peers when registered to listen to PEER_CHANGED events,
@@ -35,8 +35,12 @@ public class CustomViewRightMeshRecipient extends ConstraintLayout
     private TextView tvDeviceStatusLabel;
     private TextView tvNetworkStatusLabel;
 
-    // Keeps track of peers and populates the spinnerRecipient.
+    // Keeps track of peers, and populates the spinnerRecipient through the adapter.
+    private PeerRegistry peerRegistry;
     private MeshIdAdapter adapterRecipient;
+    private boolean attached;
+    // Number of peers in the registry when the list was last updated.
+    private int shownPeers;
 
     private RecipientChangedListener onRecipientChangedListener = null;
 
@@ -94,10 +98,47 @@ public class CustomViewRightMeshRecipient extends ConstraintLayout
         tvDeviceStatusLabel = findViewById(R.id.tv_device_status);
         tvNetworkStatusLabel = findViewById(R.id.tv_network_status);
 
-        adapterRecipient = new MeshIdAdapter(getContext());
+        setPeerRegistry(new PeerRegistry());
+    }
+
+    /**
+     * List the peers of a registry, such as one kept by a view model so it outlives this view.
+     *
+     * @param registry peers to list
+     */
+    public void setPeerRegistry(PeerRegistry registry) {
+        if (adapterRecipient != null) {
+            peerRegistry.removeListener(adapterRecipient);
+        }
+        peerRegistry = registry;
+        // Peers kept from before, e.g. a rotation, are already listed and need no selection.
+        shownPeers = registry.size();
+        adapterRecipient = new MeshIdAdapter(getContext(), registry);
+        if (attached) {
+            peerRegistry.addListener(adapterRecipient);
+        }
         spinnerRecipient.setAdapter(adapterRecipient);
     }
 
+    /**
+     * Listen to the registry while attached, so a registry that outlives the activity does not
+     * keep it alive.
+     */
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        attached = true;
+        peerRegistry.addListener(adapterRecipient);
+        adapterRecipient.notifyDataSetChanged();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        attached = false;
+        peerRegistry.removeListener(adapterRecipient);
+        super.onDetachedFromWindow();
+    }
+
     public MeshId getRecipientId() {
         return recipientId;
     }
@@ -150,39 +191,31 @@ public class CustomViewRightMeshRecipient extends ConstraintLayout
     }
 
     /**
-     * Update the mesh peers available in the recipient selection spinnerRecipient when
-     * mesh peers are discovered or change state.
+     * Update the recipient selection spinnerRecipient when mesh peers are discovered or change
+     * state. The adapter itself is refreshed by the registry.
      *
-     * @param rme event passed from RightMesh
+     * @param changes latest PEER_CHANGED state of each peer that changed, already applied to the
+     *                registry in one batch
      */
-    public void updatePeersList(RightMeshEvent rme) {
-        PeerChangedEvent pce = (PeerChangedEvent) rme;
-        MeshId peer = rme.peerUuid;
-
-        if (pce.state == ADDED && !adapterRecipient.contains(peer)) {
-            // Add the peer to the list if it is new.
-            adapterRecipient.add(peer);
-
-            if (adapterRecipient.getCount() == 2) {
-                // If this is the first peer in the list, automatically select it.
-                adapterRecipient.notifyDataSetChanged();
-                spinnerRecipient.setSelection(1);
-            }
-        } else if (pce.state == REMOVED) {
-            // Remove a peer when it disconnects.
-            adapterRecipient.remove(peer);
+    public void updatePeersList(Map<MeshId, Integer> changes) {
+        int before = shownPeers;
+        shownPeers = peerRegistry.size();
 
+        if (before < 2 && shownPeers >= 2) {
+            // If these are the first peers in the list, automatically select one.
+            spinnerRecipient.setSelection(1);
+        }
+        Integer recipientState = recipientId == null ? null : changes.get(recipientId);
+        if (recipientState != null && recipientState == REMOVED) {
             // Toast if the recipient has been disconnected.
-            if (peer.equals(recipientId)) {
-                Toast.makeText(getContext(),
-                        "Recipient has disconnected.", Toast.LENGTH_SHORT).show();
-            }
+            Toast.makeText(getContext(),
+                    "Recipient has disconnected.", Toast.LENGTH_SHORT).show();
         }
 
         // Update the connected devices label if there are other devices connected.
-        if (adapterRecipient.getCount() > 1) {
+        if (peerRegistry.size() > 1) {
             // Get string resource with number of connected devices.
-            int numConnectedDevices = adapterRecipient.getCount() - 1;
+            int numConnectedDevices = peerRegistry.size() - 1;
             String newText = getResources().getQuantityString(
                     R.plurals.number_of_connected_devices,
                     numConnectedDevices, numConnectedDevices);
@@ -194,11 +227,10 @@ public class CustomViewRightMeshRecipient extends ConstraintLayout
     }
 
     /**
-     * Add and display new connected device in spinner.
+     * Mark this device in the spinner, once the view model has added it to the registry.
      * @param newMeshId MeshId
      */
     public void addNewDevice(MeshId newMeshId) {
-        adapterRecipient.add(newMeshId);
         adapterRecipient.setDeviceId(newMeshId);
         adapterRecipient.notifyDataSetChanged();
     }
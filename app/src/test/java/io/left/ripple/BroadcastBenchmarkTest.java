@@ -0,0 +1,142 @@
+package io.left.ripple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.message.WireFormatPolicy;
+import io.left.ripple.sim.LinkModel;
+import io.left.ripple.sim.MeshSimulator;
+import io.left.ripple.sim.Topology;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Compares "send to all" done as one unicast per peer with a broadcast split by next hop, on
+ * simulated 200 device meshes. Every device runs a real {@link MainViewModel} and
+ * {@link RightMeshConnector} on a {@link MeshSimulator}. A broadcast over ideal links reaches
+ * each device with a single transmission.
+ */
+public class BroadcastBenchmarkTest {
+    private static final int GRID_WIDTH = 20;
+    private static final int GRID_HEIGHT = 10;
+    private static final int RANDOM_DEVICES = 200;
+    private static final double RANDOM_RADIUS = 0.12;
+    private static final long SEED = 42;
+
+    //Executes each task synchronously using Architecture Components.
+    @Rule
+    public InstantTaskExecutorRule rule = new InstantTaskExecutorRule();
+
+    @Test
+    public void broadcast_appliesColourOnceOnEveryDevice() throws RightMeshException {
+        Network network = new Network(Topology.grid(GRID_WIDTH, GRID_HEIGHT));
+
+        network.broadcastFrom(0, Colour.GREEN);
+
+        for (int i = 1; i < network.devices.length; i++) {
+            assertEquals("device " + i, 1, network.devices[i].applied);
+            assertEquals(Colour.GREEN, network.devices[i].viewModel.liveDataColor.getValue());
+        }
+    }
+
+    @Test
+    public void broadcast_gridVersusUnicast() throws RightMeshException {
+        Topology grid = Topology.grid(GRID_WIDTH, GRID_HEIGHT);
+        long unicastCorner = new Network(grid).unicastFrom(0, Colour.BLUE);
+        long broadcastCorner = new Network(grid).broadcastFrom(0, Colour.BLUE);
+        int centre = GRID_HEIGHT / 2 * GRID_WIDTH + GRID_WIDTH / 2;
+        long unicastCentre = new Network(grid).unicastFrom(centre, Colour.BLUE);
+        long broadcastCentre = new Network(grid).broadcastFrom(centre, Colour.BLUE);
+
+        int devices = GRID_WIDTH * GRID_HEIGHT;
+        assertEquals(devices - 1, broadcastCorner);
+        assertEquals(devices - 1, broadcastCentre);
+        assertTrue(broadcastCorner < unicastCorner);
+        assertTrue(broadcastCentre < unicastCentre);
+    }
+
+    @Test
+    public void broadcast_randomMeshVersusUnicast() throws RightMeshException {
+        Topology mesh = Topology.randomGeometric(RANDOM_DEVICES, RANDOM_RADIUS, new Random(SEED));
+        long unicast = new Network(mesh).unicastFrom(0, Colour.BLUE);
+        long broadcast = new Network(mesh).broadcastFrom(0, Colour.BLUE);
+
+        assertEquals(RANDOM_DEVICES - 1, broadcast);
+        assertTrue(broadcast < unicast);
+    }
+
+    @Test
+    public void broadcast_underAutoSendsUnicastTextToUnknownPeers() throws RightMeshException {
+        Topology grid = Topology.grid(GRID_WIDTH, GRID_HEIGHT);
+        long unicast = new Network(grid, WireFormatPolicy.Mode.AUTO).unicastFrom(0, Colour.BLUE);
+        Network network = new Network(grid, WireFormatPolicy.Mode.AUTO);
+
+        long broadcast = network.broadcastFrom(0, Colour.BLUE);
+
+        // No peer is known to read binary frames, so none is sent a broadcast frame.
+        assertEquals(unicast, broadcast);
+        for (int i = 1; i < network.devices.length; i++) {
+            assertEquals("device " + i, Colour.BLUE,
+                    network.devices[i].viewModel.liveDataColor.getValue());
+        }
+    }
+
+    /**
+     * A simulated mesh of ideal links, so only the number of transmissions matters.
+     */
+    private static class Network {
+        final MeshSimulator simulator;
+        final SimulatedDevice[] devices;
+
+        // Transmissions made before the colour was sent, by devices meeting each other.
+        final long setupTransmissions;
+
+        Network(Topology topology) throws RightMeshException {
+            this(topology, WireFormatPolicy.Mode.BINARY);
+        }
+
+        /**
+         * Build the mesh and let every device meet the devices it can reach, as RightMesh does
+         * once it has discovered the mesh.
+         */
+        Network(Topology topology, WireFormatPolicy.Mode mode) throws RightMeshException {
+            simulator = new MeshSimulator(topology, LinkModel.IDEAL, SEED);
+            devices = SimulatedDevice.populate(simulator, mode);
+            simulator.announcePeers();
+            simulator.run();
+            setupTransmissions = simulator.getTransmissions();
+        }
+
+        long broadcastFrom(int origin, Colour colour) {
+            devices[origin].viewModel.broadcastColorMsg(allIds(), colour);
+            simulator.run();
+            return simulator.getTransmissions() - setupTransmissions;
+        }
+
+        long unicastFrom(int origin, Colour colour) {
+            // What sendAllRecipients did before broadcasts: one send per device, itself included.
+            for (MeshId peer : allIds()) {
+                devices[origin].viewModel.sendColorMsg(peer, colour);
+            }
+            simulator.run();
+            return simulator.getTransmissions() - setupTransmissions;
+        }
+
+        private List<MeshId> allIds() {
+            List<MeshId> ids = new ArrayList<>(devices.length);
+            for (SimulatedDevice device : devices) {
+                ids.add(device.id);
+            }
+            return ids;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package io.left.ripple;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.load.LoadConfig;
+import io.left.ripple.load.LoadGenerator;
+import io.left.ripple.load.LoadReport;
+import io.left.ripple.sim.LinkModel;
+import io.left.ripple.sim.MeshSimulator;
+import io.left.ripple.sim.Topology;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Runs a load generator on the virtual clock of a simulated line of devices, sending from one
+ * end to both other devices.
+ */
+public class LoadSimulationTest {
+    private static final int DEVICES = 3;
+    private static final int RATE = 50;
+    private static final LinkModel LINK = new LinkModel(5_000, 0, 0);
+    private static final long NANOS_PER_MICRO = 1_000L;
+
+    //Executes each task synchronously using Architecture Components.
+    @Rule
+    public InstantTaskExecutorRule rule = new InstantTaskExecutorRule();
+
+    @Test
+    public void run_deliversEveryMessage() throws RightMeshException {
+        MeshSimulator simulator = new MeshSimulator(Topology.line(DEVICES), LINK, 1);
+        SimulatedDevice[] devices = SimulatedDevice.populate(simulator);
+        simulator.announcePeers();
+        simulator.run();
+        MainViewModel sender = devices[0].viewModel;
+
+        Properties properties = new Properties();
+        properties.setProperty(LoadConfig.RATE, String.valueOf(RATE));
+        properties.setProperty(LoadConfig.DURATION, "1");
+        LoadGenerator generator = new LoadGenerator(LoadConfig.fromProperties(properties),
+                Arrays.asList(devices[1].id, devices[2].id),
+                (target, colour) -> sender.sendColorMsg(target, colour, false),
+                new LoadGenerator.Timer() {
+                    @Override
+                    public long nanoTime() {
+                        return simulator.now() * NANOS_PER_MICRO;
+                    }
+
+                    @Override
+                    public void schedule(long delayNanos, Runnable task) {
+                        simulator.schedule(delayNanos / NANOS_PER_MICRO, task);
+                    }
+                });
+        generator.start();
+        simulator.run();
+
+        LoadReport report = generator.report();
+        assertEquals(RATE, report.getAttempted());
+        assertEquals(RATE, report.getSent());
+        assertEquals(0, report.getInFlight());
+        // The middle device shows the colours it relays as well as its own.
+        assertEquals(RATE, devices[1].applied);
+        assertEquals(RATE / 2, devices[2].applied);
+    }
+}
@@ -3,7 +3,10 @@ package io.left.ripple;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import static org.robolectric.Shadows.shadowOf;
+
 import android.app.Application;
+import android.content.ComponentName;
 import android.content.Intent;
 import android.graphics.drawable.ColorDrawable;
 import android.view.View;
@@ -19,7 +22,9 @@ import io.left.ripple.views.CustomViewRightMeshRecipient;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 @RunWith(RobolectricTestRunner.class)
@@ -38,10 +43,14 @@ public class MainActivityTest extends AndroidTest<MainActivity> {
     }
 
     /**
-     * Run activity and find view id.
+     * Run activity, bound to the relay service, and find view id.
      */
     @Before
     public void setUp() {
+        Application application = RuntimeEnvironment.application;
+        RippleService service = Robolectric.setupService(RippleService.class);
+        shadowOf(application).setComponentNameAndServiceForBindService(
+                new ComponentName(application, RippleService.class), service.onBind(null));
         super.setUp();
         runActivity();
 
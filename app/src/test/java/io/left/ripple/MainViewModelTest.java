@@ -1,20 +1,37 @@
 package io.left.ripple;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import android.app.Application;
 
 import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
 
 import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.mesh.MeshManager;
 import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.mesh.SendFuture;
+import io.left.ripple.message.MessageKind;
+import io.left.ripple.metrics.MetricsRegistry;
+import io.left.ripple.metrics.Tracer;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -22,10 +39,15 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 @RunWith(MockitoJUnitRunner.class)
 public class MainViewModelTest {
+    private static final int TRACE_CAPACITY = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     //Executes each task synchronously using Architecture Components.
     //Using for testing Android ViewModel
     @Rule
     public InstantTaskExecutorRule rule = new InstantTaskExecutorRule();
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
     @Mock
     private Application application;
@@ -42,6 +64,8 @@ public class MainViewModelTest {
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
+        lenient().when(rightMeshConnector.getMetrics()).thenReturn(new MetricsRegistry());
+        lenient().when(rightMeshConnector.getTracer()).thenReturn(new Tracer(TRACE_CAPACITY));
         MainViewModel underTest = new MainViewModel(application);
         underTest.setRightMeshConnector(rightMeshConnector);
         spyViewModel = Mockito.spy(underTest);
@@ -53,9 +77,10 @@ public class MainViewModelTest {
         spyViewModel.init();
 
         //verify
-        verify(rightMeshConnector).setOnConnectSuccessListener(any());
-        verify(rightMeshConnector).setOnPeerChangedListener(any());
-        verify(rightMeshConnector).setOnDataReceiveListener(any());
+        verify(rightMeshConnector).addOnConnectSuccessListener(any());
+        verify(rightMeshConnector).addOnPeerChangedListener(any());
+        verify(rightMeshConnector).addOnDataReceiveListener(eq(MessageKind.COLOUR), any());
+        verify(rightMeshConnector).addOnDataReceiveListener(eq(MessageKind.PROBE), any());
         verify(spyViewModel).init();
     }
 
@@ -79,7 +104,7 @@ public class MainViewModelTest {
         spyViewModel.sendColorMsg(targetId, msgColor);
 
         //verify
-        verify(rightMeshConnector, never()).sendDataReliable(targetId, payload);
+        verify(rightMeshConnector, never()).sendLatestAsync(targetId, payload);
         verify(spyViewModel).sendColorMsg(targetId, msgColor);
     }
 
@@ -88,15 +113,29 @@ public class MainViewModelTest {
         MeshId targetId = mockMeshId;
         Colour msgColor = Colour.RED;
         String payload = String.valueOf(targetId) + ":" + msgColor;
+        when(rightMeshConnector.sendLatestAsync(targetId, payload)).thenReturn(new SendFuture());
 
         //Trigger
         spyViewModel.sendColorMsg(targetId, msgColor);
 
         //verify
-        verify(rightMeshConnector).sendDataReliable(targetId, payload);
+        verify(rightMeshConnector).sendLatestAsync(targetId, payload);
         verify(spyViewModel).sendColorMsg(targetId, msgColor);
     }
 
+    @Test
+    public void sendColorMsg_failureNotifies() {
+        SendFuture future = new SendFuture();
+        when(rightMeshConnector.sendLatestAsync(eq(mockMeshId), anyString())).thenReturn(future);
+
+        //Trigger
+        spyViewModel.sendColorMsg(mockMeshId, Colour.BLUE);
+        future.completeExceptionally(new RightMeshException("no route"));
+
+        //verify
+        assertEquals("no route", spyViewModel.liveDataNotification.getValue());
+    }
+
     @Test
     public void onCleared_isCalled() throws RightMeshException {
         //Trigger
@@ -106,4 +145,75 @@ public class MainViewModelTest {
         verify(rightMeshConnector).stop();
         verify(spyViewModel).onCleared();
     }
+
+    @Test
+    public void peerChanged_appliedToRegistryInBatch() throws RightMeshException {
+        ArgumentCaptor<RightMeshConnector.OnPeerChangedListener> listener =
+                ArgumentCaptor.forClass(RightMeshConnector.OnPeerChangedListener.class);
+        spyViewModel.init();
+        verify(rightMeshConnector).addOnPeerChangedListener(listener.capture());
+        MeshId peer = MeshId.fromString("0x1111111111111111111111111111111111111111");
+
+        listener.getValue().onPeerChange(MeshEvents.peerChanged(peer, MeshManager.ADDED));
+
+        assertTrue(spyViewModel.getPeerRegistry().contains(peer));
+        assertEquals(Collections.singletonMap(peer, MeshManager.ADDED),
+                spyViewModel.liveDataPeersChanged.getValue());
+
+        listener.getValue().onPeerChange(MeshEvents.peerChanged(peer, MeshManager.REMOVED));
+
+        assertFalse(spyViewModel.getPeerRegistry().contains(peer));
+    }
+
+    @Test
+    public void uiDetached_registryStillUpdated() throws RightMeshException {
+        ArgumentCaptor<RightMeshConnector.OnPeerChangedListener> listener =
+                ArgumentCaptor.forClass(RightMeshConnector.OnPeerChangedListener.class);
+        // Not the spy: the view model's callbacks see its own fields.
+        MainViewModel viewModel = new MainViewModel(application);
+        viewModel.setRightMeshConnector(rightMeshConnector);
+        viewModel.init();
+        verify(rightMeshConnector).addOnPeerChangedListener(listener.capture());
+        MeshId peer = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        viewModel.setUiAttached(false);
+
+        listener.getValue().onPeerChange(MeshEvents.peerChanged(peer, MeshManager.ADDED));
+        viewModel.setColour(Colour.BLUE);
+
+        assertTrue(viewModel.getPeerRegistry().contains(peer));
+        assertEquals(Colour.RED, viewModel.liveDataColor.getValue());
+
+        viewModel.setUiAttached(true);
+
+        assertEquals(Colour.BLUE, viewModel.liveDataColor.getValue());
+    }
+
+    @Test
+    public void sendColorMsg_unreachableRetriedWhenPeerAdded() throws RightMeshException {
+        ArgumentCaptor<RightMeshConnector.OnPeerChangedListener> listener =
+                ArgumentCaptor.forClass(RightMeshConnector.OnPeerChangedListener.class);
+        MainViewModel viewModel = new MainViewModel(application);
+        viewModel.setRightMeshConnector(rightMeshConnector);
+        viewModel.openOutbox(folder.getRoot());
+        viewModel.init();
+        verify(rightMeshConnector).addOnPeerChangedListener(listener.capture());
+        MeshId peer = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        SendFuture failed = new SendFuture();
+        SendFuture retried = new SendFuture();
+        when(rightMeshConnector.sendLatestAsync(eq(peer), anyString())).thenReturn(failed);
+        when(rightMeshConnector.sendLatestAsync(eq(peer), any(byte[].class))).thenReturn(retried);
+
+        viewModel.sendColorMsg(peer, Colour.GREEN);
+        failed.completeExceptionally(new RightMeshException("no route"));
+        assertEquals(1, viewModel.getOutbox().size());
+
+        listener.getValue().onPeerChange(MeshEvents.peerChanged(peer, MeshManager.ADDED));
+        ArgumentCaptor<byte[]> payload = ArgumentCaptor.forClass(byte[].class);
+        verify(rightMeshConnector).sendLatestAsync(eq(peer), payload.capture());
+        assertEquals(peer + ":GREEN", new String(payload.getValue(), UTF_8));
+        retried.complete();
+
+        assertEquals(0, viewModel.getOutbox().size());
+        viewModel.close();
+    }
 }
@@ -0,0 +1,86 @@
+package io.left.ripple;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.mesh.MeshManager;
+
+import java.lang.reflect.Field;
+
+import org.objenesis.Objenesis;
+import org.objenesis.ObjenesisStd;
+
+/**
+ * Builds RightMesh events for tests without depending on the library's constructors.
+ */
+public final class MeshEvents {
+    private static final Objenesis OBJENESIS = new ObjenesisStd(true);
+    private static final Field DATA_FIELD = accessibleField(MeshManager.DataReceivedEvent.class,
+            "data");
+
+    private MeshEvents() {
+    }
+
+    /**
+     * Create a {@link MeshManager.DataReceivedEvent}.
+     *
+     * @param from neighbour the data was received from
+     * @param data payload
+     * @return the event
+     */
+    public static MeshManager.DataReceivedEvent dataReceived(MeshId from, byte[] data) {
+        MeshManager.DataReceivedEvent event =
+                OBJENESIS.newInstance(MeshManager.DataReceivedEvent.class);
+        setField(event, "peerUuid", from);
+        setField(event, "data", data);
+        return event;
+    }
+
+    /**
+     * Create a {@link MeshManager.PeerChangedEvent}.
+     *
+     * @param peer  peer whose state changed
+     * @param state new state, e.g. {@link MeshManager#ADDED}
+     * @return the event
+     */
+    public static MeshManager.PeerChangedEvent peerChanged(MeshId peer, int state) {
+        MeshManager.PeerChangedEvent event =
+                OBJENESIS.newInstance(MeshManager.PeerChangedEvent.class);
+        setField(event, "peerUuid", peer);
+        setField(event, "state", state);
+        return event;
+    }
+
+    /**
+     * Replace the payload of an existing event, so hot loops can reuse one event object.
+     *
+     * @param event event to update
+     * @param data  new payload
+     */
+    public static void setData(MeshManager.DataReceivedEvent event, byte[] data) {
+        try {
+            DATA_FIELD.set(event, data);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot set data", e);
+        }
+    }
+
+    private static void setField(Object target, String name, Object value) {
+        try {
+            accessibleField(target.getClass(), name).set(target, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot set " + name, e);
+        }
+    }
+
+    private static Field accessibleField(Class<?> type, String name) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            try {
+                Field field = current.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException e) {
+                // Keep looking in the superclass.
+            }
+        }
+        throw new IllegalStateException("No field " + name + " in " + type);
+    }
+}
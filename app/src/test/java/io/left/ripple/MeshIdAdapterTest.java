@@ -0,0 +1,114 @@
+package io.left.ripple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.app.Application;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import androidx.core.content.ContextCompat;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.mesh.MeshManager;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.mesh.PeerRegistry;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class,
+        sdk = 23)
+public class MeshIdAdapterTest {
+    private static final int REBINDS = 10_000;
+    // Bytes the measurement itself may allocate, far below one object per rebind.
+    private static final long ALLOCATION_SLACK = 1024;
+
+    private Application app;
+    private MeshId device;
+    private MeshId peer;
+    private PeerRegistry registry;
+    private MeshIdAdapter adapter;
+    private FrameLayout parent;
+
+    /**
+     * Run before each test method.
+     */
+    @Before
+    public void setUp() throws RightMeshException {
+        app = RuntimeEnvironment.application;
+        device = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        peer = MeshId.fromString("0x5c6d8e1f2a3b4c5d6e7f8091a2b3c4d5e6f70819");
+        registry = new PeerRegistry();
+        registry.update(device, MeshManager.ADDED);
+        registry.update(peer, MeshManager.ADDED);
+        adapter = new MeshIdAdapter(app, registry);
+        adapter.setDeviceId(device);
+        registry.addListener(adapter);
+        parent = new FrameLayout(app);
+    }
+
+    @Test
+    public void getView_labelsDeviceAndPeers() {
+        TextView deviceView = (TextView) adapter.getView(0, null, parent);
+        TextView peerView = (TextView) adapter.getDropDownView(1, null, parent);
+
+        assertEquals("This Device", deviceView.getText().toString());
+        assertEquals(ContextCompat.getColor(app, Colour.BLUE.getColourId()),
+                deviceView.getCurrentTextColor());
+        assertEquals("0x5c6d8e1f...", peerView.getText().toString());
+    }
+
+    @Test
+    public void getLabel_cachedUntilPeerRemoved() {
+        String label = adapter.getLabel(peer);
+        assertSame(label, adapter.getLabel(peer));
+
+        registry.remove(peer);
+        assertNotSame(label, adapter.getLabel(peer));
+    }
+
+    @Test
+    public void getView_rebindAllocatesNothingForSeenPeer() {
+        com.sun.management.ThreadMXBean threads = threadMxBean();
+        assumeTrue(threads != null && threads.isThreadAllocatedMemoryEnabled());
+
+        TextView view = (TextView) adapter.getView(1, null, parent);
+        // Warm up the label cache and let the JIT settle.
+        for (int i = 0; i < REBINDS; i++) {
+            adapter.getView(1, view, parent);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long overhead = measureOverhead(threads, threadId);
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < REBINDS; i++) {
+            adapter.getView(1, view, parent);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertTrue("allocated " + allocated + " bytes in " + REBINDS + " rebinds",
+                allocated <= ALLOCATION_SLACK);
+    }
+
+    private static long measureOverhead(com.sun.management.ThreadMXBean threads, long threadId) {
+        long before = threads.getThreadAllocatedBytes(threadId);
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private static com.sun.management.ThreadMXBean threadMxBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+}
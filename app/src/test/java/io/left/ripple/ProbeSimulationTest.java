@@ -0,0 +1,78 @@
+package io.left.ripple;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.message.WireFormatPolicy;
+import io.left.ripple.probe.ProbeReport;
+import io.left.ripple.sim.LinkModel;
+import io.left.ripple.sim.MeshSimulator;
+import io.left.ripple.sim.Topology;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Probes every device of a simulated line of devices from one end, so pings and echoes are
+ * relayed over one to three hops.
+ */
+public class ProbeSimulationTest {
+    private static final int DEVICES = 4;
+    private static final LinkModel LINK = new LinkModel(5_000, 0, 0);
+
+    //Executes each task synchronously using Architecture Components.
+    @Rule
+    public InstantTaskExecutorRule rule = new InstantTaskExecutorRule();
+
+    @Test
+    public void probeAll_echoesFromEveryPeer() throws RightMeshException {
+        MeshSimulator simulator = new MeshSimulator(Topology.line(DEVICES), LINK, 1);
+        SimulatedDevice[] devices = SimulatedDevice.populate(simulator);
+        simulator.announcePeers();
+        simulator.run();
+        MainViewModel prober = devices[0].viewModel;
+
+        prober.prepareProbing();
+        prober.probeAll();
+        prober.probeAll();
+        simulator.run();
+
+        ProbeReport report = prober.getProbeReport();
+        assertEquals(0, report.getPending());
+        assertEquals(DEVICES - 1, report.getPeers().size());
+        for (ProbeReport.Row row : report.getPeers()) {
+            assertEquals(2, row.getSent());
+            assertEquals(2, row.getReceived());
+        }
+        assertEquals(DEVICES - 1, report.getHops().size());
+        for (int hops = 1; hops < DEVICES; hops++) {
+            ProbeReport.Row row = report.getHops().get(hops - 1);
+            assertEquals(String.valueOf(hops), row.getKey());
+            assertEquals(2, row.getReceived());
+        }
+    }
+
+    @Test
+    public void probeAll_skipsPeersNotKnownToReadBinary() throws RightMeshException {
+        MeshSimulator simulator = new MeshSimulator(Topology.line(DEVICES), LINK, 1);
+        SimulatedDevice[] devices = SimulatedDevice.populate(simulator,
+                WireFormatPolicy.Mode.AUTO);
+        simulator.announcePeers();
+        simulator.run();
+        MainViewModel prober = devices[0].viewModel;
+        prober.getWireFormatPolicy().markBinaryCapable(devices[1].id);
+
+        prober.prepareProbing();
+        prober.probeAll();
+        simulator.run();
+
+        // Only the neighbour known to read binary frames is probed, the others may be older
+        // devices, which throw on probes.
+        ProbeReport report = prober.getProbeReport();
+        assertEquals(1, report.getPeers().size());
+        assertEquals(1, report.getPeers().get(0).getReceived());
+        assertEquals(2, simulator.getTransmissions());
+    }
+}
@@ -0,0 +1,221 @@
+package io.left.ripple;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import android.app.Application;
+import android.content.Context;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.mesh.MeshManager;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.mesh.SendFuture;
+import io.left.ripple.message.ColourFrame;
+import io.left.ripple.message.DropCounters;
+import io.left.ripple.message.FrameFormatException;
+import io.left.ripple.message.MeshIdBytes;
+import io.left.ripple.message.WireFormatPolicy;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Sends colour messages down a simulated chain of relays. Each hop hands the payload to the next
+ * device synchronously. The cost of one relay is measured by {@code RelayBenchmark} in the
+ * benchmark module.
+ */
+public class RelayChainTest {
+    private static final int MESH_PORT = 9001;
+    private static final int DEVICES = 8;
+
+    //Executes each task synchronously using Architecture Components.
+    @Rule
+    public InstantTaskExecutorRule rule = new InstantTaskExecutorRule();
+
+    private ChainConnector[] chain;
+
+    /**
+     * Build a line of {@link #DEVICES} devices, each forwarding to the next.
+     */
+    @Before
+    public void setUp() throws RightMeshException {
+        chain = new ChainConnector[DEVICES];
+        for (int i = DEVICES - 1; i >= 0; i--) {
+            MeshId id = MeshId.fromString(String.format("0x%040x", i + 1));
+            chain[i] = new ChainConnector(id, i + 1 < DEVICES ? chain[i + 1] : null);
+
+            MainViewModel viewModel = new MainViewModel(Mockito.mock(Application.class));
+            viewModel.setRightMeshConnector(chain[i]);
+            viewModel.init();
+            chain[i].viewModel = viewModel;
+            chain[i].connectSuccessListener.onConnectSuccess(id);
+        }
+    }
+
+    @Test
+    public void cutThrough_forwardsOriginalBytes() {
+        MeshId last = chain[DEVICES - 1].id;
+        chain[0].viewModel.sendColorMsg(last, Colour.GREEN);
+
+        byte[] sent = chain[0].lastSent;
+        for (int i = 1; i < DEVICES - 1; i++) {
+            assertSame(sent, chain[i].lastSent);
+        }
+        for (int i = 1; i < DEVICES; i++) {
+            assertEquals(Colour.GREEN, chain[i].viewModel.liveDataColor.getValue());
+        }
+        assertEquals(DEVICES - 1, countTransmissions());
+    }
+
+    @Test
+    public void duplicate_droppedBeforeForwarding() {
+        byte[] frame = frameFromFirstDevice(1, ColourFrame.DEFAULT_TTL);
+        chain[1].receive(frame.clone());
+        chain[1].receive(frame.clone());
+
+        assertEquals(1, chain[1].transmissions);
+        assertEquals(1, chain[1].viewModel.getDropCounters().get(DropCounters.Reason.DUPLICATE));
+    }
+
+    @Test
+    public void loop_droppedAtOrigin() {
+        MeshId last = chain[DEVICES - 1].id;
+        chain[0].viewModel.getWireFormatPolicy().setMode(WireFormatPolicy.Mode.BINARY);
+        chain[0].viewModel.sendColorMsg(last, Colour.BLUE);
+
+        // Routing sends the message back to where it came from.
+        chain[0].receive(chain[0].lastSent);
+
+        assertEquals(1, chain[0].transmissions);
+        assertEquals(1, chain[0].viewModel.getDropCounters().get(DropCounters.Reason.DUPLICATE));
+    }
+
+    @Test
+    public void textLoop_droppedByRelay() {
+        byte[] text = ColourFrame.encodeText(chain[DEVICES - 1].id, Colour.GREEN);
+        chain[1].receive(text);
+        int transmissions = countTransmissions();
+
+        // Routing sends the message back through a relay it already passed.
+        chain[3].receive(text.clone());
+
+        assertEquals(transmissions, countTransmissions());
+        assertEquals(1, chain[3].viewModel.getDropCounters().get(DropCounters.Reason.DUPLICATE));
+    }
+
+    @Test
+    public void relay_leavesReceivedBytesAlone() throws FrameFormatException {
+        byte[] frame = frameFromFirstDevice(1, ColourFrame.DEFAULT_TTL);
+        byte[] original = frame.clone();
+        chain[1].receive(frame);
+
+        assertArrayEquals(original, frame);
+        assertEquals(ColourFrame.DEFAULT_TTL - 1, ColourFrame.decode(chain[1].lastSent).getTtl());
+    }
+
+    @Test
+    public void ttl_limitsHops() {
+        chain[1].receive(frameFromFirstDevice(2, 2));
+
+        // Forwarded by devices 1 and 2, then out of hops at device 3.
+        assertEquals(2, countTransmissions());
+        assertEquals(1, chain[3].viewModel.getDropCounters().get(DropCounters.Reason.EXPIRED));
+        assertEquals(Colour.RED, chain[DEVICES - 1].viewModel.liveDataColor.getValue());
+    }
+
+    @Test
+    public void rateLimit_dropsRelaysOverOriginLimit() {
+        chain[1].viewModel.getOriginLimiter().setRate(0.001, 2);
+        for (int sequence = 1; sequence <= 3; sequence++) {
+            chain[1].receive(frameFromFirstDevice(sequence, 1));
+        }
+
+        assertEquals(2, chain[1].transmissions);
+        assertEquals(1,
+                chain[1].viewModel.getDropCounters().get(DropCounters.Reason.RATE_LIMITED));
+    }
+
+    /**
+     * A version 2 frame for the last device in the chain, as if sent by the first one.
+     */
+    private byte[] frameFromFirstDevice(int sequence, int ttl) {
+        return ColourFrame.encode(chain[DEVICES - 1].id, MeshIdBytes.toBytes(chain[0].id),
+                sequence, ttl, Colour.GREEN);
+    }
+
+    private int countTransmissions() {
+        int total = 0;
+        for (ChainConnector device : chain) {
+            total += device.transmissions;
+        }
+        return total;
+    }
+
+    /**
+     * Connector that delivers everything it sends to the next device in the chain.
+     */
+    private static class ChainConnector extends RightMeshConnector {
+        final MeshId id;
+        final ChainConnector next;
+        final MeshManager.DataReceivedEvent event;
+        MainViewModel viewModel;
+        OnConnectSuccessListener connectSuccessListener;
+        byte[] lastSent;
+        int transmissions;
+
+        ChainConnector(MeshId id, ChainConnector next) {
+            super(MESH_PORT);
+            this.id = id;
+            this.next = next;
+            this.event = MeshEvents.dataReceived(id, new byte[0]);
+        }
+
+        @Override
+        public void connect(Context context) {
+            // Nothing to connect to.
+        }
+
+        @Override
+        public void addOnConnectSuccessListener(OnConnectSuccessListener listener) {
+            super.addOnConnectSuccessListener(listener);
+            connectSuccessListener = listener;
+        }
+
+        @Override
+        boolean receiveAsync(MeshId sender, Runnable dispatch) {
+            dispatch.run();
+            return true;
+        }
+
+        @Override
+        public SendFuture sendLatestAsync(MeshId targetMeshId, byte[] payload) {
+            // Deliver synchronously, so the whole chain runs within one call.
+            sendDataReliable(targetMeshId, payload);
+            SendFuture future = new SendFuture();
+            future.complete();
+            return future;
+        }
+
+        @Override
+        public SendFuture relayLatestAsync(MeshId targetMeshId, byte[] payload) {
+            return sendLatestAsync(targetMeshId, payload);
+        }
+
+        @Override
+        public void sendDataReliable(MeshId targetMeshId, byte[] payload) {
+            lastSent = payload;
+            transmissions++;
+            next.receive(payload);
+        }
+
+        void receive(byte[] payload) {
+            MeshEvents.setData(event, payload);
+            handleDataReceived(event);
+        }
+    }
+}
@@ -1,20 +1,51 @@
 package io.left.ripple;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
 
 import io.left.rightmesh.android.AndroidMeshManager;
 import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.mesh.MeshManager;
 import io.left.rightmesh.mesh.MeshStateListener;
 import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.mesh.RateLimitedException;
+import io.left.ripple.mesh.RateLimiter;
+import io.left.ripple.mesh.SendFuture;
+import io.left.ripple.message.ColourFrame;
+import io.left.ripple.message.MessageKind;
+import io.left.ripple.message.ProbeFrame;
+import io.left.ripple.message.WireFormatPolicy;
+import io.left.ripple.metrics.MetricsSnapshot;
+import io.left.ripple.metrics.Tracer;
+import io.left.ripple.stream.Subscriber;
+import io.left.ripple.stream.Subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -45,9 +76,9 @@ public class RightMeshConnectorTest {
         MockitoAnnotations.initMocks(this);
         RightMeshConnector underTest = new RightMeshConnector(MESH_PORT);
         underTest.setAndroidMeshManager(androidMeshManager);
-        underTest.setOnConnectSuccessListener(onConnectSuccessListener);
-        underTest.setOnDataReceiveListener(onDataReceiveListener);
-        underTest.setOnPeerChangedListener(onPeerChangedListener);
+        underTest.addOnConnectSuccessListener(onConnectSuccessListener);
+        underTest.addOnDataReceiveListener(onDataReceiveListener);
+        underTest.addOnPeerChangedListener(onPeerChangedListener);
 
         spyRightMeshConnector = Mockito.spy(underTest);
     }
@@ -87,4 +118,413 @@ public class RightMeshConnectorTest {
         verify(spyRightMeshConnector).sendDataReliable(any(), eq(payload));
     }
 
+    @Test
+    public void sendDataReliable_cachesNextHop() throws RightMeshException {
+        byte[] payload = new byte[] {1, 2, 3};
+        when(androidMeshManager.getNextHopPeer(meshId)).thenReturn(meshId);
+
+        spyRightMeshConnector.sendDataReliable(meshId, payload);
+        spyRightMeshConnector.sendDataReliable(meshId, payload);
+
+        verify(androidMeshManager).getNextHopPeer(meshId);
+        verify(androidMeshManager, times(2)).sendDataReliable(meshId, MESH_PORT, payload);
+        assertEquals(1, spyRightMeshConnector.getRouteCache().getHits());
+        assertEquals(1, spyRightMeshConnector.getRouteCache().getMisses());
+    }
+
+    @Test
+    public void relayDataReliable_refusedOverNextHopLimit() throws RightMeshException {
+        byte[] payload = new byte[] {1, 2, 3};
+        when(androidMeshManager.getNextHopPeer(meshId)).thenReturn(meshId);
+        spyRightMeshConnector.getNextHopLimiter().setRate(0.001, 2);
+
+        spyRightMeshConnector.relayDataReliable(meshId, payload);
+        spyRightMeshConnector.relayDataReliable(meshId, payload);
+        try {
+            spyRightMeshConnector.relayDataReliable(meshId, payload);
+            fail("Expected the send to be refused");
+        } catch (RateLimitedException expected) {
+            // Counted below.
+        }
+        // Sends of this device have a bucket of their own.
+        spyRightMeshConnector.sendDataReliable(meshId, payload);
+
+        verify(androidMeshManager, times(3)).sendDataReliable(meshId, MESH_PORT, payload);
+        // A refused send says nothing about the route.
+        assertEquals(3, spyRightMeshConnector.getRouteCache().getHits());
+        assertEquals(1, spyRightMeshConnector.getMetrics().snapshot().getCounter(
+                RightMeshConnector.METRIC_RATE_LIMITED, RightMeshConnector.LABEL_LIMIT,
+                "next_hop"));
+    }
+
+    @Test
+    public void sendDataReliable_refusedOverOwnSendLimit() throws RightMeshException {
+        byte[] payload = new byte[] {1, 2, 3};
+        when(androidMeshManager.getNextHopPeer(meshId)).thenReturn(meshId);
+        spyRightMeshConnector.getOwnSendLimiter().setRate(0.001, 1);
+
+        spyRightMeshConnector.sendDataReliable(meshId, payload);
+        try {
+            spyRightMeshConnector.sendDataReliable(meshId, payload);
+            fail("Expected the send to be refused");
+        } catch (RateLimitedException expected) {
+            // Counted below.
+        }
+        // Relayed sends have a bucket of their own.
+        spyRightMeshConnector.relayDataReliable(meshId, payload);
+
+        verify(androidMeshManager, times(2)).sendDataReliable(meshId, MESH_PORT, payload);
+        assertEquals(1, spyRightMeshConnector.getMetrics().snapshot().getCounter(
+                RightMeshConnector.METRIC_RATE_LIMITED, RightMeshConnector.LABEL_LIMIT, "own"));
+    }
+
+    @Test
+    public void sendDataReliable_sendsColourAsTextToUnknownNextHop() throws RightMeshException {
+        MeshId target = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        MeshId hop = MeshId.fromString("0x2222222222222222222222222222222222222222");
+        when(androidMeshManager.getNextHopPeer(target)).thenReturn(hop);
+        WireFormatPolicy policy = new WireFormatPolicy(WireFormatPolicy.Mode.AUTO);
+        spyRightMeshConnector.setWireFormatPolicy(policy);
+
+        spyRightMeshConnector.sendDataReliable(target, ColourFrame.encode(target, Colour.RED));
+        try {
+            spyRightMeshConnector.sendDataReliable(target,
+                    ProbeFrame.encodeHello(target, new byte[] {1}, 1));
+            fail("Expected the probe to be refused");
+        } catch (RightMeshException expected) {
+            // An older device would throw on it.
+        }
+        policy.markBinaryCapable(hop);
+        byte[] frame = ColourFrame.encode(target, Colour.GREEN);
+        spyRightMeshConnector.sendDataReliable(target, frame);
+
+        verify(androidMeshManager).sendDataReliable(hop, MESH_PORT,
+                ColourFrame.encodeText(target, Colour.RED));
+        verify(androidMeshManager).sendDataReliable(hop, MESH_PORT, frame);
+        verify(androidMeshManager, times(2)).sendDataReliable(eq(hop), eq(MESH_PORT), any());
+        assertEquals(1, spyRightMeshConnector.getMetrics().snapshot().getCounter(
+                RightMeshConnector.METRIC_TEXT_ONLY_REFUSED));
+    }
+
+    @Test
+    public void sendFailures_shrinkRateOfTheirNextHopOnly() throws RightMeshException {
+        MeshId busy = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        MeshId idle = MeshId.fromString("0x2222222222222222222222222222222222222222");
+        when(androidMeshManager.getNextHopPeer(busy)).thenReturn(busy);
+        when(androidMeshManager.getNextHopPeer(idle)).thenReturn(idle);
+        doThrow(new RightMeshException("busy"))
+                .when(androidMeshManager).sendDataReliable(eq(busy), eq(MESH_PORT), any());
+
+        spyRightMeshConnector.sendDataReliable(idle, new byte[] {1});
+        try {
+            spyRightMeshConnector.sendDataReliable(busy, new byte[] {1});
+            fail("Expected the send to fail");
+        } catch (RightMeshException expected) {
+            // The failure is what shrinks the rate.
+        }
+
+        RateLimiter limiter = spyRightMeshConnector.getNextHopLimiter();
+        assertEquals(0.5, limiter.getScale(busy), 0);
+        assertEquals(1, limiter.getScale(idle), 0);
+    }
+
+    @Test
+    public void peerRemoved_invalidatesNextHop() throws RightMeshException {
+        byte[] payload = new byte[] {1, 2, 3};
+        when(androidMeshManager.getNextHopPeer(meshId)).thenReturn(meshId);
+
+        spyRightMeshConnector.sendDataReliable(meshId, payload);
+        spyRightMeshConnector.handlePeerChanged(
+                MeshEvents.peerChanged(meshId, MeshManager.REMOVED));
+        spyRightMeshConnector.sendDataReliable(meshId, payload);
+
+        verify(androidMeshManager, times(2)).getNextHopPeer(meshId);
+        verify(onPeerChangedListener).onPeerChange(any());
+    }
+
+    @Test
+    public void dataReceived_dispatchedByKind() {
+        RightMeshConnector.OnDataReceiveListener colours =
+                Mockito.mock(RightMeshConnector.OnDataReceiveListener.class);
+        RightMeshConnector.OnDataReceiveListener probes =
+                Mockito.mock(RightMeshConnector.OnDataReceiveListener.class);
+        spyRightMeshConnector.addOnDataReceiveListener(MessageKind.COLOUR, colours);
+        spyRightMeshConnector.addOnDataReceiveListener(MessageKind.PROBE, probes);
+        MeshManager.DataReceivedEvent colour = MeshEvents.dataReceived(meshId, new byte[] {1});
+        MeshManager.DataReceivedEvent probe =
+                MeshEvents.dataReceived(meshId, new byte[] {ProbeFrame.HEADER});
+
+        spyRightMeshConnector.handleDataReceived(colour);
+        spyRightMeshConnector.handleDataReceived(probe);
+        // Messages from one sender are handled in order, on its receive worker.
+        verify(probes, timeout(5_000)).onDataReceive(probe);
+        assertTrue(spyRightMeshConnector.removeOnDataReceiveListener(colours));
+        spyRightMeshConnector.handleDataReceived(colour);
+
+        verify(onDataReceiveListener, timeout(5_000).times(2)).onDataReceive(colour);
+        verify(onDataReceiveListener).onDataReceive(probe);
+        verify(colours).onDataReceive(colour);
+        verify(colours, never()).onDataReceive(probe);
+        verify(probes).onDataReceive(probe);
+        verify(probes, never()).onDataReceive(colour);
+        assertFalse(spyRightMeshConnector.removeOnDataReceiveListener(colours));
+    }
+
+    @Test
+    public void connectionStates_publishedInOrder() throws Exception {
+        RightMeshConnector connector = new RightMeshConnector(MESH_PORT);
+        connector.setAndroidMeshManager(androidMeshManager);
+        List<Object> events = new ArrayList<>();
+        connector.connectionStates().subscribe(
+                new Subscriber<RightMeshConnector.ConnectionState>() {
+                    @Override
+                    public void onSubscribe(Subscription subscription) {
+                        subscription.request(Long.MAX_VALUE);
+                    }
+
+                    @Override
+                    public void onNext(RightMeshConnector.ConnectionState state) {
+                        events.add(state);
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        events.add(error);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        events.add("complete");
+                    }
+                });
+
+        connector.meshStateChanged(meshId, MeshStateListener.SUCCESS);
+        connector.stop();
+
+        assertEquals(Arrays.asList(RightMeshConnector.ConnectionState.BOUND,
+                RightMeshConnector.ConnectionState.STOPPED, "complete"), events);
+    }
+
+    @Test
+    public void dataReceived_droppedWhenWorkersFull() throws Exception {
+        RightMeshConnector connector = new RightMeshConnector(MESH_PORT);
+        connector.setAndroidMeshManager(androidMeshManager);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        connector.addOnDataReceiveListener(event -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        MeshManager.DataReceivedEvent event = MeshEvents.dataReceived(meshId, new byte[] {1});
+
+        connector.handleDataReceived(event);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < RightMeshConnector.RECEIVE_CAPACITY; i++) {
+            connector.handleDataReceived(event);
+        }
+        MetricsSnapshot metrics = connector.getMetrics().snapshot();
+        release.countDown();
+
+        assertEquals(RightMeshConnector.RECEIVE_CAPACITY + 1,
+                metrics.getCounter(RightMeshConnector.METRIC_RECEIVES));
+        assertEquals(1, metrics.getCounter(RightMeshConnector.METRIC_RECEIVE_REJECTED));
+        assertEquals(RightMeshConnector.RECEIVE_CAPACITY,
+                metrics.getGauge(RightMeshConnector.METRIC_RECEIVE_IN_FLIGHT));
+        int stripe = connector.getReceiveWorkers().stripeOf(meshId);
+        // One message is being handled, the others wait behind it.
+        assertEquals(RightMeshConnector.RECEIVE_CAPACITY - 1,
+                metrics.getGauge(RightMeshConnector.METRIC_RECEIVE_QUEUE_DEPTH,
+                        RightMeshConnector.LABEL_STRIPE, String.valueOf(stripe)));
+        connector.stop();
+    }
+
+    @Test
+    public void sendAsync_sendsOnWorker() throws Exception {
+        byte[] payload = new byte[] {1, 2, 3};
+        when(androidMeshManager.getNextHopPeer(meshId)).thenReturn(meshId);
+
+        SendFuture future = spyRightMeshConnector.sendAsync(meshId, payload);
+        future.get(5, TimeUnit.SECONDS);
+
+        assertTrue(future.isSuccess());
+        verify(androidMeshManager).sendDataReliable(meshId, MESH_PORT, payload);
+    }
+
+    @Test
+    public void sendAsync_reportsFailureThroughFuture() throws Exception {
+        RightMeshException noRoute = new RightMeshException("no route");
+        when(androidMeshManager.getNextHopPeer(meshId)).thenThrow(noRoute);
+
+        SendFuture future = spyRightMeshConnector.sendAsync(meshId, "abc");
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected the send to fail");
+        } catch (ExecutionException e) {
+            assertSame(noRoute, e.getCause());
+        }
+    }
+
+    @Test
+    public void metrics_countSendsFailuresAndPeerChurn() throws RightMeshException {
+        MeshId peer = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        MeshId unreachable = MeshId.fromString("0x2222222222222222222222222222222222222222");
+        when(androidMeshManager.getNextHopPeer(peer)).thenReturn(peer);
+        when(androidMeshManager.getNextHopPeer(unreachable)).thenReturn(unreachable);
+        doThrow(new RightMeshException.RightMeshServiceDisconnectedException("gone"))
+                .when(androidMeshManager).sendDataReliable(eq(unreachable), eq(MESH_PORT), any());
+
+        spyRightMeshConnector.sendDataReliable(peer, new byte[] {1});
+        spyRightMeshConnector.sendDataReliable(peer, new byte[] {2});
+        try {
+            spyRightMeshConnector.sendDataReliable(unreachable, new byte[] {3});
+            fail("Expected the send to fail");
+        } catch (RightMeshException expected) {
+            // Counted below.
+        }
+        spyRightMeshConnector.handlePeerChanged(MeshEvents.peerChanged(peer, MeshManager.ADDED));
+        spyRightMeshConnector.handlePeerChanged(MeshEvents.peerChanged(peer, MeshManager.REMOVED));
+        spyRightMeshConnector.handleDataReceived(MeshEvents.dataReceived(peer, new byte[] {4}));
+
+        MetricsSnapshot metrics = spyRightMeshConnector.getMetrics().snapshot();
+        assertEquals(2, metrics.getCounter(RightMeshConnector.METRIC_SENDS));
+        assertEquals(1, metrics.getCounter(RightMeshConnector.METRIC_SEND_FAILURES,
+                RightMeshConnector.LABEL_EXCEPTION, "RightMeshServiceDisconnectedException"));
+        assertEquals(3, metrics.getHistogram(RightMeshConnector.METRIC_SEND_SECONDS).getCount());
+        // The second send to the peer used the cached route.
+        assertEquals(2,
+                metrics.getHistogram(RightMeshConnector.METRIC_NEXT_HOP_SECONDS).getCount());
+        assertEquals(1, metrics.getCounter(RightMeshConnector.METRIC_PEER_CHANGES,
+                RightMeshConnector.LABEL_STATE, "removed"));
+        assertEquals(1, metrics.getCounter(RightMeshConnector.METRIC_RECEIVES));
+    }
+
+    @Test
+    public void tracer_recordsLookupAndSendSpans() throws RightMeshException {
+        MeshId peer = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        when(androidMeshManager.getNextHopPeer(peer)).thenReturn(peer);
+        Tracer tracer = spyRightMeshConnector.getTracer();
+
+        spyRightMeshConnector.sendDataReliable(peer, new byte[] {1});
+        assertTrue(tracer.snapshot().isEmpty());
+        tracer.setEnabled(true);
+        spyRightMeshConnector.sendDataReliable(peer, new byte[] {2});
+        spyRightMeshConnector.getRouteCache().invalidate(peer);
+        spyRightMeshConnector.sendDataReliable(peer, new byte[] {3});
+
+        List<Tracer.Span> spans = tracer.snapshot();
+        assertEquals(3, spans.size());
+        assertEquals(Tracer.Event.SEND_DATA_RELIABLE, spans.get(0).getEvent());
+        assertEquals(Tracer.Event.GET_NEXT_HOP_PEER, spans.get(1).getEvent());
+        assertEquals(Tracer.Event.SEND_DATA_RELIABLE, spans.get(2).getEvent());
+        assertEquals(peer, spans.get(2).getPeer());
+    }
+
+    @Test
+    public void broadcast_sendsOneFramePerNextHop() throws RightMeshException {
+        MeshId near = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        MeshId far = MeshId.fromString("0x2222222222222222222222222222222222222222");
+        MeshId other = MeshId.fromString("0x3333333333333333333333333333333333333333");
+        MeshId self = MeshId.fromString("0x4444444444444444444444444444444444444444");
+        when(androidMeshManager.getNextHopPeer(near)).thenReturn(near);
+        when(androidMeshManager.getNextHopPeer(far)).thenReturn(near);
+        when(androidMeshManager.getNextHopPeer(other)).thenReturn(other);
+        spyRightMeshConnector.meshStateChanged(self, MeshStateListener.SUCCESS);
+
+        List<List<MeshId>> groups = new ArrayList<>();
+        spyRightMeshConnector.broadcast(Arrays.asList(near, self, far, other), destinations -> {
+            groups.add(destinations);
+            return new byte[] {(byte) groups.size()};
+        });
+
+        assertEquals(Arrays.asList(Arrays.asList(near, far), Collections.singletonList(other)),
+                groups);
+        verify(androidMeshManager).sendDataReliable(near, MESH_PORT, new byte[] {1});
+        verify(androidMeshManager).sendDataReliable(other, MESH_PORT, new byte[] {2});
+    }
+
+    @Test
+    public void meshStateChanged_failureResumesAndRebinds() throws RightMeshException {
+        spyRightMeshConnector.setReconnectBackoff(1, 10);
+        spyRightMeshConnector.meshStateChanged(meshId, MeshStateListener.SUCCESS);
+        assertEquals(RightMeshConnector.ConnectionState.BOUND,
+                spyRightMeshConnector.getConnectionState());
+
+        spyRightMeshConnector.meshStateChanged(meshId, MeshStateListener.FAILURE);
+        verify(androidMeshManager, timeout(5_000)).resume();
+        assertEquals(RightMeshConnector.ConnectionState.CONNECTING,
+                spyRightMeshConnector.getConnectionState());
+        // The port stays bound across a resume.
+        doThrow(new RightMeshException("already bound")).when(androidMeshManager).bind(MESH_PORT);
+        spyRightMeshConnector.meshStateChanged(meshId, MeshStateListener.RESUME);
+
+        assertEquals(RightMeshConnector.ConnectionState.BOUND,
+                spyRightMeshConnector.getConnectionState());
+        // The event handlers are registered again after the loss, and replace the old ones.
+        verify(androidMeshManager, times(2)).on(eq(MeshManager.DATA_RECEIVED), any());
+        ArgumentCaptor<MeshManager.RightMeshEventHandler> peerHandlers =
+                ArgumentCaptor.forClass(MeshManager.RightMeshEventHandler.class);
+        verify(androidMeshManager, times(2)).on(eq(MeshManager.PEER_CHANGED),
+                peerHandlers.capture());
+        MeshManager.PeerChangedEvent added = MeshEvents.peerChanged(meshId, MeshManager.ADDED);
+        peerHandlers.getAllValues().get(0).handle(added);
+        verify(onPeerChangedListener, never()).onPeerChange(added);
+        peerHandlers.getAllValues().get(1).handle(added);
+        verify(onPeerChangedListener).onPeerChange(added);
+        // Not again on a resume without a loss.
+        spyRightMeshConnector.meshStateChanged(meshId, MeshStateListener.RESUME);
+        verify(androidMeshManager, times(2)).on(eq(MeshManager.PEER_CHANGED), any());
+        verify(onConnectSuccessListener, times(3)).onConnectSuccess(meshId);
+        MetricsSnapshot metrics = spyRightMeshConnector.getMetrics().snapshot();
+        assertEquals(1, metrics.getCounter(RightMeshConnector.METRIC_DISCONNECTS));
+        assertEquals(1,
+                metrics.getHistogram(RightMeshConnector.METRIC_RECOVERY_SECONDS).getCount());
+        spyRightMeshConnector.stop();
+    }
+
+    @Test
+    public void reconnect_retriesFailedResume() throws RightMeshException {
+        spyRightMeshConnector.setReconnectBackoff(1, 10);
+        doThrow(new RightMeshException.RightMeshServiceDisconnectedException("gone"))
+                .doNothing().when(androidMeshManager).resume();
+        spyRightMeshConnector.meshStateChanged(meshId, MeshStateListener.SUCCESS);
+
+        spyRightMeshConnector.meshStateChanged(meshId, MeshStateListener.DISABLED);
+
+        verify(androidMeshManager, timeout(5_000).times(2)).resume();
+        spyRightMeshConnector.stop();
+    }
+
+    @Test
+    public void sendAsync_heldUntilReconnected() throws Exception {
+        // Not the spy: the send worker calls the connector it was created by.
+        RightMeshConnector connector = new RightMeshConnector(MESH_PORT);
+        connector.setAndroidMeshManager(androidMeshManager);
+        when(androidMeshManager.getNextHopPeer(meshId)).thenReturn(meshId);
+        connector.setReconnectBackoff(60_000, 60_000);
+        connector.meshStateChanged(meshId, MeshStateListener.SUCCESS);
+        doThrow(new RightMeshException.RightMeshServiceDisconnectedException("gone"))
+                .doReturn(0).when(androidMeshManager).sendDataReliable(meshId, MESH_PORT,
+                new byte[] {1});
+        try {
+            connector.sendDataReliable(meshId, new byte[] {1});
+            fail("Expected the send to fail");
+        } catch (RightMeshException.RightMeshServiceDisconnectedException expected) {
+            // The connection is lost.
+        }
+        assertEquals(RightMeshConnector.ConnectionState.BACKOFF,
+                connector.getConnectionState());
+
+        SendFuture future = connector.sendAsync(meshId, new byte[] {1});
+        Thread.sleep(50);
+        assertFalse(future.isDone());
+        connector.meshStateChanged(meshId, MeshStateListener.RESUME);
+
+        future.get(5, TimeUnit.SECONDS);
+        verify(androidMeshManager, times(2)).sendDataReliable(meshId, MESH_PORT, new byte[] {1});
+        connector.stop();
+    }
 }
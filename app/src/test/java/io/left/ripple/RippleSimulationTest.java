@@ -0,0 +1,114 @@
+package io.left.ripple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.sim.LinkModel;
+import io.left.ripple.sim.MeshSimulator;
+import io.left.ripple.sim.Topology;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Sends a colour from one device to all others on a 1,000 device {@link MeshSimulator} with
+ * realistic links, and checks how long the ripple takes to reach everyone and how many link
+ * transmissions it costs, for a broadcast and for one unicast per device.
+ */
+public class RippleSimulationTest {
+    private static final int DEVICES = 1_000;
+    private static final double RADIUS = 0.06;
+    private static final long SEED = 42;
+    // 5 ms per hop, 2% of frames lost, 250 kB/s.
+    private static final LinkModel LINK = new LinkModel(5_000, 0.02, 250_000);
+    private static final long MICROS_PER_MILLI = 1_000;
+    // Both ripples reach everyone in about 120 ms on the seeded topology.
+    private static final long MAX_RIPPLE_MICROS = 250 * MICROS_PER_MILLI;
+
+    //Executes each task synchronously using Architecture Components.
+    @Rule
+    public InstantTaskExecutorRule rule = new InstantTaskExecutorRule();
+
+    @Test
+    public void ripple_reachesThousandDevices() throws RightMeshException {
+        Topology topology = Topology.randomGeometric(DEVICES, RADIUS, new Random(SEED));
+
+        Result broadcast = ripple(topology, true);
+        Result unicast = ripple(topology, false);
+
+        assertEquals(DEVICES - 1, broadcast.reached);
+        assertEquals(DEVICES - 1, unicast.reached);
+        assertEquals(0, broadcast.lost);
+        assertTrue(broadcast.toString(), broadcast.lastMicros <= MAX_RIPPLE_MICROS);
+        assertTrue(unicast.toString(), unicast.lastMicros <= MAX_RIPPLE_MICROS);
+        // About one transmission per device, where unicasts send one per hop of every path.
+        assertTrue(broadcast.toString(), broadcast.transmissions < 2 * DEVICES);
+        assertTrue(unicast.toString(), broadcast.transmissions < unicast.transmissions);
+    }
+
+    private static Result ripple(Topology topology, boolean broadcast) throws RightMeshException {
+        MeshSimulator simulator = new MeshSimulator(topology, LINK, SEED);
+        SimulatedDevice[] devices = SimulatedDevice.populate(simulator);
+        List<MeshId> ids = new ArrayList<>(devices.length);
+        for (SimulatedDevice device : devices) {
+            ids.add(device.id);
+        }
+
+        MainViewModel origin = devices[0].viewModel;
+        if (broadcast) {
+            origin.broadcastColorMsg(ids, Colour.GREEN);
+        } else {
+            for (MeshId id : ids.subList(1, ids.size())) {
+                origin.sendColorMsg(id, Colour.GREEN);
+            }
+        }
+        simulator.run();
+
+        long[] times = new long[devices.length - 1];
+        int reached = 0;
+        for (int i = 1; i < devices.length; i++) {
+            if (devices[i].firstAppliedMicros >= 0) {
+                times[reached++] = devices[i].firstAppliedMicros;
+            }
+        }
+        Arrays.sort(times, 0, reached);
+        return new Result(reached, reached == 0 ? 0 : times[reached / 2],
+                reached == 0 ? 0 : times[reached - 1], simulator.getTransmissions(),
+                simulator.getLostCount());
+    }
+
+    /**
+     * Outcome of one ripple.
+     */
+    private static final class Result {
+        final int reached;
+        final long medianMicros;
+        final long lastMicros;
+        final long transmissions;
+        final long lost;
+
+        Result(int reached, long medianMicros, long lastMicros, long transmissions, long lost) {
+            this.reached = reached;
+            this.medianMicros = medianMicros;
+            this.lastMicros = lastMicros;
+            this.transmissions = transmissions;
+            this.lost = lost;
+        }
+
+        @Override
+        public String toString() {
+            return reached + " reached, median " + medianMicros / MICROS_PER_MILLI + " ms, last "
+                    + lastMicros / MICROS_PER_MILLI + " ms, " + transmissions
+                    + " transmissions, " + lost + " frames lost";
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package io.left.ripple;
+
+import static org.mockito.Mockito.mock;
+
+import android.app.Application;
+import android.content.Context;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.mesh.MeshStateListener;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.mesh.SendFuture;
+import io.left.ripple.mesh.SendScheduler;
+import io.left.ripple.message.WireFormatPolicy;
+import io.left.ripple.sim.MeshSimulator;
+
+import java.util.Collection;
+
+/**
+ * A device of a {@link MeshSimulator}: a real {@link RightMeshConnector} and
+ * {@link MainViewModel} on top of the simulated RightMesh library. Asynchronous sends and received
+ * messages run straight away rather than on the send and receive threads, so the simulation
+ * stays deterministic.
+ *
+ * Tests using it need an {@code InstantTaskExecutorRule}.
+ */
+class SimulatedDevice extends RightMeshConnector {
+    private static final int MESH_PORT = 9001;
+
+    final MeshId id;
+    final MainViewModel viewModel;
+    // Number of colours applied, and the virtual time the first one was.
+    int applied;
+    long firstAppliedMicros = -1;
+
+    /**
+     * Create a device and connect it to the simulated mesh.
+     *
+     * @param simulator network the device is part of
+     * @param index     index of the device in the network
+     * @param mode      wire format the device sends
+     */
+    SimulatedDevice(MeshSimulator simulator, int index, WireFormatPolicy.Mode mode) {
+        super(MESH_PORT);
+        id = simulator.getId(index);
+        setAndroidMeshManager(simulator.getMeshManager(index));
+
+        viewModel = new MainViewModel(mock(Application.class));
+        viewModel.setRightMeshConnector(this);
+        viewModel.init();
+        viewModel.getWireFormatPolicy().setMode(mode);
+        // Rate limits follow the wall clock rather than the simulator's virtual time, so they
+        // would drop messages a real mesh spreads over seconds.
+        getNextHopLimiter().setRate(0, 1);
+        getOwnSendLimiter().setRate(0, 1);
+        viewModel.getOriginLimiter().setRate(0, 1);
+        viewModel.liveDataColor.observeForever(colour -> {
+            if (applied++ == 0) {
+                firstAppliedMicros = simulator.now();
+            }
+        });
+
+        meshStateChanged(id, MeshStateListener.SUCCESS);
+    }
+
+    /**
+     * Create a device speaking the binary wire format for every index of the network.
+     *
+     * @param simulator network to populate
+     * @return the devices, by index
+     */
+    static SimulatedDevice[] populate(MeshSimulator simulator) {
+        return populate(simulator, WireFormatPolicy.Mode.BINARY);
+    }
+
+    /**
+     * Create a device for every index of the network.
+     *
+     * @param simulator network to populate
+     * @param mode      wire format every device sends
+     * @return the devices, by index
+     */
+    static SimulatedDevice[] populate(MeshSimulator simulator, WireFormatPolicy.Mode mode) {
+        SimulatedDevice[] devices = new SimulatedDevice[simulator.size()];
+        for (int i = 0; i < devices.length; i++) {
+            devices[i] = new SimulatedDevice(simulator, i, mode);
+        }
+        return devices;
+    }
+
+    @Override
+    public void connect(Context context) {
+        // The simulated library is set in the constructor.
+    }
+
+    @Override
+    boolean receiveAsync(MeshId sender, Runnable dispatch) {
+        dispatch.run();
+        return true;
+    }
+
+    @Override
+    public SendFuture sendAsync(MeshId targetMeshId, byte[] payload, SendScheduler.Lane lane) {
+        return sendNow(() -> sendDataReliable(targetMeshId, payload));
+    }
+
+    @Override
+    public SendFuture sendLatestAsync(MeshId targetMeshId, byte[] payload) {
+        return sendNow(() -> sendDataReliable(targetMeshId, payload));
+    }
+
+    @Override
+    public SendFuture relayAsync(MeshId targetMeshId, byte[] payload, SendScheduler.Lane lane) {
+        return sendNow(() -> relayDataReliable(targetMeshId, payload));
+    }
+
+    @Override
+    public SendFuture relayLatestAsync(MeshId targetMeshId, byte[] payload) {
+        return sendNow(() -> relayDataReliable(targetMeshId, payload));
+    }
+
+    @Override
+    public SendFuture relayBroadcastAsync(Collection<MeshId> destinations,
+                                          PayloadEncoder encoder, SendScheduler.Lane lane) {
+        // The next hop limit is off, so the blocking broadcast sends the same.
+        return sendNow(() -> broadcast(destinations, encoder));
+    }
+
+    @Override
+    public SendFuture broadcastAsync(Collection<MeshId> destinations, PayloadEncoder encoder,
+                                     SendScheduler.Lane lane) {
+        return sendNow(() -> broadcast(destinations, encoder));
+    }
+
+    private static SendFuture sendNow(SendScheduler.Job job) {
+        SendFuture future = new SendFuture();
+        try {
+            job.run();
+            future.complete();
+        } catch (RightMeshException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
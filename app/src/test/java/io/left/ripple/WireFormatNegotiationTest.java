@@ -0,0 +1,147 @@
+package io.left.ripple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import io.left.rightmesh.mesh.MeshManager;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.message.ColourFrame;
+import io.left.ripple.message.WireFormatPolicy;
+import io.left.ripple.sim.LinkModel;
+import io.left.ripple.sim.MeshSimulator;
+import io.left.ripple.sim.Topology;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Checks that devices left in the default {@link WireFormatPolicy.Mode#AUTO} never send binary
+ * frames to, or through, peers that may be older devices, and switch to binary once they learn
+ * otherwise, on a {@link MeshSimulator}.
+ */
+public class WireFormatNegotiationTest {
+    private static final long SEED = 42;
+
+    //Executes each task synchronously using Architecture Components.
+    @Rule
+    public InstantTaskExecutorRule rule = new InstantTaskExecutorRule();
+
+    @Test
+    public void auto_sendsNoBinaryToUnknownPeers() throws RightMeshException {
+        MeshSimulator simulator = new MeshSimulator(Topology.line(3), LinkModel.IDEAL, SEED);
+        SimulatedDevice[] devices = SimulatedDevice.populate(simulator,
+                WireFormatPolicy.Mode.AUTO);
+        int[] binary = countBinary(devices);
+
+        simulator.announcePeers();
+        simulator.run();
+        // Peers that may be older devices are not greeted.
+        assertEquals(0, simulator.getTransmissions());
+
+        devices[0].viewModel.sendColorMsg(devices[2].id, Colour.GREEN);
+        simulator.run();
+        devices[0].viewModel.sendColorMsg(devices[2].id, Colour.RED);
+        simulator.run();
+
+        assertEquals(2, devices[2].applied);
+        assertEquals(0, binary[1]);
+        assertEquals(0, binary[2]);
+    }
+
+    @Test
+    public void auto_sendsNoBinaryThroughUnknownHop() throws RightMeshException {
+        MeshSimulator simulator = new MeshSimulator(Topology.line(3), LinkModel.IDEAL, SEED);
+        SimulatedDevice[] devices = SimulatedDevice.populate(simulator,
+                WireFormatPolicy.Mode.AUTO);
+        int[] binary = countBinary(devices);
+        // The recipient reads binary frames, the relay in between is not known to, so it is sent
+        // the colour as text.
+        devices[0].viewModel.getWireFormatPolicy().markBinaryCapable(devices[2].id);
+
+        simulator.announcePeers();
+        simulator.run();
+        devices[0].viewModel.sendColorMsg(devices[2].id, Colour.GREEN);
+        simulator.run();
+        devices[0].viewModel.sendColorMsg(devices[2].id, Colour.RED);
+        simulator.run();
+
+        assertEquals(2, devices[2].applied);
+        assertEquals(0, binary[1]);
+    }
+
+    @Test
+    public void auto_learnsBinaryFromUpgradedNeighbour() throws RightMeshException {
+        MeshSimulator simulator = new MeshSimulator(Topology.line(2), LinkModel.IDEAL, SEED);
+        SimulatedDevice[] devices = SimulatedDevice.populate(simulator,
+                WireFormatPolicy.Mode.AUTO);
+        devices[0].viewModel.getWireFormatPolicy().setMode(WireFormatPolicy.Mode.BINARY);
+        int[] binary = countBinary(devices);
+
+        simulator.announcePeers();
+        simulator.run();
+        devices[0].viewModel.sendColorMsg(devices[1].id, Colour.GREEN);
+        simulator.run();
+        assertTrue(devices[1].viewModel.getWireFormatPolicy().useBinary(devices[0].id));
+
+        devices[1].viewModel.sendColorMsg(devices[0].id, Colour.RED);
+        simulator.run();
+        assertEquals(1, binary[0]);
+        assertEquals(1, devices[0].applied);
+    }
+
+    @Test
+    public void auto_relaysBinaryOnceNextHopIsKnown() throws RightMeshException {
+        MeshSimulator simulator = new MeshSimulator(Topology.line(3), LinkModel.IDEAL, SEED);
+        SimulatedDevice[] devices = SimulatedDevice.populate(simulator,
+                WireFormatPolicy.Mode.BINARY);
+        devices[1].viewModel.getWireFormatPolicy().setMode(WireFormatPolicy.Mode.AUTO);
+        int[] binary = countBinary(devices);
+
+        simulator.announcePeers();
+        simulator.run();
+        // The relay has not heard from the far end yet, so it passes the colour on as text.
+        devices[0].viewModel.sendColorMsg(devices[2].id, Colour.GREEN);
+        simulator.run();
+        assertEquals(0, binary[2]);
+
+        devices[2].viewModel.sendColorMsg(devices[0].id, Colour.RED);
+        simulator.run();
+        devices[0].viewModel.sendColorMsg(devices[2].id, Colour.BLUE);
+        simulator.run();
+        assertEquals(1, binary[2]);
+        assertEquals(2, devices[2].applied);
+    }
+
+    @Test
+    public void auto_greetsKnownPeerOnce() throws RightMeshException {
+        MeshSimulator simulator = new MeshSimulator(Topology.line(2), LinkModel.IDEAL, SEED);
+        SimulatedDevice[] devices = SimulatedDevice.populate(simulator,
+                WireFormatPolicy.Mode.AUTO);
+        devices[1].viewModel.getWireFormatPolicy().markBinaryCapable(devices[0].id);
+
+        simulator.announcePeers();
+        simulator.run();
+
+        // One hello from the device that knew its peer, and one answer.
+        assertEquals(2, simulator.getTransmissions());
+        assertTrue(devices[0].viewModel.getWireFormatPolicy().readsBinary(devices[1].id));
+    }
+
+    /**
+     * Count the binary frames each device receives.
+     */
+    private static int[] countBinary(SimulatedDevice[] devices) {
+        int[] counts = new int[devices.length];
+        for (int i = 0; i < devices.length; i++) {
+            int device = i;
+            devices[i].addOnDataReceiveListener(event -> {
+                if (ColourFrame.isBinary(((MeshManager.DataReceivedEvent) event).data)) {
+                    counts[device]++;
+                }
+            });
+        }
+        return counts;
+    }
+}
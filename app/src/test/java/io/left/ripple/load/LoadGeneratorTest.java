@@ -0,0 +1,224 @@
+package io.left.ripple.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.Colour;
+import io.left.ripple.mesh.SendFuture;
+import io.left.ripple.mesh.SendRejectedException;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoadGeneratorTest {
+    private static final long MS = 1_000_000L;
+
+    private MeshId first;
+    private MeshId second;
+    private ManualTimer timer;
+    private final List<MeshId> sentTo = new ArrayList<>();
+    private final List<Colour> sentColours = new ArrayList<>();
+
+    /**
+     * Run before each test method.
+     */
+    @Before
+    public void setUp() throws RightMeshException {
+        first = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        second = MeshId.fromString("0x2222222222222222222222222222222222222222");
+        timer = new ManualTimer();
+    }
+
+    @Test
+    public void run_fixedRateToEveryTarget() {
+        LoadConfig config = config("rate", "10", "duration_s", "2");
+        LoadReport[] finished = new LoadReport[1];
+        LoadGenerator generator = new LoadGenerator(config, Arrays.asList(first, second),
+                this::sendNow, timer);
+        generator.setListener(report -> finished[0] = report);
+
+        generator.start();
+        timer.run();
+
+        assertNotNull(finished[0]);
+        assertFalse(generator.isRunning());
+        assertEquals(20, finished[0].getAttempted());
+        assertEquals(20, finished[0].getSent());
+        assertEquals(10, finished[0].getThroughput(), 0.001);
+        assertEquals(2, finished[0].getWindows().size());
+        assertEquals(10, finished[0].getWindows().get(1).getAttempted());
+        // Targets alternate, and each one gets every colour in turn.
+        assertEquals(Arrays.asList(first, second, first, second), sentTo.subList(0, 4));
+        assertEquals(Arrays.asList(Colour.RED, Colour.RED, Colour.GREEN, Colour.GREEN),
+                sentColours.subList(0, 4));
+    }
+
+    @Test
+    public void run_rampsRate() {
+        LoadConfig config = config("rate", "10", "rate_end", "30", "duration_s", "2");
+        LoadGenerator generator = new LoadGenerator(config, Arrays.asList(first), this::sendNow,
+                timer);
+
+        generator.start();
+        timer.run();
+
+        List<LoadReport.Window> windows = generator.report().getWindows();
+        // About 15/s over the first second, 25/s over the second.
+        assertTrue(windows.get(0).getAttempted() >= 13 && windows.get(0).getAttempted() <= 16);
+        assertTrue(windows.get(1).getAttempted() >= 23 && windows.get(1).getAttempted() <= 27);
+    }
+
+    @Test
+    public void run_countsFailuresAndLatency() throws IOException {
+        LoadConfig config = config("rate", "10", "duration_s", "1");
+        List<SendFuture> pending = new ArrayList<>();
+        LoadGenerator generator = new LoadGenerator(config, Arrays.asList(first),
+                (target, colour) -> {
+                    SendFuture future = new SendFuture();
+                    pending.add(future);
+                    return future;
+                }, timer);
+
+        generator.start();
+        timer.run();
+        LoadReport inFlight = generator.report();
+        assertEquals(10, inFlight.getInFlight());
+        assertEquals(10, inFlight.getMaxInFlight());
+
+        timer.now += 3 * MS;
+        pending.get(0).completeExceptionally(new SendRejectedException("Queue full"));
+        pending.get(1).completeExceptionally(new RightMeshException("No route"));
+        for (SendFuture future : pending.subList(2, pending.size())) {
+            future.complete();
+        }
+
+        LoadReport report = generator.report();
+        assertEquals(8, report.getSent());
+        assertEquals(2, report.getFailed());
+        assertEquals(1, report.getRejected());
+        assertEquals(0, report.getInFlight());
+        assertEquals(1003 * MS, report.getMaxLatencyNanos());
+        assertEquals(10, report.getLatency().getCount());
+
+        StringWriter out = new StringWriter();
+        LoadReportWriter.write(report, out);
+        assertTrue(out.toString().contains("\"attempted\":10,\"sent\":8,\"failed\":2,"
+                + "\"rejected\":1,\"in_flight\":0,\"max_in_flight\":10,"));
+        assertTrue(out.toString().contains("\"max\":1003.000}"));
+    }
+
+    @Test
+    public void stop_endsRunEarly() {
+        LoadConfig config = config("rate", "10", "duration_s", "60");
+        LoadGenerator generator = new LoadGenerator(config, Arrays.asList(first), this::sendNow,
+                timer);
+
+        generator.start();
+        timer.runUntil(450 * MS);
+        generator.stop();
+        timer.run();
+
+        assertEquals(5, generator.report().getAttempted());
+        assertEquals(0.45, generator.report().getElapsedSeconds(), 0.001);
+    }
+
+    @Test
+    public void config_selectsTargets() throws RightMeshException {
+        List<MeshId> peers = Arrays.asList(first, second,
+                MeshId.fromString("0x3333333333333333333333333333333333333333"));
+
+        assertEquals(peers, config().selectTargets(peers));
+        assertEquals(Arrays.asList(first), config("targets", "one").selectTargets(peers));
+        assertEquals(Arrays.asList(first, second),
+                config("targets", "some", "target_count", "2").selectTargets(peers));
+        assertEquals(Arrays.asList(second), config("targets", second.toString())
+                .selectTargets(peers));
+        assertEquals(10, config().getRate(0), 0);
+        assertFalse(config().isCoalesce());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void config_rejectsInvalidRate() {
+        config("rate", "fast");
+    }
+
+    private SendFuture sendNow(MeshId target, Colour colour) {
+        sentTo.add(target);
+        sentColours.add(colour);
+        SendFuture future = new SendFuture();
+        future.complete();
+        return future;
+    }
+
+    private static LoadConfig config(String... keysAndValues) {
+        Properties properties = new Properties();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            properties.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return LoadConfig.fromProperties(properties);
+    }
+
+    /**
+     * Runs scheduled tasks in order of a virtual clock.
+     */
+    private static final class ManualTimer implements LoadGenerator.Timer {
+        private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+        private long sequence;
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void schedule(long delayNanos, Runnable task) {
+            tasks.add(new Task(now + delayNanos, sequence++, task));
+        }
+
+        void run() {
+            runUntil(Long.MAX_VALUE);
+        }
+
+        void runUntil(long timeNanos) {
+            while (!tasks.isEmpty() && tasks.peek().time <= timeNanos) {
+                Task task = tasks.poll();
+                now = task.time;
+                task.action.run();
+            }
+            if (timeNanos != Long.MAX_VALUE) {
+                now = Math.max(now, timeNanos);
+            }
+        }
+    }
+
+    private static final class Task implements Comparable<Task> {
+        final long time;
+        final long sequence;
+        final Runnable action;
+
+        Task(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
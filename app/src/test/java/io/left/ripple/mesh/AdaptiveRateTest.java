@@ -0,0 +1,39 @@
+package io.left.ripple.mesh;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveRateTest {
+    private static final double DELTA = 1e-9;
+    private static final long TARGET_MS = 100;
+
+    private final AdaptiveRate rate = new AdaptiveRate(TARGET_MS, 0.1);
+
+    @Test
+    public void failuresAndSlowSends_halveDownToFloor() {
+        rate.onFailure();
+        assertEquals(0.5, rate.getScale(), DELTA);
+        rate.onSuccess(TimeUnit.MILLISECONDS.toNanos(2 * TARGET_MS));
+        assertEquals(0.25, rate.getScale(), DELTA);
+
+        for (int i = 0; i < 10; i++) {
+            rate.onFailure();
+        }
+        assertEquals(0.1, rate.getScale(), DELTA);
+    }
+
+    @Test
+    public void fastSends_recoverGraduallyToFullRate() {
+        rate.onFailure();
+
+        rate.onSuccess(TimeUnit.MILLISECONDS.toNanos(TARGET_MS));
+        assertEquals(0.55, rate.getScale(), DELTA);
+        for (int i = 0; i < 20; i++) {
+            rate.onSuccess(0);
+        }
+        assertEquals(1, rate.getScale(), DELTA);
+    }
+}
@@ -0,0 +1,90 @@
+package io.left.ripple.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ListenerListTest {
+    private final List<String> calls = new ArrayList<>();
+    private final ListenerList<Listener> listeners = new ListenerList<>();
+
+    @Test
+    public void dispatch_callsListenersInOrder() {
+        listeners.add(new Listener("a"));
+        listeners.add(new Listener("b"));
+
+        listeners.dispatch(Listener::onEvent, 1);
+
+        assertEquals(2, listeners.size());
+        assertEquals("[a1, b1]", calls.toString());
+    }
+
+    @Test
+    public void remove_onlyOnce() {
+        Listener a = new Listener("a");
+        listeners.add(a);
+        listeners.add(new Listener("b"));
+        listeners.add(a);
+
+        assertTrue(listeners.remove(a));
+        listeners.dispatch(Listener::onEvent, 1);
+        assertTrue(listeners.remove(a));
+        assertFalse(listeners.remove(a));
+        listeners.dispatch(Listener::onEvent, 2);
+
+        assertEquals("[b1, a1, b2]", calls.toString());
+    }
+
+    @Test
+    public void dispatch_changesDuringDispatchTakeEffectNextTime() {
+        Listener late = new Listener("late");
+        listeners.add(new Listener("a") {
+            @Override
+            void onEvent(int event) {
+                super.onEvent(event);
+                listeners.remove(this);
+                listeners.add(late);
+            }
+        });
+
+        listeners.dispatch(Listener::onEvent, 1);
+        listeners.dispatch(Listener::onEvent, 2);
+
+        assertEquals("[a1, late2]", calls.toString());
+    }
+
+    @Test
+    public void isEmpty_afterLastRemoved() {
+        Listener a = new Listener("a");
+        assertTrue(listeners.isEmpty());
+        listeners.add(a);
+        assertFalse(listeners.isEmpty());
+        listeners.remove(a);
+        assertTrue(listeners.isEmpty());
+
+        listeners.dispatch(Listener::onEvent, 1);
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void add_rejectsNull() {
+        listeners.add(null);
+    }
+
+    private class Listener {
+        private final String name;
+
+        Listener(String name) {
+            this.name = name;
+        }
+
+        void onEvent(int event) {
+            calls.add(name + event);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package io.left.ripple.mesh;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutboxTest {
+    private static final long EXPIRY_MS = 60_000;
+    private static final long INITIAL_BACKOFF_MS = 1_000;
+    private static final long MAX_BACKOFF_MS = 8_000;
+    private static final byte[] FIRST = {1, 2, 3};
+    private static final byte[] SECOND = {4, 5};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private MeshId peerA;
+    private MeshId peerB;
+
+    /**
+     * Run before each test method.
+     */
+    @Before
+    public void setUp() throws RightMeshException {
+        file = new File(folder.getRoot(), "outbox.log");
+        peerA = MeshId.fromString("0xaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        peerB = MeshId.fromString("0xbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+    }
+
+    @Test
+    public void put_latestWinsAndSurvivesReopening() throws IOException {
+        Outbox outbox = open(0);
+        outbox.put(peerA, FIRST, 0);
+        outbox.put(peerB, FIRST, 10);
+        outbox.put(peerA, SECOND, 20);
+        outbox.close();
+
+        Outbox reopened = open(30);
+
+        assertEquals(2, reopened.size());
+        // Read back messages are due straight away.
+        List<Outbox.Entry> due = reopened.takeDue(30);
+        assertEquals(peerB, due.get(0).getDestination());
+        assertEquals(peerA, due.get(1).getDestination());
+        assertArrayEquals(SECOND, due.get(1).getPayload());
+        assertEquals(20, due.get(1).getEnqueuedMillis());
+    }
+
+    @Test
+    public void delivered_andRemovedAreNotReadBack() throws IOException {
+        Outbox outbox = open(0);
+        outbox.put(peerA, FIRST, 0);
+        outbox.put(peerB, FIRST, 0);
+        Outbox.Entry entry = outbox.takeFor(peerA);
+        outbox.delivered(entry);
+        outbox.remove(peerB);
+        outbox.close();
+
+        assertEquals(0, open(0).size());
+    }
+
+    @Test
+    public void delivered_keepsNewerMessage() throws IOException {
+        Outbox outbox = open(0);
+        outbox.put(peerA, FIRST, 0);
+        Outbox.Entry older = outbox.takeFor(peerA);
+        outbox.put(peerA, SECOND, 5);
+
+        outbox.delivered(older);
+
+        assertEquals(1, outbox.size());
+        assertArrayEquals(SECOND, outbox.getEntries().iterator().next().getPayload());
+    }
+
+    @Test
+    public void failed_backsOffExponentiallyWithJitter() throws IOException {
+        Outbox outbox = open(0);
+        outbox.put(peerA, FIRST, 0);
+        long now = 0;
+        long delay = INITIAL_BACKOFF_MS;
+        for (int attempt = 0; attempt < 6; attempt++) {
+            long next = outbox.nextRetryMillis();
+            assertTrue(next - now > delay / 2 - 1 && next - now <= delay);
+            assertTrue(outbox.takeDue(next - 1).isEmpty());
+
+            now = next;
+            Outbox.Entry entry = outbox.takeDue(now).get(0);
+            assertEquals(Long.MAX_VALUE, outbox.nextRetryMillis());
+            outbox.failed(entry, now);
+            delay = Math.min(delay * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    @Test
+    public void takeFor_skipsBackoffOnce() throws IOException {
+        Outbox outbox = open(0);
+        outbox.put(peerA, FIRST, 0);
+
+        Outbox.Entry entry = outbox.takeFor(peerA);
+
+        assertArrayEquals(FIRST, entry.getPayload());
+        // Already being retried.
+        assertNull(outbox.takeFor(peerA));
+        assertNull(outbox.takeFor(peerB));
+        outbox.failed(entry, 100);
+        assertSame(entry, outbox.takeFor(peerA));
+    }
+
+    @Test
+    public void expire_dropsOldMessages() throws IOException {
+        Outbox outbox = open(0);
+        outbox.put(peerA, FIRST, 0);
+        outbox.put(peerB, FIRST, 30_000);
+
+        assertTrue(outbox.takeDue(EXPIRY_MS).size() == 1);
+        assertEquals(1, outbox.expire(EXPIRY_MS));
+        assertEquals(1, outbox.size());
+        outbox.close();
+
+        assertEquals(0, open(30_000 + EXPIRY_MS).size());
+    }
+
+    @Test
+    public void open_dropsTornRecord() throws IOException {
+        Outbox outbox = open(0);
+        outbox.put(peerA, FIRST, 0);
+        outbox.put(peerB, SECOND, 0);
+        outbox.close();
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            raw.setLength(raw.length() - 1);
+        } finally {
+            raw.close();
+        }
+
+        Outbox reopened = open(0);
+
+        assertEquals(1, reopened.size());
+        assertEquals(peerA, reopened.getEntries().iterator().next().getDestination());
+    }
+
+    @Test
+    public void sync_writesQueuedChangesTogether() throws IOException {
+        Outbox outbox = open(0);
+        outbox.put(peerA, FIRST, 0);
+        outbox.put(peerB, SECOND, 0);
+        outbox.remove(peerA);
+
+        assertEquals(0, file.length());
+        outbox.sync();
+        long synced = file.length();
+        assertTrue(synced > 0);
+        outbox.sync();
+        assertEquals(synced, file.length());
+
+        Outbox reopened = open(0);
+        assertEquals(1, reopened.size());
+        assertEquals(peerB, reopened.getEntries().iterator().next().getDestination());
+    }
+
+    @Test
+    public void append_compactsStaleRecords() throws IOException {
+        Outbox outbox = open(0);
+        outbox.put(peerA, FIRST, 0);
+        outbox.sync();
+        long oneMessage = file.length();
+        for (int i = 0; i < 1000; i++) {
+            outbox.put(peerA, FIRST, i);
+            outbox.sync();
+        }
+
+        assertTrue(file.length() <= 64 * oneMessage);
+        outbox.close();
+        assertEquals(1, open(1000).size());
+    }
+
+    @Test
+    public void sync_afterFailedWriteRewritesLog() throws IOException {
+        Outbox outbox = open(0);
+        outbox.put(peerA, FIRST, 0);
+        outbox.sync();
+        // Only the first record of this batch reaches the log.
+        outbox.put(peerB, FIRST, 10);
+        outbox.delivered(outbox.takeFor(peerA));
+        outbox.failNextWrite();
+        try {
+            outbox.sync();
+            fail("Expected the write to fail");
+        } catch (IOException expected) {
+            // The next sync makes up for it.
+        }
+        outbox.sync();
+        outbox.close();
+
+        Outbox reopened = open(20);
+        assertEquals(1, reopened.size());
+        assertEquals(peerB, reopened.takeDue(20).get(0).getDestination());
+    }
+
+    @Test
+    public void sync_keepsOldLogWhenCompactionFails() throws IOException {
+        Outbox outbox = open(0);
+        File temp = new File(file.getPath() + ".tmp");
+        assertTrue(temp.mkdir());
+        for (int i = 0; i < 100; i++) {
+            outbox.put(peerA, FIRST, i);
+        }
+        try {
+            outbox.sync();
+            fail("Expected the compaction to fail");
+        } catch (IOException expected) {
+            // The old log is still open.
+        }
+        outbox.put(peerB, SECOND, 100);
+        assertTrue(temp.delete());
+        outbox.sync();
+        outbox.close();
+
+        Outbox reopened = open(100);
+        assertEquals(2, reopened.size());
+        assertArrayEquals(SECOND, reopened.takeFor(peerB).getPayload());
+    }
+
+    private Outbox open(long nowMillis) throws IOException {
+        return Outbox.open(file, EXPIRY_MS, INITIAL_BACKOFF_MS, MAX_BACKOFF_MS, new Random(1),
+                nowMillis);
+    }
+}
@@ -0,0 +1,134 @@
+package io.left.ripple.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.mesh.MeshManager;
+import io.left.rightmesh.util.RightMeshException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PeerEventBatcherTest {
+    private static final int THREADS = 4;
+    private static final int PEERS_PER_THREAD = 250;
+    private static final long TIMEOUT_S = 5;
+
+    private MeshId peerA;
+    private MeshId peerB;
+    private AtomicInteger wakeUps;
+    private PeerEventBatcher batcher;
+
+    /**
+     * Run before each test method.
+     */
+    @Before
+    public void setUp() throws RightMeshException {
+        peerA = MeshId.fromString("0xaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        peerB = MeshId.fromString("0xbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+        wakeUps = new AtomicInteger();
+        batcher = new PeerEventBatcher(wakeUps::incrementAndGet);
+    }
+
+    @Test
+    public void offer_collapsesToLatestStatePerPeer() {
+        batcher.offer(peerA, MeshManager.ADDED);
+        batcher.offer(peerB, MeshManager.ADDED);
+        batcher.offer(peerA, MeshManager.REMOVED);
+
+        Map<MeshId, Integer> batch = batcher.drain();
+
+        assertEquals(1, wakeUps.get());
+        assertEquals(Arrays.asList(peerA, peerB), new ArrayList<>(batch.keySet()));
+        assertEquals(MeshManager.REMOVED, (int) batch.get(peerA));
+        assertTrue(batcher.drain().isEmpty());
+    }
+
+    @Test
+    public void offer_wakesUpAgainAfterDrain() {
+        batcher.offer(peerA, MeshManager.ADDED);
+        batcher.drain();
+        batcher.offer(peerB, MeshManager.ADDED);
+
+        assertEquals(2, wakeUps.get());
+        assertEquals(Collections.singleton(peerB), batcher.drain().keySet());
+    }
+
+    @Test
+    public void updateAll_notifiesOncePerBatch() {
+        PeerRegistry registry = new PeerRegistry();
+        int[] notifications = new int[1];
+        registry.addListener(() -> notifications[0]++);
+        batcher.offer(peerA, MeshManager.ADDED);
+        batcher.offer(peerB, MeshManager.ADDED);
+
+        assertEquals(2, registry.updateAll(batcher.drain()));
+        assertEquals(1, notifications[0]);
+    }
+
+    /**
+     * Several threads report peers joining, and half of them leaving again, while a consumer
+     * drains batches whenever woken up, as the main thread would. No event may be lost.
+     */
+    @Test
+    public void storm_isLosslessAndBatched() throws Exception {
+        Semaphore wakeUp = new Semaphore(0);
+        PeerEventBatcher stormBatcher = new PeerEventBatcher(wakeUp::release);
+        PeerRegistry registry = new PeerRegistry();
+        int[] notifications = new int[1];
+        registry.addListener(() -> notifications[0]++);
+
+        CountDownLatch producersDone = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < PEERS_PER_THREAD; i++) {
+                        MeshId peer = id(thread * PEERS_PER_THREAD + i);
+                        stormBatcher.offer(peer, MeshManager.ADDED);
+                        stormBatcher.offer(peer, MeshManager.UPDATED);
+                        if (i % 2 == 0) {
+                            stormBatcher.offer(peer, MeshManager.REMOVED);
+                        }
+                    }
+                } catch (RightMeshException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    producersDone.countDown();
+                }
+            }).start();
+        }
+
+        while (producersDone.getCount() > 0 || wakeUp.availablePermits() > 0) {
+            if (wakeUp.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                registry.updateAll(stormBatcher.drain());
+            }
+        }
+        assertTrue(producersDone.await(TIMEOUT_S, TimeUnit.SECONDS));
+        registry.updateAll(stormBatcher.drain());
+
+        int events = THREADS * PEERS_PER_THREAD * 5 / 2;
+        assertEquals(events, stormBatcher.getOfferedCount());
+        assertEquals(THREADS * PEERS_PER_THREAD / 2, registry.size());
+        for (int i = 0; i < THREADS * PEERS_PER_THREAD; i++) {
+            assertEquals(i % PEERS_PER_THREAD % 2 == 1, registry.contains(id(i)));
+        }
+        assertTrue(notifications[0] <= stormBatcher.getBatchCount());
+        // Bursts are coalesced: each batch holds several events on average.
+        assertTrue(stormBatcher.getBatchCount() < events);
+    }
+
+    private static MeshId id(int index) throws RightMeshException {
+        return MeshId.fromString(String.format("0x%040x", index + 1));
+    }
+}
@@ -0,0 +1,100 @@
+package io.left.ripple.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.mesh.MeshManager;
+import io.left.rightmesh.util.RightMeshException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PeerRegistryTest {
+    private static final int PEERS = 1_000;
+
+    private MeshId peerA;
+    private MeshId peerB;
+    private MeshId peerC;
+    private PeerRegistry registry;
+
+    /**
+     * Run before each test method.
+     */
+    @Before
+    public void setUp() throws RightMeshException {
+        peerA = MeshId.fromString("0xaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        peerB = MeshId.fromString("0xbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+        peerC = MeshId.fromString("0xcccccccccccccccccccccccccccccccccccccccc");
+        registry = new PeerRegistry();
+    }
+
+    @Test
+    public void update_keepsInsertionOrderAcrossRemovals() {
+        registry.update(peerA, MeshManager.ADDED);
+        registry.update(peerB, MeshManager.ADDED);
+        registry.update(peerC, MeshManager.ADDED);
+
+        assertTrue(registry.update(peerB, MeshManager.REMOVED));
+        registry.update(peerB, MeshManager.ADDED);
+
+        assertEquals(Arrays.asList(peerA, peerC, peerB), registry.getIds());
+        assertSame(peerC, registry.get(1).getId());
+        assertEquals(2, registry.indexOf(peerB));
+        assertEquals(-1, registry.indexOf(null));
+    }
+
+    @Test
+    public void update_refreshesMetadataWithoutNotifying() {
+        int[] changes = new int[1];
+        registry.addListener(() -> changes[0]++);
+
+        assertTrue(registry.update(peerA, MeshManager.ADDED, 10));
+        assertFalse(registry.update(peerA, MeshManager.UPDATED, 20));
+        registry.recordHops(peerA, 3);
+        registry.recordHops(peerB, 2);
+
+        PeerRegistry.Peer peer = registry.get(peerA);
+        assertEquals(MeshManager.UPDATED, peer.getState());
+        assertEquals(3, peer.getHopCount());
+        assertTrue(peer.getLastSeenMillis() >= 20);
+        assertNull(registry.get(peerB));
+        assertEquals(1, changes[0]);
+    }
+
+    @Test
+    public void remove_unknownPeerIsIgnored() {
+        assertFalse(registry.remove(peerA));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void remove_manyPeersKeepsPositionsConsistent() throws RightMeshException {
+        List<MeshId> ids = new ArrayList<>();
+        for (int i = 0; i < PEERS; i++) {
+            MeshId id = MeshId.fromString(String.format("0x%040x", i + 1));
+            ids.add(id);
+            registry.update(id, MeshManager.ADDED);
+        }
+        // Remove every other peer before reading any position back.
+        for (int i = 0; i < PEERS; i += 2) {
+            registry.remove(ids.get(i));
+        }
+
+        assertEquals(PEERS / 2, registry.size());
+        for (int i = 0; i < PEERS / 2; i++) {
+            MeshId expected = ids.get(2 * i + 1);
+            assertSame(expected, registry.get(i).getId());
+            assertEquals(i, registry.indexOf(expected));
+            assertTrue(registry.contains(expected));
+            assertFalse(registry.contains(ids.get(2 * i)));
+        }
+    }
+}
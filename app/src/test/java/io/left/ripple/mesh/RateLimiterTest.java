@@ -0,0 +1,87 @@
+package io.left.ripple.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final RateLimiter limiter = new RateLimiter(2, 3, 2);
+
+    @Test
+    public void tryAcquire_allowsBurstThenRate() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire("a", 0));
+        }
+        assertFalse(limiter.tryAcquire("a", 0));
+        // Two tokens per second, so one is back after half a second.
+        assertTrue(limiter.tryAcquire("a", SECOND / 2));
+        assertFalse(limiter.tryAcquire("a", SECOND / 2));
+
+        assertEquals(4, limiter.getAllowedCount());
+        assertEquals(2, limiter.getLimitedCount());
+    }
+
+    @Test
+    public void tryAcquire_limitsEachKeySeparately() {
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire("a", 0);
+        }
+
+        assertFalse(limiter.tryAcquire("a", 0));
+        assertTrue(limiter.tryAcquire("b", 0));
+    }
+
+    @Test
+    public void tryAcquire_refillsNoMoreThanBurst() {
+        limiter.tryAcquire("a", 0);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire("a", 10 * SECOND));
+        }
+        assertFalse(limiter.tryAcquire("a", 10 * SECOND));
+    }
+
+    @Test
+    public void tryAcquire_scaledByAdaptiveRateOfKey() {
+        limiter.setAdaptive(100, 0.25);
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire("a", 0);
+            limiter.tryAcquire("b", 0);
+        }
+        limiter.onFailure("a");
+
+        // Half the rate, so a token takes a second rather than half a second.
+        assertEquals(0.5, limiter.getScale("a"), 0);
+        assertFalse(limiter.tryAcquire("a", SECOND / 2));
+        assertTrue(limiter.tryAcquire("a", SECOND));
+        // The other key keeps its rate.
+        assertEquals(1, limiter.getScale("b"), 0);
+        assertTrue(limiter.tryAcquire("b", SECOND / 2));
+    }
+
+    @Test
+    public void clearAdaptive_restoresRate() {
+        limiter.setAdaptive(100, 0.25);
+        limiter.onFailure("a");
+
+        limiter.clearAdaptive();
+
+        assertEquals(1, limiter.getScale("a"), 0);
+        assertFalse(limiter.isAdaptive());
+    }
+
+    @Test
+    public void setRate_zeroTurnsLimitOff() {
+        limiter.setRate(0, 1);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire("a", 0));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.left.ripple.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RouteCacheTest {
+    private static final long TTL_MS = 1_000;
+
+    private MeshId destinationA;
+    private MeshId destinationB;
+    private MeshId hop;
+    private RouteCache routeCache;
+
+    /**
+     * Run before each test method.
+     */
+    @Before
+    public void setUp() throws RightMeshException {
+        destinationA = MeshId.fromString("0xaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        destinationB = MeshId.fromString("0xbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+        hop = MeshId.fromString("0xcccccccccccccccccccccccccccccccccccccccc");
+        routeCache = new RouteCache(2, TTL_MS);
+    }
+
+    @Test
+    public void get_countsHitsAndMisses() {
+        assertNull(routeCache.get(destinationA, 0));
+        routeCache.put(destinationA, hop, 0);
+        assertSame(hop, routeCache.get(destinationA, 1));
+
+        assertEquals(1, routeCache.getHits());
+        assertEquals(1, routeCache.getMisses());
+    }
+
+    @Test
+    public void get_expiresAfterTtl() {
+        routeCache.put(destinationA, hop, 0);
+
+        assertNull(routeCache.get(destinationA, TimeUnit.MILLISECONDS.toNanos(TTL_MS)));
+        assertEquals(0, routeCache.size());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() throws RightMeshException {
+        MeshId destinationC = MeshId.fromString("0xdddddddddddddddddddddddddddddddddddddddd");
+        routeCache.put(destinationA, hop, 0);
+        routeCache.put(destinationB, hop, 0);
+        routeCache.get(destinationA, 0);
+        routeCache.put(destinationC, hop, 0);
+
+        assertSame(hop, routeCache.get(destinationA, 0));
+        assertNull(routeCache.get(destinationB, 0));
+    }
+
+    @Test
+    public void invalidate_dropsRoutesToAndThroughPeer() {
+        RouteCache cache = new RouteCache(4, TTL_MS);
+        cache.put(destinationA, hop, 0);
+        cache.put(hop, hop, 0);
+        cache.put(destinationB, destinationB, 0);
+
+        cache.invalidate(hop);
+
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getInvalidations());
+        assertSame(destinationB, cache.get(destinationB, 0));
+    }
+}
@@ -0,0 +1,379 @@
+package io.left.ripple.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SendSchedulerTest {
+    private static final long TIMEOUT_S = 5;
+
+    private MeshId target;
+    private CountDownLatch sendStarted;
+    private CountDownLatch releaseSends;
+    private List<Byte> sentPayloads;
+    private SendScheduler scheduler;
+
+    /**
+     * Run before each test method. The sender blocks until {@link #releaseSends} is released, so
+     * the queue can be filled deterministically.
+     */
+    @Before
+    public void setUp() throws RightMeshException {
+        target = MeshId.fromString("0xaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        sendStarted = new CountDownLatch(1);
+        releaseSends = new CountDownLatch(1);
+        sentPayloads = Collections.synchronizedList(new ArrayList<>());
+        scheduler = new SendScheduler((recipient, payload) -> {
+            sendStarted.countDown();
+            try {
+                releaseSends.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (payload.length == 0) {
+                throw new RightMeshException("empty payload");
+            }
+            sentPayloads.add(payload[0]);
+        }, 1, SendScheduler.OverflowPolicy.REJECT);
+    }
+
+    @After
+    public void tearDown() {
+        releaseSends.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void submit_completesFuture() throws Exception {
+        releaseSends.countDown();
+
+        SendFuture future = scheduler.submit(target, new byte[] {1});
+        future.get(TIMEOUT_S, TimeUnit.SECONDS);
+
+        assertTrue(future.isSuccess());
+        assertEquals(1, scheduler.getSentCount());
+    }
+
+    @Test
+    public void submit_reportsSenderFailure() throws Exception {
+        releaseSends.countDown();
+
+        SendFuture future = scheduler.submit(target, new byte[0]);
+        awaitDone(future);
+
+        assertTrue(future.getError() instanceof RightMeshException);
+        assertEquals(1, scheduler.getFailedCount());
+    }
+
+    @Test
+    public void reject_failsNewSendWhenFull() throws Exception {
+        SendFuture inFlight = occupyWorker();
+        SendFuture queued = scheduler.submit(target, new byte[] {2});
+        SendFuture overflow = scheduler.submit(target, new byte[] {3});
+
+        assertTrue(overflow.getError() instanceof SendRejectedException);
+        assertFalse(queued.isDone());
+
+        releaseSends.countDown();
+        queued.get(TIMEOUT_S, TimeUnit.SECONDS);
+        assertTrue(inFlight.isSuccess());
+        assertEquals(1, scheduler.getRejectedCount());
+    }
+
+    @Test
+    public void dropOldest_failsQueuedSendWhenFull() throws Exception {
+        scheduler.setOverflowPolicy(SendScheduler.OverflowPolicy.DROP_OLDEST);
+        occupyWorker();
+        SendFuture oldest = scheduler.submit(target, new byte[] {2});
+        SendFuture newest = scheduler.submit(target, new byte[] {3});
+
+        assertTrue(oldest.getError() instanceof SendRejectedException);
+
+        releaseSends.countDown();
+        newest.get(TIMEOUT_S, TimeUnit.SECONDS);
+        assertEquals(1, scheduler.getDroppedCount());
+    }
+
+    @Test
+    public void shutdown_failsQueuedSends() throws Exception {
+        occupyWorker();
+        SendFuture queued = scheduler.submit(target, new byte[] {2});
+
+        scheduler.shutdown();
+
+        assertTrue(queued.getError() instanceof SendRejectedException);
+        assertTrue(scheduler.submit(target, new byte[] {3}).getError()
+                instanceof SendRejectedException);
+    }
+
+    @Test
+    public void submitLatest_replacesQueuedPayload() throws Exception {
+        occupyWorker();
+        SendFuture superseded = scheduler.submitLatest(target, new byte[] {2});
+        SendFuture latest = scheduler.submitLatest(target, new byte[] {3});
+
+        releaseSends.countDown();
+        latest.get(TIMEOUT_S, TimeUnit.SECONDS);
+        superseded.get(TIMEOUT_S, TimeUnit.SECONDS);
+
+        assertTrue(superseded.isSuccess());
+        assertEquals(Arrays.asList((byte) 1, (byte) 3), sentPayloads);
+        assertEquals(1, scheduler.getSuppressedCount());
+    }
+
+    @Test
+    public void submitLatest_collapsesBurstWithinWindow() throws Exception {
+        releaseSends.countDown();
+        scheduler.setCoalesceWindowMillis(TimeUnit.SECONDS.toMillis(TIMEOUT_S));
+        scheduler.submitLatest(target, new byte[] {1}).get(TIMEOUT_S, TimeUnit.SECONDS);
+
+        // Held back until the window since the first send has passed.
+        scheduler.submitLatest(target, new byte[] {2});
+        scheduler.submitLatest(target, new byte[] {3});
+        SendFuture latest = scheduler.submitLatest(target, new byte[] {4});
+
+        assertFalse(latest.isDone());
+        assertEquals(2, scheduler.getSuppressedCount());
+        assertEquals(1, scheduler.getQueuedCount());
+    }
+
+    @Test
+    public void submitLatest_keepsLaneOrderWhileWaitingForWindow() throws Exception {
+        releaseSends.countDown();
+        scheduler.setLaneCapacity(SendScheduler.Lane.INTERACTIVE, 8);
+        scheduler.setCoalesceWindowMillis(200);
+        scheduler.submitLatest(target, new byte[] {1}).get(TIMEOUT_S, TimeUnit.SECONDS);
+
+        // Waits for the window, and so does the send queued behind it.
+        SendFuture waiting = scheduler.submitLatest(target, new byte[] {2});
+        SendFuture behind = scheduler.submit(target, new byte[] {3});
+        behind.get(TIMEOUT_S, TimeUnit.SECONDS);
+
+        assertTrue(waiting.isSuccess());
+        assertEquals(Arrays.asList((byte) 1, (byte) 2, (byte) 3), sentPayloads);
+    }
+
+    @Test
+    public void dropOldest_neverDropsStartedJob() throws Exception {
+        releaseSends.countDown();
+        scheduler.setOverflowPolicy(SendScheduler.OverflowPolicy.DROP_OLDEST);
+        scheduler.setLaneCapacity(SendScheduler.Lane.BULK, 2);
+        int[] steps = {0};
+        SendFuture job = scheduler.submit(SendScheduler.Lane.BULK, () -> {
+            // Keep the job queued between its two steps.
+            scheduler.setHeld(++steps[0] == 1);
+            return steps[0] == 1;
+        });
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_S);
+        // Held by the first step, and put back in the lane after it.
+        while (!scheduler.isHeld() || scheduler.getQueuedCount(SendScheduler.Lane.BULK) == 0) {
+            assertTrue(System.nanoTime() - deadline < 0);
+            Thread.sleep(1);
+        }
+
+        SendFuture dropped = scheduler.submit(SendScheduler.Lane.BULK, target, new byte[] {2});
+        SendFuture kept = scheduler.submit(SendScheduler.Lane.BULK, target, new byte[] {3});
+        assertTrue(dropped.getError() instanceof SendRejectedException);
+        assertFalse(job.isDone());
+
+        scheduler.setHeld(false);
+        job.get(TIMEOUT_S, TimeUnit.SECONDS);
+        kept.get(TIMEOUT_S, TimeUnit.SECONDS);
+        assertTrue(job.isSuccess());
+        assertEquals(2, steps[0]);
+        assertEquals(Collections.singletonList((byte) 3), sentPayloads);
+    }
+
+    @Test
+    public void lanes_takeSendsInProportionToWeights() throws Exception {
+        scheduler.setLaneCapacity(SendScheduler.Lane.CONTROL, 8);
+        scheduler.setLaneCapacity(SendScheduler.Lane.BULK, 8);
+        scheduler.setLaneWeight(SendScheduler.Lane.CONTROL, 2);
+        occupyWorker();
+        for (int i = 0; i < 3; i++) {
+            scheduler.submit(SendScheduler.Lane.BULK, target, new byte[] {(byte) (10 + i)});
+        }
+        SendFuture last = null;
+        for (int i = 0; i < 6; i++) {
+            last = scheduler.submit(SendScheduler.Lane.CONTROL, target,
+                    new byte[] {(byte) (20 + i)});
+        }
+
+        releaseSends.countDown();
+        last.get(TIMEOUT_S, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList((byte) 1, (byte) 20, (byte) 10, (byte) 21, (byte) 22,
+                (byte) 11, (byte) 23, (byte) 24, (byte) 12, (byte) 25), sentPayloads);
+    }
+
+    @Test
+    public void lanes_controlOvertakesQueuedBulk() throws Exception {
+        scheduler.setLaneCapacity(SendScheduler.Lane.BULK, 4);
+        occupyWorker();
+        for (int i = 0; i < 4; i++) {
+            scheduler.submit(SendScheduler.Lane.BULK, target, new byte[] {(byte) (10 + i)});
+        }
+        SendFuture control = scheduler.submit(SendScheduler.Lane.CONTROL, target,
+                new byte[] {20});
+
+        releaseSends.countDown();
+        control.get(TIMEOUT_S, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList((byte) 1, (byte) 20), sentPayloads.subList(0, 2));
+    }
+
+    @Test
+    public void steppedJob_controlRunsBetweenStepsOfRunningBulkJob() throws Exception {
+        CountDownLatch firstStep = new CountDownLatch(1);
+        CountDownLatch releaseStep = new CountDownLatch(1);
+        int[] stepsLeft = {100};
+        SendFuture bulk = scheduler.submit(SendScheduler.Lane.BULK, () -> {
+            firstStep.countDown();
+            try {
+                releaseStep.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sentPayloads.add((byte) 10);
+            return --stepsLeft[0] > 0;
+        });
+        // The bulk job is on its first step when the control send is submitted.
+        assertTrue(firstStep.await(TIMEOUT_S, TimeUnit.SECONDS));
+        releaseSends.countDown();
+        SendFuture control = scheduler.submit(SendScheduler.Lane.CONTROL, target,
+                new byte[] {20});
+
+        releaseStep.countDown();
+        control.get(TIMEOUT_S, TimeUnit.SECONDS);
+        bulk.get(TIMEOUT_S, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList((byte) 10, (byte) 20), sentPayloads.subList(0, 2));
+        assertEquals(101, sentPayloads.size());
+        assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    @Test
+    public void steppedJob_failsOnFirstFailedStep() throws Exception {
+        int[] steps = {0};
+        SendFuture job = scheduler.submit(SendScheduler.Lane.BULK, () -> {
+            if (++steps[0] == 3) {
+                throw new RightMeshException("step failed");
+            }
+            return true;
+        });
+
+        awaitDone(job);
+
+        assertTrue(job.getError() instanceof RightMeshException);
+        assertEquals(3, steps[0]);
+    }
+
+    @Test
+    public void lanes_haveSeparateLimits() throws Exception {
+        occupyWorker();
+        SendFuture bulk = scheduler.submit(SendScheduler.Lane.BULK, target, new byte[] {2});
+        SendFuture overflow = scheduler.submit(SendScheduler.Lane.BULK, target, new byte[] {3});
+        SendFuture control = scheduler.submit(SendScheduler.Lane.CONTROL, target, new byte[] {4});
+
+        assertTrue(overflow.getError() instanceof SendRejectedException);
+        assertFalse(control.isDone());
+        assertEquals(1, scheduler.getQueuedCount(SendScheduler.Lane.BULK));
+        assertEquals(1, scheduler.getQueuedCount(SendScheduler.Lane.CONTROL));
+        assertEquals(2, scheduler.getQueuedCount());
+
+        releaseSends.countDown();
+        bulk.get(TIMEOUT_S, TimeUnit.SECONDS);
+        control.get(TIMEOUT_S, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void lanes_recordLatencyPerLane() throws Exception {
+        LatencyHistogram control = new LatencyHistogram();
+        LatencyHistogram interactive = new LatencyHistogram();
+        scheduler.setLatencyHistogram(SendScheduler.Lane.CONTROL, control);
+        scheduler.setLatencyHistogram(SendScheduler.Lane.INTERACTIVE, interactive);
+        releaseSends.countDown();
+
+        scheduler.submit(SendScheduler.Lane.CONTROL, target, new byte[] {1})
+                .get(TIMEOUT_S, TimeUnit.SECONDS);
+        awaitDone(scheduler.submit(SendScheduler.Lane.CONTROL, target, new byte[0]));
+
+        assertEquals(2, control.snapshot().getCount());
+        assertEquals(0, interactive.snapshot().getCount());
+    }
+
+    @Test
+    public void setHeld_holdsSendsUntilReleased() throws Exception {
+        releaseSends.countDown();
+        scheduler.setHeld(true);
+
+        SendFuture control = scheduler.submit(SendScheduler.Lane.CONTROL, target, new byte[] {1});
+        SendFuture interactive = scheduler.submit(target, new byte[] {2});
+        Thread.sleep(50);
+        assertFalse(control.isDone());
+        assertFalse(interactive.isDone());
+        assertEquals(2, scheduler.getQueuedCount());
+
+        scheduler.setHeld(false);
+        control.get(TIMEOUT_S, TimeUnit.SECONDS);
+        interactive.get(TIMEOUT_S, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList((byte) 1, (byte) 2), sentPayloads);
+    }
+
+    @Test
+    public void setHeld_failsSendsHeldPastTimeout() throws Exception {
+        releaseSends.countDown();
+        scheduler.setHoldTimeoutMillis(20);
+        scheduler.setHeld(true);
+
+        SendFuture held = scheduler.submit(target, new byte[] {1});
+        awaitDone(held);
+
+        assertTrue(held.getError() instanceof SendRejectedException);
+        assertTrue(sentPayloads.isEmpty());
+        assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    @Test
+    public void addListener_runsOnCompletion() {
+        SendFuture future = new SendFuture();
+        boolean[] notified = new boolean[2];
+        future.addListener(f -> notified[0] = true);
+
+        future.complete();
+        future.addListener(f -> notified[1] = true);
+
+        assertTrue(notified[0]);
+        assertTrue(notified[1]);
+    }
+
+    /**
+     * Submit a send and wait until the worker is blocked in the sender with it.
+     */
+    private SendFuture occupyWorker() throws InterruptedException {
+        SendFuture future = scheduler.submit(target, new byte[] {1});
+        assertTrue(sendStarted.await(TIMEOUT_S, TimeUnit.SECONDS));
+        return future;
+    }
+
+    private static void awaitDone(SendFuture future) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        future.addListener(f -> done.countDown());
+        assertTrue(done.await(TIMEOUT_S, TimeUnit.SECONDS));
+    }
+}
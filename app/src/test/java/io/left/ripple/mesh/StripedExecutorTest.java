@@ -0,0 +1,129 @@
+package io.left.ripple.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class StripedExecutorTest {
+    private static final long TIMEOUT_S = 5;
+    private static final int TASKS = 1000;
+
+    private final StripedExecutor executor = new StripedExecutor("test", 4, 8);
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void execute_keepsOrderPerKey() throws InterruptedException {
+        StripedExecutor large = new StripedExecutor("test", 4, 2 * TASKS);
+        List<Integer> first = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> second = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(2 * TASKS);
+        for (int i = 0; i < TASKS; i++) {
+            int value = i;
+            assertTrue(large.execute("a", () -> {
+                first.add(value);
+                done.countDown();
+            }));
+            assertTrue(large.execute("b", () -> {
+                second.add(value);
+                done.countDown();
+            }));
+        }
+
+        assertTrue(done.await(TIMEOUT_S, TimeUnit.SECONDS));
+        for (int i = 0; i < TASKS; i++) {
+            assertEquals(i, (int) first.get(i));
+            assertEquals(i, (int) second.get(i));
+        }
+        large.shutdown();
+    }
+
+    @Test
+    public void execute_otherStripesRunWhileOneIsBlocked() throws InterruptedException {
+        Object slowKey = 0;
+        Object fastKey = 1;
+        assertNotEquals(executor.stripeOf(slowKey), executor.stripeOf(fastKey));
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(1);
+
+        executor.execute(slowKey, () -> await(release));
+        executor.execute(fastKey, fastDone::countDown);
+
+        assertTrue(fastDone.await(TIMEOUT_S, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void execute_rejectsBeyondCapacity() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute("a", () -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(TIMEOUT_S, TimeUnit.SECONDS));
+
+        for (int i = 1; i < executor.getCapacity(); i++) {
+            assertTrue(executor.execute("a", () -> { }));
+        }
+        assertFalse(executor.execute("b", () -> { }));
+
+        assertEquals(executor.getCapacity(), executor.getInFlightCount());
+        assertEquals(executor.getCapacity() - 1,
+                executor.getQueuedCount(executor.stripeOf("a")));
+        assertEquals(1, executor.getRejectedCount());
+        release.countDown();
+    }
+
+    @Test
+    public void execute_workerSurvivesFailedTask() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+
+        executor.execute("a", () -> {
+            throw new IllegalStateException("Expected");
+        });
+        executor.execute("a", done::countDown);
+
+        assertTrue(done.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertEquals(1, executor.getFailedCount());
+    }
+
+    @Test
+    public void shutdown_dropsQueuedAndRejectsNewTasks() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute("a", () -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(TIMEOUT_S, TimeUnit.SECONDS));
+        executor.execute("a", () -> { });
+
+        executor.shutdown();
+        release.countDown();
+
+        assertFalse(executor.execute("a", () -> { }));
+        assertEquals(0, executor.getQueuedCount(executor.stripeOf("a")));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_S, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package io.left.ripple.message;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.Colour;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColourFrameTest {
+    private static final String RECIPIENT = "0x5c6d8e1f2a3b4c5d6e7f8091a2b3c4d5e6f70819";
+
+    private MeshId recipient;
+
+    /**
+     * Run before each test method.
+     */
+    @Before
+    public void setUp() throws RightMeshException {
+        recipient = MeshId.fromString(RECIPIENT);
+    }
+
+    @Test
+    public void meshIdBytes_roundTrip() throws RightMeshException {
+        byte[] raw = MeshIdBytes.toBytes(recipient);
+
+        assertEquals(20, raw.length);
+        assertEquals(recipient, MeshIdBytes.fromBytes(raw, 0, raw.length));
+    }
+
+    @Test
+    public void binary_roundTrip() throws FrameFormatException {
+        byte[] frame = ColourFrame.encode(recipient, Colour.GREEN);
+        ColourMessage message = ColourFrame.decode(frame);
+
+        assertTrue(ColourFrame.isBinary(frame));
+        assertEquals(recipient, message.getRecipient());
+        assertEquals(Colour.GREEN, message.getColour());
+        assertEquals(ColourFrame.FLAGS_NONE, message.getFlags());
+    }
+
+    @Test
+    public void version2_roundTrip() throws FrameFormatException, RightMeshException {
+        MeshId origin = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        byte[] frame = ColourFrame.encode(recipient, MeshIdBytes.toBytes(origin), -5, 3,
+                Colour.BLUE);
+        ColourMessage message = ColourFrame.decode(frame);
+
+        assertEquals(recipient, message.getRecipient());
+        assertEquals(origin, message.getOrigin());
+        assertEquals(-5, message.getSequence());
+        assertEquals(3, message.getTtl());
+        assertEquals(Colour.BLUE, message.getColour());
+    }
+
+    @Test
+    public void broadcast_roundTrip() throws FrameFormatException, RightMeshException {
+        MeshId origin = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        MeshId other = MeshId.fromString("0x2222222222222222222222222222222222222222");
+        byte[] frame = ColourFrame.encodeBroadcast(MeshIdBytes.toBytes(origin), 7, 4,
+                Colour.GREEN, Arrays.asList(recipient, other));
+        ColourMessage message = ColourFrame.decode(frame);
+
+        assertTrue(message.isBroadcast());
+        assertNull(message.getRecipient());
+        assertEquals(origin, message.getOrigin());
+        assertEquals(Arrays.asList(recipient, other), message.getDestinations());
+        assertEquals(Colour.GREEN, message.getColour());
+    }
+
+    @Test
+    public void binary_byteBufferRoundTrip() throws FrameFormatException {
+        byte[] raw = MeshIdBytes.toBytes(recipient);
+        ByteBuffer buffer = ByteBuffer.allocate(ColourFrame.encodedLength(raw) + 2);
+        buffer.put((byte) 1);
+        ColourFrame.encode(buffer, raw, Colour.BLUE, ColourFrame.FLAGS_NONE);
+        buffer.flip();
+        buffer.get();
+
+        ColourMessage message = ColourFrame.decode(buffer);
+        assertEquals(recipient, message.getRecipient());
+        assertEquals(Colour.BLUE, message.getColour());
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void text_decodedAsLegacy() throws FrameFormatException {
+        byte[] text = (RECIPIENT + ":RED").getBytes(ColourFrame.UTF_8);
+        ColourMessage message = ColourFrame.decode(text);
+
+        assertFalse(ColourFrame.isBinary(text));
+        assertEquals(recipient, message.getRecipient());
+        assertEquals(Colour.RED, message.getColour());
+        assertArrayEquals(text, ColourFrame.encodeText(recipient, Colour.RED));
+    }
+
+    @Test
+    public void binary_smallerThanText() {
+        int binaryLength = ColourFrame.encode(recipient, Colour.GREEN).length;
+        int textLength = ColourFrame.encodeText(recipient, Colour.GREEN).length;
+
+        assertTrue(binaryLength < textLength);
+    }
+
+    @Test(expected = FrameFormatException.class)
+    public void decode_truncatedFrame() throws FrameFormatException {
+        byte[] frame = ColourFrame.encode(recipient, Colour.GREEN);
+        byte[] truncated = new byte[frame.length - 1];
+        System.arraycopy(frame, 0, truncated, 0, truncated.length);
+
+        ColourFrame.decode(truncated);
+    }
+
+    @Test(expected = FrameFormatException.class)
+    public void decode_unknownVersion() throws FrameFormatException {
+        byte[] frame = ColourFrame.encode(recipient, Colour.GREEN);
+        frame[0] = (byte) 0xFF;
+
+        ColourFrame.decode(frame);
+    }
+
+    @Test(expected = FrameFormatException.class)
+    public void decode_textWithoutSeparator() throws FrameFormatException {
+        ColourFrame.decode("garbage".getBytes(ColourFrame.UTF_8));
+    }
+
+    @Test
+    public void wireFormatPolicy_autoLearnsCapablePeers() {
+        WireFormatPolicy policy = new WireFormatPolicy(WireFormatPolicy.Mode.AUTO);
+        assertFalse(policy.useBinary(recipient));
+        assertFalse(policy.readsBinary(recipient));
+
+        policy.markBinaryCapable(recipient);
+        assertTrue(policy.useBinary(recipient));
+
+        policy.setMode(WireFormatPolicy.Mode.TEXT);
+        assertFalse(policy.useBinary(recipient));
+        // Relays still hand binary frames on to peers known to read them.
+        assertTrue(policy.readsBinary(recipient));
+    }
+
+    @Test
+    public void toText_keepsRecipientAndColour() throws FrameFormatException {
+        byte[] frame = ColourFrame.encode(recipient, new byte[] {1, 2}, 7, 3, Colour.BLUE);
+
+        assertArrayEquals(ColourFrame.encodeText(recipient, Colour.BLUE),
+                ColourFrame.toText(frame));
+    }
+
+    @Test(expected = FrameFormatException.class)
+    public void toText_refusesBroadcast() throws FrameFormatException {
+        ColourFrame.toText(ColourFrame.encodeBroadcast(new byte[] {1, 2}, 7, 3, Colour.BLUE,
+                Arrays.asList(recipient)));
+    }
+
+    @Test
+    public void wireFormatPolicy_greetsOnlyKnownPeersUnderAuto() {
+        WireFormatPolicy policy = new WireFormatPolicy(WireFormatPolicy.Mode.AUTO);
+        // A peer not known to read binary frames may be an older device.
+        assertFalse(policy.shouldGreet(recipient));
+
+        assertTrue(policy.markBinaryCapable(recipient));
+        assertFalse(policy.markBinaryCapable(recipient));
+        assertTrue(policy.shouldGreet(recipient));
+
+        assertFalse(new WireFormatPolicy(WireFormatPolicy.Mode.TEXT).shouldGreet(recipient));
+    }
+}
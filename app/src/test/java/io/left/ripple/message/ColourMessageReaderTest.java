@@ -0,0 +1,209 @@
+package io.left.ripple.message;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.Colour;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColourMessageReaderTest {
+    private static final String LOCAL = "0x1111111111111111111111111111111111111111";
+    private static final String REMOTE = "0x5c6d8e1f2a3b4c5d6e7f8091a2b3c4d5e6f70819";
+    private static final int MESSAGES = 10_000;
+    // Bytes the measurement itself may allocate, far below one object per message.
+    private static final long ALLOCATION_SLACK = 1024;
+
+    private MeshId local;
+    private MeshId remote;
+    private ColourMessageReader reader;
+
+    /**
+     * Run before each test method.
+     */
+    @Before
+    public void setUp() throws RightMeshException {
+        local = MeshId.fromString(LOCAL);
+        remote = MeshId.fromString(REMOTE);
+        reader = new ColourMessageReader(MeshIdCache.forRawIds(16), MeshIdCache.forTextIds(16));
+        reader.setLocalId(local);
+    }
+
+    @Test
+    public void read_binaryFrame() {
+        assertTrue(reader.read(ColourFrame.encode(remote, Colour.BLUE)));
+
+        assertTrue(reader.isBinary());
+        assertEquals(remote, reader.getRecipient());
+        assertEquals(Colour.BLUE, reader.getColour());
+        assertFalse(reader.isForLocalDevice());
+    }
+
+    @Test
+    public void read_version2Frame() {
+        byte[] origin = MeshIdBytes.toBytes(local);
+        byte[] frame = ColourFrame.encode(remote, origin, 42, 2, Colour.RED);
+
+        assertTrue(reader.read(frame));
+        assertTrue(reader.hasOrigin());
+        assertEquals(remote, reader.getRecipient());
+        assertEquals(Colour.RED, reader.getColour());
+        assertEquals(42, reader.getSequence());
+        assertEquals(SeenMessageFilter.key(origin, 0, origin.length, 42),
+                reader.getMessageKey());
+
+        byte[] relayed = reader.copyForRelay();
+        assertEquals(2, reader.getTtl());
+        assertTrue(reader.readHeader(frame));
+        assertEquals(2, reader.getTtl());
+        assertTrue(reader.readHeader(relayed));
+        assertEquals(1, reader.getTtl());
+    }
+
+    @Test
+    public void getContentKey_sameForSameText() {
+        reader.readHeader(ColourFrame.encodeText(remote, Colour.RED));
+        long red = reader.getContentKey();
+        reader.readHeader(ColourFrame.encodeText(remote, Colour.GREEN));
+        long green = reader.getContentKey();
+        reader.readHeader(ColourFrame.encodeText(remote, Colour.RED));
+
+        assertEquals(red, reader.getContentKey());
+        assertFalse(red == green);
+    }
+
+    @Test
+    public void readDestinations_separatesLocalDevice() {
+        byte[] origin = MeshIdBytes.toBytes(remote);
+        byte[] frame = ColourFrame.encodeBroadcast(origin, 3, 5, Colour.GREEN,
+                Arrays.asList(remote, local));
+
+        assertTrue(reader.readHeader(frame));
+        assertTrue(reader.isBroadcast());
+        assertTrue(reader.readDestinations());
+        assertTrue(reader.isLocalDestination());
+        assertEquals(Collections.singletonList(remote), reader.getDestinations());
+        assertArrayEquals(origin, reader.copyOrigin());
+
+        assertTrue(reader.readHeader(Arrays.copyOf(frame, frame.length - 1)));
+        assertFalse(reader.readDestinations());
+    }
+
+    @Test
+    public void read_textMessage() {
+        assertTrue(reader.read(ColourFrame.encodeText(local, Colour.GREEN)));
+
+        assertFalse(reader.isBinary());
+        assertEquals(local, reader.getRecipient());
+        assertEquals(Colour.GREEN, reader.getColour());
+        assertTrue(reader.isForLocalDevice());
+    }
+
+    @Test
+    public void read_reusesCachedMeshId() {
+        reader.read(ColourFrame.encodeText(remote, Colour.RED));
+        MeshId firstText = reader.getRecipient();
+        reader.read(ColourFrame.encodeText(remote, Colour.GREEN));
+        assertSame(firstText, reader.getRecipient());
+
+        reader.read(ColourFrame.encode(remote, Colour.RED));
+        MeshId firstBinary = reader.getRecipient();
+        reader.read(ColourFrame.encode(remote, Colour.GREEN));
+        assertSame(firstBinary, reader.getRecipient());
+    }
+
+    @Test
+    public void read_tellsApartIdsWithTheSameEnding() throws RightMeshException {
+        // Only the end of an id picks its slot, so these two share one.
+        MeshId other = MeshId.fromString("0x6c6d8e1f2a3b4c5d6e7f8091a2b3c4d5e6f70819");
+
+        reader.read(ColourFrame.encode(remote, Colour.RED));
+        assertEquals(remote, reader.getRecipient());
+        reader.read(ColourFrame.encode(other, Colour.RED));
+        assertEquals(other, reader.getRecipient());
+        reader.read(ColourFrame.encodeText(remote, Colour.RED));
+        assertEquals(remote, reader.getRecipient());
+        reader.read(ColourFrame.encodeText(other, Colour.RED));
+        assertEquals(other, reader.getRecipient());
+    }
+
+    @Test
+    public void resolveOrigin_followsEachMessage() {
+        reader.readHeader(ColourFrame.encode(local, MeshIdBytes.toBytes(remote), 1, 1,
+                Colour.RED));
+        assertEquals(remote, reader.resolveOrigin());
+        assertSame(reader.resolveOrigin(), reader.resolveOrigin());
+
+        reader.readHeader(ColourFrame.encode(remote, MeshIdBytes.toBytes(local), 2, 1,
+                Colour.RED));
+        assertEquals(local, reader.resolveOrigin());
+
+        reader.readHeader(ColourFrame.encodeText(remote, Colour.RED));
+        assertEquals(null, reader.resolveOrigin());
+    }
+
+    @Test
+    public void read_rejectsMalformedPayloads() {
+        assertFalse(reader.read("no separator".getBytes(ColourFrame.UTF_8)));
+        assertFalse(reader.read((REMOTE + ":PURPLE").getBytes(ColourFrame.UTF_8)));
+        assertFalse(reader.read(":RED".getBytes(ColourFrame.UTF_8)));
+        assertFalse(reader.read(new byte[] {ColourFrame.VERSION_1_HEADER, 0, 0}));
+        byte[] frame = ColourFrame.encode(remote, MeshIdBytes.toBytes(local), 1, 1, Colour.RED);
+        byte[] truncated = new byte[frame.length - 1];
+        System.arraycopy(frame, 0, truncated, 0, truncated.length);
+        assertFalse(reader.read(truncated));
+    }
+
+    @Test
+    public void read_allocatesNothingForKnownRecipient() {
+        com.sun.management.ThreadMXBean threads = threadMxBean();
+        assumeTrue(threads != null && threads.isThreadAllocatedMemoryEnabled());
+
+        byte[] text = ColourFrame.encodeText(remote, Colour.RED);
+        byte[] binary = ColourFrame.encode(remote, Colour.GREEN);
+        // Warm up the cache and let the JIT settle.
+        for (int i = 0; i < MESSAGES; i++) {
+            readAll(text, binary);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long overhead = measureOverhead(threads, threadId);
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MESSAGES; i++) {
+            readAll(text, binary);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertTrue("allocated " + allocated + " bytes in " + 2 * MESSAGES + " messages",
+                allocated <= ALLOCATION_SLACK);
+    }
+
+    private void readAll(byte[] text, byte[] binary) {
+        if (!reader.read(text) || reader.isForLocalDevice()
+                || !reader.read(binary) || reader.isForLocalDevice()) {
+            throw new AssertionError("unexpected parse result");
+        }
+    }
+
+    private static long measureOverhead(com.sun.management.ThreadMXBean threads, long threadId) {
+        long before = threads.getThreadAllocatedBytes(threadId);
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private static com.sun.management.ThreadMXBean threadMxBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+}
@@ -0,0 +1,81 @@
+package io.left.ripple.message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.Colour;
+
+import org.junit.Test;
+
+public class ProbeFrameTest {
+    private static final int PROBE_ID = 0x12345678;
+    private static final long SENT_NANOS = 0x0102030405060708L;
+    private static final int HOPS = 3;
+
+    @Test
+    public void encodePing_decodesBack() throws RightMeshException, FrameFormatException {
+        MeshId recipient = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        MeshId origin = MeshId.fromString("0x2222222222222222222222222222222222222222");
+
+        byte[] data = ProbeFrame.encodePing(recipient, MeshIdBytes.toBytes(origin), PROBE_ID,
+                SENT_NANOS, ColourFrame.DEFAULT_TTL);
+        ProbeFrame ping = ProbeFrame.decode(ProbeFrame.copyForRelay(data));
+        assertEquals(ColourFrame.DEFAULT_TTL, ProbeFrame.decode(data).getTtl());
+
+        assertTrue(ProbeFrame.isProbe(data));
+        assertTrue(ping.isPing());
+        assertEquals(recipient, ping.getRecipient());
+        assertEquals(origin, ping.getOrigin());
+        assertEquals(PROBE_ID, ping.getProbeId());
+        assertEquals(SENT_NANOS, ping.getSentNanos());
+        assertEquals(ColourFrame.DEFAULT_TTL - 1, ping.getTtl());
+        assertEquals(0, ping.getHops());
+
+        ProbeFrame echo = ProbeFrame.decode(ProbeFrame.encodeEcho(ping,
+                MeshIdBytes.toBytes(recipient), ColourFrame.DEFAULT_TTL, HOPS));
+        assertFalse(echo.isPing());
+        assertEquals(origin, echo.getRecipient());
+        assertEquals(recipient, echo.getOrigin());
+        assertEquals(PROBE_ID, echo.getProbeId());
+        assertEquals(SENT_NANOS, echo.getSentNanos());
+        assertEquals(HOPS, echo.getHops());
+    }
+
+    @Test
+    public void encodeHello_decodesBack() throws RightMeshException, FrameFormatException {
+        MeshId recipient = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        MeshId origin = MeshId.fromString("0x2222222222222222222222222222222222222222");
+
+        ProbeFrame hello = ProbeFrame.decode(ProbeFrame.encodeHello(recipient,
+                MeshIdBytes.toBytes(origin), ColourFrame.DEFAULT_TTL));
+
+        assertTrue(hello.isHello());
+        assertFalse(hello.isPing());
+        assertEquals(recipient, hello.getRecipient());
+        assertEquals(origin, hello.getOrigin());
+        assertEquals(ColourFrame.DEFAULT_TTL, hello.getTtl());
+    }
+
+    @Test
+    public void isProbe_falseForColourMessages() throws RightMeshException {
+        MeshId recipient = MeshId.fromString("0x1111111111111111111111111111111111111111");
+
+        assertFalse(ProbeFrame.isProbe(ColourFrame.encode(recipient, Colour.RED)));
+        assertFalse(ProbeFrame.isProbe(ColourFrame.encodeText(recipient, Colour.RED)));
+        assertFalse(ProbeFrame.isProbe(new byte[0]));
+    }
+
+    @Test(expected = FrameFormatException.class)
+    public void decode_truncated() throws FrameFormatException {
+        ProbeFrame.decode(new byte[] {ProbeFrame.HEADER, ProbeFrame.TYPE_PING, 1});
+    }
+
+    @Test(expected = FrameFormatException.class)
+    public void decode_unknownType() throws FrameFormatException {
+        ProbeFrame.decode(new byte[] {ProbeFrame.HEADER, 7, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                0, 0, 0});
+    }
+}
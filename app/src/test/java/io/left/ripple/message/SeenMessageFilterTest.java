@@ -0,0 +1,66 @@
+package io.left.ripple.message;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SeenMessageFilterTest {
+    private static final long WINDOW_MS = 1_000;
+    private static final byte[] ORIGIN_A = {1, 2, 3, 4};
+    private static final byte[] ORIGIN_B = {4, 3, 2, 1};
+
+    private SeenMessageFilter filter;
+
+    /**
+     * Run before each test method.
+     */
+    @Before
+    public void setUp() {
+        filter = new SeenMessageFilter(WINDOW_MS, 64);
+    }
+
+    @Test
+    public void markSeen_dropsDuplicates() {
+        long key = SeenMessageFilter.key(ORIGIN_A, 0, ORIGIN_A.length, 7);
+
+        assertTrue(filter.markSeen(key, 0));
+        assertFalse(filter.markSeen(key, millis(10)));
+        assertTrue(filter.markSeen(SeenMessageFilter.key(ORIGIN_A, 0, ORIGIN_A.length, 8), 0));
+    }
+
+    @Test
+    public void key_dependsOnOriginAndSequence() {
+        long key = SeenMessageFilter.key(ORIGIN_A, 0, ORIGIN_A.length, 7);
+
+        assertNotEquals(key, SeenMessageFilter.key(ORIGIN_B, 0, ORIGIN_B.length, 7));
+        assertNotEquals(key, SeenMessageFilter.key(ORIGIN_A, 0, ORIGIN_A.length, 6));
+    }
+
+    @Test
+    public void markSeen_forgetsAfterWindow() {
+        long key = SeenMessageFilter.key(ORIGIN_A, 0, ORIGIN_A.length, 7);
+
+        assertTrue(filter.markSeen(key, 0));
+        assertFalse(filter.markSeen(key, millis(WINDOW_MS / 2)));
+        assertTrue(filter.markSeen(key, millis(WINDOW_MS * 2)));
+    }
+
+    @Test
+    public void markSeen_letsMessagesThroughWhenFull() {
+        for (int sequence = 0; sequence < 1_000; sequence++) {
+            filter.markSeen(SeenMessageFilter.key(ORIGIN_A, 0, ORIGIN_A.length, sequence), 0);
+        }
+
+        assertTrue(filter.getOverflowCount() > 0);
+        assertTrue(filter.markSeen(SeenMessageFilter.key(ORIGIN_B, 0, ORIGIN_B.length, 1), 0));
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,104 @@
+package io.left.ripple.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+    private static final int THREADS = 8;
+    private static final int INCREMENTS = 100_000;
+    private static final long TIMEOUT_S = 10;
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    @Test
+    public void counter_sameInstancePerNameAndLabel() {
+        MetricsRegistry registry = new MetricsRegistry();
+
+        assertSame(registry.counter("sends"), registry.counter("sends"));
+        assertSame(registry.counter("failures", "exception", "A"),
+                registry.counter("failures", "exception", "A"));
+        registry.counter("failures", "exception", "A").add(2);
+        registry.counter("failures", "exception", "B").increment();
+
+        MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(2, snapshot.getCounter("failures", "exception", "A"));
+        assertEquals(1, snapshot.getCounter("failures", "exception", "B"));
+        // Only labelled counters were used, so there is no unlabelled one.
+        assertEquals(2, snapshot.getCounters().get("failures").size());
+        assertEquals(0, snapshot.getCounter("unknown"));
+        assertNull(snapshot.getHistogram("unknown"));
+    }
+
+    @Test
+    public void counter_concurrentIncrementsAreNotLost() throws InterruptedException {
+        StripedCounter counter = new MetricsRegistry().counter("sends");
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < INCREMENTS; i++) {
+                    counter.increment();
+                }
+                done.countDown();
+            }).start();
+        }
+
+        assertTrue(done.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertEquals((long) THREADS * INCREMENTS, counter.sum());
+    }
+
+    @Test
+    public void gauge_readWhenSnapshotIsTaken() {
+        MetricsRegistry registry = new MetricsRegistry();
+        long[] depth = {3};
+        registry.gauge("depth", "stripe", "0", () -> depth[0]);
+        registry.gauge("in_flight", () -> 7);
+
+        MetricsSnapshot before = registry.snapshot();
+        depth[0] = 1;
+        MetricsSnapshot after = registry.snapshot();
+
+        assertEquals(3, before.getGauge("depth", "stripe", "0"));
+        assertEquals(1, after.getGauge("depth", "stripe", "0"));
+        assertEquals(7, after.getGauge("in_flight"));
+        assertEquals(0, after.getGauge("unknown"));
+    }
+
+    @Test
+    public void histogram_countsIntoBuckets() {
+        LatencyHistogram histogram = new MetricsRegistry().histogram("latency");
+        histogram.record(NANOS_PER_MILLI);
+        histogram.record(NANOS_PER_MILLI + 1);
+        histogram.record(60_000 * NANOS_PER_MILLI);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        int oneMilli = 3;
+        assertEquals(NANOS_PER_MILLI, snapshot.getUpperBoundNanos(oneMilli));
+        assertEquals(1, snapshot.getCount(oneMilli));
+        assertEquals(1, snapshot.getCount(oneMilli + 1));
+        assertEquals(1, snapshot.getCount(snapshot.getBucketCount() - 1));
+        assertEquals(Long.MAX_VALUE, snapshot.getUpperBoundNanos(snapshot.getBucketCount() - 1));
+        assertEquals(3, snapshot.getCount());
+        assertEquals(60_002 * NANOS_PER_MILLI + 1, snapshot.getSumNanos());
+    }
+
+    @Test
+    public void histogram_countsEachLabelValueSeparately() {
+        MetricsRegistry registry = new MetricsRegistry();
+        assertSame(registry.histogram("latency", "lane", "control"),
+                registry.histogram("latency", "lane", "control"));
+        registry.histogram("latency", "lane", "control").record(NANOS_PER_MILLI);
+        registry.histogram("latency", "lane", "bulk").record(NANOS_PER_MILLI);
+        registry.histogram("latency", "lane", "bulk").record(NANOS_PER_MILLI);
+
+        MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(1, snapshot.getHistogram("latency", "lane", "control").getCount());
+        assertEquals(2, snapshot.getHistogram("latency", "lane", "bulk").getCount());
+        assertNull(snapshot.getHistogram("latency"));
+    }
+}
@@ -0,0 +1,103 @@
+package io.left.ripple.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OpenMetricsWriterTest {
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_countersAndHistograms() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("ripple_sends").add(3);
+        registry.counter("ripple_send_failures", "exception", "Bad \"one\"").increment();
+        registry.histogram("ripple_send_seconds").record(2 * NANOS_PER_MILLI);
+        registry.histogram("ripple_send_seconds").record(20_000 * NANOS_PER_MILLI);
+
+        StringWriter out = new StringWriter();
+        OpenMetricsWriter.write(registry.snapshot(), out);
+        String text = out.toString();
+
+        assertTrue(text.startsWith("# TYPE ripple_send_failures counter\n"
+                + "ripple_send_failures_total{exception=\"Bad \\\"one\\\"\"} 1\n"
+                + "# TYPE ripple_sends counter\n"
+                + "ripple_sends_total 3\n"
+                + "# TYPE ripple_send_seconds histogram\n"
+                + "ripple_send_seconds_bucket{le=\"0.0001\"} 0\n"));
+        assertTrue(text.contains("ripple_send_seconds_bucket{le=\"0.001\"} 0\n"
+                + "ripple_send_seconds_bucket{le=\"0.0025\"} 1\n"));
+        assertTrue(text.endsWith("ripple_send_seconds_bucket{le=\"10\"} 1\n"
+                + "ripple_send_seconds_bucket{le=\"+Inf\"} 2\n"
+                + "ripple_send_seconds_count 2\n"
+                + "ripple_send_seconds_sum 20.002\n"
+                + "# EOF\n"));
+    }
+
+    @Test
+    public void write_gauges() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("ripple_receives").increment();
+        registry.gauge("ripple_receive_queue_depth", "stripe", "1", () -> 4);
+        registry.gauge("ripple_receive_queue_depth", "stripe", "0", () -> 2);
+
+        StringWriter out = new StringWriter();
+        OpenMetricsWriter.write(registry.snapshot(), out);
+
+        assertEquals("# TYPE ripple_receives counter\n"
+                + "ripple_receives_total 1\n"
+                + "# TYPE ripple_receive_queue_depth gauge\n"
+                + "ripple_receive_queue_depth{stripe=\"0\"} 2\n"
+                + "ripple_receive_queue_depth{stripe=\"1\"} 4\n"
+                + "# EOF\n", out.toString());
+    }
+
+    @Test
+    public void write_labelledHistograms() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.histogram("ripple_send_queue_seconds", "lane", "control")
+                .record(2 * NANOS_PER_MILLI);
+        registry.histogram("ripple_send_queue_seconds", "lane", "bulk")
+                .record(20_000 * NANOS_PER_MILLI);
+
+        StringWriter out = new StringWriter();
+        OpenMetricsWriter.write(registry.snapshot(), out);
+        String text = out.toString();
+
+        assertTrue(text.startsWith("# TYPE ripple_send_queue_seconds histogram\n"
+                + "ripple_send_queue_seconds_bucket{lane=\"bulk\",le=\"0.0001\"} 0\n"));
+        assertTrue(text.contains("ripple_send_queue_seconds_count{lane=\"bulk\"} 1\n"
+                + "ripple_send_queue_seconds_sum{lane=\"bulk\"} 20\n"
+                + "ripple_send_queue_seconds_bucket{lane=\"control\",le=\"0.0001\"} 0\n"));
+        assertTrue(text.endsWith("ripple_send_queue_seconds_count{lane=\"control\"} 1\n"
+                + "ripple_send_queue_seconds_sum{lane=\"control\"} 0.002\n"
+                + "# EOF\n"));
+        assertEquals(text.indexOf("# TYPE"), text.lastIndexOf("# TYPE"));
+    }
+
+    @Test
+    public void write_replacesFile() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        File file = new File(folder.getRoot(), "metrics.txt");
+        registry.counter("ripple_sends").increment();
+        OpenMetricsWriter.write(registry.snapshot(), file);
+        registry.counter("ripple_sends").increment();
+        OpenMetricsWriter.write(registry.snapshot(), file);
+
+        String text = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+        assertEquals("# TYPE ripple_sends counter\nripple_sends_total 2\n# EOF\n", text);
+        assertFalse(new File(folder.getRoot(), "metrics.txt.tmp").exists());
+    }
+}
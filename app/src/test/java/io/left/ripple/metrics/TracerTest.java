@@ -0,0 +1,108 @@
+package io.left.ripple.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TracerTest {
+    private static final int CAPACITY = 8;
+    private static final int THREADS = 4;
+    private static final int SPANS_PER_THREAD = 10_000;
+    private static final long TIMEOUT_S = 10;
+
+    @Test
+    public void end_disabledRecordsNothing() {
+        Tracer tracer = new Tracer(CAPACITY);
+
+        long start = tracer.begin();
+        tracer.end(Tracer.Event.SEND_DATA_RELIABLE, start, "peer", 1);
+
+        assertEquals(Tracer.OFF, start);
+        assertTrue(tracer.snapshot().isEmpty());
+    }
+
+    @Test
+    public void snapshot_keepsNewestSpansInOrder() {
+        Tracer tracer = new Tracer(CAPACITY);
+        tracer.setEnabled(true);
+        for (int i = 0; i < CAPACITY + 3; i++) {
+            tracer.end(Tracer.Event.GET_NEXT_HOP_PEER, tracer.begin(), null, i);
+        }
+
+        List<Tracer.Span> spans = tracer.snapshot();
+        assertEquals(CAPACITY, spans.size());
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(i + 3, spans.get(i).getMessageId());
+            assertEquals(Tracer.Event.GET_NEXT_HOP_PEER, spans.get(i).getEvent());
+            assertEquals(Thread.currentThread().getId(), spans.get(i).getThreadId());
+            assertNull(spans.get(i).getPeer());
+        }
+
+        tracer.clear();
+        assertTrue(tracer.snapshot().isEmpty());
+    }
+
+    @Test
+    public void end_concurrentWritersDoNotCorruptSpans() throws InterruptedException {
+        Tracer tracer = new Tracer(CAPACITY);
+        tracer.setEnabled(true);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            String peer = "peer" + t;
+            new Thread(() -> {
+                long id = Thread.currentThread().getId();
+                for (int i = 0; i < SPANS_PER_THREAD; i++) {
+                    tracer.end(Tracer.Event.SEND_DATA_RELIABLE, tracer.begin(), peer, id);
+                }
+                done.countDown();
+            }).start();
+        }
+
+        while (!done.await(0, TimeUnit.MILLISECONDS)) {
+            assertConsistent(tracer.snapshot());
+        }
+        assertTrue(done.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertEquals(CAPACITY, tracer.snapshot().size());
+        assertConsistent(tracer.snapshot());
+    }
+
+    private static void assertConsistent(List<Tracer.Span> spans) {
+        // Each writer uses its own thread id as message id, so a torn span would mix them up.
+        for (Tracer.Span span : spans) {
+            assertEquals(span.getThreadId(), span.getMessageId());
+        }
+    }
+
+    @Test
+    public void write_chromeTraceEvents() throws IOException {
+        Tracer.Span span = new Tracer.Span(Tracer.Event.RECEIVE_COLOUR_MESSAGE, 1_500_250, 2_000,
+                7, "0x\"12", 42);
+        Tracer.Span noArgs = new Tracer.Span(Tracer.Event.APPLY_COLOUR, 3_000_000, 1, 1, null,
+                Tracer.NO_MESSAGE);
+
+        StringWriter out = new StringWriter();
+        ChromeTraceWriter.write(Arrays.asList(span, noArgs), out);
+
+        assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n"
+                + "{\"name\":\"receiveColourMessage\",\"cat\":\"ripple\",\"ph\":\"X\","
+                + "\"ts\":1500.25,\"dur\":2,\"pid\":0,\"tid\":7,"
+                + "\"args\":{\"peer\":\"0x\\\"12\",\"message\":42}},\n"
+                + "{\"name\":\"applyColour\",\"cat\":\"ripple\",\"ph\":\"X\","
+                + "\"ts\":3000,\"dur\":0.001,\"pid\":0,\"tid\":1,\"args\":{}}\n"
+                + "]}\n", out.toString());
+
+        StringWriter empty = new StringWriter();
+        ChromeTraceWriter.write(Collections.<Tracer.Span>emptyList(), empty);
+        assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n]}\n", empty.toString());
+    }
+}
@@ -0,0 +1,116 @@
+package io.left.ripple.probe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.mesh.PeerRegistry;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProbeSessionTest {
+    private static final long MS = 1_000_000L;
+    private static final long TIMEOUT = 1_000 * MS;
+
+    private MeshId near;
+    private MeshId far;
+    private ProbeSession session;
+
+    /**
+     * Run before each test method.
+     */
+    @Before
+    public void setUp() throws RightMeshException {
+        near = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        far = MeshId.fromString("0x2222222222222222222222222222222222222222");
+        session = new ProbeSession(TIMEOUT, 0);
+    }
+
+    @Test
+    public void report_percentilesPerPeerAndHops() {
+        // 100 probes to the near peer taking 1..100 ms, one hop away.
+        for (int i = 1; i <= 100; i++) {
+            int id = session.register(near, 1, 0);
+            assertTrue(session.onEcho(id, 0, 1, i * MS));
+        }
+        int answered = session.register(far, PeerRegistry.UNKNOWN_HOPS, 0);
+        int lost = session.register(far, 3, 0);
+        int pending = session.register(far, 3, TIMEOUT);
+        assertTrue(session.onEcho(answered, 0, 3, 200 * MS));
+        assertFalse("Duplicate echo", session.onEcho(answered, 0, 3, 300 * MS));
+
+        ProbeReport report = session.report(TIMEOUT + 1);
+
+        assertEquals(1, report.getPending());
+        ProbeReport.Row nearRow = report.getPeers().get(0);
+        assertEquals(near.toString(), nearRow.getKey());
+        assertEquals(100, nearRow.getSent());
+        assertEquals(100, nearRow.getReceived());
+        assertEquals(50 * MS, nearRow.getP50Nanos());
+        assertEquals(90 * MS, nearRow.getP90Nanos());
+        assertEquals(99 * MS, nearRow.getP99Nanos());
+        assertEquals(100 * MS, nearRow.getMaxNanos());
+
+        ProbeReport.Row farRow = report.getPeers().get(1);
+        assertEquals(3, farRow.getSent());
+        assertEquals(1, farRow.getReceived());
+        assertEquals(1, farRow.getLost());
+        assertEquals(0.5, farRow.getLossRate(), 0);
+
+        // Echoes count under the hops the ping took, losses under the hops last seen.
+        assertEquals(2, report.getHops().size());
+        assertEquals("1", report.getHops().get(0).getKey());
+        assertEquals(100, report.getHops().get(0).getReceived());
+        ProbeReport.Row threeHops = report.getHops().get(1);
+        assertEquals("3", threeHops.getKey());
+        assertEquals(1, threeHops.getReceived());
+        assertEquals(1, threeHops.getLost());
+        assertEquals(200 * MS, threeHops.getMaxNanos());
+
+        assertFalse("Late echo", session.onEcho(lost, 0, 3, TIMEOUT + 2));
+        assertTrue(session.onEcho(pending, TIMEOUT, 3, TIMEOUT + 2));
+    }
+
+    @Test
+    public void onEcho_rejectsWrongSentTime() {
+        int id = session.register(near, 1, 5);
+
+        assertFalse(session.onEcho(id, 6, 1, 10));
+        assertTrue(session.onEcho(id, 5, 1, 10));
+    }
+
+    @Test
+    public void fail_countsAsLost() {
+        session.fail(session.register(near, PeerRegistry.UNKNOWN_HOPS, 0));
+
+        ProbeReport report = session.report(0);
+        assertEquals(1, report.getPeers().get(0).getLost());
+        assertEquals(ProbeSession.UNKNOWN_HOPS, report.getHops().get(0).getKey());
+        assertEquals(0, report.getPending());
+    }
+
+    @Test
+    public void writeJson_rowsPerPeerAndHops() throws IOException {
+        int id = session.register(near, 1, 0);
+        session.onEcho(id, 0, 2, 1_500_000);
+
+        StringWriter out = new StringWriter();
+        ProbeReportWriter.writeJson(session.report(0), out);
+
+        assertEquals("{\"pending\":0,\n\"peers\":[\n"
+                + "{\"peer\":\"" + near + "\",\"sent\":1,\"received\":1,\"lost\":0,"
+                + "\"p50_ms\":1.5,\"p90_ms\":1.5,\"p99_ms\":1.5,\"max_ms\":1.5}\n"
+                + "],\n\"hops\":[\n"
+                + "{\"hops\":\"2\",\"sent\":1,\"received\":1,\"lost\":0,"
+                + "\"p50_ms\":1.5,\"p90_ms\":1.5,\"p99_ms\":1.5,\"max_ms\":1.5}\n"
+                + "]}\n", out.toString());
+        assertTrue(ProbeReportWriter.toText(session.report(0))
+                .contains("Hops 2: 1/1 answered, 0.0% lost, p50 1.5 p90 1.5 p99 1.5 max 1.5 ms"));
+    }
+}
@@ -0,0 +1,66 @@
+package io.left.ripple.sim;
+
+/**
+ * How a simulated link behaves: how long a frame takes to cross it, how often one is lost, and
+ * how fast bytes can be put on it.
+ */
+public final class LinkModel {
+    // A link with no delay, no loss and no bandwidth limit.
+    public static final LinkModel IDEAL = new LinkModel(0, 0, 0);
+
+    private static final long MICROS_PER_SECOND = 1_000_000L;
+
+    private final long latencyMicros;
+    private final double lossRate;
+    private final long bytesPerSecond;
+
+    /**
+     * Constructor.
+     *
+     * @param latencyMicros  propagation delay of a frame, in microseconds
+     * @param lossRate       probability, from 0 to 1, that a transmission is lost
+     * @param bytesPerSecond bandwidth of the link in each direction, or 0 for unlimited
+     */
+    public LinkModel(long latencyMicros, double lossRate, long bytesPerSecond) {
+        if (latencyMicros < 0 || lossRate < 0 || lossRate > 1 || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Bad link model");
+        }
+        this.latencyMicros = latencyMicros;
+        this.lossRate = lossRate;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getLatencyMicros() {
+        return latencyMicros;
+    }
+
+    public double getLossRate() {
+        return lossRate;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Get how long a frame occupies the link before its last byte is sent.
+     *
+     * @param bytes size of the frame
+     * @return serialization delay in microseconds, rounded up
+     */
+    public long transmitMicros(int bytes) {
+        if (bytesPerSecond == 0) {
+            return 0;
+        }
+        return (bytes * MICROS_PER_SECOND + bytesPerSecond - 1) / bytesPerSecond;
+    }
+
+    /**
+     * Get how long a reliable sender waits before sending a lost frame again: one round trip.
+     *
+     * @return delay in microseconds
+     */
+    public long retransmitTimeoutMicros() {
+        return 2 * latencyMicros;
+    }
+}
@@ -0,0 +1,453 @@
+package io.left.ripple.sim;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.left.rightmesh.android.AndroidMeshManager;
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.mesh.MeshManager;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.MeshEvents;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * An in-process RightMesh network of N virtual devices, for running the app's mesh code on the
+ * JVM. Each device gets an {@link AndroidMeshManager} that behaves like the library: it routes
+ * {@code sendDataReliable} over shortest paths, retransmits lost frames, raises DATA_RECEIVED
+ * when a payload reaches its target and PEER_CHANGED when devices become reachable or not.
+ *
+ * Time is virtual. Nothing happens until {@link #run()} is called, which processes events in
+ * time order, on the calling thread, until the network is idle; handlers that send more data
+ * simply schedule more events. Links have a latency, a loss rate and a bandwidth, see
+ * {@link LinkModel}, and frames queue behind each other on a busy link. Runs with the same seed
+ * are identical.
+ */
+public class MeshSimulator {
+    // Times a reliable send puts a frame on a link before giving up on it.
+    public static final int MAX_ATTEMPTS = 5;
+    // Next hop entry of a device that cannot be reached.
+    private static final int UNREACHABLE = -1;
+
+    private final Topology topology;
+    private final LinkModel defaultLink;
+    private final Map<Long, LinkModel> linkModels = new HashMap<>();
+    private final Set<Long> downLinks = new HashSet<>();
+    private final Random random;
+
+    private final MeshId[] ids;
+    private final Map<MeshId, Integer> indexes = new HashMap<>();
+    private final AndroidMeshManager[] managers;
+    private final List<Map<Integer, MeshManager.RightMeshEventHandler>> handlers;
+    private int[][] nextHop;
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    // When each directed link finishes sending the frames already queued on it.
+    private final Map<Long, Long> busyUntil = new HashMap<>();
+    private long now;
+    private long sequence;
+
+    private long transmissions;
+    private long retransmissions;
+    private long bytesSent;
+    private long delivered;
+    private long lost;
+
+    /**
+     * Constructor.
+     *
+     * @param topology    devices and the links between them
+     * @param defaultLink behaviour of every link, unless set with
+     *                    {@link #setLinkModel(int, int, LinkModel)}
+     * @param seed        seed for frame losses
+     * @throws RightMeshException if a device id cannot be created
+     */
+    public MeshSimulator(Topology topology, LinkModel defaultLink, long seed)
+            throws RightMeshException {
+        this.topology = topology;
+        this.defaultLink = defaultLink;
+        this.random = new Random(seed);
+
+        int size = topology.size();
+        ids = new MeshId[size];
+        managers = new AndroidMeshManager[size];
+        handlers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ids[i] = MeshId.fromString(String.format("0x%040x", i + 1));
+            indexes.put(ids[i], i);
+            handlers.add(new HashMap<>());
+        }
+        nextHop = shortestPathNextHops();
+        for (int i = 0; i < size; i++) {
+            managers[i] = createManager(i);
+        }
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Get the id of a device.
+     *
+     * @param device index of the device
+     * @return its {@link MeshId}
+     */
+    public MeshId getId(int device) {
+        return ids[device];
+    }
+
+    /**
+     * Get the index of a device.
+     *
+     * @param id id of the device
+     * @return its index, or -1 if it is not part of the network
+     */
+    public int indexOf(MeshId id) {
+        Integer index = indexes.get(id);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Get the RightMesh library of a device, to hand to its
+     * {@link io.left.ripple.RightMeshConnector}.
+     *
+     * @param device index of the device
+     * @return its simulated {@link AndroidMeshManager}
+     */
+    public AndroidMeshManager getMeshManager(int device) {
+        return managers[device];
+    }
+
+    /**
+     * Change how the link between two devices behaves, in both directions.
+     *
+     * @param a     one end of the link
+     * @param b     the other end
+     * @param model new behaviour
+     */
+    public void setLinkModel(int a, int b, LinkModel model) {
+        linkModels.put(linkKey(a, b), model);
+        linkModels.put(linkKey(b, a), model);
+    }
+
+    /**
+     * Tell every device about every other device it can reach, with a PEER_CHANGED
+     * {@link MeshManager#ADDED} event, as RightMesh does once it has discovered the mesh.
+     */
+    public void announcePeers() {
+        for (int device = 0; device < size(); device++) {
+            for (int peer = 0; peer < size(); peer++) {
+                if (peer != device && nextHop[device][peer] != UNREACHABLE) {
+                    schedulePeerChanged(device, peer, MeshManager.ADDED);
+                }
+            }
+        }
+    }
+
+    /**
+     * Bring a link down or up again. Routes are recomputed straight away, and each device is sent
+     * a PEER_CHANGED event for every peer that became unreachable ({@link MeshManager#REMOVED}),
+     * reachable ({@link MeshManager#ADDED}) or is now reached through another neighbour
+     * ({@link MeshManager#UPDATED}). Frames already on the link are lost.
+     *
+     * @param a  one end of the link
+     * @param b  the other end
+     * @param up true to restore the link, false to cut it
+     */
+    public void setLinkUp(int a, int b, boolean up) {
+        if (up) {
+            downLinks.remove(linkKey(a, b));
+            downLinks.remove(linkKey(b, a));
+        } else {
+            downLinks.add(linkKey(a, b));
+            downLinks.add(linkKey(b, a));
+        }
+
+        int[][] previous = nextHop;
+        nextHop = shortestPathNextHops();
+        for (int device = 0; device < size(); device++) {
+            for (int peer = 0; peer < size(); peer++) {
+                int before = previous[device][peer];
+                int after = nextHop[device][peer];
+                if (peer == device || before == after) {
+                    continue;
+                }
+                if (after == UNREACHABLE) {
+                    schedulePeerChanged(device, peer, MeshManager.REMOVED);
+                } else if (before == UNREACHABLE) {
+                    schedulePeerChanged(device, peer, MeshManager.ADDED);
+                } else {
+                    schedulePeerChanged(device, peer, MeshManager.UPDATED);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run an action at a later virtual time, e.g. to start a send part way through a run.
+     *
+     * @param delayMicros time from now, in microseconds
+     * @param action      what to do
+     */
+    public void schedule(long delayMicros, Runnable action) {
+        events.add(new Event(now + delayMicros, sequence++, action));
+    }
+
+    /**
+     * Process events until the network is idle.
+     *
+     * @return virtual time of the last event, in microseconds
+     */
+    public long run() {
+        return runUntil(Long.MAX_VALUE);
+    }
+
+    /**
+     * Process events up to a virtual time, leaving later ones queued.
+     *
+     * @param timeMicros time to stop at, in microseconds
+     * @return virtual time of the last event processed, in microseconds
+     */
+    public long runUntil(long timeMicros) {
+        while (!events.isEmpty() && events.peek().time <= timeMicros) {
+            Event event = events.poll();
+            now = event.time;
+            event.action.run();
+        }
+        return now;
+    }
+
+    /**
+     * Get the current virtual time.
+     *
+     * @return time since the simulation started, in microseconds
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Get the number of frames put on a link, retransmissions and relayed hops included.
+     *
+     * @return number of link transmissions
+     */
+    public long getTransmissions() {
+        return transmissions;
+    }
+
+    public long getRetransmissions() {
+        return retransmissions;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Get the number of payloads that reached their target device.
+     *
+     * @return number of DATA_RECEIVED events raised
+     */
+    public long getDeliveredCount() {
+        return delivered;
+    }
+
+    /**
+     * Get the number of payloads dropped on the way, after {@link #MAX_ATTEMPTS} losses on a link
+     * or because their route disappeared.
+     *
+     * @return number of payloads lost
+     */
+    public long getLostCount() {
+        return lost;
+    }
+
+    private AndroidMeshManager createManager(int device) throws RightMeshException {
+        AndroidMeshManager manager = mock(AndroidMeshManager.class);
+        doAnswer(invocation -> {
+            handlers.get(device).put(invocation.<Integer>getArgument(0),
+                    invocation.<MeshManager.RightMeshEventHandler>getArgument(1));
+            return null;
+        }).when(manager).on(anyInt(), any());
+        when(manager.getNextHopPeer(any())).thenAnswer(invocation ->
+                ids[route(device, invocation.getArgument(0))]);
+        when(manager.sendDataReliable(any(), anyInt(), any())).thenAnswer(invocation -> {
+            MeshId target = invocation.getArgument(0);
+            route(device, target);
+            byte[] payload = invocation.getArgument(2);
+            // The payload is copied, as it would be by the library, so callers may reuse it.
+            transmit(new Frame(device, indexes.get(target), payload.clone()), device, 1);
+            return 0;
+        });
+        return manager;
+    }
+
+    /**
+     * Look up the next hop from a device towards a target, as the library would.
+     *
+     * @return index of the next hop
+     * @throws RightMeshException if the target is unknown or unreachable
+     */
+    private int route(int device, MeshId target) throws RightMeshException {
+        Integer index = target == null ? null : indexes.get(target);
+        if (index == null || index == device || nextHop[device][index] == UNREACHABLE) {
+            throw new RightMeshException("No route to " + target);
+        }
+        return nextHop[device][index];
+    }
+
+    /**
+     * Put a frame on the link from a device towards the frame's target. The frame waits for any
+     * earlier frames on the link, then takes its serialization delay plus the link latency to
+     * arrive, unless it is lost.
+     */
+    private void transmit(Frame frame, int from, int attempt) {
+        int to = nextHop[from][frame.target];
+        if (to == UNREACHABLE) {
+            lost++;
+            return;
+        }
+        long key = linkKey(from, to);
+        LinkModel link = linkModel(key);
+        Long busy = busyUntil.get(key);
+        long sent = Math.max(now, busy == null ? 0 : busy) + link.transmitMicros(frame.data.length);
+        busyUntil.put(key, sent);
+        transmissions++;
+        bytesSent += frame.data.length;
+
+        if (random.nextDouble() < link.getLossRate()) {
+            if (attempt < MAX_ATTEMPTS) {
+                retransmissions++;
+                events.add(new Event(sent + link.retransmitTimeoutMicros(), sequence++,
+                        () -> transmit(frame, from, attempt + 1)));
+            } else {
+                lost++;
+            }
+            return;
+        }
+        events.add(new Event(sent + link.getLatencyMicros(), sequence++,
+                () -> arrive(frame, from, to)));
+    }
+
+    private void arrive(Frame frame, int from, int at) {
+        if (!isUp(from, at)) {
+            lost++;
+        } else if (at == frame.target) {
+            delivered++;
+            dispatch(at, MeshManager.DATA_RECEIVED,
+                    MeshEvents.dataReceived(ids[frame.source], frame.data));
+        } else {
+            transmit(frame, at, 1);
+        }
+    }
+
+    private void schedulePeerChanged(int device, int peer, int state) {
+        schedule(0, () -> dispatch(device, MeshManager.PEER_CHANGED,
+                MeshEvents.peerChanged(ids[peer], state)));
+    }
+
+    private void dispatch(int device, int type, MeshManager.RightMeshEvent event) {
+        MeshManager.RightMeshEventHandler handler = handlers.get(device).get(type);
+        if (handler != null) {
+            handler.handle(event);
+        }
+    }
+
+    private LinkModel linkModel(long key) {
+        LinkModel model = linkModels.get(key);
+        return model == null ? defaultLink : model;
+    }
+
+    private boolean isUp(int from, int to) {
+        return !downLinks.contains(linkKey(from, to));
+    }
+
+    private static long linkKey(int from, int to) {
+        return ((long) from << 32) | to;
+    }
+
+    /**
+     * Breadth first search from every device over the links that are up.
+     * {@code result[from][to]} is the neighbour of {@code from} on a shortest path to {@code to},
+     * or {@link #UNREACHABLE}.
+     */
+    private int[][] shortestPathNextHops() {
+        int size = size();
+        int[][] result = new int[size][];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int from = 0; from < size; from++) {
+            int[] hops = new int[size];
+            Arrays.fill(hops, UNREACHABLE);
+            hops[from] = from;
+            for (int neighbour : topology.getNeighbours(from)) {
+                if (hops[neighbour] == UNREACHABLE && isUp(from, neighbour)) {
+                    hops[neighbour] = neighbour;
+                    queue.add(neighbour);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int current = queue.poll();
+                for (int next : topology.getNeighbours(current)) {
+                    if (hops[next] == UNREACHABLE && isUp(current, next)) {
+                        hops[next] = hops[current];
+                        queue.add(next);
+                    }
+                }
+            }
+            result[from] = hops;
+        }
+        return result;
+    }
+
+    /**
+     * A payload on its way from a sending device to its target, possibly over several links.
+     */
+    private static final class Frame {
+        final int source;
+        final int target;
+        final byte[] data;
+
+        Frame(int source, int target, byte[] data) {
+            this.source = source;
+            this.target = target;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Something that happens at a virtual time. Events at the same time run in the order they
+     * were scheduled.
+     */
+    private static final class Event implements Comparable<Event> {
+        final long time;
+        final long order;
+        final Runnable action;
+
+        Event(long time, long order, Runnable action) {
+            this.time = time;
+            this.order = order;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package io.left.ripple.sim;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.left.rightmesh.android.AndroidMeshManager;
+import io.left.rightmesh.mesh.MeshManager;
+import io.left.rightmesh.util.RightMeshException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MeshSimulatorTest {
+    private static final int MESH_PORT = 9001;
+    private static final long LATENCY_US = 10_000;
+
+    @Test
+    public void sendDataReliable_routesOverShortestPath() throws RightMeshException {
+        MeshSimulator simulator = new MeshSimulator(Topology.line(4),
+                new LinkModel(LATENCY_US, 0, 0), 1);
+        List<MeshManager.RightMeshEvent> received = listen(simulator, 3,
+                MeshManager.DATA_RECEIVED);
+        byte[] payload = {1, 2, 3};
+
+        AndroidMeshManager manager = simulator.getMeshManager(0);
+        assertEquals(simulator.getId(1), manager.getNextHopPeer(simulator.getId(3)));
+        manager.sendDataReliable(simulator.getId(3), MESH_PORT, payload);
+        payload[0] = 9;
+
+        assertEquals(3 * LATENCY_US, simulator.run());
+        assertEquals(1, received.size());
+        assertSame(simulator.getId(0), received.get(0).peerUuid);
+        assertArrayEquals(new byte[] {1, 2, 3},
+                ((MeshManager.DataReceivedEvent) received.get(0)).data);
+        assertEquals(3, simulator.getTransmissions());
+        assertEquals(1, simulator.getDeliveredCount());
+    }
+
+    @Test
+    public void sendDataReliable_queuesBehindBusyLink() throws RightMeshException {
+        // 1000 bytes at 100 kB/s take 10 ms to send.
+        MeshSimulator simulator = new MeshSimulator(Topology.line(2),
+                new LinkModel(LATENCY_US, 0, 100_000), 1);
+        List<Long> arrivals = new ArrayList<>();
+        simulator.getMeshManager(1).on(MeshManager.DATA_RECEIVED,
+                event -> arrivals.add(simulator.now()));
+
+        AndroidMeshManager manager = simulator.getMeshManager(0);
+        manager.sendDataReliable(simulator.getId(1), MESH_PORT, new byte[1000]);
+        manager.sendDataReliable(simulator.getId(1), MESH_PORT, new byte[1000]);
+        simulator.run();
+
+        assertEquals(20_000L, (long) arrivals.get(0));
+        assertEquals(30_000L, (long) arrivals.get(1));
+        assertEquals(2000, simulator.getBytesSent());
+    }
+
+    @Test
+    public void sendDataReliable_retransmitsThenGivesUp() throws RightMeshException {
+        MeshSimulator simulator = new MeshSimulator(Topology.line(3),
+                new LinkModel(LATENCY_US, 0, 0), 1);
+        simulator.setLinkModel(1, 2, new LinkModel(LATENCY_US, 1, 0));
+        List<MeshManager.RightMeshEvent> received = listen(simulator, 2,
+                MeshManager.DATA_RECEIVED);
+
+        simulator.getMeshManager(0).sendDataReliable(simulator.getId(2), MESH_PORT, new byte[1]);
+        simulator.run();
+
+        assertTrue(received.isEmpty());
+        assertEquals(1 + MeshSimulator.MAX_ATTEMPTS, simulator.getTransmissions());
+        assertEquals(MeshSimulator.MAX_ATTEMPTS - 1, simulator.getRetransmissions());
+        assertEquals(1, simulator.getLostCount());
+    }
+
+    @Test
+    public void lossyLinks_sameSeedSameRun() throws RightMeshException {
+        assertEquals(lossyRun(7), lossyRun(7));
+    }
+
+    @Test(expected = RightMeshException.class)
+    public void sendDataReliable_unreachableTargetThrows() throws RightMeshException {
+        MeshSimulator simulator = new MeshSimulator(Topology.line(3), LinkModel.IDEAL, 1);
+        simulator.setLinkUp(1, 2, false);
+
+        simulator.getMeshManager(0).sendDataReliable(simulator.getId(2), MESH_PORT, new byte[1]);
+    }
+
+    @Test
+    public void setLinkUp_reportsPeerChanges() throws RightMeshException {
+        // 0 - 1 - 2 in a line, plus 3 linked to both 0 and 2.
+        List<int[]> links = new ArrayList<>();
+        links.add(new int[] {0, 1});
+        links.add(new int[] {1, 2});
+        links.add(new int[] {0, 3});
+        links.add(new int[] {3, 2});
+        MeshSimulator simulator = new MeshSimulator(new Topology(4, links), LinkModel.IDEAL, 1);
+        List<MeshManager.RightMeshEvent> events = listen(simulator, 1, MeshManager.PEER_CHANGED);
+
+        simulator.announcePeers();
+        simulator.run();
+        assertEquals(3, events.size());
+
+        events.clear();
+        simulator.setLinkUp(0, 1, false);
+        simulator.run();
+        // Device 1 now reaches 0 and 3 through 2.
+        assertEquals(2, events.size());
+        for (MeshManager.RightMeshEvent event : events) {
+            assertEquals(MeshManager.UPDATED, ((MeshManager.PeerChangedEvent) event).state);
+        }
+
+        events.clear();
+        simulator.setLinkUp(1, 2, false);
+        simulator.run();
+        assertEquals(3, events.size());
+        for (MeshManager.RightMeshEvent event : events) {
+            assertEquals(MeshManager.REMOVED, ((MeshManager.PeerChangedEvent) event).state);
+        }
+    }
+
+    private static long lossyRun(long seed) throws RightMeshException {
+        MeshSimulator simulator = new MeshSimulator(
+                Topology.randomGeometric(50, 0.3, new Random(seed)),
+                new LinkModel(LATENCY_US, 0.2, 250_000), seed);
+        for (int i = 1; i < simulator.size(); i++) {
+            simulator.getMeshManager(0).sendDataReliable(simulator.getId(i), MESH_PORT,
+                    new byte[100]);
+        }
+        return simulator.run() * 31 + simulator.getTransmissions();
+    }
+
+    private static List<MeshManager.RightMeshEvent> listen(MeshSimulator simulator, int device,
+                                                           int type) throws RightMeshException {
+        List<MeshManager.RightMeshEvent> events = new ArrayList<>();
+        simulator.getMeshManager(device).on(type, events::add);
+        return events;
+    }
+}
@@ -0,0 +1,136 @@
+package io.left.ripple.sim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Which simulated devices are within radio range of each other. Devices are numbered from 0 and
+ * every link is bidirectional.
+ */
+public final class Topology {
+    private final int size;
+    private final List<int[]> links;
+    private final List<List<Integer>> neighbours;
+
+    /**
+     * Constructor.
+     *
+     * @param size  number of devices
+     * @param links pairs of linked devices
+     */
+    public Topology(int size, List<int[]> links) {
+        this.size = size;
+        this.links = Collections.unmodifiableList(new ArrayList<>(links));
+        neighbours = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            neighbours.add(new ArrayList<>());
+        }
+        for (int[] link : links) {
+            if (link[0] == link[1] || link[0] >= size || link[1] >= size) {
+                throw new IllegalArgumentException("Bad link " + link[0] + "-" + link[1]);
+            }
+            neighbours.get(link[0]).add(link[1]);
+            neighbours.get(link[1]).add(link[0]);
+        }
+    }
+
+    /**
+     * Devices in a row, each linked to the one before and after it.
+     *
+     * @param size number of devices
+     * @return the topology
+     */
+    public static Topology line(int size) {
+        List<int[]> links = new ArrayList<>();
+        for (int i = 0; i + 1 < size; i++) {
+            links.add(new int[] {i, i + 1});
+        }
+        return new Topology(size, links);
+    }
+
+    /**
+     * Devices laid out on a grid, each linked to its horizontal and vertical neighbours. Device
+     * {@code y * width + x} is at column x of row y.
+     *
+     * @param width  devices per row
+     * @param height number of rows
+     * @return the topology
+     */
+    public static Topology grid(int width, int height) {
+        List<int[]> links = new ArrayList<>();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int device = y * width + x;
+                if (x + 1 < width) {
+                    links.add(new int[] {device, device + 1});
+                }
+                if (y + 1 < height) {
+                    links.add(new int[] {device, device + width});
+                }
+            }
+        }
+        return new Topology(width * height, links);
+    }
+
+    /**
+     * Devices at random positions in a unit square, linked when within radio range. A device out
+     * of range of every earlier device is linked to the nearest of them, so the mesh is always
+     * connected.
+     *
+     * @param size   number of devices
+     * @param radius radio range, as a fraction of the side of the square
+     * @param random source of positions, seeded for repeatable runs
+     * @return the topology
+     */
+    public static Topology randomGeometric(int size, double radius, Random random) {
+        double[] x = new double[size];
+        double[] y = new double[size];
+        List<int[]> links = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            x[i] = random.nextDouble();
+            y[i] = random.nextDouble();
+            boolean linked = false;
+            int nearest = -1;
+            double nearestDistance = Double.MAX_VALUE;
+            for (int j = 0; j < i; j++) {
+                double distance = Math.hypot(x[i] - x[j], y[i] - y[j]);
+                if (distance <= radius) {
+                    links.add(new int[] {j, i});
+                    linked = true;
+                } else if (distance < nearestDistance) {
+                    nearestDistance = distance;
+                    nearest = j;
+                }
+            }
+            if (!linked && nearest >= 0) {
+                links.add(new int[] {nearest, i});
+            }
+        }
+        return new Topology(size, links);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get every link, each listed once.
+     *
+     * @return pairs of linked devices
+     */
+    public List<int[]> getLinks() {
+        return links;
+    }
+
+    /**
+     * Get the devices within range of a device.
+     *
+     * @param device index of the device
+     * @return indexes of its neighbours
+     */
+    public List<Integer> getNeighbours(int device) {
+        return Collections.unmodifiableList(neighbours.get(device));
+    }
+}
@@ -0,0 +1,116 @@
+package io.left.ripple.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class EventPublisherTest {
+    private final EventPublisher<Integer> publisher =
+            new EventPublisher<>(2, EventPublisher.OverflowPolicy.DROP_OLDEST);
+
+    @Test
+    public void publish_deliversRequestedEventsToEverySubscriber() {
+        TestSubscriber<Integer> unbounded = new TestSubscriber<>(Long.MAX_VALUE);
+        TestSubscriber<Integer> one = new TestSubscriber<>(1);
+        publisher.publish(0);
+        publisher.subscribe(unbounded);
+        publisher.subscribe(one);
+
+        publisher.publish(1);
+        publisher.publish(2);
+
+        assertEquals(Arrays.asList(1, 2), unbounded.items);
+        assertEquals(Collections.singletonList(1), one.items);
+        one.subscription.request(5);
+        assertEquals(Arrays.asList(1, 2), one.items);
+    }
+
+    @Test
+    public void publish_overflowPolicies() {
+        TestSubscriber<Integer> dropOldest = new TestSubscriber<>(0);
+        TestSubscriber<Integer> dropLatest = new TestSubscriber<>(0);
+        TestSubscriber<Integer> error = new TestSubscriber<>(0);
+        publisher.subscribe(dropOldest);
+        publisher.subscribe(dropLatest, 2, EventPublisher.OverflowPolicy.DROP_LATEST);
+        publisher.subscribe(error, 2, EventPublisher.OverflowPolicy.ERROR);
+
+        for (int i = 1; i <= 3; i++) {
+            publisher.publish(i);
+        }
+        dropOldest.subscription.request(Long.MAX_VALUE);
+        dropLatest.subscription.request(Long.MAX_VALUE);
+
+        assertEquals(Arrays.asList(2, 3), dropOldest.items);
+        assertEquals(Arrays.asList(1, 2), dropLatest.items);
+        assertTrue(error.error instanceof IllegalStateException);
+        assertTrue(error.items.isEmpty());
+        assertEquals(3, publisher.getDroppedCount());
+        // The failed subscription is gone.
+        assertEquals(2, publisher.getSubscriberCount());
+    }
+
+    @Test
+    public void cancel_stopsDeliveryAndUnsubscribes() {
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>(Long.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        publisher.publish(1);
+
+        subscriber.subscription.cancel();
+        publisher.publish(2);
+
+        assertEquals(Collections.singletonList(1), subscriber.items);
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+
+    @Test
+    public void complete_afterBufferedEventsAreRequested() {
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>(0);
+        publisher.subscribe(subscriber);
+        publisher.publish(1);
+
+        publisher.complete();
+        assertFalse(subscriber.completed);
+        subscriber.subscription.request(1);
+
+        assertEquals(Collections.singletonList(1), subscriber.items);
+        assertTrue(subscriber.completed);
+        TestSubscriber<Integer> late = new TestSubscriber<>(0);
+        publisher.subscribe(late);
+        assertTrue(late.completed);
+    }
+
+    @Test
+    public void request_nonPositiveIsAnError() {
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>(0);
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void onNext_requestFromWithinIsNotReentrant() {
+        StringBuilder calls = new StringBuilder();
+        TestSubscriber<Integer> subscriber = new TestSubscriber<Integer>(0) {
+            @Override
+            public void onNext(Integer item) {
+                calls.append('[').append(item);
+                subscription.request(1);
+                calls.append(']');
+            }
+        };
+        publisher.subscribe(subscriber);
+        publisher.publish(1);
+        publisher.publish(2);
+
+        subscriber.subscription.request(1);
+
+        assertEquals("[1][2]", calls.toString());
+    }
+}
@@ -0,0 +1,122 @@
+package io.left.ripple.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class StreamsTest {
+    private static final long PERIOD_MS = 16;
+
+    private final EventPublisher<Integer> source =
+            new EventPublisher<>(8, EventPublisher.OverflowPolicy.DROP_OLDEST);
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> ticks;
+
+    /**
+     * Run before each test method.
+     */
+    @Before
+    public void setUp() {
+        scheduler = mock(ScheduledExecutorService.class);
+        ticks = mock(ScheduledFuture.class);
+        doReturn(ticks).when(scheduler).scheduleAtFixedRate(any(Runnable.class), anyLong(),
+                anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void sample_emitsLatestPerPeriod() {
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>(Long.MAX_VALUE);
+        Streams.sample(source, PERIOD_MS, scheduler).subscribe(subscriber);
+        Runnable tick = captureTick();
+
+        source.publish(1);
+        source.publish(2);
+        tick.run();
+        tick.run();
+        source.publish(3);
+        tick.run();
+
+        assertEquals(Arrays.asList(2, 3), subscriber.items);
+    }
+
+    @Test
+    public void sample_keepsLatestUntilRequested() {
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>(0);
+        Streams.sample(source, PERIOD_MS, scheduler).subscribe(subscriber);
+        Runnable tick = captureTick();
+
+        source.publish(1);
+        tick.run();
+        source.publish(2);
+        tick.run();
+        subscriber.subscription.request(1);
+
+        assertEquals(Collections.singletonList(2), subscriber.items);
+    }
+
+    @Test
+    public void batch_emitsFullListsAndTheRestOnTick() {
+        TestSubscriber<List<Integer>> subscriber = new TestSubscriber<>(Long.MAX_VALUE);
+        Streams.batch(source, 2, PERIOD_MS, scheduler).subscribe(subscriber);
+        Runnable tick = captureTick();
+
+        for (int i = 1; i <= 5; i++) {
+            source.publish(i);
+        }
+        tick.run();
+        tick.run();
+
+        assertEquals(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3, 4),
+                Collections.singletonList(5)), subscriber.items);
+    }
+
+    @Test
+    public void batch_flushedWhenSourceCompletes() {
+        TestSubscriber<List<Integer>> subscriber = new TestSubscriber<>(Long.MAX_VALUE);
+        Streams.batch(source, 10, PERIOD_MS, scheduler).subscribe(subscriber);
+        captureTick();
+
+        source.publish(1);
+        source.complete();
+
+        assertEquals(Collections.singletonList(Collections.singletonList(1)), subscriber.items);
+        assertTrue(subscriber.completed);
+        verify(ticks).cancel(false);
+    }
+
+    @Test
+    public void cancel_unsubscribesFromSource() {
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>(Long.MAX_VALUE);
+        Streams.sample(source, PERIOD_MS, scheduler).subscribe(subscriber);
+        captureTick();
+        assertEquals(1, source.getSubscriberCount());
+
+        subscriber.subscription.cancel();
+
+        assertEquals(0, source.getSubscriberCount());
+        verify(ticks).cancel(false);
+    }
+
+    private Runnable captureTick() {
+        ArgumentCaptor<Runnable> tick = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).scheduleAtFixedRate(tick.capture(), eq(PERIOD_MS), eq(PERIOD_MS),
+                eq(TimeUnit.MILLISECONDS));
+        return tick.getValue();
+    }
+}
@@ -0,0 +1,42 @@
+package io.left.ripple.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records what a {@link Publisher} sends, requesting an initial number of items.
+ */
+class TestSubscriber<T> implements Subscriber<T> {
+    final List<T> items = new ArrayList<>();
+    private final long initialRequest;
+    Subscription subscription;
+    Throwable error;
+    boolean completed;
+
+    TestSubscriber(long initialRequest) {
+        this.initialRequest = initialRequest;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        if (initialRequest > 0) {
+            subscription.request(initialRequest);
+        }
+    }
+
+    @Override
+    public void onNext(T item) {
+        items.add(item);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        this.error = error;
+    }
+
+    @Override
+    public void onComplete() {
+        completed = true;
+    }
+}
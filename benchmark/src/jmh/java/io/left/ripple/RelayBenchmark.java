@@ -0,0 +1,250 @@
+package io.left.ripple;
+
+import android.content.Context;
+
+import androidx.arch.core.executor.ArchTaskExecutor;
+import androidx.arch.core.executor.TaskExecutor;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.mesh.MeshManager;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.mesh.SendFuture;
+import io.left.ripple.message.ColourFrame;
+import io.left.ripple.message.MeshIdBytes;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The full receive path of a relay: a DATA_RECEIVED event goes through a real
+ * {@link MainViewModel} and {@link RightMeshConnector} until the frame is handed back to the
+ * RightMesh library for the next hop. The library is stubbed at the connector, and received
+ * messages are handled on the calling thread, so no worker thread or mock is on the measured
+ * path.
+ *
+ * {@link #forwardLegacyText()} is the relay as it was before cut-through forwarding, which decoded
+ * every message and encoded a new one, through the same connector, as a baseline for
+ * {@link #forwardText()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RelayBenchmark {
+    // Offsets of the ttl and sequence number in a version 2 frame.
+    private static final int TTL_OFFSET = 3;
+    private static final int SEQUENCE_OFFSET = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private StubConnector connector;
+    private StubConnector legacyConnector;
+    private MainViewModel viewModel;
+    private MeshManager.DataReceivedEvent forwarded;
+    private MeshManager.DataReceivedEvent forwardedText;
+    private MeshManager.DataReceivedEvent delivered;
+    private MeshManager.DataReceivedEvent duplicate;
+    private int sequence;
+
+    /**
+     * Set up a relay between an origin and a recipient, and one frame for each case.
+     */
+    @Setup
+    public void setUp() throws RightMeshException {
+        ArchTaskExecutor.getInstance().setDelegate(new DirectTaskExecutor());
+
+        MeshId relay = MeshId.fromString("0x2222222222222222222222222222222222222222");
+        MeshId origin = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        MeshId recipient = MeshId.fromString("0x3333333333333333333333333333333333333333");
+        byte[] originRaw = MeshIdBytes.toBytes(origin);
+
+        connector = new StubConnector();
+        viewModel = new MainViewModel(null);
+        viewModel.setRightMeshConnector(connector);
+        viewModel.init();
+        connector.connectSuccess.onConnectSuccess(relay);
+        // Measure the relay path of a release build, without tracing or rate limit drops. The
+        // loop check would drop every repeat of the text message after the first; its cost is
+        // that of dropDuplicate's check.
+        viewModel.getTracer().setEnabled(false);
+        viewModel.getOriginLimiter().setRate(0, 1);
+        viewModel.setRelayedLoopCheck(false);
+        legacyConnector = new StubConnector();
+        legacyConnector.addOnDataReceiveListener(
+                new LegacyRelay(legacyConnector, viewModel, relay));
+
+        forwarded = MeshEvents.dataReceived(origin, ColourFrame.encode(recipient, originRaw, 0,
+                ColourFrame.DEFAULT_TTL, Colour.GREEN));
+        delivered = MeshEvents.dataReceived(origin, ColourFrame.encode(relay, originRaw, 0,
+                ColourFrame.DEFAULT_TTL, Colour.GREEN));
+        forwardedText = MeshEvents.dataReceived(origin,
+                ColourFrame.encodeText(recipient, Colour.GREEN));
+        duplicate = MeshEvents.dataReceived(origin, ColourFrame.encode(recipient, originRaw, -1,
+                ColourFrame.DEFAULT_TTL, Colour.GREEN));
+        connector.handleDataReceived(duplicate);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ArchTaskExecutor.getInstance().setDelegate(null);
+    }
+
+    /**
+     * A new message for another device, forwarded unchanged apart from its ttl.
+     */
+    @Benchmark
+    public long forward() {
+        connector.handleDataReceived(renumber(forwarded));
+        return connector.sentBytes;
+    }
+
+    /**
+     * A legacy text message for another device, forwarded unchanged.
+     */
+    @Benchmark
+    public long forwardText() {
+        connector.handleDataReceived(forwardedText);
+        return connector.sentBytes;
+    }
+
+    /**
+     * The same text message, forwarded as relays did before cut-through forwarding.
+     */
+    @Benchmark
+    public long forwardLegacyText() {
+        legacyConnector.handleDataReceived(forwardedText);
+        return legacyConnector.sentBytes;
+    }
+
+    /**
+     * A new message for this device, which only changes the colour.
+     */
+    @Benchmark
+    public Colour deliver() {
+        connector.handleDataReceived(renumber(delivered));
+        return viewModel.liveDataColor.getValue();
+    }
+
+    /**
+     * A message already seen, dropped before any parsing beyond its header.
+     */
+    @Benchmark
+    public long dropDuplicate() {
+        connector.handleDataReceived(duplicate);
+        return connector.sentBytes;
+    }
+
+    /**
+     * Give a frame a sequence number not seen before and a full ttl, in place.
+     */
+    private MeshManager.DataReceivedEvent renumber(MeshManager.DataReceivedEvent event) {
+        event.data[TTL_OFFSET] = (byte) ColourFrame.DEFAULT_TTL;
+        ByteBuffer.wrap(event.data).putInt(SEQUENCE_OFFSET, ++sequence);
+        return event;
+    }
+
+    /**
+     * Connector that hands payloads to a stub library straight away, on the calling thread.
+     */
+    private static final class StubConnector extends RightMeshConnector {
+        private static final int MESH_PORT = 9001;
+
+        long sentBytes;
+        OnConnectSuccessListener connectSuccess;
+
+        StubConnector() {
+            super(MESH_PORT);
+        }
+
+        @Override
+        public void addOnConnectSuccessListener(OnConnectSuccessListener listener) {
+            super.addOnConnectSuccessListener(listener);
+            connectSuccess = listener;
+        }
+
+        @Override
+        public void connect(Context context) {
+            // Nothing to connect to.
+        }
+
+        @Override
+        boolean receiveAsync(MeshId sender, Runnable dispatch) {
+            dispatch.run();
+            return true;
+        }
+
+        @Override
+        public SendFuture sendLatestAsync(MeshId targetMeshId, byte[] payload) {
+            sentBytes += payload.length;
+            SendFuture future = new SendFuture();
+            future.complete();
+            return future;
+        }
+
+        @Override
+        public SendFuture relayLatestAsync(MeshId targetMeshId, byte[] payload) {
+            return sendLatestAsync(targetMeshId, payload);
+        }
+    }
+
+    /**
+     * The relay of a text message before cut-through forwarding: decode the recipient and the
+     * colour, then encode and send a new message.
+     */
+    private static final class LegacyRelay implements RightMeshConnector.OnDataReceiveListener {
+        private final RightMeshConnector connector;
+        private final MainViewModel viewModel;
+        private final MeshId localId;
+
+        LegacyRelay(RightMeshConnector connector, MainViewModel viewModel, MeshId localId) {
+            this.connector = connector;
+            this.viewModel = viewModel;
+            this.localId = localId;
+        }
+
+        @Override
+        public void onDataReceive(MeshManager.RightMeshEvent event) {
+            String data = new String(((MeshManager.DataReceivedEvent) event).data, UTF_8);
+            int separatorIndex = data.indexOf(':');
+            MeshId recipient;
+            try {
+                recipient = MeshId.fromString(data.substring(0, separatorIndex));
+            } catch (RightMeshException e) {
+                throw new IllegalStateException(e);
+            }
+            Colour colour = Colour.valueOf(data.substring(separatorIndex + 1));
+            if (!recipient.equals(localId)) {
+                connector.sendLatestAsync(recipient, ColourFrame.encodeText(recipient, colour));
+            }
+            viewModel.setColour(colour);
+        }
+    }
+
+    /**
+     * Runs LiveData work on the calling thread, as InstantTaskExecutorRule does in tests.
+     */
+    private static final class DirectTaskExecutor extends TaskExecutor {
+        @Override
+        public void executeOnDiskIO(Runnable runnable) {
+            runnable.run();
+        }
+
+        @Override
+        public void postToMainThread(Runnable runnable) {
+            runnable.run();
+        }
+
+        @Override
+        public boolean isMainThread() {
+            return true;
+        }
+    }
+}
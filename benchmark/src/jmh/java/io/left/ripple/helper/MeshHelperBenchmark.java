@@ -0,0 +1,34 @@
+package io.left.ripple.helper;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Shortening a {@link MeshId} for display, done for every peer shown in the recipient list.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MeshHelperBenchmark {
+    private MeshId id;
+
+    @Setup
+    public void setUp() throws RightMeshException {
+        id = MeshId.fromString("0x5c6d8e1f2a3b4c5d6e7f8091a2b3c4d5e6f70819");
+    }
+
+    @Benchmark
+    public String shortenMeshId() {
+        return MeshHelper.getInstance().shortenMeshId(id);
+    }
+}
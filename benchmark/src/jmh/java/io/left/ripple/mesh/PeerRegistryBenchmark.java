@@ -0,0 +1,80 @@
+package io.left.ripple.mesh;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.mesh.MeshManager;
+import io.left.rightmesh.util.RightMeshException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Peer lookups and changes behind the recipient list. {@code MeshIdAdapter.contains} and
+ * {@code getPosition}, and the recipient view adding and removing peers, all go straight to the
+ * {@link PeerRegistry}, which is measured here without an Android context.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PeerRegistryBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int peers;
+
+    private PeerRegistry registry;
+    private MeshId[] ids;
+    private MeshId stranger;
+    private int next;
+
+    /**
+     * Fill the registry with {@link #peers} peers.
+     */
+    @Setup
+    public void setUp() throws RightMeshException {
+        registry = new PeerRegistry();
+        ids = new MeshId[peers];
+        for (int i = 0; i < peers; i++) {
+            ids[i] = MeshId.fromString(String.format("0x%040x", i + 1));
+            registry.update(ids[i], MeshManager.ADDED);
+        }
+        stranger = MeshId.fromString(String.format("0x%040x", peers + 1));
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return registry.contains(nextId());
+    }
+
+    @Benchmark
+    public boolean containsUnknown() {
+        return registry.contains(stranger);
+    }
+
+    @Benchmark
+    public int indexOf() {
+        return registry.indexOf(nextId());
+    }
+
+    /**
+     * A peer leaving and joining again, which moves it to the end of the list.
+     */
+    @Benchmark
+    public int removeAndAdd() {
+        MeshId id = nextId();
+        registry.remove(id);
+        registry.update(id, MeshManager.ADDED);
+        return registry.size();
+    }
+
+    private MeshId nextId() {
+        MeshId id = ids[next];
+        next = next + 1 == ids.length ? 0 : next + 1;
+        return id;
+    }
+}
@@ -0,0 +1,87 @@
+package io.left.ripple.message;
+
+import io.left.rightmesh.id.MeshId;
+import io.left.rightmesh.util.RightMeshException;
+import io.left.ripple.Colour;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encoding done by {@code MainViewModel.sendColorMsg} and decoding done by
+ * {@code MainViewModel.receiveColourMessage}, for the binary and the legacy text formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ColourFrameBenchmark {
+    private static final int ID_CACHE_SIZE = 256;
+
+    private MeshId recipient;
+    private byte[] originRaw;
+    private int sequence;
+
+    private byte[] binaryFrame;
+    private byte[] textFrame;
+    private ColourMessageReader reader;
+
+    /**
+     * Encode one frame of each format, and set up a reader as a relay would.
+     */
+    @Setup
+    public void setUp() throws RightMeshException {
+        recipient = MeshId.fromString("0x5c6d8e1f2a3b4c5d6e7f8091a2b3c4d5e6f70819");
+        MeshId origin = MeshId.fromString("0x1111111111111111111111111111111111111111");
+        originRaw = MeshIdBytes.toBytes(origin);
+
+        binaryFrame = ColourFrame.encode(recipient, originRaw, 1, ColourFrame.DEFAULT_TTL,
+                Colour.GREEN);
+        textFrame = ColourFrame.encodeText(recipient, Colour.GREEN);
+        reader = new ColourMessageReader(MeshIdCache.forRawIds(ID_CACHE_SIZE),
+                MeshIdCache.forTextIds(ID_CACHE_SIZE));
+        reader.setLocalId(origin);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return ColourFrame.encode(recipient, originRaw, sequence++, ColourFrame.DEFAULT_TTL,
+                Colour.GREEN);
+    }
+
+    @Benchmark
+    public byte[] encodeText() {
+        return ColourFrame.encodeText(recipient, Colour.GREEN);
+    }
+
+    @Benchmark
+    public Colour readBinary() {
+        return readColour(binaryFrame);
+    }
+
+    @Benchmark
+    public Colour readText() {
+        return readColour(textFrame);
+    }
+
+    /**
+     * The allocating decoder, for comparison with the reader used on the receive path.
+     */
+    @Benchmark
+    public ColourMessage decodeBinary() throws FrameFormatException {
+        return ColourFrame.decode(binaryFrame);
+    }
+
+    private Colour readColour(byte[] frame) {
+        if (!reader.readHeader(frame) || !reader.resolveRecipient()) {
+            throw new IllegalStateException("Frame did not parse");
+        }
+        return reader.readColour();
+    }
+}